@@ -1,10 +1,13 @@
 package com.limelight;
 
 
+import com.limelight.binding.AvSyncMonitor;
 import com.limelight.binding.PlatformBinding;
 import com.limelight.binding.audio.AndroidAudioRenderer;
 import com.limelight.binding.input.ControllerHandler;
+import com.limelight.binding.input.KeyboardModifierTracker;
 import com.limelight.binding.input.KeyboardTranslator;
+import com.limelight.binding.input.RelativeMotionPipeline;
 import com.limelight.binding.input.capture.InputCaptureManager;
 import com.limelight.binding.input.capture.InputCaptureProvider;
 import com.limelight.binding.input.touch.AbsoluteTouchContext;
@@ -12,6 +15,7 @@ import com.limelight.binding.input.touch.RelativeTouchContext;
 import com.limelight.binding.input.driver.UsbDriverService;
 import com.limelight.binding.input.evdev.EvdevListener;
 import com.limelight.binding.input.touch.TouchContext;
+import com.limelight.binding.input.virtual_controller.MotionSensorHub;
 import com.limelight.binding.input.virtual_controller.VirtualController;
 import com.limelight.binding.video.CrashListener;
 import com.limelight.binding.video.MediaCodecDecoderRenderer;
@@ -20,14 +24,19 @@ import com.limelight.binding.video.PerfOverlayListener;
 import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.NvConnectionListener;
 import com.limelight.nvstream.StreamConfiguration;
+import com.limelight.nvstream.av.StreamRecorder;
 import com.limelight.nvstream.http.ComputerDetails;
 import com.limelight.nvstream.http.NvApp;
+import com.limelight.nvstream.input.InputLatencyTracker;
 import com.limelight.nvstream.input.KeyboardPacket;
 import com.limelight.nvstream.input.MouseButtonPacket;
 import com.limelight.nvstream.jni.MoonBridge;
 import com.limelight.preferences.GlPreferences;
 import com.limelight.preferences.PreferenceConfiguration;
+import com.limelight.preferences.StreamHistoryPreferences;
+import com.limelight.preferences.StreamSettingsRecommender;
 import com.limelight.ui.GameGestures;
+import com.limelight.ui.LocalCursorOverlay;
 import com.limelight.ui.StreamView;
 import com.limelight.utils.Dialog;
 import com.limelight.utils.NetHelper;
@@ -63,6 +72,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Rational;
 import android.view.Display;
 import android.view.InputDevice;
@@ -82,6 +92,8 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.security.cert.CertificateException;
@@ -96,6 +108,7 @@ public class Game extends Activity implements SurfaceHolder.Callback,
     PerfOverlayListener, UsbDriverService.UsbDriverStateListener
 {
     private int lastButtonState = 0;
+    private final RelativeMotionPipeline relativeMotionPipeline = new RelativeMotionPipeline();
 
     // Only 2 touches are supported
     private final TouchContext[] touchContextMap = new TouchContext[2];
@@ -132,7 +145,7 @@ public class Game extends Activity implements SurfaceHolder.Callback,
     private String appName;
 
     private InputCaptureProvider inputCaptureProvider;
-    private int modifierFlags = 0;
+    private final KeyboardModifierTracker modifierTracker = new KeyboardModifierTracker();
     private boolean grabbedInput = true;
     private boolean grabComboDown = false;
     private StreamView streamView;
@@ -145,10 +158,14 @@ public class Game extends Activity implements SurfaceHolder.Callback,
     private TextView notificationOverlayView;
     private int requestedNotificationOverlayVisibility = View.GONE;
     private TextView performanceOverlayView;
+    private LocalCursorOverlay localCursorOverlay;
 
     private ShortcutHelper shortcutHelper;
 
     private MediaCodecDecoderRenderer decoderRenderer;
+    private AvSyncMonitor avSyncMonitor;
+    private StreamRecorder streamRecorder;
+    private String networkKey;
     private boolean reportedCrash;
 
     private WifiManager.WifiLock highPerfWifiLock;
@@ -171,8 +188,7 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         }
     };
 
-    private static SensorManager sensorManager;
-    private static Sensor rotationVectorSensor;
+    private MotionSensorHub sensorHub;
     private static boolean useGyro = false;
 
     public static final String EXTRA_HOST = "Host";
@@ -224,6 +240,10 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         prefConfig = PreferenceConfiguration.readPreferences(this);
         tombstonePrefs = Game.this.getSharedPreferences("DecoderTombstone", 0);
 
+        if (prefConfig.recommendStreamSettings) {
+            applyRecommendedStreamSettings();
+        }
+
         // Enter landscape unless we're on a square screen
         setPreferredOrientationForCurrentDisplay();
 
@@ -406,6 +426,10 @@ public class Game extends Activity implements SurfaceHolder.Callback,
                 glPrefs.glRenderer,
                 this);
 
+        // Shared by the audio and video renderers to measure and correct A/V skew
+        avSyncMonitor = new AvSyncMonitor(prefConfig.avSyncCorrection);
+        decoderRenderer.setAvSyncMonitor(avSyncMonitor);
+
         // Don't stream HDR if the decoder can't support it
         if (willStreamHdr && !decoderRenderer.isHevcMain10Hdr10Supported()) {
             willStreamHdr = false;
@@ -482,23 +506,30 @@ public class Game extends Activity implements SurfaceHolder.Callback,
                 .build();
 
         // Initialize the connection
-        conn = new NvConnection(host, uniqueId, config, PlatformBinding.getCryptoProvider(this), serverCert, needsInputBatching);
+        conn = new NvConnection(host, uniqueId, config, PlatformBinding.getCryptoProvider(this), serverCert, needsInputBatching, prefConfig.mouseBatchRateHz);
         controllerHandler = new ControllerHandler(this, conn, this, prefConfig);
+        decoderRenderer.setInputLatencyTracker(conn.getInputLatencyTracker());
         keyboardTranslator = new KeyboardTranslator();
 
         InputManager inputManager = (InputManager) getSystemService(Context.INPUT_SERVICE);
         inputManager.registerInputDeviceListener(controllerHandler, null);
         inputManager.registerInputDeviceListener(keyboardTranslator, null);
 
+        if (prefConfig.localCursorPrediction) {
+            localCursorOverlay = findViewById(R.id.localCursorOverlay);
+            localCursorOverlay.setStreamView(streamView, prefConfig.width, prefConfig.height, chosenFrameRate);
+            localCursorOverlay.setVisibility(View.VISIBLE);
+        }
+
         // Initialize touch contexts
         for (int i = 0; i < touchContextMap.length; i++) {
             if (!prefConfig.touchscreenTrackpad) {
-                touchContextMap[i] = new AbsoluteTouchContext(conn, i, streamView);
+                touchContextMap[i] = new AbsoluteTouchContext(conn, i, streamView, localCursorOverlay);
             }
             else {
                 touchContextMap[i] = new RelativeTouchContext(conn, i,
                         REFERENCE_HORIZ_RES, REFERENCE_VERT_RES,
-                        streamView, prefConfig);
+                        streamView, prefConfig, localCursorOverlay);
             }
         }
 
@@ -509,14 +540,14 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         }
 
         if (prefConfig.onscreenController) {
-            // Setup rotation sensor
-            sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
-            rotationVectorSensor = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+            // Setup the motion sensor shared by sensor-driven elements
+            SensorManager sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
+            sensorHub = new MotionSensorHub(sensorManager, sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE));
 
             // create virtual onscreen controller
             virtualController = new VirtualController(controllerHandler,
                     (FrameLayout)streamView.getParent(),
-                    this);
+                    this, sensorHub);
             virtualController.refreshLayout();
             virtualController.show();
         }
@@ -759,7 +790,7 @@ public class Game extends Activity implements SurfaceHolder.Callback,
 
         // We can't guarantee the state of modifiers keys which may have
         // lifted while focus was not on us. Clear the modifier state.
-        this.modifierFlags = 0;
+        modifierTracker.reset();
 
         // With Android native pointer capture, capture is lost when focus is lost,
         // so it must be requested again when focus is regained.
@@ -1068,6 +1099,11 @@ public class Game extends Activity implements SurfaceHolder.Callback,
 
         // Destroy the capture provider
         inputCaptureProvider.destroy();
+
+        if (sensorHub != null) {
+            sensorHub.release();
+            sensorHub = null;
+        }
     }
 
     @Override
@@ -1081,11 +1117,27 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             virtualController.hide();
         }
 
+        // Stop sensor updates while we're in the background
+        if (sensorHub != null) {
+            sensorHub.setActive(false);
+        }
+
         if (conn != null) {
             int videoFormat = decoderRenderer.getActiveVideoFormat();
 
+            // The RTT estimate goes away with the connection
+            long rttInfo = connected ? MoonBridge.getEstimatedRttInfo() : -1;
+
             displayedFailureDialog = true;
             stopConnection();
+            stopStreamRecording();
+
+            if (prefConfig.recommendStreamSettings) {
+                saveStreamHistory(rttInfo);
+            }
+
+            LimeLog.info("Session video latency:\n"+decoderRenderer.getSessionLatencySummary());
+            LimeLog.info(relativeMotionPipeline.getStatistics());
 
             if (prefConfig.enableLatencyToast) {
                 int averageEndToEndLat = decoderRenderer.getAverageEndToEndLatency();
@@ -1147,32 +1199,11 @@ public class Game extends Activity implements SurfaceHolder.Callback,
 
     // Returns true if the key stroke was consumed
     private boolean handleSpecialKeys(int androidKeyCode, boolean down) {
-        int modifierMask = 0;
-
-        if (androidKeyCode == KeyEvent.KEYCODE_CTRL_LEFT ||
-            androidKeyCode == KeyEvent.KEYCODE_CTRL_RIGHT) {
-            modifierMask = KeyboardPacket.MODIFIER_CTRL;
-        }
-        else if (androidKeyCode == KeyEvent.KEYCODE_SHIFT_LEFT ||
-                 androidKeyCode == KeyEvent.KEYCODE_SHIFT_RIGHT) {
-            modifierMask = KeyboardPacket.MODIFIER_SHIFT;
-        }
-        else if (androidKeyCode == KeyEvent.KEYCODE_ALT_LEFT ||
-                 androidKeyCode == KeyEvent.KEYCODE_ALT_RIGHT) {
-            modifierMask = KeyboardPacket.MODIFIER_ALT;
-        }
-
-        if (down) {
-            this.modifierFlags |= modifierMask;
-        }
-        else {
-            this.modifierFlags &= ~modifierMask;
-        }
+        modifierTracker.onKey(androidKeyCode, down);
 
         // Check if Ctrl+Shift+Z is pressed
         if (androidKeyCode == KeyEvent.KEYCODE_Z &&
-            (modifierFlags & (KeyboardPacket.MODIFIER_CTRL | KeyboardPacket.MODIFIER_SHIFT)) ==
-                (KeyboardPacket.MODIFIER_CTRL | KeyboardPacket.MODIFIER_SHIFT))
+            modifierTracker.isPressed(KeyboardPacket.MODIFIER_CTRL | KeyboardPacket.MODIFIER_SHIFT))
         {
             if (down) {
                 // Now that we've pressed the magic combo
@@ -1206,37 +1237,54 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         return false;
     }
 
-    // We cannot simply use modifierFlags for all key event processing, because
-    // some IMEs will not generate real key events for pressing Shift. Instead
-    // they will simply send key events with isShiftPressed() returning true,
-    // and we will need to send the modifier flag ourselves.
-    private byte getModifierState(KeyEvent event) {
-        // Start with the global modifier state to ensure we cover the case
-        // detailed in https://github.com/moonlight-stream/moonlight-android/issues/840
-        byte modifier = getModifierState();
-        if (event.isShiftPressed()) {
-            modifier |= KeyboardPacket.MODIFIER_SHIFT;
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        return handleKeyDown(event) || super.onKeyDown(keyCode, event);
+    }
+
+    private static int getInputLatencyPath(KeyEvent event) {
+        int eventSource = event.getSource();
+        if (eventSource == InputDevice.SOURCE_MOUSE || eventSource == InputDevice.SOURCE_MOUSE_RELATIVE) {
+            return InputLatencyTracker.PATH_MOUSE;
         }
-        if (event.isCtrlPressed()) {
-            modifier |= KeyboardPacket.MODIFIER_CTRL;
+        else if (ControllerHandler.isGameControllerDevice(event.getDevice())) {
+            return InputLatencyTracker.PATH_GAMEPAD;
         }
-        if (event.isAltPressed()) {
-            modifier |= KeyboardPacket.MODIFIER_ALT;
+        else {
+            return InputLatencyTracker.PATH_KEYBOARD;
         }
-        return modifier;
     }
 
-    private byte getModifierState() {
-        return (byte) modifierFlags;
+    private static int getInputLatencyPath(MotionEvent event) {
+        int eventSource = event.getSource();
+        if ((eventSource & InputDevice.SOURCE_CLASS_JOYSTICK) != 0) {
+            return InputLatencyTracker.PATH_GAMEPAD;
+        }
+        else if ((eventSource & InputDevice.SOURCE_TOUCHSCREEN) == InputDevice.SOURCE_TOUCHSCREEN) {
+            return InputLatencyTracker.PATH_TOUCH;
+        }
+        else {
+            return InputLatencyTracker.PATH_MOUSE;
+        }
     }
 
     @Override
-    public boolean onKeyDown(int keyCode, KeyEvent event) {
-        return handleKeyDown(event) || super.onKeyDown(keyCode, event);
+    public boolean handleKeyDown(KeyEvent event) {
+        // Time anything this key sends from when it was pressed
+        // There's no connection if onCreate() bailed out early
+        if (conn == null) {
+            return handleKeyDownEvent(event);
+        }
+
+        conn.beginInputBatch(getInputLatencyPath(event), event.getEventTime());
+        try {
+            return handleKeyDownEvent(event);
+        } finally {
+            conn.endInputBatch();
+        }
     }
 
-    @Override
-    public boolean handleKeyDown(KeyEvent event) {
+    private boolean handleKeyDownEvent(KeyEvent event) {
         // Pass-through virtual navigation keys
         if ((event.getFlags() & KeyEvent.FLAG_VIRTUAL_HARD_KEY) != 0) {
             return false;
@@ -1292,7 +1340,7 @@ public class Game extends Activity implements SurfaceHolder.Callback,
                 return false;
             }
 
-            byte modifiers = getModifierState(event);
+            byte modifiers = modifierTracker.getState(event);
             if (KeyboardTranslator.needsShift(event.getKeyCode())) {
                 modifiers |= KeyboardPacket.MODIFIER_SHIFT;
             }
@@ -1309,6 +1357,21 @@ public class Game extends Activity implements SurfaceHolder.Callback,
 
     @Override
     public boolean handleKeyUp(KeyEvent event) {
+        // Time anything this key sends from when it was released
+        // There's no connection if onCreate() bailed out early
+        if (conn == null) {
+            return handleKeyUpEvent(event);
+        }
+
+        conn.beginInputBatch(getInputLatencyPath(event), event.getEventTime());
+        try {
+            return handleKeyUpEvent(event);
+        } finally {
+            conn.endInputBatch();
+        }
+    }
+
+    private boolean handleKeyUpEvent(KeyEvent event) {
         // Pass-through virtual navigation keys
         if ((event.getFlags() & KeyEvent.FLAG_VIRTUAL_HARD_KEY) != 0) {
             return false;
@@ -1356,7 +1419,7 @@ public class Game extends Activity implements SurfaceHolder.Callback,
                 return false;
             }
 
-            byte modifiers = getModifierState(event);
+            byte modifiers = modifierTracker.getState(event);
             if (KeyboardTranslator.needsShift(event.getKeyCode())) {
                 modifiers |= KeyboardPacket.MODIFIER_SHIFT;
             }
@@ -1391,6 +1454,24 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             return false;
         }
 
+        // A single motion event can produce many input events (historical mouse
+        // samples, multiple touches, controller axes), so send them all at once,
+        // timed from when the event happened.
+        // There's no connection if onCreate() bailed out early
+        if (conn == null) {
+            return handleGrabbedMotionEvent(view, event);
+        }
+
+        conn.beginInputBatch(getInputLatencyPath(event), event.getEventTime());
+        try {
+            return handleGrabbedMotionEvent(view, event);
+        } finally {
+            conn.endInputBatch();
+        }
+    }
+
+    private boolean handleGrabbedMotionEvent(View view, MotionEvent event) {
+
         int eventSource = event.getSource();
         if ((eventSource & InputDevice.SOURCE_CLASS_JOYSTICK) != 0) {
             if (controllerHandler.handleMotionEvent(event)) {
@@ -1435,6 +1516,9 @@ public class Game extends Activity implements SurfaceHolder.Callback,
 
                 // Ignore mouse input if we're not capturing from our input source
                 if (!inputCaptureProvider.isCapturingActive()) {
+                    // Don't apply leftover sub-pixel motion when capture resumes
+                    relativeMotionPipeline.reset();
+
                     // We return true here because otherwise the events may end up causing
                     // Android to synthesize d-pad events.
                     return true;
@@ -1444,9 +1528,20 @@ public class Game extends Activity implements SurfaceHolder.Callback,
                 // dealing with a stylus without hover support, our position might be
                 // significantly different than before.
                 if (inputCaptureProvider.eventHasRelativeMouseAxes(event)) {
-                    // Send the deltas straight from the motion event
-                    short deltaX = (short)inputCaptureProvider.getRelativeAxisX(event);
-                    short deltaY = (short)inputCaptureProvider.getRelativeAxisY(event);
+                    // High-rate mice batch several samples into each event, so include
+                    // all of them. Fractional motion is carried over to the next event.
+                    for (int i = 0; i < event.getHistorySize(); i++) {
+                        relativeMotionPipeline.addSample(inputCaptureProvider.getHistoricalRelativeAxisX(event, i),
+                                inputCaptureProvider.getHistoricalRelativeAxisY(event, i),
+                                event.getHistoricalEventTime(i));
+                    }
+                    relativeMotionPipeline.addSample(inputCaptureProvider.getRelativeAxisX(event),
+                            inputCaptureProvider.getRelativeAxisY(event),
+                            event.getEventTime());
+                    relativeMotionPipeline.endEvent();
+
+                    short deltaX = relativeMotionPipeline.takeDeltaX();
+                    short deltaY = relativeMotionPipeline.takeDeltaY();
 
                     if (deltaX != 0 || deltaY != 0) {
                         if (prefConfig.absoluteMouseMode) {
@@ -1810,6 +1905,77 @@ public class Game extends Activity implements SurfaceHolder.Callback,
     public void stageComplete(String stage) {
     }
 
+    private void applyRecommendedStreamSettings() {
+        String uuid = getIntent().getStringExtra(EXTRA_PC_UUID);
+        if (uuid == null) {
+            return;
+        }
+
+        networkKey = NetHelper.getActiveNetworkKey(this);
+        StreamSettingsRecommender.Recommendation recommendation = StreamSettingsRecommender.recommend(
+                StreamHistoryPreferences.readPreferences(this).getSessions(uuid, networkKey),
+                prefConfig.width, prefConfig.height, prefConfig.fps, prefConfig.bitrate);
+
+        LimeLog.info("Recommended stream settings for "+networkKey+": "+recommendation);
+
+        prefConfig.width = recommendation.width;
+        prefConfig.height = recommendation.height;
+        prefConfig.fps = recommendation.fps;
+        prefConfig.bitrate = recommendation.bitrateKbps;
+    }
+
+    private void saveStreamHistory(long rttInfo) {
+        String uuid = getIntent().getStringExtra(EXTRA_PC_UUID);
+        if (uuid == null || networkKey == null) {
+            return;
+        }
+
+        StreamSettingsRecommender.Session session = new StreamSettingsRecommender.Session();
+        session.timestamp = System.currentTimeMillis();
+        session.width = prefConfig.width;
+        session.height = prefConfig.height;
+        session.fps = prefConfig.fps;
+        session.bitrateKbps = prefConfig.bitrate;
+        session.totalFrames = decoderRenderer.getTotalFrames();
+        session.framesLost = decoderRenderer.getFramesLost();
+        session.decoderLatencyMs = decoderRenderer.getAverageDecoderLatency();
+        if (rttInfo != -1) {
+            session.rttMs = (int)(rttInfo >> 32);
+            session.rttVarianceMs = (int)rttInfo;
+        }
+        session.inputLatencyMs = conn.getInputLatencyTracker().getSessionPercentile(0.95f);
+
+        if (session.isSignificant()) {
+            StreamHistoryPreferences.readPreferences(this).addSession(uuid, networkKey, session);
+        }
+    }
+
+    private void startStreamRecording() {
+        if (!prefConfig.recordStream) {
+            return;
+        }
+
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+
+        try {
+            streamRecorder = new StreamRecorder(new File(dir, "stream-"+System.currentTimeMillis()+".mlrec"));
+            MoonBridge.setStreamRecorder(streamRecorder);
+        } catch (IOException e) {
+            // Streaming without a recording is better than not streaming at all
+            e.printStackTrace();
+        }
+    }
+
+    private void stopStreamRecording() {
+        if (streamRecorder != null) {
+            streamRecorder.close();
+            streamRecorder = null;
+        }
+    }
+
     private void stopConnection() {
         if (connecting || connected) {
             connecting = connected = false;
@@ -2062,7 +2228,8 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             UiHelper.notifyStreamConnecting(Game.this);
 
             decoderRenderer.setRenderTarget(holder);
-            conn.start(new AndroidAudioRenderer(Game.this, prefConfig.enableAudioFx),
+            startStreamRecording();
+            conn.start(new AndroidAudioRenderer(Game.this, prefConfig.enableAudioFx, avSyncMonitor),
                     decoderRenderer, Game.this);
         }
     }
@@ -2147,14 +2314,29 @@ public class Game extends Activity implements SurfaceHolder.Callback,
             }
 
             if (buttonDown) {
-                conn.sendKeyboardInput(keyMap, KeyboardPacket.KEY_DOWN, getModifierState());
+                conn.sendKeyboardInput(keyMap, KeyboardPacket.KEY_DOWN, modifierTracker.getState());
             }
             else {
-                conn.sendKeyboardInput(keyMap, KeyboardPacket.KEY_UP, getModifierState());
+                conn.sendKeyboardInput(keyMap, KeyboardPacket.KEY_UP, modifierTracker.getState());
             }
         }
     }
 
+    @Override
+    public void beginEventBatch() {
+        // Evdev events are timed from when they were read, since that's the same clock
+        if (conn != null) {
+            conn.beginInputBatch(InputLatencyTracker.PATH_EVDEV, SystemClock.uptimeMillis());
+        }
+    }
+
+    @Override
+    public void endEventBatch() {
+        if (conn != null) {
+            conn.endInputBatch();
+        }
+    }
+
     @Override
     public void onSystemUiVisibilityChange(int visibility) {
         // Don't do anything if we're not connected
@@ -2202,14 +2384,6 @@ public class Game extends Activity implements SurfaceHolder.Callback,
         updatePipAutoEnter();
     }
 
-    public static SensorManager getSensorManager() {
-        return sensorManager;
-    }
-
-    public static Sensor getRotationVectorSensor() {
-        return rotationVectorSensor;
-    }
-
     public static boolean isUseGyro() {
         return useGyro;
     }
@@ -0,0 +1,103 @@
+package com.limelight.binding;
+
+// Estimates how long audio and video each take from arriving at the client until they
+// are played out, and the resulting skew between them. All delays are measured against
+// the monotonic clock that SystemClock.uptimeMillis() and System.nanoTime() share.
+//
+// Video delay is from the frame being fully received until it's released for display.
+// Audio delay is from the samples being decoded (which happens as they are received)
+// until AudioTrack reports them being presented.
+//
+// Each report method must only be called from a single thread.
+public class AvSyncMonitor {
+    // Skew within this bound is not corrected
+    public static final int SYNC_BOUND_MS = 20;
+
+    // How far we'll delay audio to match video
+    static final int MAX_AUDIO_OFFSET_US = 100000;
+
+    // How much the audio offset moves per correction
+    static final int OFFSET_STEP_US = 2000;
+
+    private final boolean correctionEnabled;
+
+    // Smoothed delays in microseconds, or -1 if we haven't measured yet
+    private volatile long videoDecodeDelayUs = -1;
+    private volatile long videoPresentDelayUs = -1;
+    private volatile long audioDelayUs = -1;
+
+    private volatile long audioOffsetUs;
+
+    public AvSyncMonitor(boolean correctionEnabled) {
+        this.correctionEnabled = correctionEnabled;
+    }
+
+    private static long smooth(long oldValue, long newValue) {
+        return oldValue < 0 ? newValue : oldValue + (newValue - oldValue) / 16;
+    }
+
+    // Called when a decoded video frame is output. This time is when it was fully received.
+    public void reportVideoDecodeDelay(long delayMs) {
+        if (delayMs >= 0 && delayMs < 1000) {
+            videoDecodeDelayUs = smooth(videoDecodeDelayUs, delayMs * 1000);
+        }
+    }
+
+    // Called when a decoded video frame is released for display
+    public void reportVideoPresentDelay(long delayMs) {
+        if (delayMs >= 0 && delayMs < 1000) {
+            videoPresentDelayUs = smooth(videoPresentDelayUs, delayMs * 1000);
+        }
+    }
+
+    // Called periodically by the audio renderer with the current playout delay
+    public void reportAudioDelay(long delayUs) {
+        if (delayUs >= 0 && delayUs < 1000000) {
+            audioDelayUs = smooth(audioDelayUs, delayUs);
+        }
+    }
+
+    public boolean hasMeasurements() {
+        return videoDecodeDelayUs >= 0 && videoPresentDelayUs >= 0 && audioDelayUs >= 0;
+    }
+
+    public long getVideoDelayUs() {
+        return Math.max(0, videoDecodeDelayUs) + Math.max(0, videoPresentDelayUs);
+    }
+
+    public long getAudioDelayUs() {
+        return Math.max(0, audioDelayUs);
+    }
+
+    // Positive if audio is played later than the matching video
+    public long getSkewUs() {
+        return getAudioDelayUs() - getVideoDelayUs();
+    }
+
+    // Returns the extra delay the audio renderer should add to keep audio in sync with video.
+    // This changes gradually, so it should be called at a steady rate (around 10 Hz).
+    public long updateAudioOffsetUs() {
+        if (!correctionEnabled || !hasMeasurements()) {
+            return 0;
+        }
+
+        long skewUs = getSkewUs();
+        long offsetUs = audioOffsetUs;
+
+        if (skewUs < -SYNC_BOUND_MS * 1000) {
+            // Audio is ahead of video, so hold it back a bit more
+            offsetUs = Math.min(MAX_AUDIO_OFFSET_US, offsetUs + OFFSET_STEP_US);
+        }
+        else if (skewUs > SYNC_BOUND_MS * 1000) {
+            // Audio is behind video. We can only undo delay we've added ourselves.
+            offsetUs = Math.max(0, offsetUs - OFFSET_STEP_US);
+        }
+
+        audioOffsetUs = offsetUs;
+        return offsetUs;
+    }
+
+    public long getAudioOffsetUs() {
+        return audioOffsetUs;
+    }
+}
@@ -10,6 +10,7 @@ import android.media.audiofx.AudioEffect;
 import android.os.Build;
 
 import com.limelight.LimeLog;
+import com.limelight.binding.AvSyncMonitor;
 import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.jni.MoonBridge;
 
@@ -17,12 +18,16 @@ public class AndroidAudioRenderer implements AudioRenderer {
 
     private final Context context;
     private final boolean enableAudioFx;
+    private final AvSyncMonitor avSyncMonitor;
 
     private AudioTrack track;
+    private NonBlockingAudioWriter writer;
+    private AudioDownmixer downmixer;
 
-    public AndroidAudioRenderer(Context context, boolean enableAudioFx) {
+    public AndroidAudioRenderer(Context context, boolean enableAudioFx, AvSyncMonitor avSyncMonitor) {
         this.context = context;
         this.enableAudioFx = enableAudioFx;
+        this.avSyncMonitor = avSyncMonitor;
     }
 
     private AudioTrack createAudioTrack(int channelConfig, int sampleRate, int bufferSize, boolean lowLatency) {
@@ -74,47 +79,7 @@ public class AndroidAudioRenderer implements AudioRenderer {
         }
     }
 
-    @Override
-    public int setup(MoonBridge.AudioConfiguration audioConfiguration, int sampleRate, int samplesPerFrame) {
-        int channelConfig;
-        int bytesPerFrame;
-
-        switch (audioConfiguration.channelCount)
-        {
-            case 2:
-                channelConfig = AudioFormat.CHANNEL_OUT_STEREO;
-                break;
-            case 4:
-                channelConfig = AudioFormat.CHANNEL_OUT_QUAD;
-                break;
-            case 6:
-                channelConfig = AudioFormat.CHANNEL_OUT_5POINT1;
-                break;
-            case 8:
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                    // AudioFormat.CHANNEL_OUT_7POINT1_SURROUND isn't available until Android 6.0,
-                    // yet the CHANNEL_OUT_SIDE_LEFT and CHANNEL_OUT_SIDE_RIGHT constants were added
-                    // in 5.0, so just hardcode the constant so we can work on Lollipop.
-                    channelConfig = 0x000018fc; // AudioFormat.CHANNEL_OUT_7POINT1_SURROUND
-                }
-                else {
-                    // On KitKat and lower, creation of the AudioTrack will fail if we specify
-                    // CHANNEL_OUT_SIDE_LEFT or CHANNEL_OUT_SIDE_RIGHT. That leaves us with
-                    // the old CHANNEL_OUT_7POINT1 which uses left-of-center and right-of-center
-                    // speakers instead of side-left and side-right. This non-standard layout
-                    // is probably not what the user wants, but we don't really have a choice.
-                    channelConfig = AudioFormat.CHANNEL_OUT_7POINT1;
-                }
-                break;
-            default:
-                LimeLog.severe("Decoder returned unhandled channel count");
-                return -1;
-        }
-
-        LimeLog.info("Audio channel config: "+String.format("0x%X", channelConfig));
-
-        bytesPerFrame = audioConfiguration.channelCount * samplesPerFrame * 2;
-
+    private void createAudioTrackWithFallbacks(int channelConfig, int sampleRate, int bytesPerFrame) {
         // We're not supposed to request less than the minimum
         // buffer size for our buffer, but it appears that we can
         // do this on many devices and it lowers audio latency.
@@ -196,23 +161,96 @@ public class AndroidAudioRenderer implements AudioRenderer {
                 } catch (Exception ignored) {}
             }
         }
+    }
+
+    @Override
+    public int setup(MoonBridge.AudioConfiguration audioConfiguration, int sampleRate, int samplesPerFrame) {
+        int channelConfig;
+        int bytesPerFrame;
+
+        switch (audioConfiguration.channelCount)
+        {
+            case 2:
+                channelConfig = AudioFormat.CHANNEL_OUT_STEREO;
+                break;
+            case 4:
+                channelConfig = AudioFormat.CHANNEL_OUT_QUAD;
+                break;
+            case 6:
+                channelConfig = AudioFormat.CHANNEL_OUT_5POINT1;
+                break;
+            case 8:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    // AudioFormat.CHANNEL_OUT_7POINT1_SURROUND isn't available until Android 6.0,
+                    // yet the CHANNEL_OUT_SIDE_LEFT and CHANNEL_OUT_SIDE_RIGHT constants were added
+                    // in 5.0, so just hardcode the constant so we can work on Lollipop.
+                    channelConfig = 0x000018fc; // AudioFormat.CHANNEL_OUT_7POINT1_SURROUND
+                }
+                else {
+                    // On KitKat and lower, creation of the AudioTrack will fail if we specify
+                    // CHANNEL_OUT_SIDE_LEFT or CHANNEL_OUT_SIDE_RIGHT. That leaves us with
+                    // the old CHANNEL_OUT_7POINT1 which uses left-of-center and right-of-center
+                    // speakers instead of side-left and side-right. This non-standard layout
+                    // is probably not what the user wants, but we don't really have a choice.
+                    channelConfig = AudioFormat.CHANNEL_OUT_7POINT1;
+                }
+                break;
+            default:
+                LimeLog.severe("Decoder returned unhandled channel count");
+                return -1;
+        }
+
+        LimeLog.info("Audio channel config: "+String.format("0x%X", channelConfig));
+
+        bytesPerFrame = audioConfiguration.channelCount * samplesPerFrame * 2;
+
+        createAudioTrackWithFallbacks(channelConfig, sampleRate, bytesPerFrame);
+
+        if (track == null && audioConfiguration.channelCount > 2) {
+            // Some devices can't open multichannel output at all. Rather than failing,
+            // downmix to stereo ourselves.
+            LimeLog.warning("Unable to create "+audioConfiguration.channelCount+" channel audio track; downmixing to stereo");
+            downmixer = new AudioDownmixer(audioConfiguration.channelCount);
+            channelConfig = AudioFormat.CHANNEL_OUT_STEREO;
+            bytesPerFrame = 2 * samplesPerFrame * 2;
+            createAudioTrackWithFallbacks(channelConfig, sampleRate, bytesPerFrame);
+        }
 
         if (track == null) {
             // Couldn't create any audio track for playback
             return -2;
         }
 
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // Write to the AudioTrack from our own thread, so the audio decoder thread
+            // (which is also receiving audio from the network) never blocks on it.
+            writer = new NonBlockingAudioWriter(track, sampleRate,
+                    downmixer != null ? 2 : audioConfiguration.channelCount, samplesPerFrame,
+                    avSyncMonitor);
+            writer.start();
+        }
+
         return 0;
     }
 
     @Override
     public void playDecodedAudio(short[] audioData) {
+        int length = audioData.length;
+        if (downmixer != null) {
+            length = downmixer.downmix(audioData, audioData.length);
+        }
+
+        if (writer != null) {
+            writer.queueFrame(audioData, length);
+            return;
+        }
+
         // Only queue up to 40 ms of pending audio data in addition to what AudioTrack is buffering for us.
         if (MoonBridge.getPendingAudioDuration() < 40) {
             // This will block until the write is completed. That can cause a backlog
             // of pending audio data, so we do the above check to be able to bound
             // latency at 40 ms in that situation.
-            track.write(audioData, 0, audioData.length);
+            track.write(audioData, 0, length);
         }
         else {
             LimeLog.info("Too much pending audio data: " + MoonBridge.getPendingAudioDuration() +" ms");
@@ -244,6 +282,10 @@ public class AndroidAudioRenderer implements AudioRenderer {
 
     @Override
     public void cleanup() {
+        if (writer != null) {
+            writer.stop();
+        }
+
         // Immediately drop all pending data
         track.pause();
         track.flush();
@@ -0,0 +1,87 @@
+package com.limelight.binding.audio;
+
+// Downmixes interleaved quad, 5.1, or 7.1 audio to stereo in place using the ITU-R BS.775
+// coefficients (center and surrounds at -3 dB, LFE discarded). The coefficients for each
+// output channel are scaled to sum to 1 so a full-scale input can never clip.
+//
+// Input channels are in AudioTrack order: FL FR [FC LFE] BL BR [SL SR]
+public class AudioDownmixer {
+    // Coefficients are Q15 fixed point
+    private static final int Q15_ONE = 1 << 15;
+    private static final double MINUS_3DB = 0.7071;
+
+    private final int channelCount;
+
+    // Indexed by input channel
+    private final int[] leftCoefficients;
+    private final int[] rightCoefficients;
+
+    public AudioDownmixer(int channelCount) {
+        this.channelCount = channelCount;
+
+        double[] left = new double[channelCount];
+        double[] right = new double[channelCount];
+        left[0] = 1.0;
+        right[1] = 1.0;
+
+        switch (channelCount) {
+            case 4:
+                left[2] = right[3] = MINUS_3DB;
+                break;
+            case 6:
+                left[2] = right[2] = MINUS_3DB;
+                left[4] = right[5] = MINUS_3DB;
+                break;
+            case 8:
+                left[2] = right[2] = MINUS_3DB;
+                left[4] = right[5] = MINUS_3DB;
+                left[6] = right[7] = MINUS_3DB;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported channel count: "+channelCount);
+        }
+
+        leftCoefficients = toNormalizedQ15(left);
+        rightCoefficients = toNormalizedQ15(right);
+    }
+
+    private static int[] toNormalizedQ15(double[] coefficients) {
+        double sum = 0;
+        for (double coefficient : coefficients) {
+            sum += coefficient;
+        }
+
+        int[] q15 = new int[coefficients.length];
+        for (int i = 0; i < coefficients.length; i++) {
+            q15[i] = (int)(coefficients[i] / sum * Q15_ONE);
+        }
+        return q15;
+    }
+
+    // Downmixes length interleaved samples and returns the number of stereo samples
+    // now at the start of the array. This doesn't allocate.
+    public int downmix(short[] samples, int length) {
+        int frames = length / channelCount;
+        int[] leftCoefficients = this.leftCoefficients;
+        int[] rightCoefficients = this.rightCoefficients;
+
+        // Each output frame is written at or before the input frame it comes from,
+        // so going forward never overwrites input we still need.
+        for (int frame = 0; frame < frames; frame++) {
+            int inIndex = frame * channelCount;
+            int left = 0;
+            int right = 0;
+
+            for (int ch = 0; ch < channelCount; ch++) {
+                int sample = samples[inIndex + ch];
+                left += sample * leftCoefficients[ch];
+                right += sample * rightCoefficients[ch];
+            }
+
+            samples[frame * 2] = (short)(left >> 15);
+            samples[frame * 2 + 1] = (short)(right >> 15);
+        }
+
+        return frames * 2;
+    }
+}
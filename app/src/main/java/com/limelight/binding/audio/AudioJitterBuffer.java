@@ -0,0 +1,263 @@
+package com.limelight.binding.audio;
+
+// Buffers decoded audio between the decoder and the AudioTrack writer with a target
+// depth that follows the measured arrival jitter. When the buffer is deeper or shallower
+// than the target, a short block of samples is removed or repeated within an incoming
+// frame, crossfading across the splice so there is no click. This converges latency
+// gradually instead of discarding whole frames.
+//
+// This class has no Android dependencies, so it can be driven with synthetic arrival
+// traces. All times are in microseconds and supplied by the caller.
+public class AudioJitterBuffer {
+    // Bounds for the target depth
+    static final int MIN_TARGET_DEPTH_US = 10000;
+    static final int MAX_TARGET_DEPTH_US = 120000;
+
+    // Anything beyond this is flushed outright since converging would take too long
+    static final int MAX_DEPTH_US = 250000;
+
+    // Length of the block added or removed in a single correction and of the crossfade around it
+    static final int CORRECTION_BLOCK_US = 1000;
+    static final int CROSSFADE_US = 2000;
+
+    // Only correct when the depth is this far from the target (or the jitter, if larger)
+    static final int MIN_HYSTERESIS_US = 2500;
+
+    // The target covers this many times the average jitter
+    static final int JITTER_MULTIPLIER = 3;
+
+    private final int sampleRate;
+    private final int channelCount;
+    private final long frameDurationUs;
+
+    // Interleaved samples
+    private final short[] ring;
+    private int readIndex;
+    private int sampleCount;
+
+    // Scratch space for correcting an incoming frame
+    private short[] correctedFrame = new short[0];
+
+    private long lastArrivalTimeUs = -1;
+    private long jitterUs;
+    private long peakJitterUs;
+    private long smoothedDepthUs = -1;
+    private long targetOffsetUs;
+
+    private long framesWritten;
+    private long samplesDropped;
+    private long samplesDuplicated;
+    private long overflows;
+    private long underflows;
+
+    // Set when a read finds the buffer empty, so an outage is counted once
+    // no matter how many reads it spans
+    private boolean underflowing;
+
+    private boolean closed;
+
+    public AudioJitterBuffer(int sampleRate, int channelCount, int samplesPerFrame) {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.frameDurationUs = (long)samplesPerFrame * 1000000 / sampleRate;
+
+        // Room for the maximum depth plus a frame that's being corrected
+        this.ring = new short[(usToFrames(MAX_DEPTH_US) + samplesPerFrame * 2) * channelCount];
+    }
+
+    private int usToFrames(long us) {
+        return (int)(us * sampleRate / 1000000);
+    }
+
+    private long framesToUs(long frames) {
+        return frames * 1000000 / sampleRate;
+    }
+
+    public synchronized long getDepthUs() {
+        return framesToUs(sampleCount / channelCount);
+    }
+
+    public synchronized long getTargetDepthUs() {
+        long target = Math.max(frameDurationUs + JITTER_MULTIPLIER * jitterUs, peakJitterUs);
+        target += targetOffsetUs;
+        return Math.max(MIN_TARGET_DEPTH_US, Math.min(MAX_TARGET_DEPTH_US, target));
+    }
+
+    // Shifts the target depth, for example to delay audio to match video
+    public synchronized void setTargetOffsetUs(long offsetUs) {
+        targetOffsetUs = offsetUs;
+    }
+
+    private void updateJitter(long arrivalTimeUs) {
+        if (lastArrivalTimeUs >= 0) {
+            // How far this frame's arrival was from when we expected it, smoothed
+            // like the RTP interarrival jitter estimate (RFC 3550)
+            long deviation = Math.abs(arrivalTimeUs - lastArrivalTimeUs - frameDurationUs);
+            jitterUs += (deviation - jitterUs) / 16;
+
+            // Keep bursts in mind for a few seconds after they happen
+            peakJitterUs = Math.max(deviation, peakJitterUs - peakJitterUs / 512);
+        }
+        lastArrivalTimeUs = arrivalTimeUs;
+    }
+
+    // Removes or repeats blockFrames sample frames starting at the beginning of the frame,
+    // crossfading fadeFrames frames across the splice. Returns the new length in samples.
+    private int spliceFrame(short[] in, int inFrames, short[] out, int blockFrames, int fadeFrames, boolean drop) {
+        int c = channelCount;
+        int outIndex = 0;
+
+        if (drop) {
+            // Fade from the start of the frame into the samples after the dropped block
+            for (int i = 0; i < fadeFrames; i++) {
+                for (int ch = 0; ch < c; ch++) {
+                    int a = in[i * c + ch];
+                    int b = in[(i + blockFrames) * c + ch];
+                    out[outIndex++] = (short)((a * (fadeFrames - i) + b * i) / fadeFrames);
+                }
+            }
+            int remaining = (inFrames - blockFrames - fadeFrames) * c;
+            System.arraycopy(in, (blockFrames + fadeFrames) * c, out, outIndex, remaining);
+            outIndex += remaining;
+        }
+        else {
+            // Play the start of the frame, then fade from the later samples back
+            // to the start so that block is heard twice
+            System.arraycopy(in, 0, out, 0, blockFrames * c);
+            outIndex = blockFrames * c;
+            for (int i = 0; i < fadeFrames; i++) {
+                for (int ch = 0; ch < c; ch++) {
+                    int a = in[(i + blockFrames) * c + ch];
+                    int b = in[i * c + ch];
+                    out[outIndex++] = (short)((a * (fadeFrames - i) + b * i) / fadeFrames);
+                }
+            }
+            int remaining = (inFrames - fadeFrames) * c;
+            System.arraycopy(in, fadeFrames * c, out, outIndex, remaining);
+            outIndex += remaining;
+        }
+
+        return outIndex;
+    }
+
+    private void appendToRing(short[] samples, int length) {
+        int writeIndex = (readIndex + sampleCount) % ring.length;
+        int firstPart = Math.min(length, ring.length - writeIndex);
+        System.arraycopy(samples, 0, ring, writeIndex, firstPart);
+        System.arraycopy(samples, firstPart, ring, 0, length - firstPart);
+        sampleCount += length;
+    }
+
+    // Called with each decoded frame of interleaved samples
+    public synchronized void write(short[] samples, int length, long arrivalTimeUs) {
+        if (closed) {
+            return;
+        }
+
+        framesWritten++;
+        updateJitter(arrivalTimeUs);
+
+        long depthUs = getDepthUs();
+        if (depthUs > MAX_DEPTH_US || sampleCount + length * 2 > ring.length) {
+            // We're way behind (the output probably stalled), so start over
+            readIndex = 0;
+            sampleCount = 0;
+            smoothedDepthUs = -1;
+            overflows++;
+            depthUs = 0;
+        }
+
+        // The depth right before a frame arrives swings with each read and write,
+        // so steer based on a smoothed value
+        if (smoothedDepthUs < 0) {
+            smoothedDepthUs = depthUs;
+        }
+        else {
+            smoothedDepthUs += (depthUs - smoothedDepthUs) / 32;
+        }
+
+        int inFrames = length / channelCount;
+        int blockFrames = usToFrames(CORRECTION_BLOCK_US);
+        int fadeFrames = usToFrames(CROSSFADE_US);
+        long targetUs = getTargetDepthUs();
+
+        boolean canSplice = blockFrames > 0 && fadeFrames > 0 && blockFrames + fadeFrames <= inFrames;
+        if (canSplice && Math.abs(smoothedDepthUs - targetUs) > Math.max(MIN_HYSTERESIS_US, jitterUs)) {
+            boolean drop = smoothedDepthUs > targetUs;
+
+            if (correctedFrame.length < length + blockFrames * channelCount) {
+                correctedFrame = new short[length + blockFrames * channelCount];
+            }
+
+            int correctedLength = spliceFrame(samples, inFrames, correctedFrame, blockFrames, fadeFrames, drop);
+            appendToRing(correctedFrame, correctedLength);
+
+            if (drop) {
+                samplesDropped += blockFrames;
+                smoothedDepthUs -= CORRECTION_BLOCK_US;
+            }
+            else {
+                samplesDuplicated += blockFrames;
+                smoothedDepthUs += CORRECTION_BLOCK_US;
+            }
+        }
+        else {
+            appendToRing(samples, length);
+        }
+
+        underflowing = false;
+        notifyAll();
+    }
+
+    // Copies up to maxLength samples into out, waiting up to timeoutMs for some to arrive.
+    // Returns the number of samples copied, which is always a whole number of sample frames.
+    public synchronized int read(short[] out, int maxLength, long timeoutMs) throws InterruptedException {
+        if (sampleCount == 0 && !closed) {
+            if (framesWritten > 0 && !underflowing) {
+                underflowing = true;
+                underflows++;
+            }
+            if (timeoutMs > 0) {
+                wait(timeoutMs);
+            }
+        }
+
+        int length = Math.min(sampleCount, maxLength - maxLength % channelCount);
+        int firstPart = Math.min(length, ring.length - readIndex);
+        System.arraycopy(ring, readIndex, out, 0, firstPart);
+        System.arraycopy(ring, 0, out, firstPart, length - firstPart);
+
+        readIndex = (readIndex + length) % ring.length;
+        sampleCount -= length;
+        return length;
+    }
+
+    // Wakes up any waiting reader and rejects further writes
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    synchronized long getUnderflows() {
+        return underflows;
+    }
+
+    synchronized long getOverflows() {
+        return overflows;
+    }
+
+    synchronized long getSamplesDropped() {
+        return samplesDropped;
+    }
+
+    synchronized long getSamplesDuplicated() {
+        return samplesDuplicated;
+    }
+
+    public synchronized String getStatistics() {
+        return "Audio jitter buffer: depth "+getDepthUs() / 1000+" ms, target "+getTargetDepthUs() / 1000+
+                " ms, jitter "+jitterUs / 1000+" ms (peak "+peakJitterUs / 1000+" ms), "+
+                framesToUs(samplesDropped) / 1000+" ms dropped, "+framesToUs(samplesDuplicated) / 1000+" ms duplicated, "+
+                overflows+" overflows, "+underflows+" underflows";
+    }
+}
@@ -0,0 +1,195 @@
+package com.limelight.binding.audio;
+
+import android.annotation.TargetApi;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.limelight.LimeLog;
+import com.limelight.binding.AvSyncMonitor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+// Moves AudioTrack writes off the thread that decodes audio. Decoded frames go into an
+// AudioJitterBuffer and a dedicated thread copies them into a reusable direct buffer and
+// writes them to AudioTrack, so a stalled AudioTrack can never hold up the network
+// receive path. Only the writer thread ever waits on AudioTrack.
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class NonBlockingAudioWriter {
+    // How often to measure playout delay for A/V sync
+    private static final int SYNC_UPDATE_INTERVAL_MS = 100;
+
+    private final AudioTrack track;
+    private final int sampleRate;
+    private final int channelCount;
+    private final int frameDurationMs;
+    private final AvSyncMonitor avSyncMonitor;
+
+    private final AudioTimestamp timestamp = new AudioTimestamp();
+    private long framesWrittenToTrack;
+    private long lastSyncUpdateTimeMs;
+
+    private final AudioJitterBuffer jitterBuffer;
+    private final short[] samples;
+    private final ByteBuffer frameBytes;
+    private final ShortBuffer frameSamples;
+
+    private Thread writerThread;
+    private volatile boolean stopped;
+
+    private long writeStalls;
+    private long longestStallMs;
+    private volatile int lastUnderrunCount;
+
+    NonBlockingAudioWriter(AudioTrack track, int sampleRate, int channelCount, int samplesPerFrame,
+                           AvSyncMonitor avSyncMonitor) {
+        this.track = track;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.avSyncMonitor = avSyncMonitor;
+        this.frameDurationMs = Math.max(1, samplesPerFrame * 1000 / sampleRate);
+        this.jitterBuffer = new AudioJitterBuffer(sampleRate, channelCount, samplesPerFrame);
+
+        this.samples = new short[samplesPerFrame * channelCount];
+        this.frameBytes = ByteBuffer.allocateDirect(samples.length * 2).order(ByteOrder.nativeOrder());
+        this.frameSamples = frameBytes.asShortBuffer();
+    }
+
+    void start() {
+        writerThread = new Thread() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+                while (!stopped) {
+                    int length;
+                    try {
+                        length = jitterBuffer.read(samples, samples.length, 100);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    if (length > 0) {
+                        frameSamples.clear();
+                        frameSamples.put(samples, 0, length);
+                        frameBytes.clear();
+                        frameBytes.limit(length * 2);
+                        writeFrame(frameBytes);
+                    }
+
+                    checkUnderruns();
+                    updateAvSync();
+                }
+            }
+        };
+        writerThread.setName("Audio - Writer");
+        writerThread.start();
+    }
+
+    private void writeFrame(ByteBuffer buffer) {
+        // Blocking is fine on this thread, and it lets AudioTrack wake us when there's
+        // room instead of us polling for it. If the write takes much longer than playback
+        // pacing, the jitter buffer will back up behind us and have to drop audio, so keep
+        // track of how long it took.
+        long startTimeMs = SystemClock.uptimeMillis();
+
+        while (buffer.hasRemaining() && !stopped) {
+            int ret = track.write(buffer, buffer.remaining(), AudioTrack.WRITE_BLOCKING);
+            if (ret < 0) {
+                LimeLog.warning("AudioTrack write failed: "+ret);
+                return;
+            }
+            else if (ret == 0) {
+                // The track was paused or stopped
+                break;
+            }
+
+            framesWrittenToTrack += ret / (2 * channelCount);
+        }
+
+        recordStall(SystemClock.uptimeMillis() - startTimeMs);
+    }
+
+    private synchronized void recordStall(long stallMs) {
+        // Waiting on AudioTrack for up to a frame is just normal playback pacing
+        if (stallMs > frameDurationMs) {
+            writeStalls++;
+            longestStallMs = Math.max(longestStallMs, stallMs);
+            LimeLog.warning("AudioTrack write stalled for "+stallMs+" ms");
+        }
+    }
+
+    private void updateAvSync() {
+        if (avSyncMonitor == null) {
+            return;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        if (now - lastSyncUpdateTimeMs < SYNC_UPDATE_INTERVAL_MS) {
+            return;
+        }
+        lastSyncUpdateTimeMs = now;
+
+        // The timestamp tells us which frame was being presented at a recent point in time,
+        // so we can tell how much of what we've written hasn't been heard yet.
+        if (track.getTimestamp(timestamp)) {
+            long presentedFrames = timestamp.framePosition +
+                    (System.nanoTime() - timestamp.nanoTime) * sampleRate / 1000000000L;
+            long pendingUs = (framesWrittenToTrack - presentedFrames) * 1000000 / sampleRate;
+
+            avSyncMonitor.reportAudioDelay(pendingUs + jitterBuffer.getDepthUs());
+        }
+
+        jitterBuffer.setTargetOffsetUs(avSyncMonitor.updateAudioOffsetUs());
+    }
+
+    private void checkUnderruns() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            int underrunCount = track.getUnderrunCount();
+            if (underrunCount != lastUnderrunCount) {
+                LimeLog.info("Audio underruns: "+(underrunCount - lastUnderrunCount)+" (total: "+underrunCount+")");
+                lastUnderrunCount = underrunCount;
+            }
+        }
+    }
+
+    // Called on the audio decoder thread. This never blocks.
+    void queueFrame(short[] audioData, int length) {
+        jitterBuffer.write(audioData, length, System.nanoTime() / 1000);
+    }
+
+    void stop() {
+        stopped = true;
+        jitterBuffer.close();
+
+        // Pausing wakes up a blocking write, so we don't have to wait for AudioTrack
+        // to drain before the writer thread notices we're stopping
+        track.pause();
+
+        if (writerThread != null) {
+            writerThread.interrupt();
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+
+                // InterruptedException clears the thread's interrupt status. Since we can't
+                // handle that here, we will re-interrupt the thread to set the interrupt
+                // status back to true.
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        LimeLog.info(jitterBuffer.getStatistics());
+        LimeLog.info(getStatistics());
+    }
+
+    synchronized String getStatistics() {
+        return "Audio writer: "+writeStalls+" write stalls (longest "+longestStallMs+" ms), "+
+                lastUnderrunCount+" underruns";
+    }
+}
@@ -28,6 +28,7 @@ import com.limelight.binding.input.driver.UsbDriverListener;
 import com.limelight.binding.input.driver.UsbDriverService;
 import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.input.ControllerPacket;
+import com.limelight.nvstream.input.InputLatencyTracker;
 import com.limelight.nvstream.input.MouseButtonPacket;
 import com.limelight.preferences.PreferenceConfiguration;
 import com.limelight.ui.GameGestures;
@@ -61,6 +62,17 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
     private final Vibrator deviceVibrator;
     private final SceManager sceManager;
     private final Handler handler;
+    private final ControllerInputCoalescer inputCoalescer;
+    private final RumbleScheduler rumbleScheduler;
+
+    // Reused vibration effects, indexed by amplitude
+    private VibrationEffect[] oneShotEffects;
+    private VibrationEffect[] pwmEffects;
+    private long[][] pwmPatterns;
+    private VibrationAttributes dualVibrationAttributes;
+    private VibrationAttributes mediaVibrationAttributes;
+    private AudioAttributes gameAudioAttributes;
+
     private boolean hasGameController;
 
     private final PreferenceConfiguration prefConfig;
@@ -73,6 +85,13 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         this.prefConfig = prefConfig;
         this.deviceVibrator = (Vibrator) activityContext.getSystemService(Context.VIBRATOR_SERVICE);
         this.handler = new Handler(Looper.getMainLooper());
+        this.inputCoalescer = new ControllerInputCoalescer(conn, handler, prefConfig.controllerMaxRateHz);
+        this.rumbleScheduler = new RumbleScheduler(new RumbleScheduler.Listener() {
+            @Override
+            public void onRumble(short controllerNumber, short lowFreqMotor, short highFreqMotor) {
+                applyRumble(controllerNumber, lowFreqMotor, highFreqMotor);
+            }
+        });
 
         this.sceManager = new SceManager(activityContext);
         this.sceManager.start();
@@ -194,6 +213,10 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
     }
 
     public void stop() {
+        // Stop rumbling before we tear down the devices it uses
+        rumbleScheduler.stop();
+        LimeLog.info(rumbleScheduler.getStatistics());
+
         for (int i = 0; i < inputDeviceContexts.size(); i++) {
             InputDeviceContext deviceContext = inputDeviceContexts.valueAt(i);
             deviceContext.destroy();
@@ -206,6 +229,9 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
         sceManager.stop();
         deviceVibrator.cancel();
+
+        inputCoalescer.stop();
+        LimeLog.info(inputCoalescer.getStatistics());
     }
 
     private static boolean hasJoystickAxes(InputDevice device) {
@@ -278,7 +304,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
             for (UsbDevice dev : usbManager.getDeviceList().values()) {
                 // We explicitly check not to claim devices that appear as InputDevices
                 // otherwise we will double count them.
-                if (UsbDriverService.shouldClaimDevice(dev, false) &&
+                if (UsbDriverService.shouldClaimDevice(dev, false, false) &&
                         !UsbDriverService.isRecognizedInputDevice(dev)) {
                     LimeLog.info("Counting UsbDevice: "+dev.getDeviceName());
                     mask |= 1 << count++;
@@ -306,11 +332,12 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         // We must do this after clearing the currentControllers entry so this
         // causes the device to be removed on the server PC.
         if (context.assignedControllerNumber) {
-            conn.sendControllerInput(context.controllerNumber, getActiveControllerMask(),
+            inputCoalescer.sendControllerInput(context.controllerNumber, getActiveControllerMask(),
                     (short) 0,
                     (byte) 0, (byte) 0,
                     (short) 0, (short) 0,
                     (short) 0, (short) 0);
+            rumbleScheduler.reset(context.controllerNumber);
         }
     }
 
@@ -379,6 +406,9 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
         LimeLog.info("Assigned as controller "+context.controllerNumber);
         context.assignedControllerNumber = true;
+
+        // Don't carry over rumble state from a device that used this number before
+        rumbleScheduler.reset(context.controllerNumber);
     }
 
     private UsbDeviceContext createUsbDeviceContextForDevice(AbstractController device) {
@@ -901,11 +931,11 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
                 }
             }
 
-            conn.sendControllerInput(controllerNumber, getActiveControllerMask(),
+            inputCoalescer.sendControllerInput(controllerNumber, getActiveControllerMask(),
                     (short)0, (byte)0, (byte)0, (short)0, (short)0, (short)0, (short)0);
         }
         else {
-            conn.sendControllerInput(controllerNumber, getActiveControllerMask(),
+            inputCoalescer.sendControllerInput(controllerNumber, getActiveControllerMask(),
                     inputMap,
                     leftTrigger, rightTrigger,
                     leftStickX, leftStickY,
@@ -1330,25 +1360,88 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         // always be enumerated in this order, but it seems consistent between Xbox Series X (USB),
         // PS3 (USB), and PS4 (USB+BT) controllers on Android 12 Beta 3.
         int[] vibratorIds = vm.getVibratorIds();
-        int[] vibratorAmplitudes = new int[] { highFreqMotor, lowFreqMotor };
 
         CombinedVibration.ParallelCombination combo = CombinedVibration.startParallel();
 
         for (int i = 0; i < vibratorIds.length; i++) {
+            int amplitude = i == 0 ? highFreqMotor : lowFreqMotor;
+
             // It's illegal to create a VibrationEffect with an amplitude of 0.
             // Simply excluding that vibrator from our ParallelCombination will turn it off.
-            if (vibratorAmplitudes[i] != 0) {
-                combo.addVibrator(vibratorIds[i], VibrationEffect.createOneShot(60000, vibratorAmplitudes[i]));
+            if (amplitude != 0) {
+                combo.addVibrator(vibratorIds[i], getOneShotEffect(amplitude));
             }
         }
 
-        VibrationAttributes.Builder vibrationAttributes = new VibrationAttributes.Builder();
+        if (dualVibrationAttributes == null) {
+            VibrationAttributes.Builder vibrationAttributes = new VibrationAttributes.Builder();
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            vibrationAttributes.setUsage(VibrationAttributes.USAGE_MEDIA);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                vibrationAttributes.setUsage(VibrationAttributes.USAGE_MEDIA);
+            }
+
+            dualVibrationAttributes = vibrationAttributes.build();
         }
 
-        vm.vibrate(combo.combine(), vibrationAttributes.build());
+        vm.vibrate(combo.combine(), dualVibrationAttributes);
+    }
+
+    // Effects are only created on the rumble thread, so these caches don't need locking.
+    // There are only 255 possible amplitudes, so we keep every effect we create.
+    @TargetApi(26)
+    private VibrationEffect getOneShotEffect(int amplitude) {
+        if (oneShotEffects == null) {
+            oneShotEffects = new VibrationEffect[256];
+        }
+        if (oneShotEffects[amplitude] == null) {
+            oneShotEffects[amplitude] = VibrationEffect.createOneShot(60000, amplitude);
+        }
+        return oneShotEffects[amplitude];
+    }
+
+    private long[] getPwmPattern(int amplitude) {
+        if (pwmPatterns == null) {
+            pwmPatterns = new long[256][];
+        }
+        if (pwmPatterns[amplitude] == null) {
+            // We must emulate amplitude control by PWMing the vibration
+            long pwmPeriod = 20;
+            long onTime = (long)((amplitude / 255.0) * pwmPeriod);
+            long offTime = pwmPeriod - onTime;
+            pwmPatterns[amplitude] = new long[]{0, onTime, offTime};
+        }
+        return pwmPatterns[amplitude];
+    }
+
+    @TargetApi(26)
+    private VibrationEffect getPwmEffect(int amplitude) {
+        if (pwmEffects == null) {
+            pwmEffects = new VibrationEffect[256];
+        }
+        if (pwmEffects[amplitude] == null) {
+            pwmEffects[amplitude] = VibrationEffect.createWaveform(getPwmPattern(amplitude), 0);
+        }
+        return pwmEffects[amplitude];
+    }
+
+    @TargetApi(33)
+    private VibrationAttributes getMediaVibrationAttributes() {
+        if (mediaVibrationAttributes == null) {
+            mediaVibrationAttributes = new VibrationAttributes.Builder()
+                    .setUsage(VibrationAttributes.USAGE_MEDIA)
+                    .build();
+        }
+        return mediaVibrationAttributes;
+    }
+
+    @TargetApi(21)
+    private AudioAttributes getGameAudioAttributes() {
+        if (gameAudioAttributes == null) {
+            gameAudioAttributes = new AudioAttributes.Builder()
+                    .setUsage(AudioAttributes.USAGE_GAME)
+                    .build();
+        }
+        return gameAudioAttributes;
     }
 
     private void rumbleSingleVibrator(Vibrator vibrator, short lowFreqMotor, short highFreqMotor) {
@@ -1372,18 +1465,12 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         // supports amplitude-based vibration control.
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             if (vibrator.hasAmplitudeControl()) {
-                VibrationEffect effect = VibrationEffect.createOneShot(60000, simulatedAmplitude);
+                VibrationEffect effect = getOneShotEffect(simulatedAmplitude);
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                    VibrationAttributes vibrationAttributes = new VibrationAttributes.Builder()
-                            .setUsage(VibrationAttributes.USAGE_MEDIA)
-                            .build();
-                    vibrator.vibrate(effect, vibrationAttributes);
+                    vibrator.vibrate(effect, getMediaVibrationAttributes());
                 }
                 else {
-                    AudioAttributes audioAttributes = new AudioAttributes.Builder()
-                            .setUsage(AudioAttributes.USAGE_GAME)
-                            .build();
-                    vibrator.vibrate(effect, audioAttributes);
+                    vibrator.vibrate(effect, getGameAudioAttributes());
                 }
                 return;
             }
@@ -1391,27 +1478,24 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
         // If we reach this point, we don't have amplitude controls available, so
         // we must emulate it by PWMing the vibration. Ick.
-        long pwmPeriod = 20;
-        long onTime = (long)((simulatedAmplitude / 255.0) * pwmPeriod);
-        long offTime = pwmPeriod - onTime;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            VibrationAttributes vibrationAttributes = new VibrationAttributes.Builder()
-                    .setUsage(VibrationAttributes.USAGE_MEDIA)
-                    .build();
-            vibrator.vibrate(VibrationEffect.createWaveform(new long[]{0, onTime, offTime}, 0), vibrationAttributes);
+            vibrator.vibrate(getPwmEffect(simulatedAmplitude), getMediaVibrationAttributes());
         }
         else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            AudioAttributes audioAttributes = new AudioAttributes.Builder()
-                    .setUsage(AudioAttributes.USAGE_GAME)
-                    .build();
-            vibrator.vibrate(new long[]{0, onTime, offTime}, 0, audioAttributes);
+            vibrator.vibrate(getPwmPattern(simulatedAmplitude), 0, getGameAudioAttributes());
         }
         else {
-            vibrator.vibrate(new long[]{0, onTime, offTime}, 0);
+            vibrator.vibrate(getPwmPattern(simulatedAmplitude), 0);
         }
     }
 
+    // Called on the thread that receives rumble from the host. The vibrators are driven
+    // from the rumble scheduler's thread.
     public void handleRumble(short controllerNumber, short lowFreqMotor, short highFreqMotor) {
+        rumbleScheduler.scheduleRumble(controllerNumber, lowFreqMotor, highFreqMotor);
+    }
+
+    private void applyRumble(short controllerNumber, short lowFreqMotor, short highFreqMotor) {
         boolean foundMatchingDevice = false;
         boolean vibrated = false;
 
@@ -1784,6 +1868,16 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
         return true;
     }
 
+    // The on-screen controls call these around handling each touch event so their
+    // input is timed from it
+    public void beginOscInputEvent(long eventTimeMs) {
+        conn.beginInputBatch(InputLatencyTracker.PATH_VIRTUAL_CONTROLLER, eventTimeMs);
+    }
+
+    public void endOscInputEvent() {
+        conn.endInputBatch();
+    }
+
     public void reportOscState(short buttonFlags,
                                short leftStickX, short leftStickY,
                                short rightStickX, short rightStickY,
@@ -1807,7 +1901,7 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
                                       float leftStickX, float leftStickY,
                                       float rightStickX, float rightStickY,
                                       float leftTrigger, float rightTrigger) {
-        GenericControllerContext context = usbDeviceContexts.get(controllerId);
+        UsbDeviceContext context = usbDeviceContexts.get(controllerId);
         if (context == null) {
             return;
         }
@@ -1838,7 +1932,10 @@ public class ControllerHandler implements InputManager.InputDeviceListener, UsbD
 
         context.inputMap = buttonFlags;
 
+        // Time the input from when the USB report arrived
+        conn.setInputEventTime(InputLatencyTracker.PATH_USB, context.device.getInputTime());
         sendControllerInputPacket(context);
+        conn.setInputEventTime(InputLatencyTracker.PATH_NONE, 0);
     }
 
     @Override
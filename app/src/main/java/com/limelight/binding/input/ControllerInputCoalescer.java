@@ -0,0 +1,178 @@
+package com.limelight.binding.input;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.limelight.nvstream.NvConnection;
+import com.limelight.nvstream.input.InputLatencyTracker;
+
+// Limits how often controller state is sent for each controller. Analog-only changes
+// that arrive faster than the configured rate replace each other and only the latest
+// state is sent when the interval expires. Any change to the buttons or the active
+// controller mask is sent immediately along with the current analog state, so button
+// edges (including short presses) are never merged or dropped. Repeated identical states
+// are still sent, since callers like the virtual controller resend state on purpose.
+public class ControllerInputCoalescer {
+    private static final int MAX_CONTROLLERS = 16;
+
+    private final NvConnection conn;
+    private final Handler handler;
+    private final long minIntervalMs;
+
+    private final ControllerState[] sentStates = new ControllerState[MAX_CONTROLLERS];
+    private final ControllerState[] pendingStates = new ControllerState[MAX_CONTROLLERS];
+    private final long[] lastSendTimeMs = new long[MAX_CONTROLLERS];
+    private boolean flushScheduled;
+
+    private long rawEvents;
+    private long sentEvents;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushPendingStates();
+        }
+    };
+
+    private static class ControllerState {
+        boolean valid;
+        boolean pending;
+        short activeGamepadMask;
+        short buttonFlags;
+        byte leftTrigger, rightTrigger;
+        short leftStickX, leftStickY;
+        short rightStickX, rightStickY;
+
+        // Event that caused the oldest change that is still pending
+        int eventPath = InputLatencyTracker.PATH_NONE;
+        long eventTimeMs;
+
+        void copyFrom(ControllerState other) {
+            activeGamepadMask = other.activeGamepadMask;
+            buttonFlags = other.buttonFlags;
+            leftTrigger = other.leftTrigger;
+            rightTrigger = other.rightTrigger;
+            leftStickX = other.leftStickX;
+            leftStickY = other.leftStickY;
+            rightStickX = other.rightStickX;
+            rightStickY = other.rightStickY;
+        }
+    }
+
+    // A maxRateHz of 0 passes every state straight through
+    public ControllerInputCoalescer(NvConnection conn, Handler handler, int maxRateHz) {
+        this.conn = conn;
+        this.handler = handler;
+        this.minIntervalMs = maxRateHz > 0 ? Math.max(1, 1000 / maxRateHz) : 0;
+
+        for (int i = 0; i < MAX_CONTROLLERS; i++) {
+            sentStates[i] = new ControllerState();
+            pendingStates[i] = new ControllerState();
+        }
+    }
+
+    private void sendState(short controllerNumber, ControllerState state, long now) {
+        conn.sendControllerInput(controllerNumber, state.activeGamepadMask, state.buttonFlags,
+                state.leftTrigger, state.rightTrigger,
+                state.leftStickX, state.leftStickY,
+                state.rightStickX, state.rightStickY);
+
+        ControllerState sentState = sentStates[controllerNumber];
+        sentState.copyFrom(state);
+        sentState.valid = true;
+        state.pending = false;
+
+        lastSendTimeMs[controllerNumber] = now;
+        sentEvents++;
+    }
+
+    public synchronized void sendControllerInput(short controllerNumber,
+                                                 short activeGamepadMask, short buttonFlags,
+                                                 byte leftTrigger, byte rightTrigger,
+                                                 short leftStickX, short leftStickY,
+                                                 short rightStickX, short rightStickY) {
+        rawEvents++;
+
+        if (minIntervalMs == 0 || controllerNumber < 0 || controllerNumber >= MAX_CONTROLLERS) {
+            // Not rate limited or not something we track, so just pass it through
+            conn.sendControllerInput(controllerNumber, activeGamepadMask, buttonFlags,
+                    leftTrigger, rightTrigger, leftStickX, leftStickY, rightStickX, rightStickY);
+            sentEvents++;
+            return;
+        }
+
+        ControllerState state = pendingStates[controllerNumber];
+        state.activeGamepadMask = activeGamepadMask;
+        state.buttonFlags = buttonFlags;
+        state.leftTrigger = leftTrigger;
+        state.rightTrigger = rightTrigger;
+        state.leftStickX = leftStickX;
+        state.leftStickY = leftStickY;
+        state.rightStickX = rightStickX;
+        state.rightStickY = rightStickY;
+
+        ControllerState sentState = sentStates[controllerNumber];
+        long now = SystemClock.uptimeMillis();
+
+        if (!sentState.valid ||
+                sentState.buttonFlags != buttonFlags ||
+                sentState.activeGamepadMask != activeGamepadMask ||
+                now - lastSendTimeMs[controllerNumber] >= minIntervalMs) {
+            sendState(controllerNumber, state, now);
+        }
+        else {
+            // Send the latest analog state once the interval has passed
+            if (!state.pending) {
+                state.eventPath = conn.getInputEventPath();
+                state.eventTimeMs = conn.getInputEventTime();
+            }
+            state.pending = true;
+            if (!flushScheduled) {
+                flushScheduled = true;
+                handler.postAtTime(flushRunnable, lastSendTimeMs[controllerNumber] + minIntervalMs);
+            }
+        }
+    }
+
+    private synchronized void flushPendingStates() {
+        flushScheduled = false;
+
+        long now = SystemClock.uptimeMillis();
+        long nextFlushTime = Long.MAX_VALUE;
+
+        for (short i = 0; i < MAX_CONTROLLERS; i++) {
+            ControllerState state = pendingStates[i];
+            if (!state.pending) {
+                continue;
+            }
+
+            long dueTime = lastSendTimeMs[i] + minIntervalMs;
+            if (dueTime <= now) {
+                // Time the delayed state from the event that caused it
+                int savedPath = conn.getInputEventPath();
+                long savedTime = conn.getInputEventTime();
+                conn.setInputEventTime(state.eventPath, state.eventTimeMs);
+                sendState(i, state, now);
+                conn.setInputEventTime(savedPath, savedTime);
+            }
+            else {
+                nextFlushTime = Math.min(nextFlushTime, dueTime);
+            }
+        }
+
+        if (nextFlushTime != Long.MAX_VALUE) {
+            flushScheduled = true;
+            handler.postAtTime(flushRunnable, nextFlushTime);
+        }
+    }
+
+    public synchronized void stop() {
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+    }
+
+    public synchronized String getStatistics() {
+        return "Controller input: "+rawEvents+" raw events, "+sentEvents+" sent"+
+                (rawEvents > 0 ? " ("+(rawEvents - sentEvents) * 100 / rawEvents+"% coalesced)" : "");
+    }
+}
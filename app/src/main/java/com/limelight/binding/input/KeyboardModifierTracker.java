@@ -0,0 +1,76 @@
+package com.limelight.binding.input;
+
+import android.view.KeyEvent;
+
+import com.limelight.nvstream.input.KeyboardPacket;
+
+// Tracks which modifier keys are held down so each key event can be sent with the
+// current modifier state. Modifier keycodes are looked up in a table built once, and
+// nothing is allocated per key event.
+public class KeyboardModifierTracker {
+    // Modifier flag for each Android keycode, or 0 if it isn't a modifier key
+    private static final byte[] MODIFIER_TABLE = buildModifierTable();
+
+    private int modifierFlags;
+
+    private static byte[] buildModifierTable() {
+        byte[] table = new byte[KeyEvent.getMaxKeyCode() + 1];
+        table[KeyEvent.KEYCODE_CTRL_LEFT] = KeyboardPacket.MODIFIER_CTRL;
+        table[KeyEvent.KEYCODE_CTRL_RIGHT] = KeyboardPacket.MODIFIER_CTRL;
+        table[KeyEvent.KEYCODE_SHIFT_LEFT] = KeyboardPacket.MODIFIER_SHIFT;
+        table[KeyEvent.KEYCODE_SHIFT_RIGHT] = KeyboardPacket.MODIFIER_SHIFT;
+        table[KeyEvent.KEYCODE_ALT_LEFT] = KeyboardPacket.MODIFIER_ALT;
+        table[KeyEvent.KEYCODE_ALT_RIGHT] = KeyboardPacket.MODIFIER_ALT;
+        return table;
+    }
+
+    // Updates the modifier state for a key going down or up
+    public void onKey(int keycode, boolean down) {
+        if (keycode < 0 || keycode >= MODIFIER_TABLE.length) {
+            return;
+        }
+
+        int modifierMask = MODIFIER_TABLE[keycode];
+        if (down) {
+            modifierFlags |= modifierMask;
+        }
+        else {
+            modifierFlags &= ~modifierMask;
+        }
+    }
+
+    // We can't guarantee the state of modifier keys which may have
+    // lifted while we weren't receiving key events
+    public void reset() {
+        modifierFlags = 0;
+    }
+
+    public boolean isPressed(int modifierMask) {
+        return (modifierFlags & modifierMask) == modifierMask;
+    }
+
+    public byte getState() {
+        return (byte) modifierFlags;
+    }
+
+    // We cannot simply use the tracked state for all key event processing, because
+    // some IMEs will not generate real key events for pressing Shift. Instead
+    // they will simply send key events with isShiftPressed() returning true,
+    // and we will need to send the modifier flag ourselves.
+    public byte getState(KeyEvent event) {
+        // Start with the tracked modifier state to ensure we cover the case
+        // detailed in https://github.com/moonlight-stream/moonlight-android/issues/840
+        int modifiers = modifierFlags;
+        int metaState = event.getMetaState();
+        if ((metaState & KeyEvent.META_SHIFT_ON) != 0) {
+            modifiers |= KeyboardPacket.MODIFIER_SHIFT;
+        }
+        if ((metaState & KeyEvent.META_CTRL_ON) != 0) {
+            modifiers |= KeyboardPacket.MODIFIER_CTRL;
+        }
+        if ((metaState & KeyEvent.META_ALT_ON) != 0) {
+            modifiers |= KeyboardPacket.MODIFIER_ALT;
+        }
+        return (byte) modifiers;
+    }
+}
@@ -7,6 +7,11 @@ import android.util.SparseArray;
 import android.view.InputDevice;
 import android.view.KeyEvent;
 
+import com.limelight.LimeLog;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 
 /**
@@ -55,12 +60,26 @@ public class KeyboardTranslator implements InputManager.InputDeviceListener {
     public static final int VK_QUOTE = 222;
     public static final int VK_PAUSE = 19;
 
+    /**
+     * Key table entries hold the VK code in the low byte and these flags above it
+     */
+    private static final int VK_MASK = 0xFF;
+    static final int FLAG_NEEDS_SHIFT = 0x100;
+
+    /**
+     * Key table indexed by Android keycode for a QWERTY keyboard
+     */
+    private static final short[] DEFAULT_KEY_TABLE = buildDefaultKeyTable();
+
     private static class KeyboardMapping {
         private final InputDevice device;
         private final int[] deviceKeyCodeToQwertyKeyCode;
 
+        // Key table indexed by this device's keycodes
+        private final short[] keyTable;
+
         @TargetApi(33)
-        public KeyboardMapping(InputDevice device) {
+        public KeyboardMapping(InputDevice device, short[] qwertyKeyTable) {
             int maxKeyCode = KeyEvent.getMaxKeyCode();
 
             this.device = device;
@@ -75,6 +94,18 @@ public class KeyboardTranslator implements InputManager.InputDeviceListener {
                     deviceKeyCodeToQwertyKeyCode[deviceKeyCode] = i;
                 }
             }
+
+            // Map each keycode onto the QWERTY layout up front, since GFE assumes
+            // incoming keycodes are from a QWERTY keyboard. Keycodes without a
+            // QWERTY location are translated as-is.
+            this.keyTable = new short[qwertyKeyTable.length];
+            for (int i = 0; i < keyTable.length; i++) {
+                int qwertyKeyCode = getQwertyKeyCodeForDeviceKeyCode(i);
+                if (qwertyKeyCode == KeyEvent.KEYCODE_UNKNOWN || qwertyKeyCode >= qwertyKeyTable.length) {
+                    qwertyKeyCode = i;
+                }
+                keyTable[i] = qwertyKeyTable[qwertyKeyCode];
+            }
         }
 
         @TargetApi(33)
@@ -92,19 +123,77 @@ public class KeyboardTranslator implements InputManager.InputDeviceListener {
     }
 
     private final SparseArray<KeyboardMapping> keyboardMappings = new SparseArray<>();
+    private final short[] keyTable;
 
     public KeyboardTranslator() {
+        this(DEFAULT_KEY_TABLE);
+    }
+
+    /**
+     * Creates a translator using a key table from {@link #loadKeyTable(InputStream)}
+     */
+    public KeyboardTranslator(short[] keyTable) {
+        this.keyTable = keyTable;
+
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
             for (int deviceId : InputDevice.getDeviceIds()) {
                 InputDevice device = InputDevice.getDevice(deviceId);
                 if (device != null && device.getKeyboardType() == InputDevice.KEYBOARD_TYPE_ALPHABETIC) {
-                    keyboardMappings.set(deviceId, new KeyboardMapping(device));
+                    keyboardMappings.set(deviceId, new KeyboardMapping(device, keyTable));
                 }
             }
         }
     }
 
+    private static short[] buildDefaultKeyTable() {
+        return buildKeyTable(KeyEvent.getMaxKeyCode());
+    }
+
+    // Package-private so tests can build a full table where KeyEvent is stubbed out
+    static short[] buildKeyTable(int maxKeyCode) {
+        short[] table = new short[maxKeyCode + 1];
+        for (int keycode = 0; keycode < table.length; keycode++) {
+            int vk = lookupVirtualKey(keycode);
+            if (vk != 0) {
+                table[keycode] = (short) (vk | (lookupNeedsShift(keycode) ? FLAG_NEEDS_SHIFT : 0));
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Loads a key table for an alternate layout. The resource starts with the number of
+     * entries followed by pairs of Android keycode and VK code (big endian shorts). Entries
+     * replace the default mapping for their keycode, and a VK code of 0 unmaps the key.
+     * @param in the layout resource
+     * @return a key table to pass to {@link #KeyboardTranslator(short[])}
+     */
+    public static short[] loadKeyTable(InputStream in) throws IOException {
+        return loadKeyTable(in, DEFAULT_KEY_TABLE);
+    }
+
+    static short[] loadKeyTable(InputStream in, short[] baseTable) throws IOException {
+        short[] table = baseTable.clone();
+        DataInputStream data = new DataInputStream(in);
+
+        int entries = data.readUnsignedShort();
+        for (int i = 0; i < entries; i++) {
+            int keycode = data.readUnsignedShort();
+            int vk = data.readUnsignedShort();
+            if (keycode < table.length) {
+                table[keycode] = (short) vk;
+            }
+        }
+
+        return table;
+    }
+
     public static boolean needsShift(int keycode) {
+        return keycode >= 0 && keycode < DEFAULT_KEY_TABLE.length &&
+                (DEFAULT_KEY_TABLE[keycode] & FLAG_NEEDS_SHIFT) != 0;
+    }
+
+    static boolean lookupNeedsShift(int keycode) {
         switch (keycode)
         {
             case KeyEvent.KEYCODE_AT:
@@ -125,21 +214,32 @@ public class KeyboardTranslator implements InputManager.InputDeviceListener {
      * @return a GFE keycode for the given keycode
      */
     public short translate(int keycode, int deviceId) {
-        int translated;
+        short[] table = keyTable;
 
-        // If a device ID was provided, look up the keyboard mapping
+        // If a device ID was provided, use the keyboard mapping's table
         if (deviceId >= 0) {
             KeyboardMapping mapping = keyboardMappings.get(deviceId);
             if (mapping != null) {
-                // Try to map this device-specific keycode onto a QWERTY layout.
-                // GFE assumes incoming keycodes are from a QWERTY keyboard.
-                int qwertyKeyCode = mapping.getQwertyKeyCodeForDeviceKeyCode(keycode);
-                if (qwertyKeyCode != KeyEvent.KEYCODE_UNKNOWN) {
-                    keycode = qwertyKeyCode;
-                }
+                table = mapping.keyTable;
             }
         }
-        
+
+        int entry = (keycode >= 0 && keycode < table.length) ? table[keycode] : 0;
+        if (entry == 0) {
+            LimeLog.info("No key for "+keycode);
+            return 0;
+        }
+
+        return (short) ((KEY_PREFIX << 8) | (entry & VK_MASK));
+    }
+
+    /**
+     * Returns the VK code for a keycode on a QWERTY keyboard or 0 if there isn't one.
+     * This is only used to build the key table.
+     */
+    static int lookupVirtualKey(int keycode) {
+        int translated;
+
         // This is a poor man's mapping between Android key codes
         // and Windows VK_* codes. For all defined VK_ codes, see:
         // https://msdn.microsoft.com/en-us/library/windows/desktop/dd375731(v=vs.85).aspx
@@ -356,12 +456,11 @@ public class KeyboardTranslator implements InputManager.InputDeviceListener {
                 break;
 
             default:
-                System.out.println("No key for "+keycode);
                 return 0;
             }
         }
-        
-        return (short) ((KEY_PREFIX << 8) | translated);
+
+        return translated;
     }
 
     @Override
@@ -369,7 +468,7 @@ public class KeyboardTranslator implements InputManager.InputDeviceListener {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
             InputDevice device = InputDevice.getDevice(index);
             if (device != null && device.getKeyboardType() == InputDevice.KEYBOARD_TYPE_ALPHABETIC) {
-                keyboardMappings.put(index, new KeyboardMapping(device));
+                keyboardMappings.put(index, new KeyboardMapping(device, keyTable));
             }
         }
     }
@@ -386,7 +485,7 @@ public class KeyboardTranslator implements InputManager.InputDeviceListener {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
             InputDevice device = InputDevice.getDevice(index);
             if (device != null && device.getKeyboardType() == InputDevice.KEYBOARD_TYPE_ALPHABETIC) {
-                keyboardMappings.set(index, new KeyboardMapping(device));
+                keyboardMappings.set(index, new KeyboardMapping(device, keyTable));
             }
         }
     }
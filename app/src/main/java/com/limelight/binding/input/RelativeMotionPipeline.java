@@ -0,0 +1,70 @@
+package com.limelight.binding.input;
+
+// Turns the relative motion samples of mouse and touchpad events into whole-pixel deltas.
+// Android batches samples from high-rate devices into a single MotionEvent, so the caller
+// passes in every historical sample along with the current one. The fractional part of
+// each delta is carried over to the next event instead of being truncated away, so slow
+// or high-DPI motion adds up to the same distance the device reported.
+//
+// This must only be used from a single thread.
+public class RelativeMotionPipeline {
+    private float pendingX;
+    private float pendingY;
+
+    private long lastSampleTimeMs = -1;
+
+    private long samples;
+    private long events;
+    private long firstSampleTimeMs = -1;
+
+    // Adds the motion of one sample that happened at eventTimeMs
+    public void addSample(float deltaX, float deltaY, long eventTimeMs) {
+        pendingX += deltaX;
+        pendingY += deltaY;
+
+        samples++;
+        if (firstSampleTimeMs < 0) {
+            firstSampleTimeMs = eventTimeMs;
+        }
+        lastSampleTimeMs = eventTimeMs;
+    }
+
+    // Removes the whole-pixel part of the horizontal motion so far and returns it.
+    // Anything beyond the range of a short is left for the next call.
+    public short takeDeltaX() {
+        short delta = wholePixels(pendingX);
+        pendingX -= delta;
+        return delta;
+    }
+
+    public short takeDeltaY() {
+        short delta = wholePixels(pendingY);
+        pendingY -= delta;
+        return delta;
+    }
+
+    // Called once per MotionEvent after its samples have been added
+    public void endEvent() {
+        events++;
+    }
+
+    // Drops any leftover fraction, like when the pointer is no longer captured
+    public void reset() {
+        pendingX = 0;
+        pendingY = 0;
+    }
+
+    private static short wholePixels(float value) {
+        // Truncate toward zero so the remainder keeps the sign of the motion
+        return (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, (int)value));
+    }
+
+    public String getStatistics() {
+        String stats = "Relative pointer motion: "+samples+" samples in "+events+" events";
+        long spanMs = lastSampleTimeMs - firstSampleTimeMs;
+        if (spanMs > 0) {
+            stats += " (average "+(samples * 1000 / spanMs)+" samples per second)";
+        }
+        return stats;
+    }
+}
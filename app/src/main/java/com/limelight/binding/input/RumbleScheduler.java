@@ -0,0 +1,169 @@
+package com.limelight.binding.input;
+
+// Applies rumble updates on a dedicated thread, so slow vibrator calls never hold up the
+// thread that receives them from the host. Hosts can send rumble updates much faster than
+// vibrators can usefully change, so updates for a controller that arrive while an earlier
+// one is still waiting replace it, and only the latest value is applied. Stop updates for
+// a controller that is already stopped are dropped. Non-zero updates are always applied,
+// even if they repeat the current values, since vibrator effects don't last forever.
+public class RumbleScheduler {
+    private static final int MAX_CONTROLLERS = 16;
+
+    public interface Listener {
+        // Called on the rumble thread
+        void onRumble(short controllerNumber, short lowFreqMotor, short highFreqMotor);
+    }
+
+    private final Listener listener;
+    private final Thread rumbleThread;
+    private boolean stopped;
+
+    // Latest values waiting to be applied, one bit per controller in pendingMask
+    private final short[] pendingLowFreq = new short[MAX_CONTROLLERS];
+    private final short[] pendingHighFreq = new short[MAX_CONTROLLERS];
+    private int pendingMask;
+
+    // Controllers whose applied state must be forgotten, one bit per controller
+    private int resetMask;
+
+    // Only used by the rumble thread
+    private final short[] appliedLowFreq = new short[MAX_CONTROLLERS];
+    private final short[] appliedHighFreq = new short[MAX_CONTROLLERS];
+
+    private long receivedUpdates;
+    private long coalescedUpdates;
+    private long unchangedUpdates;
+    private long sentUpdates;
+
+    public RumbleScheduler(Listener listener) {
+        this.listener = listener;
+        this.rumbleThread = new Thread() {
+            @Override
+            public void run() {
+                runRumbleLoop();
+            }
+        };
+        this.rumbleThread.setName("Rumble Scheduler");
+        this.rumbleThread.start();
+    }
+
+    public void scheduleRumble(short controllerNumber, short lowFreqMotor, short highFreqMotor) {
+        if (controllerNumber < 0 || controllerNumber >= MAX_CONTROLLERS) {
+            // Not something we track, so just pass it through
+            listener.onRumble(controllerNumber, lowFreqMotor, highFreqMotor);
+            return;
+        }
+
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+
+            receivedUpdates++;
+
+            int bit = 1 << controllerNumber;
+            if ((pendingMask & bit) != 0) {
+                // The previous update was never applied
+                coalescedUpdates++;
+            }
+
+            pendingLowFreq[controllerNumber] = lowFreqMotor;
+            pendingHighFreq[controllerNumber] = highFreqMotor;
+            pendingMask |= bit;
+            notify();
+        }
+    }
+
+    private void runRumbleLoop() {
+        short[] lowFreq = new short[MAX_CONTROLLERS];
+        short[] highFreq = new short[MAX_CONTROLLERS];
+
+        while (true) {
+            int mask, reset;
+            synchronized (this) {
+                while (pendingMask == 0 && !stopped) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                if (stopped) {
+                    return;
+                }
+
+                // Take the pending updates so more can arrive while we apply these
+                mask = pendingMask;
+                pendingMask = 0;
+                reset = resetMask;
+                resetMask = 0;
+                System.arraycopy(pendingLowFreq, 0, lowFreq, 0, MAX_CONTROLLERS);
+                System.arraycopy(pendingHighFreq, 0, highFreq, 0, MAX_CONTROLLERS);
+            }
+
+            for (short i = 0; i < MAX_CONTROLLERS; i++) {
+                if ((reset & (1 << i)) != 0) {
+                    appliedLowFreq[i] = 0;
+                    appliedHighFreq[i] = 0;
+                }
+
+                if ((mask & (1 << i)) == 0) {
+                    continue;
+                }
+
+                if (lowFreq[i] == 0 && highFreq[i] == 0 &&
+                        appliedLowFreq[i] == 0 && appliedHighFreq[i] == 0) {
+                    synchronized (this) {
+                        unchangedUpdates++;
+                    }
+                    continue;
+                }
+
+                listener.onRumble(i, lowFreq[i], highFreq[i]);
+                appliedLowFreq[i] = lowFreq[i];
+                appliedHighFreq[i] = highFreq[i];
+
+                synchronized (this) {
+                    sentUpdates++;
+                }
+            }
+        }
+    }
+
+    // Forgets what was applied to a controller when its device goes away or another
+    // device takes over its number. The next device starts out stopped.
+    public void reset(short controllerNumber) {
+        if (controllerNumber < 0 || controllerNumber >= MAX_CONTROLLERS) {
+            return;
+        }
+
+        synchronized (this) {
+            resetMask |= 1 << controllerNumber;
+        }
+    }
+
+    // Stops the rumble thread. Updates that haven't been applied yet are dropped.
+    public void stop() {
+        synchronized (this) {
+            stopped = true;
+            notify();
+        }
+
+        try {
+            rumbleThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+
+            // InterruptedException clears the thread's interrupt status. Since we can't
+            // handle that here, we will re-interrupt the thread to set the interrupt
+            // status back to true.
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized String getStatistics() {
+        return "Rumble: "+receivedUpdates+" updates received, "+sentUpdates+" sent, "+
+                coalescedUpdates+" replaced by a newer update, "+unchangedUpdates+" already stopped";
+    }
+}
@@ -109,26 +109,34 @@ public class AndroidNativePointerCaptureProvider extends AndroidPointerIconCaptu
                 (eventSource == InputDevice.SOURCE_TOUCHPAD && targetView.hasPointerCapture());
     }
 
+    private static int getRelativeAxisXForSource(MotionEvent event) {
+        return (event.getSource() == InputDevice.SOURCE_MOUSE_RELATIVE) ?
+                MotionEvent.AXIS_X : MotionEvent.AXIS_RELATIVE_X;
+    }
+
+    private static int getRelativeAxisYForSource(MotionEvent event) {
+        return (event.getSource() == InputDevice.SOURCE_MOUSE_RELATIVE) ?
+                MotionEvent.AXIS_Y : MotionEvent.AXIS_RELATIVE_Y;
+    }
+
     @Override
     public float getRelativeAxisX(MotionEvent event) {
-        int axis = (event.getSource() == InputDevice.SOURCE_MOUSE_RELATIVE) ?
-                MotionEvent.AXIS_X : MotionEvent.AXIS_RELATIVE_X;
-        float x = event.getAxisValue(axis);
-        for (int i = 0; i < event.getHistorySize(); i++) {
-            x += event.getHistoricalAxisValue(axis, i);
-        }
-        return x;
+        return event.getAxisValue(getRelativeAxisXForSource(event));
     }
 
     @Override
     public float getRelativeAxisY(MotionEvent event) {
-        int axis = (event.getSource() == InputDevice.SOURCE_MOUSE_RELATIVE) ?
-                MotionEvent.AXIS_Y : MotionEvent.AXIS_RELATIVE_Y;
-        float y = event.getAxisValue(axis);
-        for (int i = 0; i < event.getHistorySize(); i++) {
-            y += event.getHistoricalAxisValue(axis, i);
-        }
-        return y;
+        return event.getAxisValue(getRelativeAxisYForSource(event));
+    }
+
+    @Override
+    public float getHistoricalRelativeAxisX(MotionEvent event, int pos) {
+        return event.getHistoricalAxisValue(getRelativeAxisXForSource(event), pos);
+    }
+
+    @Override
+    public float getHistoricalRelativeAxisY(MotionEvent event, int pos) {
+        return event.getHistoricalAxisValue(getRelativeAxisYForSource(event), pos);
     }
 
     @Override
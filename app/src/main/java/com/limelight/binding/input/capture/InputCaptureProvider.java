@@ -34,5 +34,14 @@ public abstract class InputCaptureProvider {
         return 0;
     }
 
+    // Relative motion of a batched sample from before the current one
+    public float getHistoricalRelativeAxisX(MotionEvent event, int pos) {
+        return 0;
+    }
+
+    public float getHistoricalRelativeAxisY(MotionEvent event, int pos) {
+        return 0;
+    }
+
     public void onWindowFocusChanged(boolean focusActive) {}
 }
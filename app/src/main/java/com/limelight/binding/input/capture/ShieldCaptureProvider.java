@@ -90,4 +90,14 @@ public class ShieldCaptureProvider extends InputCaptureProvider {
     public float getRelativeAxisY(MotionEvent event) {
         return event.getAxisValue(AXIS_RELATIVE_Y);
     }
+
+    @Override
+    public float getHistoricalRelativeAxisX(MotionEvent event, int pos) {
+        return event.getHistoricalAxisValue(AXIS_RELATIVE_X, pos);
+    }
+
+    @Override
+    public float getHistoricalRelativeAxisY(MotionEvent event, int pos) {
+        return event.getHistoricalAxisValue(AXIS_RELATIVE_Y, pos);
+    }
 }
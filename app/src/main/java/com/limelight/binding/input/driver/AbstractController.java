@@ -13,6 +13,9 @@ public abstract class AbstractController {
     protected float rightStickX, rightStickY;
     protected float leftStickX, leftStickY;
 
+    // When the input being reported arrived, in the SystemClock.uptimeMillis() clock
+    protected long inputTimeMs;
+
     public int getControllerId() {
         return deviceId;
     }
@@ -25,6 +28,10 @@ public abstract class AbstractController {
         return productId;
     }
 
+    public long getInputTime() {
+        return inputTimeMs;
+    }
+
     protected void setButtonFlag(int buttonFlag, int data) {
         if (data != 0) {
             buttonFlags |= buttonFlag;
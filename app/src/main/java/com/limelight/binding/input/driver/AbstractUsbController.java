@@ -0,0 +1,228 @@
+package com.limelight.binding.input.driver;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+import android.os.Build;
+
+import com.limelight.LimeLog;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Base class for controllers that we drive directly over USB. Subclasses find the
+// IN endpoint and do any device setup, then startInputThread() reads input reports
+// from it and hands each one to handleRead().
+public abstract class AbstractUsbController extends AbstractController {
+    // Number of input reads kept queued with the device
+    private static final int INPUT_REQUEST_COUNT = 4;
+
+    // Consecutive reads that complete with no data before we assume the device failed
+    private static final int MAX_EMPTY_READS = 16;
+
+    protected final UsbDevice device;
+    protected final UsbDeviceConnection connection;
+
+    private Thread inputThread;
+    private volatile boolean stopped;
+
+    // Reads queued by the input thread. stop() cancels them to wake up requestWait().
+    private final UsbRequest[] inputRequests = new UsbRequest[INPUT_REQUEST_COUNT];
+
+    protected UsbEndpoint inEndpt;
+
+    public AbstractUsbController(UsbDevice device, UsbDeviceConnection connection, int deviceId, UsbDriverListener listener) {
+        super(deviceId, listener, device.getVendorId(), device.getProductId());
+        this.device = device;
+        this.connection = connection;
+    }
+
+    private Thread createInputThread() {
+        return new Thread() {
+            public void run() {
+                try {
+                    // Delay for a moment before reporting the new gamepad and
+                    // accepting new input. This allows time for the old InputDevice
+                    // to go away before we reclaim its spot. If the old device is still
+                    // around when we call notifyDeviceAdded(), we won't be able to claim
+                    // the controller number used by the original InputDevice.
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                // Report that we're added _before_ reporting input
+                notifyDeviceAdded();
+
+                UsbReportTimer timer = new UsbReportTimer();
+                boolean failed = false;
+                try {
+                    // Keep several reads queued so the controller always has somewhere
+                    // to put its next report while we handle the last one
+                    int bufferSize = Math.max(inEndpt.getMaxPacketSize(), getMaxInputReportSize());
+                    for (int i = 0; i < INPUT_REQUEST_COUNT; i++) {
+                        UsbRequest request = new UsbRequest();
+                        if (!request.initialize(connection, inEndpt)) {
+                            LimeLog.warning("Failed to initialize USB request");
+                            failed = true;
+                            return;
+                        }
+
+                        synchronized (inputRequests) {
+                            inputRequests[i] = request;
+                        }
+
+                        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+                        request.setClientData(buffer);
+                        if (stopped || !queueRead(request, buffer)) {
+                            if (!stopped) {
+                                LimeLog.warning("Failed to queue USB request");
+                                failed = true;
+                            }
+                            return;
+                        }
+                    }
+
+                    int emptyReads = 0;
+                    while (!isInterrupted() && !stopped) {
+                        // stop() cancels our reads, so this also returns once we've been stopped
+                        UsbRequest request = connection.requestWait();
+                        if (request == null || stopped) {
+                            if (!stopped) {
+                                LimeLog.warning("Detected device I/O error");
+                                failed = true;
+                            }
+                            break;
+                        }
+
+                        ByteBuffer buffer = (ByteBuffer) request.getClientData();
+
+                        // The position is left at the number of bytes read. Failed transfers
+                        // also complete with nothing read, so too many in a row means the
+                        // device has gone away.
+                        if (buffer.position() == 0) {
+                            if (++emptyReads >= MAX_EMPTY_READS) {
+                                LimeLog.warning("Detected device I/O error");
+                                failed = true;
+                                break;
+                            }
+                        }
+                        else {
+                            emptyReads = 0;
+                            long receiveTimeNs = System.nanoTime();
+                            timer.onReportReceived(receiveTimeNs);
+                            inputTimeMs = receiveTimeNs / 1000000;
+
+                            buffer.flip();
+                            if (handleRead(buffer)) {
+                                // Report input if handleRead() returns true
+                                reportInput();
+                            }
+
+                            timer.onReportHandled(System.nanoTime());
+                        }
+
+                        // Put the buffer back in the queue for another report
+                        buffer.clear();
+                        if (!queueRead(request, buffer)) {
+                            if (!stopped) {
+                                LimeLog.warning("Failed to queue USB request");
+                                failed = true;
+                            }
+                            break;
+                        }
+                    }
+                } finally {
+                    // This runs before the connection is closed, since stop() waits
+                    // for us to exit and we only call it ourselves below
+                    synchronized (inputRequests) {
+                        for (int i = 0; i < inputRequests.length; i++) {
+                            if (inputRequests[i] != null) {
+                                inputRequests[i].cancel();
+                                inputRequests[i].close();
+                                inputRequests[i] = null;
+                            }
+                        }
+                    }
+
+                    LimeLog.info(timer.getStatistics());
+
+                    if (failed) {
+                        AbstractUsbController.this.stop();
+                    }
+                }
+            }
+        };
+    }
+
+    @SuppressWarnings("deprecation")
+    private static boolean queueRead(UsbRequest request, ByteBuffer buffer) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return request.queue(buffer);
+        }
+        else {
+            return request.queue(buffer, buffer.capacity());
+        }
+    }
+
+    // Start listening for controller input
+    protected void startInputThread() {
+        inputThread = createInputThread();
+        inputThread.start();
+    }
+
+    public void stop() {
+        if (stopped) {
+            return;
+        }
+
+        stopped = true;
+
+        // Cancel any rumble effects
+        rumble((short)0, (short)0);
+
+        // Stop the input thread
+        if (inputThread != null) {
+            inputThread.interrupt();
+
+            if (Thread.currentThread() != inputThread) {
+                // Closing the connection doesn't wake up requestWait(), so cancel
+                // the queued reads and wait for the thread to clean them up
+                synchronized (inputRequests) {
+                    for (UsbRequest request : inputRequests) {
+                        if (request != null) {
+                            request.cancel();
+                        }
+                    }
+                }
+
+                try {
+                    inputThread.join();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+
+                    // InterruptedException clears the thread's interrupt status. Since we can't
+                    // handle that here, we will re-interrupt the thread to set the interrupt
+                    // status back to true.
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            inputThread = null;
+        }
+
+        // Close the USB connection
+        connection.close();
+
+        // Report the device removed
+        notifyDeviceRemoved();
+    }
+
+    // The largest input report the device can send
+    protected int getMaxInputReportSize() {
+        return 64;
+    }
+
+    protected abstract boolean handleRead(ByteBuffer buffer);
+}
@@ -0,0 +1,208 @@
+package com.limelight.binding.input.driver;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.os.Build;
+import android.view.InputDevice;
+
+import com.limelight.LimeLog;
+
+import java.nio.ByteBuffer;
+
+// Driver for wired HID gamepads that don't have a driver of their own. Reports are
+// decoded using the layout from the device's HID report descriptor.
+public class HidController extends AbstractUsbController {
+    private static final int HID_DESCRIPTOR_TYPE = 0x21;
+    private static final int HID_REPORT_DESCRIPTOR_TYPE = 0x22;
+    private static final int INTERFACE_DESCRIPTOR_TYPE = 0x04;
+
+    private static final int HID_PROTOCOL_NONE = 0;
+
+    private static final int USB_REQUEST_GET_DESCRIPTOR = 0x06;
+    private static final int HID_REQUEST_SET_IDLE = 0x0A;
+
+    // Used if we can't find the report descriptor's length
+    private static final int DEFAULT_REPORT_DESCRIPTOR_LENGTH = 1024;
+
+    private UsbInterface hidInterface;
+    private HidReportDecoder decoder;
+
+    public static boolean canClaimDevice(UsbDevice device) {
+        return findHidInterface(device) != null &&
+                !XboxOneController.canClaimDevice(device) &&
+                !Xbox360Controller.canClaimDevice(device);
+    }
+
+    // The only way to tell that a HID device is a gamepad before we have permission to
+    // read its report descriptor is to see what kind of input device the kernel made for it.
+    public static boolean isRecognizedGamepad(UsbDevice device) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return false;
+        }
+
+        for (int id : InputDevice.getDeviceIds()) {
+            InputDevice inputDev = InputDevice.getDevice(id);
+            if (inputDev == null) {
+                // Device was removed while looping
+                continue;
+            }
+
+            if (inputDev.getVendorId() == device.getVendorId() &&
+                    inputDev.getProductId() == device.getProductId() &&
+                    ((inputDev.getSources() & InputDevice.SOURCE_JOYSTICK) == InputDevice.SOURCE_JOYSTICK ||
+                            (inputDev.getSources() & InputDevice.SOURCE_GAMEPAD) == InputDevice.SOURCE_GAMEPAD)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static UsbInterface findHidInterface(UsbDevice device) {
+        for (int i = 0; i < device.getInterfaceCount(); i++) {
+            UsbInterface iface = device.getInterface(i);
+
+            // Boot keyboards and mice are never gamepads
+            if (iface.getInterfaceClass() != UsbConstants.USB_CLASS_HID ||
+                    iface.getInterfaceProtocol() != HID_PROTOCOL_NONE) {
+                continue;
+            }
+
+            if (findInterruptInEndpoint(iface) != null) {
+                return iface;
+            }
+        }
+
+        return null;
+    }
+
+    private static UsbEndpoint findInterruptInEndpoint(UsbInterface iface) {
+        for (int i = 0; i < iface.getEndpointCount(); i++) {
+            UsbEndpoint endpt = iface.getEndpoint(i);
+            if (endpt.getDirection() == UsbConstants.USB_DIR_IN &&
+                    endpt.getType() == UsbConstants.USB_ENDPOINT_XFER_INT) {
+                return endpt;
+            }
+        }
+
+        return null;
+    }
+
+    public HidController(UsbDevice device, UsbDeviceConnection connection, int deviceId, UsbDriverListener listener) {
+        super(device, connection, deviceId, listener);
+    }
+
+    // Finds the report descriptor length in the HID descriptor that follows our interface descriptor
+    private int getReportDescriptorLength() {
+        byte[] descriptors = connection.getRawDescriptors();
+        if (descriptors == null) {
+            return DEFAULT_REPORT_DESCRIPTOR_LENGTH;
+        }
+
+        boolean inInterface = false;
+        int offset = 0;
+        while (offset + 1 < descriptors.length) {
+            int length = descriptors[offset] & 0xFF;
+            int type = descriptors[offset + 1] & 0xFF;
+            if (length < 2 || offset + length > descriptors.length) {
+                break;
+            }
+
+            if (type == INTERFACE_DESCRIPTOR_TYPE && length >= 3) {
+                inInterface = (descriptors[offset + 2] & 0xFF) == hidInterface.getId();
+            }
+            else if (type == HID_DESCRIPTOR_TYPE && inInterface && length >= 9 &&
+                    (descriptors[offset + 6] & 0xFF) == HID_REPORT_DESCRIPTOR_TYPE) {
+                return (descriptors[offset + 7] & 0xFF) | ((descriptors[offset + 8] & 0xFF) << 8);
+            }
+
+            offset += length;
+        }
+
+        return DEFAULT_REPORT_DESCRIPTOR_LENGTH;
+    }
+
+    private byte[] readReportDescriptor() {
+        byte[] buffer = new byte[getReportDescriptorLength()];
+        int res = connection.controlTransfer(UsbConstants.USB_DIR_IN | 0x01, // Standard, interface
+                USB_REQUEST_GET_DESCRIPTOR, HID_REPORT_DESCRIPTOR_TYPE << 8, hidInterface.getId(),
+                buffer, buffer.length, 3000);
+        if (res <= 0) {
+            LimeLog.warning("Failed to read HID report descriptor: "+res);
+            return null;
+        }
+
+        byte[] descriptor = new byte[res];
+        System.arraycopy(buffer, 0, descriptor, 0, res);
+        return descriptor;
+    }
+
+    public boolean start() {
+        hidInterface = findHidInterface(device);
+        if (hidInterface == null) {
+            LimeLog.warning("Missing HID interface");
+            return false;
+        }
+
+        // Take the interface from the kernel's HID driver. We can't read the report
+        // descriptor until we have, so it's given back if the descriptor is no good.
+        if (!connection.claimInterface(hidInterface, true)) {
+            LimeLog.warning("Failed to claim HID interface");
+            return false;
+        }
+
+        inEndpt = findInterruptInEndpoint(hidInterface);
+
+        byte[] descriptor = readReportDescriptor();
+        if (descriptor == null) {
+            connection.releaseInterface(hidInterface);
+            return false;
+        }
+
+        decoder = HidReportDescriptorParser.parse(descriptor);
+        if (decoder == null) {
+            LimeLog.warning("Unsupported HID report descriptor");
+            connection.releaseInterface(hidInterface);
+            return false;
+        }
+
+        // Only send reports when something changes. Not all devices support this,
+        // so it's fine if it fails.
+        connection.controlTransfer(UsbConstants.USB_DIR_OUT | 0x21, // Class, interface
+                HID_REQUEST_SET_IDLE, 0, hidInterface.getId(), null, 0, 1000);
+
+        // Start listening for controller input
+        startInputThread();
+
+        return true;
+    }
+
+    @Override
+    protected int getMaxInputReportSize() {
+        return Math.max(decoder.getMaxReportSize(), super.getMaxInputReportSize());
+    }
+
+    @Override
+    protected boolean handleRead(ByteBuffer buffer) {
+        if (!decoder.decode(buffer)) {
+            return false;
+        }
+
+        buttonFlags = decoder.getButtonFlags();
+        leftStickX = decoder.getAxis(HidReportDecoder.AXIS_LEFT_STICK_X);
+        leftStickY = decoder.getAxis(HidReportDecoder.AXIS_LEFT_STICK_Y);
+        rightStickX = decoder.getAxis(HidReportDecoder.AXIS_RIGHT_STICK_X);
+        rightStickY = decoder.getAxis(HidReportDecoder.AXIS_RIGHT_STICK_Y);
+        leftTrigger = decoder.getAxis(HidReportDecoder.AXIS_LEFT_TRIGGER);
+        rightTrigger = decoder.getAxis(HidReportDecoder.AXIS_RIGHT_TRIGGER);
+        return true;
+    }
+
+    @Override
+    public void rumble(short lowFreqMotor, short highFreqMotor) {
+        // Generic HID gamepads have no standard rumble report
+    }
+}
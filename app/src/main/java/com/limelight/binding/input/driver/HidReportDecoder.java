@@ -0,0 +1,179 @@
+package com.limelight.binding.input.driver;
+
+import com.limelight.nvstream.input.ControllerPacket;
+
+import java.nio.ByteBuffer;
+
+// Decodes HID input reports using the field layout that HidReportDescriptorParser
+// worked out from the device's report descriptor. Each field is just a bit offset,
+// a width, and a precomputed scale, so decoding a report is a straight loop over the
+// fields for its report ID and doesn't allocate.
+//
+// This must only be used from a single thread.
+public class HidReportDecoder {
+    static final int KIND_BUTTON = 0;
+    // Sticks go from -1 at the logical minimum to 1 at the logical maximum. HID puts up
+    // and left at the minimum, which matches Android's axes.
+    static final int KIND_STICK = 1;
+    static final int KIND_TRIGGER = 2;
+    static final int KIND_HAT = 3;
+
+    public static final int AXIS_LEFT_STICK_X = 0;
+    public static final int AXIS_LEFT_STICK_Y = 1;
+    public static final int AXIS_RIGHT_STICK_X = 2;
+    public static final int AXIS_RIGHT_STICK_Y = 3;
+    public static final int AXIS_LEFT_TRIGGER = 4;
+    public static final int AXIS_RIGHT_TRIGGER = 5;
+    public static final int AXIS_COUNT = 6;
+
+    private static final int DPAD_FLAGS = ControllerPacket.UP_FLAG | ControllerPacket.DOWN_FLAG |
+            ControllerPacket.LEFT_FLAG | ControllerPacket.RIGHT_FLAG;
+
+    // D-pad flags for each hat position, starting at north and going clockwise
+    private static final int[] HAT_MAP = {
+            ControllerPacket.UP_FLAG,
+            ControllerPacket.UP_FLAG | ControllerPacket.RIGHT_FLAG,
+            ControllerPacket.RIGHT_FLAG,
+            ControllerPacket.DOWN_FLAG | ControllerPacket.RIGHT_FLAG,
+            ControllerPacket.DOWN_FLAG,
+            ControllerPacket.DOWN_FLAG | ControllerPacket.LEFT_FLAG,
+            ControllerPacket.LEFT_FLAG,
+            ControllerPacket.UP_FLAG | ControllerPacket.LEFT_FLAG,
+    };
+
+    private final boolean usesReportIds;
+    private final int maxReportSize;
+
+    // Fields are sorted by report ID, and reportStart/reportEnd give each ID's range
+    private final int[] bitOffsets;
+    private final int[] bitSizes;
+    private final boolean[] signed;
+    private final int[] kinds;
+    private final int[] targets;
+    private final int[] logicalMins;
+    private final float[] scales;
+    private final float[] offsets;
+    private final int[] reportStart = new int[256];
+    private final int[] reportEnd = new int[256];
+
+    private int buttonFlags;
+    private final float[] axes = new float[AXIS_COUNT];
+
+    HidReportDecoder(boolean usesReportIds, int maxReportSize, int[] reportIds, int[] bitOffsets,
+                     int[] bitSizes, boolean[] signed, int[] kinds, int[] targets, int[] logicalMins,
+                     float[] scales, float[] offsets) {
+        this.usesReportIds = usesReportIds;
+        this.maxReportSize = maxReportSize;
+        this.bitOffsets = bitOffsets;
+        this.bitSizes = bitSizes;
+        this.signed = signed;
+        this.kinds = kinds;
+        this.targets = targets;
+        this.logicalMins = logicalMins;
+        this.scales = scales;
+        this.offsets = offsets;
+
+        for (int i = 0; i < reportIds.length; i++) {
+            int reportId = reportIds[i];
+            if (reportEnd[reportId] == 0) {
+                reportStart[reportId] = i;
+            }
+            reportEnd[reportId] = i + 1;
+        }
+    }
+
+    public int getMaxReportSize() {
+        return maxReportSize;
+    }
+
+    // Decodes the report between the buffer's position and limit. Returns false if
+    // the report didn't contain any fields we use.
+    public boolean decode(ByteBuffer report) {
+        int base = report.position();
+        int length = report.limit() - base;
+        if (length <= 0) {
+            return false;
+        }
+
+        int reportId = 0;
+        if (usesReportIds) {
+            reportId = report.get(base) & 0xFF;
+            base++;
+            length--;
+        }
+
+        int start = reportStart[reportId];
+        int end = reportEnd[reportId];
+        if (start == end) {
+            return false;
+        }
+
+        int lengthBits = length * 8;
+        for (int i = start; i < end; i++) {
+            int bitOffset = bitOffsets[i];
+            int bitSize = bitSizes[i];
+            if (bitOffset + bitSize > lengthBits) {
+                // Short report, so skip what it doesn't include
+                continue;
+            }
+
+            int value = readBits(report, base, bitOffset, bitSize, signed[i]);
+            switch (kinds[i]) {
+                case KIND_BUTTON:
+                    if (value != 0) {
+                        buttonFlags |= targets[i];
+                    }
+                    else {
+                        buttonFlags &= ~targets[i];
+                    }
+                    break;
+
+                case KIND_HAT:
+                    buttonFlags &= ~DPAD_FLAGS;
+                    value -= logicalMins[i];
+                    // Values out of range mean the hat is centered
+                    if (value >= 0 && value < HAT_MAP.length) {
+                        buttonFlags |= HAT_MAP[value];
+                    }
+                    break;
+
+                default:
+                    float axis = value * scales[i] + offsets[i];
+                    axes[targets[i]] = Math.max(-1.0f, Math.min(1.0f, axis));
+                    break;
+            }
+        }
+
+        return true;
+    }
+
+    private static int readBits(ByteBuffer report, int base, int bitOffset, int bitSize, boolean signed) {
+        int byteOffset = base + (bitOffset >> 3);
+        int shift = bitOffset & 7;
+
+        // Fields are at most 32 bits, so they span at most 5 bytes
+        int byteCount = (shift + bitSize + 7) >> 3;
+        long raw = 0;
+        for (int i = 0; i < byteCount; i++) {
+            raw |= (long)(report.get(byteOffset + i) & 0xFF) << (i * 8);
+        }
+
+        raw >>>= shift;
+        if (bitSize < 32) {
+            raw &= (1L << bitSize) - 1;
+            if (signed && (raw & (1L << (bitSize - 1))) != 0) {
+                raw -= 1L << bitSize;
+            }
+        }
+
+        return (int)raw;
+    }
+
+    public short getButtonFlags() {
+        return (short)buttonFlags;
+    }
+
+    public float getAxis(int axis) {
+        return axes[axis];
+    }
+}
@@ -0,0 +1,537 @@
+package com.limelight.binding.input.driver;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.input.ControllerPacket;
+
+import java.util.ArrayList;
+
+// Parses a HID report descriptor into a HidReportDecoder. The descriptor is walked once
+// when the device is opened, and every input field we understand is turned into a fixed
+// bit position, width, and scaling that the decoder applies to each report.
+//
+// Malformed descriptors must not throw, since they come straight from the device.
+public class HidReportDescriptorParser {
+    private static final int ITEM_TYPE_MAIN = 0;
+    private static final int ITEM_TYPE_GLOBAL = 1;
+    private static final int ITEM_TYPE_LOCAL = 2;
+
+    private static final int MAIN_INPUT = 0x8;
+    private static final int MAIN_OUTPUT = 0x9;
+    private static final int MAIN_COLLECTION = 0xA;
+    private static final int MAIN_FEATURE = 0xB;
+    private static final int MAIN_END_COLLECTION = 0xC;
+
+    private static final int GLOBAL_USAGE_PAGE = 0x0;
+    private static final int GLOBAL_LOGICAL_MINIMUM = 0x1;
+    private static final int GLOBAL_LOGICAL_MAXIMUM = 0x2;
+    private static final int GLOBAL_REPORT_SIZE = 0x7;
+    private static final int GLOBAL_REPORT_ID = 0x8;
+    private static final int GLOBAL_REPORT_COUNT = 0x9;
+    private static final int GLOBAL_PUSH = 0xA;
+    private static final int GLOBAL_POP = 0xB;
+
+    private static final int LOCAL_USAGE = 0x0;
+    private static final int LOCAL_USAGE_MINIMUM = 0x1;
+    private static final int LOCAL_USAGE_MAXIMUM = 0x2;
+
+    private static final int COLLECTION_APPLICATION = 0x01;
+
+    private static final int INPUT_FLAG_CONSTANT = 0x01;
+    private static final int INPUT_FLAG_VARIABLE = 0x02;
+
+    private static final int USAGE_PAGE_GENERIC_DESKTOP = 0x01;
+    private static final int USAGE_PAGE_SIMULATION = 0x02;
+    private static final int USAGE_PAGE_BUTTON = 0x09;
+
+    private static final int USAGE_JOYSTICK = 0x04;
+    private static final int USAGE_GAMEPAD = 0x05;
+    private static final int USAGE_X = 0x30;
+    private static final int USAGE_Y = 0x31;
+    private static final int USAGE_Z = 0x32;
+    private static final int USAGE_RX = 0x33;
+    private static final int USAGE_RY = 0x34;
+    private static final int USAGE_RZ = 0x35;
+    private static final int USAGE_HAT_SWITCH = 0x39;
+    private static final int USAGE_DPAD_UP = 0x90;
+    private static final int USAGE_DPAD_DOWN = 0x91;
+    private static final int USAGE_DPAD_RIGHT = 0x92;
+    private static final int USAGE_DPAD_LEFT = 0x93;
+    private static final int USAGE_ACCELERATOR = 0xC4;
+    private static final int USAGE_BRAKE = 0xC5;
+
+    // Button usages in the order Linux assigns them to gamepad buttons
+    // (south, east, C, north, west, Z, TL, TR, TL2, TR2, select, start, mode, thumbl, thumbr).
+    // Buttons without an equivalent on our controller are 0.
+    private static final int[] BUTTON_MAP = {
+            ControllerPacket.A_FLAG,
+            ControllerPacket.B_FLAG,
+            0,
+            ControllerPacket.X_FLAG,
+            ControllerPacket.Y_FLAG,
+            0,
+            ControllerPacket.LB_FLAG,
+            ControllerPacket.RB_FLAG,
+            0,
+            0,
+            ControllerPacket.BACK_FLAG,
+            ControllerPacket.PLAY_FLAG,
+            ControllerPacket.SPECIAL_BUTTON_FLAG,
+            ControllerPacket.LS_CLK_FLAG,
+            ControllerPacket.RS_CLK_FLAG,
+    };
+
+    // Longest input report we'll accept
+    private static final int MAX_REPORT_BITS = 1024 * 8;
+
+    // Deeper nesting than this is treated as a malformed descriptor
+    private static final int MAX_STACK_DEPTH = 16;
+
+    private static class GlobalState {
+        int usagePage;
+        int logicalMin, logicalMax;
+        int logicalMaxSize;
+        int reportSize, reportCount;
+        int reportId;
+
+        GlobalState copy() {
+            GlobalState state = new GlobalState();
+            state.usagePage = usagePage;
+            state.logicalMin = logicalMin;
+            state.logicalMax = logicalMax;
+            state.logicalMaxSize = logicalMaxSize;
+            state.reportSize = reportSize;
+            state.reportCount = reportCount;
+            state.reportId = reportId;
+            return state;
+        }
+    }
+
+    private static class Field {
+        int reportId;
+        int bitOffset, bitSize;
+        boolean signed;
+        int kind, target;
+        int logicalMin, logicalMax;
+    }
+
+    private GlobalState global = new GlobalState();
+    private final ArrayList<GlobalState> globalStack = new ArrayList<>();
+
+    // Usages are stored with the usage page in the top 16 bits
+    private final ArrayList<Integer> usages = new ArrayList<>();
+    private int usageMin = -1, usageMax = -1;
+
+    // Bit length of each report so far, indexed by report ID
+    private final int[] reportBits = new int[256];
+    private boolean usesReportIds;
+
+    private int collectionDepth;
+    private int gamepadCollectionDepth = -1;
+    private boolean foundGamepad;
+
+    private final ArrayList<Field> fields = new ArrayList<>();
+    private int mappedTargets;
+
+    private HidReportDescriptorParser() {}
+
+    // Returns null if the descriptor is malformed or doesn't describe a gamepad or joystick
+    public static HidReportDecoder parse(byte[] descriptor) {
+        HidReportDescriptorParser parser = new HidReportDescriptorParser();
+        if (!parser.parseItems(descriptor)) {
+            return null;
+        }
+        if (!parser.foundGamepad || parser.fields.isEmpty()) {
+            LimeLog.info("HID descriptor has no gamepad inputs");
+            return null;
+        }
+        return parser.compile();
+    }
+
+    private boolean parseItems(byte[] descriptor) {
+        int offset = 0;
+        while (offset < descriptor.length) {
+            int prefix = descriptor[offset++] & 0xFF;
+
+            // Long items aren't used for anything we need, so skip them
+            if (prefix == 0xFE) {
+                if (offset >= descriptor.length) {
+                    return false;
+                }
+                offset += 2 + (descriptor[offset] & 0xFF);
+                continue;
+            }
+
+            int size = prefix & 0x3;
+            if (size == 3) {
+                size = 4;
+            }
+            if (offset + size > descriptor.length) {
+                LimeLog.warning("Truncated HID descriptor item");
+                return false;
+            }
+
+            int unsignedData = 0;
+            for (int i = 0; i < size; i++) {
+                unsignedData |= (descriptor[offset + i] & 0xFF) << (i * 8);
+            }
+            int signedData = size == 0 || size == 4 ? unsignedData :
+                    (unsignedData << (32 - size * 8)) >> (32 - size * 8);
+            offset += size;
+
+            int type = (prefix >> 2) & 0x3;
+            int tag = prefix >> 4;
+            boolean ok;
+            switch (type) {
+                case ITEM_TYPE_MAIN:
+                    ok = handleMainItem(tag, unsignedData);
+                    break;
+                case ITEM_TYPE_GLOBAL:
+                    ok = handleGlobalItem(tag, unsignedData, signedData, size);
+                    break;
+                case ITEM_TYPE_LOCAL:
+                    ok = handleLocalItem(tag, unsignedData, size);
+                    break;
+                default:
+                    // Reserved item types are ignored
+                    ok = true;
+                    break;
+            }
+
+            if (!ok) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean handleMainItem(int tag, int data) {
+        switch (tag) {
+            case MAIN_INPUT:
+                if (!addInput(data)) {
+                    return false;
+                }
+                break;
+
+            case MAIN_COLLECTION:
+                if (collectionDepth >= MAX_STACK_DEPTH) {
+                    LimeLog.warning("HID descriptor collections nested too deeply");
+                    return false;
+                }
+                if (data == COLLECTION_APPLICATION && gamepadCollectionDepth < 0 && !usages.isEmpty()) {
+                    int usage = usages.get(0);
+                    if (usage == ((USAGE_PAGE_GENERIC_DESKTOP << 16) | USAGE_JOYSTICK) ||
+                            usage == ((USAGE_PAGE_GENERIC_DESKTOP << 16) | USAGE_GAMEPAD)) {
+                        gamepadCollectionDepth = collectionDepth;
+                        foundGamepad = true;
+                    }
+                }
+                collectionDepth++;
+                break;
+
+            case MAIN_END_COLLECTION:
+                if (collectionDepth > 0) {
+                    collectionDepth--;
+                }
+                if (collectionDepth == gamepadCollectionDepth) {
+                    gamepadCollectionDepth = -1;
+                }
+                break;
+
+            case MAIN_OUTPUT:
+            case MAIN_FEATURE:
+                // These don't take up space in input reports
+                break;
+        }
+
+        // Local items only apply to the next main item
+        usages.clear();
+        usageMin = usageMax = -1;
+        return true;
+    }
+
+    private boolean handleGlobalItem(int tag, int unsignedData, int signedData, int size) {
+        switch (tag) {
+            case GLOBAL_USAGE_PAGE:
+                global.usagePage = unsignedData & 0xFFFF;
+                break;
+            case GLOBAL_LOGICAL_MINIMUM:
+                global.logicalMin = signedData;
+                break;
+            case GLOBAL_LOGICAL_MAXIMUM:
+                global.logicalMax = signedData;
+                global.logicalMaxSize = size;
+                break;
+            case GLOBAL_REPORT_SIZE:
+                global.reportSize = unsignedData;
+                break;
+            case GLOBAL_REPORT_COUNT:
+                global.reportCount = unsignedData;
+                break;
+            case GLOBAL_REPORT_ID:
+                if (unsignedData <= 0 || unsignedData > 255) {
+                    LimeLog.warning("Invalid HID report ID: "+unsignedData);
+                    return false;
+                }
+                global.reportId = unsignedData;
+                usesReportIds = true;
+                break;
+            case GLOBAL_PUSH:
+                if (globalStack.size() >= MAX_STACK_DEPTH) {
+                    LimeLog.warning("HID descriptor pushed too deeply");
+                    return false;
+                }
+                globalStack.add(global.copy());
+                break;
+            case GLOBAL_POP:
+                if (globalStack.isEmpty()) {
+                    LimeLog.warning("HID descriptor popped an empty stack");
+                    return false;
+                }
+                global = globalStack.remove(globalStack.size() - 1);
+                break;
+        }
+
+        return true;
+    }
+
+    private boolean handleLocalItem(int tag, int data, int size) {
+        // A 4 byte usage includes its own usage page
+        int usage = size == 4 ? data : (global.usagePage << 16) | (data & 0xFFFF);
+
+        switch (tag) {
+            case LOCAL_USAGE:
+                // Nothing needs more usages than a report can have fields
+                if (usages.size() < 256) {
+                    usages.add(usage);
+                }
+                break;
+            case LOCAL_USAGE_MINIMUM:
+                usageMin = usage;
+                break;
+            case LOCAL_USAGE_MAXIMUM:
+                usageMax = usage;
+                break;
+        }
+
+        return true;
+    }
+
+    private boolean addInput(int flags) {
+        int reportSize = global.reportSize;
+        int reportCount = global.reportCount;
+        if (reportSize < 0 || reportSize > 32 || reportCount < 0 || reportCount > 1024) {
+            LimeLog.warning("Invalid HID input size: "+reportSize+"x"+reportCount);
+            return false;
+        }
+
+        int reportId = global.reportId;
+        int bitOffset = reportBits[reportId];
+        if (bitOffset + reportSize * reportCount > MAX_REPORT_BITS) {
+            LimeLog.warning("HID report too long");
+            return false;
+        }
+        reportBits[reportId] += reportSize * reportCount;
+
+        // Padding, array inputs, and inputs outside of the gamepad collection take up space
+        // in the report, but we don't decode them.
+        if ((flags & INPUT_FLAG_CONSTANT) != 0 || (flags & INPUT_FLAG_VARIABLE) == 0 ||
+                gamepadCollectionDepth < 0 || reportSize == 0) {
+            return true;
+        }
+
+        // Some devices give a logical maximum like 255 in a single byte, which
+        // reads as -1 when sign extended. Use it as unsigned if the minimum says so.
+        int logicalMin = global.logicalMin;
+        int logicalMax = global.logicalMax;
+        if (logicalMin >= 0 && logicalMax < 0 && global.logicalMaxSize < 4) {
+            logicalMax &= (1 << (global.logicalMaxSize * 8)) - 1;
+        }
+
+        for (int i = 0; i < reportCount; i++) {
+            int usage;
+            if (i < usages.size()) {
+                usage = usages.get(i);
+            }
+            else if (usageMin >= 0 && usageMax >= usageMin && usageMin + i - usages.size() <= usageMax) {
+                usage = usageMin + i - usages.size();
+            }
+            else if (!usages.isEmpty()) {
+                // The last usage applies to the remaining fields
+                usage = usages.get(usages.size() - 1);
+            }
+            else {
+                continue;
+            }
+
+            addField(usage, reportId, bitOffset + i * reportSize, reportSize, logicalMin, logicalMax);
+        }
+
+        return true;
+    }
+
+    private void addField(int usage, int reportId, int bitOffset, int bitSize, int logicalMin, int logicalMax) {
+        int page = usage >>> 16;
+        int id = usage & 0xFFFF;
+
+        int kind, target;
+        if (page == USAGE_PAGE_BUTTON) {
+            if (id < 1 || id > BUTTON_MAP.length || BUTTON_MAP[id - 1] == 0) {
+                return;
+            }
+            kind = HidReportDecoder.KIND_BUTTON;
+            target = BUTTON_MAP[id - 1] & 0xFFFF;
+        }
+        else if (page == USAGE_PAGE_GENERIC_DESKTOP) {
+            switch (id) {
+                case USAGE_X:
+                    kind = HidReportDecoder.KIND_STICK;
+                    target = HidReportDecoder.AXIS_LEFT_STICK_X;
+                    break;
+                case USAGE_Y:
+                    kind = HidReportDecoder.KIND_STICK;
+                    target = HidReportDecoder.AXIS_LEFT_STICK_Y;
+                    break;
+                case USAGE_Z:
+                    kind = HidReportDecoder.KIND_STICK;
+                    target = HidReportDecoder.AXIS_RIGHT_STICK_X;
+                    break;
+                case USAGE_RZ:
+                    kind = HidReportDecoder.KIND_STICK;
+                    target = HidReportDecoder.AXIS_RIGHT_STICK_Y;
+                    break;
+                case USAGE_RX:
+                    kind = HidReportDecoder.KIND_TRIGGER;
+                    target = HidReportDecoder.AXIS_LEFT_TRIGGER;
+                    break;
+                case USAGE_RY:
+                    kind = HidReportDecoder.KIND_TRIGGER;
+                    target = HidReportDecoder.AXIS_RIGHT_TRIGGER;
+                    break;
+                case USAGE_HAT_SWITCH:
+                    kind = HidReportDecoder.KIND_HAT;
+                    target = 0;
+                    break;
+                case USAGE_DPAD_UP:
+                    kind = HidReportDecoder.KIND_BUTTON;
+                    target = ControllerPacket.UP_FLAG;
+                    break;
+                case USAGE_DPAD_DOWN:
+                    kind = HidReportDecoder.KIND_BUTTON;
+                    target = ControllerPacket.DOWN_FLAG;
+                    break;
+                case USAGE_DPAD_RIGHT:
+                    kind = HidReportDecoder.KIND_BUTTON;
+                    target = ControllerPacket.RIGHT_FLAG;
+                    break;
+                case USAGE_DPAD_LEFT:
+                    kind = HidReportDecoder.KIND_BUTTON;
+                    target = ControllerPacket.LEFT_FLAG;
+                    break;
+                default:
+                    return;
+            }
+        }
+        else if (page == USAGE_PAGE_SIMULATION) {
+            if (id == USAGE_BRAKE) {
+                kind = HidReportDecoder.KIND_TRIGGER;
+                target = HidReportDecoder.AXIS_LEFT_TRIGGER;
+            }
+            else if (id == USAGE_ACCELERATOR) {
+                kind = HidReportDecoder.KIND_TRIGGER;
+                target = HidReportDecoder.AXIS_RIGHT_TRIGGER;
+            }
+            else {
+                return;
+            }
+        }
+        else {
+            return;
+        }
+
+        // Axes and the hat need a usable range
+        if (kind != HidReportDecoder.KIND_BUTTON && logicalMax <= logicalMin) {
+            return;
+        }
+
+        // The first field for each control wins. Buttons are all distinct flags,
+        // and the axes and hat get their own bits above them.
+        int targetBit = kind == HidReportDecoder.KIND_BUTTON ? target :
+                kind == HidReportDecoder.KIND_HAT ? 1 << 16 : 1 << (17 + target);
+        if ((mappedTargets & targetBit) != 0) {
+            return;
+        }
+        mappedTargets |= targetBit;
+
+        Field field = new Field();
+        field.reportId = reportId;
+        field.bitOffset = bitOffset;
+        field.bitSize = bitSize;
+        field.signed = logicalMin < 0;
+        field.kind = kind;
+        field.target = target;
+        field.logicalMin = logicalMin;
+        field.logicalMax = logicalMax;
+        fields.add(field);
+    }
+
+    private HidReportDecoder compile() {
+        int count = fields.size();
+        int[] reportIds = new int[count];
+        int[] bitOffsets = new int[count];
+        int[] bitSizes = new int[count];
+        boolean[] signed = new boolean[count];
+        int[] kinds = new int[count];
+        int[] targets = new int[count];
+        int[] logicalMins = new int[count];
+        float[] scales = new float[count];
+        float[] offsets = new float[count];
+
+        // Group the fields by report ID so each report only looks at its own fields
+        int index = 0;
+        for (int reportId = 0; reportId < reportBits.length; reportId++) {
+            for (Field field : fields) {
+                if (field.reportId != reportId) {
+                    continue;
+                }
+
+                reportIds[index] = field.reportId;
+                bitOffsets[index] = field.bitOffset;
+                bitSizes[index] = field.bitSize;
+                signed[index] = field.signed;
+                kinds[index] = field.kind;
+                targets[index] = field.target;
+                logicalMins[index] = field.logicalMin;
+
+                // Precompute value * scale + offset for the output range
+                float range = (float)field.logicalMax - field.logicalMin;
+                switch (field.kind) {
+                    case HidReportDecoder.KIND_STICK:
+                        scales[index] = 2.0f / range;
+                        offsets[index] = -1.0f - field.logicalMin * scales[index];
+                        break;
+                    case HidReportDecoder.KIND_TRIGGER:
+                        scales[index] = 1.0f / range;
+                        offsets[index] = -field.logicalMin * scales[index];
+                        break;
+                    default:
+                        // Buttons and the hat use the raw value
+                        break;
+                }
+
+                index++;
+            }
+        }
+
+        int maxReportBytes = 0;
+        for (int bits : reportBits) {
+            maxReportBytes = Math.max(maxReportBytes, (bits + 7) / 8);
+        }
+        if (usesReportIds) {
+            maxReportBytes++;
+        }
+
+        return new HidReportDecoder(usesReportIds, maxReportBytes, reportIds, bitOffsets, bitSizes,
+                signed, kinds, targets, logicalMins, scales, offsets);
+    }
+}
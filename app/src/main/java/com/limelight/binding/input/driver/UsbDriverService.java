@@ -135,7 +135,7 @@ public class UsbDriverService extends Service implements UsbDriverListener {
 
     private void handleUsbDeviceState(UsbDevice device) {
         // Are we able to operate it?
-        if (shouldClaimDevice(device, prefConfig.bindAllUsb)) {
+        if (shouldClaimDevice(device, prefConfig.bindAllUsb, prefConfig.bindHidUsb)) {
             // Do we have permission yet?
             if (!usbManager.hasPermission(device)) {
                 // Let's ask for permission
@@ -183,6 +183,9 @@ public class UsbDriverService extends Service implements UsbDriverListener {
             else if (Xbox360Controller.canClaimDevice(device)) {
                 controller = new Xbox360Controller(device, connection, nextDeviceId++, this);
             }
+            else if (HidController.canClaimDevice(device)) {
+                controller = new HidController(device, connection, nextDeviceId++, this);
+            }
             else {
                 // Unreachable
                 return;
@@ -248,9 +251,11 @@ public class UsbDriverService extends Service implements UsbDriverListener {
         }
     }
 
-    public static boolean shouldClaimDevice(UsbDevice device, boolean claimAllAvailable) {
+    public static boolean shouldClaimDevice(UsbDevice device, boolean claimAllAvailable, boolean claimHidGamepads) {
         return ((!kernelSupportsXboxOne() || !isRecognizedInputDevice(device) || claimAllAvailable) && XboxOneController.canClaimDevice(device)) ||
-                ((!isRecognizedInputDevice(device) || claimAllAvailable) && Xbox360Controller.canClaimDevice(device));
+                ((!isRecognizedInputDevice(device) || claimAllAvailable) && Xbox360Controller.canClaimDevice(device)) ||
+                // HID gamepads always have kernel support, so we only take them when asked to
+                (claimHidGamepads && HidController.canClaimDevice(device) && HidController.isRecognizedGamepad(device));
     }
 
     private void start() {
@@ -273,7 +278,7 @@ public class UsbDriverService extends Service implements UsbDriverListener {
 
         // Enumerate existing devices
         for (UsbDevice dev : usbManager.getDeviceList().values()) {
-            if (shouldClaimDevice(dev, prefConfig.bindAllUsb)) {
+            if (shouldClaimDevice(dev, prefConfig.bindAllUsb, prefConfig.bindHidUsb)) {
                 // Start the process of claiming this device
                 handleUsbDeviceState(dev);
             }
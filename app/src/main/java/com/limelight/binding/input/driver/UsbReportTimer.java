@@ -0,0 +1,67 @@
+package com.limelight.binding.input.driver;
+
+// Records when input reports arrive from a USB controller and how long they take to
+// handle, so we can see the polling rate a controller actually achieves. Intervals are
+// counted in fixed buckets, so recording a report doesn't allocate.
+//
+// This must only be used from a single thread.
+class UsbReportTimer {
+    // Upper bounds of each interval bucket. The last bucket holds everything longer.
+    private static final long[] BUCKET_LIMITS_US = {1250, 2500, 5000, 10000};
+    private static final String[] BUCKET_NAMES = {"<=1.25ms", "<=2.5ms", "<=5ms", "<=10ms", ">10ms"};
+
+    private final long[] bucketCounts = new long[BUCKET_LIMITS_US.length + 1];
+
+    private long reports;
+    private long firstReportNs, lastReportNs;
+    private long minIntervalNs = Long.MAX_VALUE, maxIntervalNs;
+    private long totalHandlingNs;
+
+    // Called when a report arrives, before it is decoded
+    public void onReportReceived(long nowNs) {
+        if (reports == 0) {
+            firstReportNs = nowNs;
+        }
+        else {
+            long intervalNs = nowNs - lastReportNs;
+            minIntervalNs = Math.min(minIntervalNs, intervalNs);
+            maxIntervalNs = Math.max(maxIntervalNs, intervalNs);
+
+            long intervalUs = intervalNs / 1000;
+            int bucket = 0;
+            while (bucket < BUCKET_LIMITS_US.length && intervalUs > BUCKET_LIMITS_US[bucket]) {
+                bucket++;
+            }
+            bucketCounts[bucket]++;
+        }
+
+        lastReportNs = nowNs;
+        reports++;
+    }
+
+    // Called once the report has been decoded and sent
+    public void onReportHandled(long nowNs) {
+        totalHandlingNs += nowNs - lastReportNs;
+    }
+
+    public String getStatistics() {
+        if (reports < 2) {
+            return "USB input reports: "+reports+" received";
+        }
+
+        long spanNs = lastReportNs - firstReportNs;
+        StringBuilder stats = new StringBuilder();
+        stats.append("USB input reports: ").append(reports).append(" received");
+        if (spanNs > 0) {
+            stats.append(" (average ").append((reports - 1) * 1000000000L / spanNs).append(" Hz)");
+        }
+        stats.append(", interval min ").append(minIntervalNs / 1000).append(" us")
+                .append(", max ").append(maxIntervalNs / 1000).append(" us")
+                .append(", average handling ").append(totalHandlingNs / reports / 1000).append(" us")
+                .append(", intervals");
+        for (int i = 0; i < bucketCounts.length; i++) {
+            stats.append(' ').append(BUCKET_NAMES[i]).append(':').append(bucketCounts[i]);
+        }
+        return stats.toString();
+    }
+}
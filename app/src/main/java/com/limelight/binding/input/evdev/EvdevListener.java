@@ -11,4 +11,8 @@ public interface EvdevListener {
     void mouseButtonEvent(int buttonId, boolean down);
     void mouseScroll(byte amount);
     void keyboardEvent(boolean buttonDown, short keyCode);
+
+    // Calls between these are for a single group of evdev events
+    void beginEventBatch();
+    void endEventBatch();
 }
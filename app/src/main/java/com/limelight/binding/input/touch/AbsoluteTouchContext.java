@@ -6,6 +6,7 @@ import android.view.View;
 
 import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.input.MouseButtonPacket;
+import com.limelight.ui.LocalCursorOverlay;
 
 public class AbsoluteTouchContext implements TouchContext {
     private int lastTouchDownX = 0;
@@ -46,6 +47,7 @@ public class AbsoluteTouchContext implements TouchContext {
     private final NvConnection conn;
     private final int actionIndex;
     private final View targetView;
+    private final LocalCursorOverlay cursorOverlay;
     private final Handler handler;
 
     private final Runnable leftButtonUpRunnable = new Runnable() {
@@ -66,11 +68,12 @@ public class AbsoluteTouchContext implements TouchContext {
     private static final int TOUCH_DOWN_DEAD_ZONE_TIME_THRESHOLD = 100;
     private static final int TOUCH_DOWN_DEAD_ZONE_DISTANCE_THRESHOLD = 20;
 
-    public AbsoluteTouchContext(NvConnection conn, int actionIndex, View view)
+    public AbsoluteTouchContext(NvConnection conn, int actionIndex, View view, LocalCursorOverlay cursorOverlay)
     {
         this.conn = conn;
         this.actionIndex = actionIndex;
         this.targetView = view;
+        this.cursorOverlay = cursorOverlay;
         this.handler = new Handler(Looper.getMainLooper());
     }
 
@@ -115,6 +118,9 @@ public class AbsoluteTouchContext implements TouchContext {
         eventY = Math.min(Math.max(eventY, 0), targetView.getHeight());
 
         conn.sendMousePosition((short)eventX, (short)eventY, (short)targetView.getWidth(), (short)targetView.getHeight());
+        if (cursorOverlay != null) {
+            cursorOverlay.moveTo(eventX, eventY);
+        }
     }
 
     @Override
@@ -7,6 +7,7 @@ import android.view.View;
 import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.input.MouseButtonPacket;
 import com.limelight.preferences.PreferenceConfiguration;
+import com.limelight.ui.LocalCursorOverlay;
 
 public class RelativeTouchContext implements TouchContext {
     private int lastTouchX = 0;
@@ -29,6 +30,7 @@ public class RelativeTouchContext implements TouchContext {
     private final int referenceHeight;
     private final View targetView;
     private final PreferenceConfiguration prefConfig;
+    private final LocalCursorOverlay cursorOverlay;
     private final Handler handler;
 
     private final Runnable dragTimerRunnable = new Runnable() {
@@ -93,7 +95,8 @@ public class RelativeTouchContext implements TouchContext {
 
     public RelativeTouchContext(NvConnection conn, int actionIndex,
                                 int referenceWidth, int referenceHeight,
-                                View view, PreferenceConfiguration prefConfig)
+                                View view, PreferenceConfiguration prefConfig,
+                                LocalCursorOverlay cursorOverlay)
     {
         this.conn = conn;
         this.actionIndex = actionIndex;
@@ -101,6 +104,7 @@ public class RelativeTouchContext implements TouchContext {
         this.referenceHeight = referenceHeight;
         this.targetView = view;
         this.prefConfig = prefConfig;
+        this.cursorOverlay = cursorOverlay;
         this.handler = new Handler(Looper.getMainLooper());
     }
 
@@ -277,9 +281,15 @@ public class RelativeTouchContext implements TouchContext {
                                 (short) deltaY,
                                 (short) targetView.getWidth(),
                                 (short) targetView.getHeight());
+                        if (cursorOverlay != null) {
+                            cursorOverlay.moveByViewPixels(deltaX, deltaY);
+                        }
                     }
                     else {
                         conn.sendMouseMove((short) deltaX, (short) deltaY);
+                        if (cursorOverlay != null) {
+                            cursorOverlay.moveBy(deltaX, deltaY);
+                        }
                     }
                 }
 
@@ -254,6 +254,11 @@ public class AnalogStick extends VirtualControllerElement {
         }
     }
 
+    @Override
+    protected boolean hasIdleAppearance() {
+        return stick_state == STICK_STATE.NO_MOVEMENT && !isPressed();
+    }
+
     private void updatePosition(long eventTime) {
         // get 100% way
         float complete = radius_complete - radius_analog_stick;
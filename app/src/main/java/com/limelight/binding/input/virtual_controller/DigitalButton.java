@@ -125,11 +125,13 @@ public class DigitalButton extends VirtualControllerElement {
 
     public void setText(String text) {
         this.text = text;
+        appearanceVersion++;
         invalidate();
     }
 
     public void setIcon(int id) {
         this.icon = id;
+        appearanceVersion++;
         invalidate();
     }
 
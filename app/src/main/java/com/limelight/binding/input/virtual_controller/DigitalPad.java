@@ -148,6 +148,11 @@ public class DigitalPad extends VirtualControllerElement {
         );
     }
 
+    @Override
+    protected boolean hasIdleAppearance() {
+        return direction == DIGITAL_PAD_DIRECTION_NO_DIRECTION;
+    }
+
     private void newDirectionCallback(int direction) {
         _DBG("direction: " + direction);
 
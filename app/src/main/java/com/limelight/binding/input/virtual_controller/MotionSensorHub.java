@@ -0,0 +1,222 @@
+package com.limelight.binding.input.virtual_controller;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import com.limelight.LimeLog;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Shares a single motion sensor registration between all sensor-driven elements. Sensor
+// events are delivered, filtered for glitches, and smoothed once on a dedicated thread,
+// and the latest result is published as an immutable sample that subscribers can read
+// without locking. Subscribers are notified on the main thread at most once per published
+// sample, so a slow UI thread sees the newest sample instead of a backlog of them.
+//
+// The sensor is only registered while there's at least one subscriber and the stream is
+// in the foreground.
+public class MotionSensorHub {
+    // Jumps in angular velocity faster than this (per nanosecond) are treated as glitches
+    private static final float OUTLIER_JERK = 0.00001f;
+
+    // Time constant of the low-pass filter applied to accepted samples. This takes the
+    // edge off sensor noise while adding well under a frame of lag at SENSOR_DELAY_GAME.
+    private static final long SMOOTHING_TIME_CONSTANT_NS = 16000000;
+
+    public interface Listener {
+        // Called on the main thread
+        void onSensorSample(Sample sample);
+    }
+
+    public static class Sample {
+        public static final Sample ZERO = new Sample(0, 0, 0, 0);
+
+        public final long timestamp;
+        private final float x, y, z;
+
+        Sample(long timestamp, float x, float y, float z) {
+            this.timestamp = timestamp;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        public float getAxis(int index) {
+            switch (index) {
+                case 0:
+                    return x;
+                case 1:
+                    return y;
+                case 2:
+                    return z;
+                default:
+                    throw new IllegalArgumentException("Invalid axis: "+index);
+            }
+        }
+    }
+
+    private final SensorManager sensorManager;
+    private final Sensor sensor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Sample latestSample = Sample.ZERO;
+    private final AtomicBoolean dispatchPending = new AtomicBoolean();
+
+    private HandlerThread sensorThread;
+    private boolean active = true;
+    private boolean registered;
+
+    // Only touched on the sensor thread
+    private long lastTimestamp;
+    private final float[] lastValues = new float[3];
+    private final float[] smoothedValues = new float[3];
+
+    private long samplesReceived;
+    private long outliersRejected;
+    private long dispatchesCoalesced;
+
+    private final SensorEventListener sensorListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent sensorEvent) {
+            onSensorEvent(sensorEvent);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
+
+    private final Runnable dispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchPending.set(false);
+
+            Sample sample = latestSample;
+            for (Listener listener : listeners) {
+                listener.onSensorSample(sample);
+            }
+        }
+    };
+
+    public MotionSensorHub(SensorManager sensorManager, Sensor sensor) {
+        this.sensorManager = sensorManager;
+        this.sensor = sensor;
+    }
+
+    public Sample getLatestSample() {
+        return latestSample;
+    }
+
+    public synchronized void subscribe(Listener listener) {
+        if (listeners.addIfAbsent(listener)) {
+            updateRegistration();
+        }
+    }
+
+    public synchronized void unsubscribe(Listener listener) {
+        if (listeners.remove(listener)) {
+            updateRegistration();
+        }
+    }
+
+    // Called when the stream moves between the foreground and background
+    public synchronized void setActive(boolean active) {
+        this.active = active;
+        updateRegistration();
+    }
+
+    // Unregisters the sensor and stops the sensor thread
+    public synchronized void release() {
+        listeners.clear();
+        updateRegistration();
+
+        if (sensorThread != null) {
+            sensorThread.quit();
+            sensorThread = null;
+        }
+
+        LimeLog.info(getStatistics());
+    }
+
+    private void updateRegistration() {
+        boolean shouldRegister = active && !listeners.isEmpty() && sensor != null;
+        if (shouldRegister == registered) {
+            return;
+        }
+
+        if (shouldRegister) {
+            if (sensorThread == null) {
+                sensorThread = new HandlerThread("Sensor Hub", Process.THREAD_PRIORITY_DISPLAY);
+                sensorThread.start();
+            }
+
+            registered = sensorManager.registerListener(sensorListener, sensor,
+                    SensorManager.SENSOR_DELAY_GAME, new Handler(sensorThread.getLooper()));
+            if (!registered) {
+                LimeLog.warning("Unable to register motion sensor listener");
+            }
+        }
+        else {
+            sensorManager.unregisterListener(sensorListener);
+            registered = false;
+
+            // Don't leave elements deflected by a stale sample
+            latestSample = Sample.ZERO;
+        }
+    }
+
+    private void onSensorEvent(SensorEvent sensorEvent) {
+        samplesReceived++;
+
+        // Reject samples where any axis changes implausibly fast and hold the last
+        // good values instead
+        float timeDelta = sensorEvent.timestamp - lastTimestamp;
+        boolean outlier = false;
+        for (int i = 0; i < 3; i++) {
+            if ((sensorEvent.values[i] - lastValues[i]) / timeDelta > OUTLIER_JERK) {
+                outlier = true;
+                break;
+            }
+        }
+
+        if (outlier) {
+            outliersRejected++;
+        }
+        else {
+            // The first sample after registering has nothing to smooth against
+            float alpha = 1;
+            long smoothingDelta = sensorEvent.timestamp - lastTimestamp;
+            if (lastTimestamp != 0 && smoothingDelta > 0) {
+                alpha = (float)smoothingDelta / (SMOOTHING_TIME_CONSTANT_NS + smoothingDelta);
+            }
+            for (int i = 0; i < 3; i++) {
+                smoothedValues[i] += (sensorEvent.values[i] - smoothedValues[i]) * alpha;
+            }
+
+            lastTimestamp = sensorEvent.timestamp;
+            System.arraycopy(sensorEvent.values, 0, lastValues, 0, 3);
+        }
+
+        latestSample = new Sample(sensorEvent.timestamp, smoothedValues[0], smoothedValues[1], smoothedValues[2]);
+
+        if (dispatchPending.compareAndSet(false, true)) {
+            mainHandler.post(dispatchRunnable);
+        }
+        else {
+            dispatchesCoalesced++;
+        }
+    }
+
+    public String getStatistics() {
+        return "Motion sensor hub: "+samplesReceived+" samples, "+outliersRejected+" outliers rejected, "+
+                dispatchesCoalesced+" coalesced by a busy main thread";
+    }
+}
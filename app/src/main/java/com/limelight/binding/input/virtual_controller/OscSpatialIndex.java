@@ -0,0 +1,118 @@
+package com.limelight.binding.input.virtual_controller;
+
+// Finds the on-screen controls under a point without testing every control. The area is
+// split into a grid of square cells, and each cell lists the controls that overlap it with
+// the topmost (last added) first, which is the order touches are offered to them in.
+class OscSpatialIndex {
+    private static final int CELL_SIZE = 64;
+
+    private int columns, rows;
+    private int[][] cellElements = new int[0][];
+    private int[] cellCounts = new int[0];
+
+    // Bounds of each control, indexed like the controls passed to build()
+    private int[] lefts = new int[0];
+    private int[] tops = new int[0];
+    private int[] rights = new int[0];
+    private int[] bottoms = new int[0];
+    private int elementCount;
+
+    // Bounds holds the left, top, right, and bottom of each control in order
+    void build(int width, int height, int[] bounds, int count) {
+        columns = Math.max(1, (width + CELL_SIZE - 1) / CELL_SIZE);
+        rows = Math.max(1, (height + CELL_SIZE - 1) / CELL_SIZE);
+
+        int cellCount = columns * rows;
+        if (cellCounts.length < cellCount) {
+            cellElements = new int[cellCount][];
+            cellCounts = new int[cellCount];
+        }
+        else {
+            for (int i = 0; i < cellCount; i++) {
+                cellCounts[i] = 0;
+            }
+        }
+
+        if (lefts.length < count) {
+            lefts = new int[count];
+            tops = new int[count];
+            rights = new int[count];
+            bottoms = new int[count];
+        }
+        elementCount = count;
+
+        // Add the topmost controls first so each cell ends up in touch order
+        for (int i = count - 1; i >= 0; i--) {
+            int left = bounds[i * 4];
+            int top = bounds[i * 4 + 1];
+            int right = bounds[i * 4 + 2];
+            int bottom = bounds[i * 4 + 3];
+            lefts[i] = left;
+            tops[i] = top;
+            rights[i] = right;
+            bottoms[i] = bottom;
+
+            if (right <= left || bottom <= top) {
+                // Nothing can hit this control
+                continue;
+            }
+
+            int firstColumn = getColumn(left);
+            int lastColumn = getColumn(right - 1);
+            int firstRow = getRow(top);
+            int lastRow = getRow(bottom - 1);
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    addToCell(row * columns + column, i);
+                }
+            }
+        }
+    }
+
+    private int getColumn(float x) {
+        return Math.max(0, Math.min(columns - 1, (int) x / CELL_SIZE));
+    }
+
+    private int getRow(float y) {
+        return Math.max(0, Math.min(rows - 1, (int) y / CELL_SIZE));
+    }
+
+    private void addToCell(int cell, int element) {
+        int[] elements = cellElements[cell];
+        int count = cellCounts[cell];
+        if (elements == null) {
+            elements = new int[4];
+            cellElements[cell] = elements;
+        }
+        else if (count == elements.length) {
+            int[] grown = new int[elements.length * 2];
+            System.arraycopy(elements, 0, grown, 0, count);
+            elements = grown;
+            cellElements[cell] = elements;
+        }
+
+        elements[count] = element;
+        cellCounts[cell] = count + 1;
+    }
+
+    // Fills results with the controls containing the point, topmost first, and returns
+    // how many there are. Results must have room for every control.
+    int query(float x, float y, int[] results) {
+        // Points off the edges land in the edge cells, which hold the controls that
+        // extend past the edges
+        int cell = getRow(y) * columns + getColumn(x);
+        int[] elements = cellElements[cell];
+        int count = cellCounts[cell];
+
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            int element = elements[i];
+            if (x >= lefts[element] && x < rights[element] &&
+                    y >= tops[element] && y < bottoms[element]) {
+                results[found++] = element;
+            }
+        }
+
+        return found;
+    }
+}
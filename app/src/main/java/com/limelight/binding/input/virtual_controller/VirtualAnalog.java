@@ -5,10 +5,6 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 import android.os.SystemClock;
 import android.view.MotionEvent;
 
@@ -165,8 +161,13 @@ public class VirtualAnalog extends VirtualControllerElement {
     private List<VirtualAnalogListener> listeners = new ArrayList<>();
     private long timeLastClick = 0;
 
-    private SensorManager sensorManager = Game.getSensorManager();
-    private Sensor rotationVectorSensor = Game.getRotationVectorSensor();
+    private final MotionSensorHub.Listener sensorListener = new MotionSensorHub.Listener() {
+        @Override
+        public void onSensorSample(MotionSensorHub.Sample sample) {
+            onRotationSensorChanged(sample);
+        }
+    };
+    private boolean attachedToWindow;
 
     private static double getMovementRadius(float x, float y) {
         return Math.sqrt(x * x + y * y);
@@ -211,22 +212,53 @@ public class VirtualAnalog extends VirtualControllerElement {
         // reset stick position
         position_stick_x = getWidth() / 2;
         position_stick_y = getHeight() / 2;
+    }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        attachedToWindow = true;
+        updateSensorSubscription();
+    }
 
-        // Create a listener
-        SensorEventListener rvListener = new SensorEventListener() {
-            @Override
-            public void onSensorChanged(SensorEvent sensorEvent) {
-                onRotationSensorChanged(sensorEvent);
-            }
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        attachedToWindow = false;
+        updateSensorSubscription();
+    }
 
-            @Override
-            public void onAccuracyChanged(Sensor sensor, int i) {
-            }
-        };
-        sensorManager = Game.getSensorManager();
-        rotationVectorSensor = Game.getRotationVectorSensor();
-        sensorManager.registerListener(rvListener, rotationVectorSensor, SensorManager.SENSOR_DELAY_GAME);
+    @Override
+    void onOverlayAttachedToWindow() {
+        attachedToWindow = true;
+        updateSensorSubscription();
+    }
+
+    @Override
+    void onOverlayDetachedFromWindow() {
+        attachedToWindow = false;
+        updateSensorSubscription();
+    }
+
+    @Override
+    protected boolean hasIdleAppearance() {
+        // Nothing is drawn until the analog is touched, so there's nothing worth caching
+        return false;
+    }
+
+    // The shared sensor hub only runs while an attached element is using it
+    private void updateSensorSubscription() {
+        MotionSensorHub sensorHub = virtualController.getSensorHub();
+        if (sensorHub == null) {
+            return;
+        }
+
+        if (use_sensor && attachedToWindow) {
+            sensorHub.subscribe(sensorListener);
+        }
+        else {
+            sensorHub.unsubscribe(sensorListener);
+        }
     }
 
     public void addVirtualAnalogListener(VirtualAnalogListener listener) {
@@ -469,77 +501,14 @@ public class VirtualAnalog extends VirtualControllerElement {
 
     }
 
-    float[] rotationMatrix = new float[16];
-    float[] remappedRotationMatrix = new float[16];
-    float[] orientations = new float[3];
-    float[] orientations_delta = new float[3];
-    float[] last_orientations_delta = new float[3];
-    float[] last_orientations = new float[3];
-    float last_timestamp = 0f;
-    float time_delta = 0f;
-    float jerk = 0f;
-    protected void onRotationSensorChanged(SensorEvent sensorEvent){
+    // Samples are filtered for glitches and smoothed once by the sensor hub, so only the
+    // response curve for this element's sensitivity and dead zone is applied here
+    protected void onRotationSensorChanged(MotionSensorHub.Sample sample){
         if (use_sensor) {
-//        if (use_sensor || Game.isUseGyro()) {
             float complete = radius_complete - radius_analog_stick;
-            float deadZone = 0.01f;
-            float min = 0.1f;
-//            sensor_offset_x = mapResponseX(sensorEvent.values[sensor_x_index] + sensor_calibrate_x) * sensor_sensitivity_x * (sensor_x_invert ? -1 : 1) * complete;
-//            sensor_offset_y = mapResponseY(sensorEvent.values[sensor_y_index] + sensor_calibrate_y) * sensor_sensitivity_y * (sensor_y_invert ? -1 : 1) * complete;
-
-
-//            SensorManager.getRotationMatrixFromVector(
-//                    rotationMatrix, sensorEvent.values);
-//            // Remap coordinate system
-//            SensorManager.remapCoordinateSystem(rotationMatrix,
-//                    SensorManager.AXIS_X,
-//                    SensorManager.AXIS_Z,
-//                    remappedRotationMatrix);
-//
-//            // Convert to orientations
-//            SensorManager.getOrientation(remappedRotationMatrix, orientations);
-
-            float timestamp = sensorEvent.timestamp;
-            time_delta = sensorEvent.timestamp - last_timestamp;
-//            float sensi = (float)Math.pow(10f,9f);
-            float sensi = 1f;
-            float sensivity = 1f;
-            float outlier = (float) Math.pow(10f, -5f);
-            boolean is_outlier = false;
-
-            for(int i = 0; i < 3; i++) {
-//                orientations[i] = (float)(Math.toDegrees(orientations[i]));
-                orientations[i] = sensorEvent.values[i];
-//                orientations_delta[i] = (orientations[i] - last_orientations[i]) / time_delta * sensi * sensivity;
-                orientations_delta[i] = orientations[i]  * sensi * sensivity;
-                float orientation_jerk =  (orientations_delta[i] - last_orientations_delta[i]) / time_delta;
-                jerk = Math.max(jerk, orientation_jerk);
-                if (orientation_jerk > outlier){
-                    is_outlier = true;
-//                    orientations_delta[i] = last_orientations_delta[i];
-                }
-            }
 
-            if (is_outlier) {
-                for (int i = 0; i < 3; i++) {
-                    orientations_delta[i] = last_orientations_delta[i];
-                }
-            } else {
-                last_timestamp = sensorEvent.timestamp;
-            }
-
-//            float sensi = 5f;
-            float t_sensor_offset_x = mapResponseX((orientations_delta[sensor_x_index] * sensor_sensitivity_x)  * (sensor_x_invert ? -1 : 1) * complete);
-            float t_sensor_offset_y = mapResponseY((orientations_delta[sensor_y_index] * sensor_sensitivity_y)  * (sensor_y_invert ? -1 : 1) * complete);
-            sensor_offset_x = t_sensor_offset_x ;
-            sensor_offset_y = t_sensor_offset_y ;
-//            sensor_offset_x = orientations[sensor_x_index] * sensi;
-//            sensor_offset_y = orientations[sensor_y_index] * sensi;
-
-            for(int i = 0; i < 3; i++) {
-                last_orientations[i] = orientations[i];
-                last_orientations_delta[i] = orientations_delta[i];
-            }
+            sensor_offset_x = mapResponseX((sample.getAxis(sensor_x_index) * sensor_sensitivity_x) * (sensor_x_invert ? -1 : 1) * complete);
+            sensor_offset_y = mapResponseY((sample.getAxis(sensor_y_index) * sensor_sensitivity_y) * (sensor_y_invert ? -1 : 1) * complete);
 
             if (!isPressed()) {
                 Game.setUseGyro(true);
@@ -612,6 +581,7 @@ public class VirtualAnalog extends VirtualControllerElement {
 
     public void setUseSensor(boolean useSensor) {
         this.use_sensor = useSensor;
+        updateSensorSubscription();
     }
 
     public int getSensorXIndex() {
@@ -57,6 +57,7 @@ public class VirtualController {
     private final ControllerHandler controllerHandler;
     private final Context context;
     private final Handler handler;
+    private final MotionSensorHub sensorHub;
 
     private final Runnable delayedRetransmitRunnable = new Runnable() {
         @Override
@@ -80,13 +81,22 @@ public class VirtualController {
 
     private List<VirtualControllerElement> elements = new ArrayList<>();
 
-    public VirtualController(final ControllerHandler controllerHandler, FrameLayout layout, final Context context) {
+    // Draws all of the elements if they aren't added to the layout individually
+    private VirtualControllerOverlay overlay = null;
+
+    public VirtualController(final ControllerHandler controllerHandler, FrameLayout layout, final Context context,
+                             MotionSensorHub sensorHub) {
         this.controllerHandler = controllerHandler;
         this.frame_layout = layout;
         this.context = context;
+        this.sensorHub = sensorHub;
         this.handler = new Handler(Looper.getMainLooper());
         this.prefConfig = PreferenceConfiguration.readPreferences(context);
 
+        if (prefConfig.oscCompositor) {
+            overlay = new VirtualControllerOverlay(context, this);
+        }
+
         buttonConfigure = new Button(context);
         buttonConfigure.setAlpha(0.25f);
         buttonConfigure.setFocusable(false);
@@ -143,6 +153,9 @@ public class VirtualController {
                for (VirtualControllerElement element : elements) {
                    element.setVisibility(controlVisible ? View.VISIBLE : View.INVISIBLE);
                }
+               if (overlay != null) {
+                   overlay.invalidate();
+               }
                buttonVisibility.setBackgroundResource(controlVisible ? R.drawable.ic_visibility : R.drawable.ic_visibility_off);
                String message = "Control is " + (controlVisible ? "visible" : "invisible");
                Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
@@ -173,10 +186,18 @@ public class VirtualController {
         return handler;
     }
 
+    // Null if there's no motion sensor hub for this stream
+    MotionSensorHub getSensorHub() {
+        return sensorHub;
+    }
+
     public void hide() {
         for (VirtualControllerElement element : elements) {
             element.setVisibility(View.INVISIBLE);
         }
+        if (overlay != null) {
+            overlay.setVisibility(View.INVISIBLE);
+        }
 
         buttonConfigure.setVisibility(View.INVISIBLE);
         buttonVisibility.setVisibility(View.INVISIBLE);
@@ -187,6 +208,10 @@ public class VirtualController {
         for (VirtualControllerElement element : elements) {
             element.setVisibility(View.VISIBLE);
         }
+        if (overlay != null) {
+            overlay.setVisibility(View.VISIBLE);
+            overlay.invalidate();
+        }
 
         buttonConfigure.setVisibility(View.VISIBLE);
         buttonVisibility.setVisibility(View.VISIBLE);
@@ -194,8 +219,14 @@ public class VirtualController {
     }
 
     public void removeElements() {
-        for (VirtualControllerElement element : elements) {
-            frame_layout.removeView(element);
+        if (overlay != null) {
+            overlay.removeElements();
+            frame_layout.removeView(overlay);
+        }
+        else {
+            for (VirtualControllerElement element : elements) {
+                frame_layout.removeView(element);
+            }
         }
         elements.clear();
 
@@ -220,7 +251,7 @@ public class VirtualController {
         FrameLayout.LayoutParams layoutParams = new FrameLayout.LayoutParams(width, height);
         layoutParams.setMargins(x, y, 0, 0);
 
-        frame_layout.addView(element, layoutParams);
+        addElementView(element, layoutParams);
     }
 
     public void addElement(VirtualControllerElement element, int x, int y, int width, int height, VirtualControllerElementProperties otherProperties) {
@@ -231,7 +262,16 @@ public class VirtualController {
         FrameLayout.LayoutParams layoutParams = new FrameLayout.LayoutParams(width, height);
         layoutParams.setMargins(x, y, 0, 0);
 
-        frame_layout.addView(element, layoutParams);
+        addElementView(element, layoutParams);
+    }
+
+    private void addElementView(VirtualControllerElement element, FrameLayout.LayoutParams layoutParams) {
+        if (overlay != null) {
+            overlay.addElement(element, layoutParams);
+        }
+        else {
+            frame_layout.addView(element, layoutParams);
+        }
     }
 
     private static final void _DBG(String text) {
@@ -259,6 +299,11 @@ public class VirtualController {
         paramsKeyboard.topMargin = screen.heightPixels - 15 - buttonSize;
         frame_layout.addView(buttonKeyboard, paramsKeyboard);
 
+        if (overlay != null) {
+            frame_layout.addView(overlay, new FrameLayout.LayoutParams(
+                    FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT));
+        }
+
         // Start with the default layout
         VirtualControllerConfigurationLoader.createDefaultLayout(this, context);
 
@@ -274,6 +319,19 @@ public class VirtualController {
         return inputContext;
     }
 
+    // Input sent while handling a touch event is timed from that event
+    void beginTouchEvent(long eventTimeMs) {
+        if (controllerHandler != null) {
+            controllerHandler.beginOscInputEvent(eventTimeMs);
+        }
+    }
+
+    void endTouchEvent() {
+        if (controllerHandler != null) {
+            controllerHandler.endOscInputEvent();
+        }
+    }
+
     private void sendControllerInputContextInternal() {
         _DBG("INPUT_MAP + " + inputContext.inputMap);
         _DBG("LEFT_TRIGGER " + inputContext.leftTrigger);
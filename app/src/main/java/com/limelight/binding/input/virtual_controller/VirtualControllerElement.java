@@ -47,6 +47,13 @@ public abstract class VirtualControllerElement extends View {
 
     protected VirtualControllerElementProperties otherProperties;
 
+    // Set when the control is drawn by a VirtualControllerOverlay instead of being in the layout
+    VirtualControllerOverlay overlay;
+
+    // Changes whenever something the control's idle look depends on changes, other than
+    // its size and default color
+    int appearanceVersion;
+
     private final Paint paint = new Paint();
 
     private int normalColor = 0xF0888888;
@@ -104,6 +111,44 @@ public abstract class VirtualControllerElement extends View {
 
     @Override
     protected void onDraw(Canvas canvas) {
+        drawElement(canvas);
+
+        super.onDraw(canvas);
+    }
+
+    @Override
+    public void invalidate() {
+        if (overlay != null) {
+            overlay.invalidateElement(this);
+        }
+        else {
+            super.invalidate();
+        }
+    }
+
+    @Override
+    public void requestLayout() {
+        super.requestLayout();
+        if (overlay != null) {
+            overlay.requestElementLayout();
+        }
+    }
+
+    // Whether the control looks the same as when it isn't being touched, so the overlay
+    // can draw it from a cached bitmap
+    protected boolean hasIdleAppearance() {
+        return !isPressed();
+    }
+
+    // Called instead of onAttachedToWindow() and onDetachedFromWindow() when the
+    // control is drawn by an overlay
+    void onOverlayAttachedToWindow() {
+    }
+
+    void onOverlayDetachedFromWindow() {
+    }
+
+    void drawElement(Canvas canvas) {
         onElementDraw(canvas);
 
         if (currentMode != Mode.Normal) {
@@ -115,8 +160,6 @@ public abstract class VirtualControllerElement extends View {
                     getWidth()-paint.getStrokeWidth(), getHeight()-paint.getStrokeWidth(),
                     paint);
         }
-
-        super.onDraw(canvas);
     }
 
     /*
@@ -241,7 +284,10 @@ public abstract class VirtualControllerElement extends View {
         }
 
         if (virtualController.getControllerMode() == VirtualController.ControllerMode.Active) {
-            return onElementTouchEvent(event);
+            virtualController.beginTouchEvent(event.getEventTime());
+            boolean handled = onElementTouchEvent(event);
+            virtualController.endTouchEvent();
+            return handled;
         }
 
         switch (event.getActionMasked()) {
@@ -306,6 +352,7 @@ public abstract class VirtualControllerElement extends View {
     public void setColors(int normalColor, int pressedColor) {
         this.normalColor = normalColor;
         this.pressedColor = pressedColor;
+        appearanceVersion++;
 
         invalidate();
     }
@@ -315,6 +362,7 @@ public abstract class VirtualControllerElement extends View {
         int hexOpacity = opacity * 255 / 100;
         this.normalColor = (hexOpacity << 24) | (normalColor & 0x00FFFFFF);
         this.pressedColor = (hexOpacity << 24) | (pressedColor & 0x00FFFFFF);
+        appearanceVersion++;
 
         invalidate();
     }
@@ -0,0 +1,545 @@
+package com.limelight.binding.input.virtual_controller;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import com.limelight.LimeLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Draws every on-screen control on a single hardware layer and routes touches to them,
+// instead of adding each control to the layout as its own view. The controls are still
+// VirtualControllerElement objects, so their drawing, touch, and configuration code is
+// shared with the normal path, but they are never attached to the window. This view lays
+// them out from their layout params, hit-tests touches with a spatial index, and redraws
+// only the area of controls that changed. Controls that look the way they do when nobody
+// is touching them are drawn from a cached bitmap rather than redrawn.
+//
+// This view covers the whole screen, so once it holds a pointer the parent sends it every
+// new pointer too. Pointers that no control wants are passed on to the views below us
+// (the stream and the configuration buttons) the way the parent would have split them.
+public class VirtualControllerOverlay extends View {
+    // Pointer IDs are always less than this
+    private static final int MAX_POINTER_ID = 32;
+
+    private static class ElementLayer {
+        final VirtualControllerElement element;
+
+        // Pointer this control is tracking, or -1 if it isn't being touched
+        int pointerId = -1;
+
+        // The control drawn as it looks when idle, and what that drawing depends on
+        Bitmap idleBitmap;
+        int idleColor;
+        int idleVersion;
+
+        ElementLayer(VirtualControllerElement element) {
+            this.element = element;
+        }
+    }
+
+    private final VirtualController controller;
+    private final ArrayList<ElementLayer> layers = new ArrayList<>();
+    private boolean attached;
+
+    private final OscSpatialIndex spatialIndex = new OscSpatialIndex();
+    private int[] elementBounds = new int[0];
+    private int[] hitResults = new int[0];
+
+    // The layer index each pointer is assigned to, or -1
+    private final int[] pointerLayers = new int[MAX_POINTER_ID];
+
+    // The view below us each pointer was passed on to, or null
+    private final View[] pointerTargets = new View[MAX_POINTER_ID];
+    private final long[] pointerDownTimes = new long[MAX_POINTER_ID];
+
+    private final MotionEvent.PointerProperties[] pointerProperties = new MotionEvent.PointerProperties[MAX_POINTER_ID];
+    private final MotionEvent.PointerCoords[] pointerCoords = new MotionEvent.PointerCoords[MAX_POINTER_ID];
+
+    private long framesDrawn;
+    private long totalFrameNs;
+    private long maxFrameNs;
+    private long cachedDraws;
+    private long liveDraws;
+    private long skippedDraws;
+    private long cacheRenders;
+
+    public VirtualControllerOverlay(Context context, VirtualController controller) {
+        super(context);
+        this.controller = controller;
+
+        // Changes to a single control only have to redraw this view's layer,
+        // not anything else in the window
+        setLayerType(View.LAYER_TYPE_HARDWARE, null);
+
+        Arrays.fill(pointerLayers, -1);
+        for (int i = 0; i < MAX_POINTER_ID; i++) {
+            pointerProperties[i] = new MotionEvent.PointerProperties();
+            pointerCoords[i] = new MotionEvent.PointerCoords();
+        }
+    }
+
+    public void addElement(VirtualControllerElement element, FrameLayout.LayoutParams layoutParams) {
+        element.setLayoutParams(layoutParams);
+        element.overlay = this;
+        layers.add(new ElementLayer(element));
+        if (attached) {
+            element.onOverlayAttachedToWindow();
+        }
+
+        requestLayout();
+        invalidate();
+    }
+
+    public void removeElements() {
+        for (ElementLayer layer : layers) {
+            layer.element.overlay = null;
+            if (attached) {
+                layer.element.onOverlayDetachedFromWindow();
+            }
+            if (layer.idleBitmap != null) {
+                layer.idleBitmap.recycle();
+            }
+        }
+        layers.clear();
+        Arrays.fill(pointerLayers, -1);
+
+        requestLayout();
+        invalidate();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        attached = true;
+        for (ElementLayer layer : layers) {
+            layer.element.onOverlayAttachedToWindow();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        attached = false;
+        for (ElementLayer layer : layers) {
+            layer.element.onOverlayDetachedFromWindow();
+        }
+
+        if (framesDrawn > 0) {
+            LimeLog.info(getStatistics());
+        }
+    }
+
+    // Called by a control in place of View.invalidate()
+    void invalidateElement(VirtualControllerElement element) {
+        invalidate(element.getLeft(), element.getTop(), element.getRight(), element.getBottom());
+    }
+
+    // Called by a control in place of View.requestLayout()
+    void requestElementLayout() {
+        requestLayout();
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+
+        int count = layers.size();
+        if (elementBounds.length < count * 4) {
+            elementBounds = new int[count * 4];
+            hitResults = new int[count];
+        }
+
+        // Lay the controls out like FrameLayout would if they were its children
+        for (int i = 0; i < count; i++) {
+            VirtualControllerElement element = layers.get(i).element;
+            FrameLayout.LayoutParams params = (FrameLayout.LayoutParams) element.getLayoutParams();
+
+            int elementLeft = params.leftMargin;
+            int elementTop = params.topMargin;
+            int width = params.width == ViewGroup.LayoutParams.MATCH_PARENT ?
+                    getWidth() - elementLeft : Math.max(0, params.width);
+            int height = params.height == ViewGroup.LayoutParams.MATCH_PARENT ?
+                    getHeight() - elementTop : Math.max(0, params.height);
+
+            element.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
+            element.layout(elementLeft, elementTop, elementLeft + width, elementTop + height);
+
+            elementBounds[i * 4] = elementLeft;
+            elementBounds[i * 4 + 1] = elementTop;
+            elementBounds[i * 4 + 2] = elementLeft + width;
+            elementBounds[i * 4 + 3] = elementTop + height;
+        }
+
+        spatialIndex.build(getWidth(), getHeight(), elementBounds, count);
+
+        // Controls may have moved anywhere
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        long startTime = System.nanoTime();
+        drawElements(canvas);
+        long frameNs = System.nanoTime() - startTime;
+
+        framesDrawn++;
+        totalFrameNs += frameNs;
+        maxFrameNs = Math.max(maxFrameNs, frameNs);
+    }
+
+    private void drawElements(Canvas canvas) {
+        // Configuration modes draw controls differently, so only use the cache when active
+        boolean useIdleBitmaps = controller.getControllerMode() == VirtualController.ControllerMode.Active;
+
+        for (ElementLayer layer : layers) {
+            VirtualControllerElement element = layer.element;
+            if (element.getVisibility() != View.VISIBLE || element.getWidth() == 0 || element.getHeight() == 0) {
+                continue;
+            }
+
+            // Skip controls outside of the area being redrawn
+            if (canvas.quickReject(element.getLeft(), element.getTop(),
+                    element.getRight(), element.getBottom(), Canvas.EdgeType.BW)) {
+                skippedDraws++;
+                continue;
+            }
+
+            if (useIdleBitmaps && element.hasIdleAppearance()) {
+                canvas.drawBitmap(getIdleBitmap(layer), element.getLeft(), element.getTop(), null);
+                cachedDraws++;
+            }
+            else {
+                int saveCount = canvas.save();
+                canvas.translate(element.getLeft(), element.getTop());
+                canvas.clipRect(0, 0, element.getWidth(), element.getHeight());
+                element.drawElement(canvas);
+                canvas.restoreToCount(saveCount);
+                liveDraws++;
+            }
+        }
+    }
+
+    private Bitmap getIdleBitmap(ElementLayer layer) {
+        VirtualControllerElement element = layer.element;
+        Bitmap bitmap = layer.idleBitmap;
+        int color = element.getDefaultColor();
+
+        if (bitmap != null && bitmap.getWidth() == element.getWidth() &&
+                bitmap.getHeight() == element.getHeight() &&
+                layer.idleColor == color && layer.idleVersion == element.appearanceVersion) {
+            return bitmap;
+        }
+
+        if (bitmap != null && bitmap.getWidth() == element.getWidth() &&
+                bitmap.getHeight() == element.getHeight()) {
+            bitmap.eraseColor(Color.TRANSPARENT);
+        }
+        else {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            bitmap = Bitmap.createBitmap(element.getWidth(), element.getHeight(), Bitmap.Config.ARGB_8888);
+        }
+
+        element.drawElement(new Canvas(bitmap));
+        layer.idleBitmap = bitmap;
+        layer.idleColor = color;
+        layer.idleVersion = element.appearanceVersion;
+        cacheRenders++;
+        return bitmap;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                // A new gesture, so anything we were tracking is stale
+                resetPointers();
+                // Fall through
+            case MotionEvent.ACTION_POINTER_DOWN:
+                if (onPointerDown(event, event.getActionIndex())) {
+                    return true;
+                }
+
+                // We already hold a pointer, so the parent won't offer this one to
+                // anyone else. Pass it on ourselves if the views below us want it.
+                if (event.getActionMasked() == MotionEvent.ACTION_POINTER_DOWN) {
+                    forwardPointerDown(event, event.getActionIndex());
+                    return true;
+                }
+                return false;
+
+            case MotionEvent.ACTION_MOVE:
+                for (int i = 0; i < layers.size(); i++) {
+                    ElementLayer layer = layers.get(i);
+                    if (layer.pointerId == -1) {
+                        continue;
+                    }
+
+                    int pointerIndex = event.findPointerIndex(layer.pointerId);
+                    if (pointerIndex >= 0) {
+                        dispatchToElement(layer.element, event, pointerIndex, MotionEvent.ACTION_MOVE);
+                    }
+                }
+                forwardToAllTargets(event, MotionEvent.ACTION_MOVE);
+                return true;
+
+            case MotionEvent.ACTION_POINTER_UP:
+            case MotionEvent.ACTION_UP: {
+                int pointerIndex = event.getActionIndex();
+                int pointerId = event.getPointerId(pointerIndex);
+                if (pointerId >= MAX_POINTER_ID) {
+                    return true;
+                }
+
+                int layerIndex = pointerLayers[pointerId];
+                pointerLayers[pointerId] = -1;
+
+                View target = pointerTargets[pointerId];
+                if (target != null) {
+                    dispatchToTarget(target, event, getTargetPointerCount(target, event) > 1 ?
+                            MotionEvent.ACTION_POINTER_UP : MotionEvent.ACTION_UP, pointerId);
+                    pointerTargets[pointerId] = null;
+                }
+
+                if (layerIndex != -1) {
+                    ElementLayer layer = layers.get(layerIndex);
+                    if (layer.pointerId == pointerId) {
+                        layer.pointerId = -1;
+                        dispatchToElement(layer.element, event, pointerIndex, MotionEvent.ACTION_UP);
+                    }
+                }
+
+                if (event.getActionMasked() == MotionEvent.ACTION_UP) {
+                    resetPointers();
+                }
+                return true;
+            }
+
+            case MotionEvent.ACTION_CANCEL:
+                for (ElementLayer layer : layers) {
+                    if (layer.pointerId == -1) {
+                        continue;
+                    }
+
+                    int pointerIndex = event.findPointerIndex(layer.pointerId);
+                    dispatchToElement(layer.element, event, pointerIndex >= 0 ? pointerIndex : 0,
+                            MotionEvent.ACTION_CANCEL);
+                }
+                forwardToAllTargets(event, MotionEvent.ACTION_CANCEL);
+                resetPointers();
+                return true;
+
+            default:
+                return true;
+        }
+    }
+
+    private boolean onPointerDown(MotionEvent event, int pointerIndex) {
+        int pointerId = event.getPointerId(pointerIndex);
+        if (pointerId >= MAX_POINTER_ID) {
+            return false;
+        }
+
+        // Offer the pointer to the controls under it, topmost first, like a parent view would
+        int hits = spatialIndex.query(event.getX(pointerIndex), event.getY(pointerIndex), hitResults);
+        for (int i = 0; i < hits; i++) {
+            int layerIndex = hitResults[i];
+            ElementLayer layer = layers.get(layerIndex);
+            if (layer.element.getVisibility() != View.VISIBLE) {
+                continue;
+            }
+
+            if (layer.pointerId != -1) {
+                // Controls ignore secondary touches, so just swallow it
+                pointerLayers[pointerId] = layerIndex;
+                return true;
+            }
+
+            if (dispatchToElement(layer.element, event, pointerIndex, MotionEvent.ACTION_DOWN)) {
+                layer.pointerId = pointerId;
+                pointerLayers[pointerId] = layerIndex;
+                return true;
+            }
+        }
+
+        // Let the views below us have it
+        return false;
+    }
+
+    private void resetPointers() {
+        for (ElementLayer layer : layers) {
+            layer.pointerId = -1;
+        }
+        Arrays.fill(pointerLayers, -1);
+        Arrays.fill(pointerTargets, null);
+    }
+
+    // Offers a pointer that no control wanted to the views below us, topmost first. A view
+    // that already has pointers from us gets it as another pointer, like a parent would do.
+    private void forwardPointerDown(MotionEvent event, int pointerIndex) {
+        if (!(getParent() instanceof ViewGroup)) {
+            return;
+        }
+
+        ViewGroup parent = (ViewGroup) getParent();
+        int pointerId = event.getPointerId(pointerIndex);
+        if (pointerId >= MAX_POINTER_ID) {
+            return;
+        }
+
+        float x = event.getX(pointerIndex) + getLeft();
+        float y = event.getY(pointerIndex) + getTop();
+
+        for (int i = parent.indexOfChild(this) - 1; i >= 0; i--) {
+            View child = parent.getChildAt(i);
+            if (child.getVisibility() != View.VISIBLE ||
+                    x < child.getLeft() || x >= child.getRight() ||
+                    y < child.getTop() || y >= child.getBottom()) {
+                continue;
+            }
+
+            boolean hasPointers = getTargetPointerCount(child, event) > 0;
+            pointerDownTimes[pointerId] = hasPointers ?
+                    getTargetDownTime(child, event) : event.getEventTime();
+            pointerTargets[pointerId] = child;
+
+            if (hasPointers) {
+                dispatchToTarget(child, event, MotionEvent.ACTION_POINTER_DOWN, pointerId);
+                return;
+            }
+            else if (dispatchToTarget(child, event, MotionEvent.ACTION_DOWN, pointerId)) {
+                return;
+            }
+
+            pointerTargets[pointerId] = null;
+        }
+    }
+
+    // Sends the event to every view below us that has pointers from us
+    private void forwardToAllTargets(MotionEvent event, int action) {
+        for (int i = 0; i < event.getPointerCount(); i++) {
+            int pointerId = event.getPointerId(i);
+            if (pointerId >= MAX_POINTER_ID || pointerTargets[pointerId] == null) {
+                continue;
+            }
+
+            // Only send once per view, from its first pointer
+            View target = pointerTargets[pointerId];
+            boolean sent = false;
+            for (int j = 0; j < i; j++) {
+                int otherId = event.getPointerId(j);
+                if (otherId < MAX_POINTER_ID && pointerTargets[otherId] == target) {
+                    sent = true;
+                    break;
+                }
+            }
+
+            if (!sent) {
+                dispatchToTarget(target, event, action, pointerId);
+            }
+        }
+    }
+
+    private int getTargetPointerCount(View target, MotionEvent event) {
+        int count = 0;
+        for (int i = 0; i < event.getPointerCount(); i++) {
+            int pointerId = event.getPointerId(i);
+            if (pointerId < MAX_POINTER_ID && pointerTargets[pointerId] == target) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private long getTargetDownTime(View target, MotionEvent event) {
+        for (int i = 0; i < event.getPointerCount(); i++) {
+            int pointerId = event.getPointerId(i);
+            if (pointerId < MAX_POINTER_ID && pointerTargets[pointerId] == target) {
+                return pointerDownTimes[pointerId];
+            }
+        }
+        return event.getDownTime();
+    }
+
+    // Sends the pointers that belong to a view below us as their own event relative to
+    // that view. The action applies to actionPointerId.
+    private boolean dispatchToTarget(View target, MotionEvent event, int action, int actionPointerId) {
+        float offsetX = getLeft() - target.getLeft();
+        float offsetY = getTop() - target.getTop();
+
+        int count = 0;
+        int actionIndex = 0;
+        long downTime = event.getDownTime();
+        for (int i = 0; i < event.getPointerCount(); i++) {
+            int pointerId = event.getPointerId(i);
+            if (pointerId >= MAX_POINTER_ID || pointerTargets[pointerId] != target) {
+                continue;
+            }
+
+            if (pointerId == actionPointerId) {
+                actionIndex = count;
+            }
+            if (count == 0) {
+                downTime = pointerDownTimes[pointerId];
+            }
+
+            event.getPointerProperties(i, pointerProperties[count]);
+            event.getPointerCoords(i, pointerCoords[count]);
+            pointerCoords[count].x += offsetX;
+            pointerCoords[count].y += offsetY;
+            count++;
+        }
+
+        if (count == 0) {
+            return false;
+        }
+
+        if (action == MotionEvent.ACTION_POINTER_DOWN || action == MotionEvent.ACTION_POINTER_UP) {
+            action |= actionIndex << MotionEvent.ACTION_POINTER_INDEX_SHIFT;
+        }
+
+        MotionEvent targetEvent = MotionEvent.obtain(downTime, event.getEventTime(),
+                action, count, pointerProperties, pointerCoords, event.getMetaState(),
+                event.getButtonState(), event.getXPrecision(), event.getYPrecision(),
+                event.getDeviceId(), event.getEdgeFlags(), event.getSource(), event.getFlags());
+        boolean handled = target.dispatchTouchEvent(targetEvent);
+        targetEvent.recycle();
+        return handled;
+    }
+
+    // Sends a single pointer to a control as its own event relative to the control, like
+    // a parent view splitting touches between its children would
+    private boolean dispatchToElement(VirtualControllerElement element, MotionEvent event,
+                                      int pointerIndex, int action) {
+        event.getPointerProperties(pointerIndex, pointerProperties[0]);
+        event.getPointerCoords(pointerIndex, pointerCoords[0]);
+        pointerCoords[0].x -= element.getLeft();
+        pointerCoords[0].y -= element.getTop();
+
+        MotionEvent elementEvent = MotionEvent.obtain(event.getDownTime(), event.getEventTime(),
+                action, 1, pointerProperties, pointerCoords, event.getMetaState(),
+                event.getButtonState(), event.getXPrecision(), event.getYPrecision(),
+                event.getDeviceId(), event.getEdgeFlags(), event.getSource(), event.getFlags());
+        boolean handled = element.dispatchTouchEvent(elementEvent);
+        elementEvent.recycle();
+        return handled;
+    }
+
+    public String getStatistics() {
+        return "OSC overlay: "+framesDrawn+" frames, "+
+                (framesDrawn > 0 ? totalFrameNs / framesDrawn / 1000 : 0)+" us average, "+
+                (maxFrameNs / 1000)+" us max; "+cachedDraws+" controls drawn from cache, "+
+                liveDraws+" drawn live, "+skippedDraws+" outside the redrawn area; "+
+                cacheRenders+" cache updates";
+    }
+}
@@ -0,0 +1,124 @@
+package com.limelight.binding.video;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaCodec.BufferInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Passes everything straight through to a real MediaCodec instance
+public class AndroidVideoDecoderCodec implements VideoDecoderCodec {
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public VideoDecoderCodec createByCodecName(String name) throws IOException {
+            return new AndroidVideoDecoderCodec(MediaCodec.createByCodecName(name));
+        }
+    };
+
+    private final MediaCodec codec;
+
+    private AndroidVideoDecoderCodec(MediaCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public void configure(MediaFormat format, Surface surface) {
+        codec.configure(format, surface, null, 0);
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.M)
+    public void setOutputSurface(Surface surface) {
+        codec.setOutputSurface(surface);
+    }
+
+    @Override
+    public void setVideoScalingMode(int mode) {
+        codec.setVideoScalingMode(mode);
+    }
+
+    @Override
+    public void start() {
+        codec.start();
+    }
+
+    @Override
+    public void stop() {
+        codec.stop();
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public void reset() {
+        codec.reset();
+    }
+
+    @Override
+    public void release() {
+        codec.release();
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public MediaFormat getInputFormat() {
+        return codec.getInputFormat();
+    }
+
+    @Override
+    public MediaFormat getOutputFormat() {
+        return codec.getOutputFormat();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public ByteBuffer[] getInputBuffers() {
+        return codec.getInputBuffers();
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        return codec.dequeueInputBuffer(timeoutUs);
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public ByteBuffer getInputBuffer(int index) {
+        return codec.getInputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        codec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public int dequeueOutputBuffer(BufferInfo info, long timeoutUs) {
+        return codec.dequeueOutputBuffer(info, timeoutUs);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        codec.releaseOutputBuffer(index, render);
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public void releaseOutputBuffer(int index, long renderTimestampNs) {
+        codec.releaseOutputBuffer(index, renderTimestampNs);
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.M)
+    public void setOnFrameRenderedListener(final OnFrameRenderedListener listener) {
+        codec.setOnFrameRenderedListener(new MediaCodec.OnFrameRenderedListener() {
+            @Override
+            public void onFrameRendered(MediaCodec mediaCodec, long presentationTimeUs, long renderTimeNanos) {
+                listener.onFrameRendered(presentationTimeUs, renderTimeNanos);
+            }
+        }, null);
+    }
+}
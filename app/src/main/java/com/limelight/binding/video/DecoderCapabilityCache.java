@@ -0,0 +1,113 @@
+package com.limelight.binding.video;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import com.limelight.BuildConfig;
+import com.limelight.LimeLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Persists decoder selections and capability query results across launches so we
+// don't have to walk the MediaCodecList and query capabilities on every stream start.
+// The whole cache is invalidated when the OS build, GPU, or app version changes.
+class DecoderCapabilityCache {
+    private static final String PREF_NAME = "DecoderCapabilityCache";
+
+    private static final String CACHE_KEY_PREF_STRING = "CacheKey";
+    private static final String DECODER_PREF_PREFIX = "Decoder:";
+    private static final String CAPABILITY_PREF_PREFIX = "Capability:";
+
+    private final SharedPreferences prefs;
+
+    private DecoderCapabilityCache(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    static DecoderCapabilityCache load(Context context, String glRenderer) {
+        SharedPreferences prefs = context.getSharedPreferences(PREF_NAME, 0);
+        String cacheKey = Build.FINGERPRINT + "|" + glRenderer + "|" + BuildConfig.VERSION_CODE;
+
+        if (!cacheKey.equals(prefs.getString(CACHE_KEY_PREF_STRING, ""))) {
+            LimeLog.info("Decoder capability cache is stale; starting fresh");
+            prefs.edit()
+                    .clear()
+                    .putString(CACHE_KEY_PREF_STRING, cacheKey)
+                    .apply();
+        }
+
+        return new DecoderCapabilityCache(prefs);
+    }
+
+    private static String getDecoderKey(String mimeType, int requiredProfile) {
+        return DECODER_PREF_PREFIX + mimeType + ":" + requiredProfile;
+    }
+
+    private static String getCapabilityKey(String decoderName, String mimeType, String capability) {
+        return CAPABILITY_PREF_PREFIX + decoderName + ":" + mimeType + ":" + capability;
+    }
+
+    // Returns the MIME type and required profile of each cached decoder choice
+    List<String[]> getDecoderEntries() {
+        ArrayList<String[]> entries = new ArrayList<>();
+        for (String key : prefs.getAll().keySet()) {
+            if (key.startsWith(DECODER_PREF_PREFIX)) {
+                String entry = key.substring(DECODER_PREF_PREFIX.length());
+                int separator = entry.lastIndexOf(':');
+                if (separator > 0) {
+                    entries.add(new String[] {entry.substring(0, separator), entry.substring(separator + 1)});
+                }
+            }
+        }
+        return entries;
+    }
+
+    // Returns the decoder name, MIME type, and capability of each cached capability.
+    // Capabilities may contain colons, but decoder names and MIME types don't.
+    List<String[]> getCapabilityEntries() {
+        ArrayList<String[]> entries = new ArrayList<>();
+        for (String key : prefs.getAll().keySet()) {
+            if (key.startsWith(CAPABILITY_PREF_PREFIX)) {
+                String[] entry = key.substring(CAPABILITY_PREF_PREFIX.length()).split(":", 3);
+                if (entry.length == 3) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    // Returns null if there is no cached decoder choice
+    String getDecoderName(String mimeType, int requiredProfile) {
+        return prefs.getString(getDecoderKey(mimeType, requiredProfile), null);
+    }
+
+    void putDecoderName(String mimeType, int requiredProfile, String decoderName) {
+        if (decoderName != null) {
+            prefs.edit().putString(getDecoderKey(mimeType, requiredProfile), decoderName).apply();
+        }
+        else {
+            prefs.edit().remove(getDecoderKey(mimeType, requiredProfile)).apply();
+        }
+    }
+
+    // Returns null if this capability has not been queried before
+    Boolean getCapability(String decoderName, String mimeType, String capability) {
+        String key = getCapabilityKey(decoderName, mimeType, capability);
+        if (!prefs.contains(key)) {
+            return null;
+        }
+
+        return prefs.getBoolean(key, false);
+    }
+
+    void removeCapability(String decoderName, String mimeType, String capability) {
+        prefs.edit().remove(getCapabilityKey(decoderName, mimeType, capability)).apply();
+    }
+
+    void putCapability(String decoderName, String mimeType, String capability, boolean supported) {
+        prefs.edit().putBoolean(getCapabilityKey(decoderName, mimeType, capability), supported).apply();
+    }
+}
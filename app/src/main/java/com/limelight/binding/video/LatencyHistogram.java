@@ -0,0 +1,77 @@
+package com.limelight.binding.video;
+
+// Fixed-size latency histogram with 1 ms buckets. Recording is allocation-free
+// so it can be done for every frame on the decoder threads.
+class LatencyHistogram {
+
+    // Samples at or above the last bucket are clamped into it
+    static final int BUCKET_COUNT = 256;
+
+    private final int[] buckets = new int[BUCKET_COUNT];
+    private int count;
+
+    void record(long latencyMs) {
+        int bucket;
+
+        if (latencyMs < 0) {
+            // Clock skew between stages, so just ignore this sample
+            return;
+        }
+        else if (latencyMs >= BUCKET_COUNT) {
+            bucket = BUCKET_COUNT - 1;
+        }
+        else {
+            bucket = (int) latencyMs;
+        }
+
+        buckets[bucket]++;
+        count++;
+    }
+
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.buckets[i] += other.buckets[i];
+        }
+        this.count += other.count;
+    }
+
+    void copy(LatencyHistogram other) {
+        System.arraycopy(other.buckets, 0, this.buckets, 0, BUCKET_COUNT);
+        this.count = other.count;
+    }
+
+    void clear() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.buckets[i] = 0;
+        }
+        this.count = 0;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    // Returns the smallest latency (in ms) that is greater than or equal to
+    // the given fraction of all samples, or 0 if there are no samples.
+    int getPercentile(float fraction) {
+        if (count == 0) {
+            return 0;
+        }
+
+        // Rank of the sample we're looking for (1-based)
+        long targetRank = (long) Math.ceil(count * (double) fraction);
+        if (targetRank < 1) {
+            targetRank = 1;
+        }
+
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= targetRank) {
+                return i;
+            }
+        }
+
+        return BUCKET_COUNT - 1;
+    }
+}
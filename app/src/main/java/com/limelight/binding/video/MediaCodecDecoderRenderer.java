@@ -2,6 +2,7 @@ package com.limelight.binding.video;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -11,8 +12,9 @@ import org.jcodec.codecs.h264.io.model.SeqParameterSet;
 import org.jcodec.codecs.h264.io.model.VUIParameters;
 
 import com.limelight.LimeLog;
-import com.limelight.R;
+import com.limelight.binding.AvSyncMonitor;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
+import com.limelight.nvstream.input.InputLatencyTracker;
 import com.limelight.nvstream.jni.MoonBridge;
 import com.limelight.preferences.PreferenceConfiguration;
 
@@ -53,10 +55,14 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private ByteBuffer nextInputBuffer;
 
     private Context context;
-    private MediaCodec videoDecoder;
+    private VideoDecoderCodec.Factory codecFactory = AndroidVideoDecoderCodec.FACTORY;
+    private VideoDecoderCodec videoDecoder;
+    private StandbyDecoder standbyDecoder;
+    private byte[] cachedCodecConfig;
     private Thread rendererThread;
     private boolean needsSpsBitstreamFixup, isExynos4;
     private boolean adaptivePlayback, directSubmit, fusedIdrFrame;
+    private boolean partialFrameSubmission;
     private boolean constrainedHighProfile;
     private boolean refFrameInvalidationAvc, refFrameInvalidationHevc;
     private byte optimalSlicesPerFrame;
@@ -71,6 +77,10 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private String glRenderer;
     private boolean foreground = true;
     private PerfOverlayListener perfListener;
+    private PerfOverlayReporter perfOverlayReporter;
+    private AvSyncMonitor avSyncMonitor;
+    private InputLatencyTracker inputLatencyTracker;
+    private String activeDecoderName = "(unknown)";
 
     private static final int CR_TIMEOUT_MS = 5000;
     private static final int CR_MAX_TRIES = 10;
@@ -78,6 +88,10 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private static final int CR_RECOVERY_TYPE_RESTART = 1;
     private static final int CR_RECOVERY_TYPE_RESET = 2;
     private AtomicInteger codecRecoveryType = new AtomicInteger(CR_RECOVERY_TYPE_NONE);
+
+    private static final int STANDBY_NOT_AVAILABLE = 0;
+    private static final int STANDBY_SWITCHED = 1;
+    private static final int STANDBY_FAILED = 2;
     private final Object codecRecoveryMonitor = new Object();
 
     // Each thread that touches the MediaCodec object or any associated buffers must have a flag
@@ -89,6 +103,15 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private int codecRecoveryThreadQuiescedFlags = 0;
     private int codecRecoveryAttempts = 0;
 
+    // Recovery time is measured from the first thread noticing the failure
+    // until the first frame comes out of the recovered decoder.
+    private long codecRecoveryStartTimeMs;
+    private String codecRecoveryMethod;
+    private volatile boolean awaitingFrameAfterRecovery;
+    private int codecRecoveryCount;
+    private long totalCodecRecoveryTimeMs;
+    private long maxCodecRecoveryTimeMs;
+
     private MediaFormat inputFormat;
     private MediaFormat outputFormat;
     private MediaFormat configuredFormat;
@@ -111,6 +134,15 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
     private LinkedBlockingQueue<Integer> outputBufferQueue = new LinkedBlockingQueue<>();
     private static final int OUTPUT_BUFFER_QUEUE_LIMIT = 2;
+    // Written by the renderer thread and read by the Choreographer callback. The array is
+    // filled in before it's published, so a grown copy is never seen half-initialized.
+    private volatile long[] outputBufferTimestampsMs = new long[16];
+
+    // Maps presentation timestamps back to the time the frame was queued to the decoder
+    private static final int DECODER_INPUT_TIME_SLOTS = 32;
+    private final long[] decoderInputPtsUs = new long[DECODER_INPUT_TIME_SLOTS];
+    private final long[] decoderInputTimestampsMs = new long[DECODER_INPUT_TIME_SLOTS];
+    private int nextDecoderInputTimeSlot;
     private long lastRenderedFrameTimeNanos;
     private HandlerThread choreographerHandlerThread;
     private Handler choreographerHandler;
@@ -130,53 +162,24 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    private boolean decoderCanMeetPerformancePoint(MediaCodecInfo.VideoCapabilities caps, PreferenceConfiguration prefs) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            MediaCodecInfo.VideoCapabilities.PerformancePoint targetPerfPoint = new MediaCodecInfo.VideoCapabilities.PerformancePoint(prefs.width, prefs.height, prefs.fps);
-            List<MediaCodecInfo.VideoCapabilities.PerformancePoint> perfPoints = caps.getSupportedPerformancePoints();
-            if (perfPoints != null) {
-                for (MediaCodecInfo.VideoCapabilities.PerformancePoint perfPoint : perfPoints) {
-                    // If we find a performance point that covers our target, we're good to go
-                    if (perfPoint.covers(targetPerfPoint)) {
-                        return true;
-                    }
-                }
-
-                // We had performance point data but none met the specified streaming settings
-                return false;
-            }
-
-            // Fall-through to try the Android M API if there's no performance point data
-        }
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            try {
-                // We'll ask the decoder what it can do for us at this resolution and see if our
-                // requested frame rate falls below or inside the range of achievable frame rates.
-                Range<Double> fpsRange = caps.getAchievableFrameRatesFor(prefs.width, prefs.height);
-                if (fpsRange != null) {
-                    return prefs.fps <= fpsRange.getUpper();
-                }
-
-                // Fall-through to try the Android L API if there's no performance point data
-            } catch (IllegalArgumentException e) {
-                // Video size not supported at any frame rate
-                return false;
-            }
-        }
-
-        // As a last resort, we will use areSizeAndRateSupported() which is explicitly NOT a
-        // performance metric, but it can work at least for the purpose of determining if
-        // the codec is going to die when given a stream with the specified settings.
-        return caps.areSizeAndRateSupported(prefs.width, prefs.height, prefs.fps);
+    private boolean decoderCanMeetPerformancePoint(MediaCodecInfo decoderInfo, String mimeType, PreferenceConfiguration prefs) {
+        // The answer only depends on the decoder and streaming settings, so we can reuse it from previous launches
+        String capability = MediaCodecHelper.getPerformancePointCapability(prefs.width, prefs.height, prefs.fps);
+        Boolean cached = MediaCodecHelper.getCachedDecoderCapability(decoderInfo.getName(), mimeType, capability);
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean result = MediaCodecHelper.decoderCanMeetPerformancePoint(decoderInfo.getCapabilitiesForType(mimeType).getVideoCapabilities(),
+                prefs.width, prefs.height, prefs.fps);
+        MediaCodecHelper.cacheDecoderCapability(decoderInfo.getName(), mimeType, capability, result);
+        return result;
     }
 
     private boolean decoderCanMeetPerformancePointWithHevcAndNotAvc(MediaCodecInfo avcDecoderInfo, MediaCodecInfo hevcDecoderInfo, PreferenceConfiguration prefs) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            MediaCodecInfo.VideoCapabilities avcCaps = avcDecoderInfo.getCapabilitiesForType("video/avc").getVideoCapabilities();
-            MediaCodecInfo.VideoCapabilities hevcCaps = hevcDecoderInfo.getCapabilitiesForType("video/hevc").getVideoCapabilities();
-
-            return !decoderCanMeetPerformancePoint(avcCaps, prefs) && decoderCanMeetPerformancePoint(hevcCaps, prefs);
+            return !decoderCanMeetPerformancePoint(avcDecoderInfo, "video/avc", prefs) &&
+                    decoderCanMeetPerformancePoint(hevcDecoderInfo, "video/hevc", prefs);
         }
         else {
             // No performance data
@@ -229,6 +232,22 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         this.renderTarget = renderTarget;
     }
 
+    // Must be called before setup(). Headless runs with a FakeVideoDecoderCodec
+    // may leave the render target unset.
+    public void setCodecFactory(VideoDecoderCodec.Factory codecFactory) {
+        this.codecFactory = codecFactory;
+    }
+
+    // Must be called before setup()
+    public void setAvSyncMonitor(AvSyncMonitor avSyncMonitor) {
+        this.avSyncMonitor = avSyncMonitor;
+    }
+
+    // Must be called before setup()
+    public void setInputLatencyTracker(InputLatencyTracker inputLatencyTracker) {
+        this.inputLatencyTracker = inputLatencyTracker;
+    }
+
     public MediaCodecDecoderRenderer(Context context, PreferenceConfiguration prefs,
                                      CrashListener crashListener, int consecutiveCrashCount,
                                      boolean meteredData, boolean requestedHdr,
@@ -246,6 +265,8 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         this.lastWindowVideoStats = new VideoStats();
         this.globalVideoStats = new VideoStats();
 
+        long decoderSelectionStartTime = SystemClock.uptimeMillis();
+
         avcDecoder = findAvcDecoder();
         if (avcDecoder != null) {
             LimeLog.info("Selected AVC decoder: "+avcDecoder.getName());
@@ -262,6 +283,8 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             LimeLog.info("No HEVC decoder found");
         }
 
+        LimeLog.info("Decoder selection took "+(SystemClock.uptimeMillis() - decoderSelectionStartTime)+" ms");
+
         // Set attributes that are queried in getCapabilities(). This must be done here
         // because getCapabilities() may be called before setup() in current versions of the common
         // library. The limitation of this is that we don't know whether we're using HEVC or AVC.
@@ -315,14 +338,20 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             return false;
         }
 
-        for (MediaCodecInfo.CodecProfileLevel profileLevel : hevcDecoder.getCapabilitiesForType("video/hevc").profileLevels) {
-            if (profileLevel.profile == MediaCodecInfo.CodecProfileLevel.HEVCProfileMain10HDR10) {
-                LimeLog.info("HEVC decoder "+hevcDecoder.getName()+" supports HEVC Main10 HDR10");
-                return true;
-            }
+        Boolean cached = MediaCodecHelper.getCachedDecoderCapability(hevcDecoder.getName(), "video/hevc",
+                MediaCodecHelper.CAPABILITY_HEVC_MAIN10_HDR10);
+        if (cached != null) {
+            return cached;
         }
 
-        return false;
+        boolean supported = MediaCodecHelper.decoderSupportsHevcMain10Hdr10(hevcDecoder);
+        if (supported) {
+            LimeLog.info("HEVC decoder "+hevcDecoder.getName()+" supports HEVC Main10 HDR10");
+        }
+
+        MediaCodecHelper.cacheDecoderCapability(hevcDecoder.getName(), "video/hevc",
+                MediaCodecHelper.CAPABILITY_HEVC_MAIN10_HDR10, supported);
+        return supported;
     }
 
     public void notifyVideoForeground() {
@@ -358,16 +387,12 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private void configureAndStartDecoder(MediaFormat format) {
         LimeLog.info("Configuring with format: "+format);
 
-        videoDecoder.configure(format, renderTarget.getSurface(), null, 0);
+        videoDecoder.configure(format, renderTarget != null ? renderTarget.getSurface() : null);
 
         configuredFormat = format;
 
         // After reconfiguration, we must resubmit CSD buffers
-        submittedCsd = false;
-        submitCsdNextCall = false;
-        vpsBuffer = null;
-        spsBuffer = null;
-        ppsBuffer = null;
+        resetCsdState();
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             // This will contain the actual accepted input format attributes
@@ -385,10 +410,18 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         }
     }
 
+    private void resetCsdState() {
+        submittedCsd = false;
+        submitCsdNextCall = false;
+        vpsBuffer = null;
+        spsBuffer = null;
+        ppsBuffer = null;
+    }
+
     private boolean tryConfigureDecoder(MediaCodecInfo selectedDecoderInfo, MediaFormat format, boolean throwOnCodecError) {
         boolean configured = false;
         try {
-            videoDecoder = MediaCodec.createByCodecName(selectedDecoderInfo.getName());
+            videoDecoder = codecFactory.createByCodecName(selectedDecoderInfo.getName());
             configureAndStartDecoder(format);
             LimeLog.info("Using codec " + selectedDecoderInfo.getName() + " for hardware decoding " + format.getString(MediaFormat.KEY_MIME));
             configured = true;
@@ -471,8 +504,14 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             return -3;
         }
 
+        activeDecoderName = selectedDecoderInfo.getName();
         adaptivePlayback = MediaCodecHelper.decoderSupportsAdaptivePlayback(selectedDecoderInfo, mimeType);
         fusedIdrFrame = MediaCodecHelper.decoderSupportsFusedIdrFrame(selectedDecoderInfo, mimeType);
+        partialFrameSubmission = prefs.partialFrameSubmission &&
+                MediaCodecHelper.decoderSupportsPartialFrame(selectedDecoderInfo, mimeType);
+        if (partialFrameSubmission) {
+            LimeLog.info("Submitting each slice as a partial frame");
+        }
 
         for (int tryNumber = 0;; tryNumber++) {
             LimeLog.info("Decoder configuration try: "+tryNumber);
@@ -494,10 +533,23 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             }
         }
 
+        attachFrameRenderedListener();
+
+        // The standby is primed once we have the parameter sets. Decoders that need the
+        // baseline SPS hack can't be primed with the SPS we send them, so they're excluded.
+        if (prefs.hotStandbyDecoder && standbyDecoder == null && !needsBaselineSpsHack &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            standbyDecoder = new StandbyDecoder(codecFactory, selectedDecoderInfo.getName());
+        }
+
+        return 0;
+    }
+
+    private void attachFrameRenderedListener() {
         if (USE_FRAME_RENDER_TIME && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            videoDecoder.setOnFrameRenderedListener(new MediaCodec.OnFrameRenderedListener() {
+            videoDecoder.setOnFrameRenderedListener(new VideoDecoderCodec.OnFrameRenderedListener() {
                 @Override
-                public void onFrameRendered(MediaCodec mediaCodec, long presentationTimeUs, long renderTimeNanos) {
+                public void onFrameRendered(long presentationTimeUs, long renderTimeNanos) {
                     long delta = (renderTimeNanos / 1000000L) - (presentationTimeUs / 1000);
                     if (delta >= 0 && delta < 1000) {
                         if (USE_FRAME_RENDER_TIME) {
@@ -505,10 +557,91 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                         }
                     }
                 }
-            }, null);
+            });
         }
+    }
 
-        return 0;
+    // Must only be called by the final thread to quiesce for codec recovery. If this
+    // returns STANDBY_FAILED, the old decoder has already been released.
+    private int trySwitchToStandbyDecoder() {
+        if (standbyDecoder == null) {
+            return STANDBY_NOT_AVAILABLE;
+        }
+
+        VideoDecoderCodec standby = standbyDecoder.take();
+        if (standby == null) {
+            LimeLog.warning("Standby decoder is not ready yet");
+            return STANDBY_NOT_AVAILABLE;
+        }
+
+        LimeLog.warning("Switching to standby decoder after decoder failure");
+
+        // Only one decoder can be connected to the Surface at a time
+        videoDecoder.release();
+
+        try {
+            standby.setOutputSurface(renderTarget != null ? renderTarget.getSurface() : null);
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            standby.release();
+            return STANDBY_FAILED;
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+            standby.release();
+            return STANDBY_FAILED;
+        }
+
+        videoDecoder = standby;
+        resetCsdState();
+        attachFrameRenderedListener();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            inputFormat = videoDecoder.getInputFormat();
+        }
+
+        // Build the next standby while we wait for the IDR frame
+        standbyDecoder.prepare(configuredFormat, cachedCodecConfig);
+        return STANDBY_SWITCHED;
+    }
+
+    private void cacheCodecConfig(byte[] ppsData, int ppsLength) {
+        int length = ppsLength;
+        if (vpsBuffer != null) {
+            length += vpsBuffer.length;
+        }
+        if (spsBuffer != null) {
+            length += spsBuffer.length;
+        }
+
+        // Same layout as the CSD blob we just queued
+        ByteBuffer codecConfig = ByteBuffer.allocate(length);
+        if (vpsBuffer != null) {
+            codecConfig.put(vpsBuffer);
+        }
+        if (spsBuffer != null) {
+            codecConfig.put(spsBuffer);
+        }
+        codecConfig.put(ppsData, 0, ppsLength);
+
+        boolean firstCodecConfig = cachedCodecConfig == null;
+        cachedCodecConfig = codecConfig.array();
+
+        if (firstCodecConfig) {
+            standbyDecoder.prepare(configuredFormat, cachedCodecConfig);
+        }
+    }
+
+    private void recordCodecRecoveryTime(long outputTimeMs) {
+        synchronized (codecRecoveryMonitor) {
+            long recoveryTimeMs = outputTimeMs - codecRecoveryStartTimeMs;
+            codecRecoveryStartTimeMs = 0;
+
+            codecRecoveryCount++;
+            totalCodecRecoveryTimeMs += recoveryTimeMs;
+            maxCodecRecoveryTimeMs = Math.max(maxCodecRecoveryTimeMs, recoveryTimeMs);
+
+            LimeLog.info("Codec recovery ("+codecRecoveryMethod+") took "+recoveryTimeMs+" ms to first frame");
+        }
     }
 
     @Override
@@ -532,6 +665,10 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
         // We need some sort of recovery, so quiesce all threads before starting that
         synchronized (codecRecoveryMonitor) {
+            if (codecRecoveryStartTimeMs == 0) {
+                codecRecoveryStartTimeMs = SystemClock.uptimeMillis();
+            }
+
             if (choreographerHandlerThread == null) {
                 // If we have no choreographer thread, we can just mark that as quiesced right now.
                 codecRecoveryThreadQuiescedFlags |= CR_FLAG_CHOREOGRAPHER;
@@ -549,12 +686,25 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                 nextInputBufferIndex = -1;
                 outputBufferQueue.clear();
 
+                // Swapping to a warm standby decoder is much faster than any of the
+                // options below, since they all reconfigure while the stream is frozen.
+                int standbyResult = trySwitchToStandbyDecoder();
+                if (standbyResult == STANDBY_SWITCHED) {
+                    codecRecoveryMethod = "standby";
+                    codecRecoveryType.set(CR_RECOVERY_TYPE_NONE);
+                }
+                else if (standbyResult == STANDBY_FAILED) {
+                    // The old decoder was released for the switch, so it can only be recreated
+                    codecRecoveryType.set(CR_RECOVERY_TYPE_RESET);
+                }
+
                 // For "recoverable" exceptions, we can just stop, reconfigure, and restart.
                 if (codecRecoveryType.get() == CR_RECOVERY_TYPE_RESTART) {
                     LimeLog.warning("Trying to restart decoder after CodecException");
                     try {
                         videoDecoder.stop();
                         configureAndStartDecoder(configuredFormat);
+                        codecRecoveryMethod = "restart";
                         codecRecoveryType.set(CR_RECOVERY_TYPE_NONE);
                     } catch (IllegalArgumentException e) {
                         e.printStackTrace();
@@ -573,11 +723,13 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
                 // For "non-recoverable" exceptions on L+, we can call reset() to recover
                 // without having to recreate the entire decoder again.
-                if (codecRecoveryType.get() == CR_RECOVERY_TYPE_RESET && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                if (codecRecoveryType.get() == CR_RECOVERY_TYPE_RESET && standbyResult != STANDBY_FAILED &&
+                        Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
                     LimeLog.warning("Trying to reset decoder after CodecException");
                     try {
                         videoDecoder.reset();
                         configureAndStartDecoder(configuredFormat);
+                        codecRecoveryMethod = "reset";
                         codecRecoveryType.set(CR_RECOVERY_TYPE_NONE);
                     } catch (IllegalArgumentException e) {
                         e.printStackTrace();
@@ -597,13 +749,16 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                 // throw away the old decoder and reinitialize a new one from scratch.
                 if (codecRecoveryType.get() == CR_RECOVERY_TYPE_RESET) {
                     LimeLog.warning("Trying to recreate decoder after CodecException");
-                    videoDecoder.release();
+                    if (standbyResult != STANDBY_FAILED) {
+                        videoDecoder.release();
+                    }
 
                     try {
                         int err = initializeDecoder(true);
                         if (err != 0) {
                             throw new IllegalStateException("Decoder reset failed: " + err);
                         }
+                        codecRecoveryMethod = "recreate";
                         codecRecoveryType.set(CR_RECOVERY_TYPE_NONE);
                     } catch (IllegalArgumentException e) {
                         e.printStackTrace();
@@ -621,6 +776,10 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                     }
                 }
 
+                if (!stopping) {
+                    awaitingFrameAfterRecovery = true;
+                }
+
                 // Wake all quiesced threads and allow them to begin work again
                 codecRecoveryThreadQuiescedFlags = 0;
                 codecRecoveryMonitor.notifyAll();
@@ -779,6 +938,15 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
                     lastRenderedFrameTimeNanos = frameTimeNanos;
                     activeWindowVideoStats.totalFramesRendered++;
+
+                    long[] outputTimestamps = outputBufferTimestampsMs;
+                    if (nextOutputBuffer < outputTimestamps.length) {
+                        long presentDelayMs = SystemClock.uptimeMillis() - outputTimestamps[nextOutputBuffer];
+                        activeWindowVideoStats.outputToPresentLatency.record(presentDelayMs);
+                        if (avSyncMonitor != null) {
+                            avSyncMonitor.reportVideoPresentDelay(presentDelayMs);
+                        }
+                    }
                 } catch (IllegalStateException ignored) {
                     try {
                         // Try to avoid leaking the output buffer by releasing it without rendering
@@ -834,7 +1002,15 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                             long presentationTimeUs = info.presentationTimeUs;
                             int lastIndex = outIndex;
 
+                            long outputTimeMs = SystemClock.uptimeMillis();
+
                             numFramesOut++;
+                            recordDecoderLatency(presentationTimeUs, outputTimeMs);
+
+                            if (awaitingFrameAfterRecovery) {
+                                awaitingFrameAfterRecovery = false;
+                                recordCodecRecoveryTime(outputTimeMs);
+                            }
 
                             // Render the latest frame now if frame pacing isn't in balanced mode
                             if (prefs.framePacing != PreferenceConfiguration.FRAME_PACING_BALANCED) {
@@ -846,6 +1022,8 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
                                     lastIndex = outIndex;
                                     presentationTimeUs = info.presentationTimeUs;
+                                    outputTimeMs = SystemClock.uptimeMillis();
+                                    recordDecoderLatency(presentationTimeUs, outputTimeMs);
                                 }
 
                                 if (prefs.framePacing == PreferenceConfiguration.FRAME_PACING_MAX_SMOOTHNESS ||
@@ -871,6 +1049,13 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                                 }
 
                                 activeWindowVideoStats.totalFramesRendered++;
+
+                                // We render immediately, so this is just our own release overhead
+                                long presentDelayMs = SystemClock.uptimeMillis() - outputTimeMs;
+                                activeWindowVideoStats.outputToPresentLatency.record(presentDelayMs);
+                                if (avSyncMonitor != null) {
+                                    avSyncMonitor.reportVideoPresentDelay(presentDelayMs);
+                                }
                             }
                             else {
                                 // For balanced frame pacing case, the Choreographer callback will handle rendering.
@@ -891,6 +1076,14 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                                     }
                                 }
 
+                                // Remember when this buffer was output for the Choreographer callback
+                                long[] outputTimestamps = outputBufferTimestampsMs;
+                                if (lastIndex >= outputTimestamps.length) {
+                                    outputTimestamps = Arrays.copyOf(outputTimestamps, lastIndex + 1);
+                                }
+                                outputTimestamps[lastIndex] = outputTimeMs;
+                                outputBufferTimestampsMs = outputTimestamps;
+
                                 // Add this buffer
                                 outputBufferQueue.add(lastIndex);
                             }
@@ -929,6 +1122,28 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         rendererThread.start();
     }
 
+    private void recordDecoderInputTime(long timestampUs, long inputTimeMs) {
+        decoderInputPtsUs[nextDecoderInputTimeSlot] = timestampUs;
+        decoderInputTimestampsMs[nextDecoderInputTimeSlot] = inputTimeMs;
+        nextDecoderInputTimeSlot = (nextDecoderInputTimeSlot + 1) % DECODER_INPUT_TIME_SLOTS;
+    }
+
+    private void recordDecoderLatency(long presentationTimeUs, long outputTimeMs) {
+        if (avSyncMonitor != null) {
+            // The PTS is the time the frame was fully received and enqueued
+            avSyncMonitor.reportVideoDecodeDelay(outputTimeMs - presentationTimeUs / 1000);
+        }
+
+        // The slots are only written by the input thread, so a stale entry can at
+        // worst cause one frame to be missing from the histogram.
+        for (int i = 0; i < DECODER_INPUT_TIME_SLOTS; i++) {
+            if (decoderInputPtsUs[i] == presentationTimeUs) {
+                activeWindowVideoStats.decoderLatency.record(outputTimeMs - decoderInputTimestampsMs[i]);
+                return;
+            }
+        }
+    }
+
     private boolean fetchNextInputBuffer() {
         long startTime;
         boolean codecRecovered;
@@ -1007,6 +1222,17 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     public void start() {
         startRendererThread();
         startChoreographerThread();
+        startPerfOverlayReporter();
+    }
+
+    private void startPerfOverlayReporter() {
+        if (!prefs.enablePerfOverlay) {
+            return;
+        }
+
+        perfOverlayReporter = new PerfOverlayReporter(context, perfListener, initialWidth, initialHeight,
+                avSyncMonitor, inputLatencyTracker);
+        perfOverlayReporter.start();
     }
 
     // !!! May be called even if setup()/start() fails !!!
@@ -1070,11 +1296,20 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             // status back to true.
             Thread.currentThread().interrupt();
         }
+
+        // Stop the perf overlay reporter (if we have one)
+        if (perfOverlayReporter != null) {
+            perfOverlayReporter.stop();
+        }
     }
 
     @Override
     public void cleanup() {
         videoDecoder.release();
+
+        if (standbyDecoder != null) {
+            standbyDecoder.release();
+        }
     }
 
     @Override
@@ -1166,44 +1401,22 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
         // Flip stats windows roughly every second
         if (SystemClock.uptimeMillis() >= activeWindowVideoStats.measurementStartTimestamp + 1000) {
-            if (prefs.enablePerfOverlay) {
-                VideoStats lastTwo = new VideoStats();
-                lastTwo.add(lastWindowVideoStats);
-                lastTwo.add(activeWindowVideoStats);
-                VideoStatsFps fps = lastTwo.getFps();
-                String decoder;
-
-                if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
-                    decoder = avcDecoder.getName();
-                } else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H265) != 0) {
-                    decoder = hevcDecoder.getName();
-                } else {
-                    decoder = "(unknown)";
-                }
+            long now = SystemClock.uptimeMillis();
 
-                float decodeTimeMs = (float)lastTwo.decoderTimeMs / lastTwo.totalFramesReceived;
-                long rttInfo = MoonBridge.getEstimatedRttInfo();
-                StringBuilder sb = new StringBuilder();
-                sb.append(context.getString(R.string.perf_overlay_streamdetails, initialWidth + "x" + initialHeight, fps.totalFps)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_decoder, decoder)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_incomingfps, fps.receivedFps)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_renderingfps, fps.renderedFps)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_netdrops,
-                        (float)lastTwo.framesLost / lastTwo.totalFrames * 100)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_netlatency,
-                        (int)(rttInfo >> 32), (int)rttInfo)).append('\n');
-                sb.append(context.getString(R.string.perf_overlay_dectime, decodeTimeMs));
-                perfListener.onPerfUpdate(sb.toString());
+            // Formatting happens on the reporter thread, so this only copies counters
+            if (perfOverlayReporter != null) {
+                perfOverlayReporter.publish(lastWindowVideoStats, activeWindowVideoStats, activeDecoderName, now);
             }
 
             globalVideoStats.add(activeWindowVideoStats);
             lastWindowVideoStats.copy(activeWindowVideoStats);
             activeWindowVideoStats.clear();
-            activeWindowVideoStats.measurementStartTimestamp = SystemClock.uptimeMillis();
+            activeWindowVideoStats.measurementStartTimestamp = now;
         }
 
         long timestampUs;
         int codecFlags = 0;
+        long submitStartTimeNs = 0;
 
         // H264 SPS
         if (decodeUnitType == MoonBridge.BUFFER_TYPE_SPS && (videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
@@ -1386,6 +1599,8 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             }
         }
         else {
+            submitStartTimeNs = System.nanoTime();
+
             activeWindowVideoStats.totalFramesReceived++;
             activeWindowVideoStats.totalFrames++;
 
@@ -1396,6 +1611,8 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                 activeWindowVideoStats.totalTimeMs += enqueueTimeMs - receiveTimeMs;
             }
 
+            activeWindowVideoStats.networkToEnqueueLatency.record(enqueueTimeMs - receiveTimeMs);
+
             if (!fetchNextInputBuffer()) {
                 return MoonBridge.DR_NEED_IDR;
             }
@@ -1429,28 +1646,40 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             lastTimestampUs = timestampUs;
 
             numFramesIn++;
-        }
 
-        if (decodeUnitLength > nextInputBuffer.limit() - nextInputBuffer.position()) {
-            IllegalArgumentException exception = new IllegalArgumentException(
-                    "Decode unit length "+decodeUnitLength+" too large for input buffer "+nextInputBuffer.limit());
-            if (!reportedCrash) {
-                reportedCrash = true;
-                crashListener.notifyCrash(exception);
+            if (partialFrameSubmission) {
+                return submitFrameInSlices(decodeUnitData, decodeUnitLength, timestampUs,
+                        codecFlags, enqueueTimeMs, submitStartTimeNs);
             }
-            throw new RendererException(this, exception);
         }
 
+        checkInputBufferSpace(decodeUnitLength);
+
         // Copy data from our buffer list into the input buffer
         nextInputBuffer.put(decodeUnitData, 0, decodeUnitLength);
 
+        if ((codecFlags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+            long inputTimeMs = SystemClock.uptimeMillis();
+            activeWindowVideoStats.enqueueToDecoderLatency.record(inputTimeMs - enqueueTimeMs);
+            recordDecoderInputTime(timestampUs, inputTimeMs);
+        }
+
         if (!queueNextInputBuffer(timestampUs, codecFlags)) {
             return MoonBridge.DR_NEED_IDR;
         }
 
-        if ((codecFlags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+        if ((codecFlags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+            // The whole frame is a single slice in this mode
+            long submitTimeUs = (System.nanoTime() - submitStartTimeNs) / 1000;
+            recordFrameSubmitTime(1, submitTimeUs, submitTimeUs);
+        }
+        else {
             submittedCsd = true;
 
+            if (standbyDecoder != null && decodeUnitType == MoonBridge.BUFFER_TYPE_PPS) {
+                cacheCodecConfig(decodeUnitData, decodeUnitLength);
+            }
+
             if (needsBaselineSpsHack) {
                 needsBaselineSpsHack = false;
 
@@ -1465,6 +1694,117 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         return MoonBridge.DR_OK;
     }
 
+    private void checkInputBufferSpace(int length) {
+        if (length > nextInputBuffer.limit() - nextInputBuffer.position()) {
+            IllegalArgumentException exception = new IllegalArgumentException(
+                    "Decode unit length "+length+" too large for input buffer "+nextInputBuffer.limit());
+            if (!reportedCrash) {
+                reportedCrash = true;
+                crashListener.notifyCrash(exception);
+            }
+            throw new RendererException(this, exception);
+        }
+    }
+
+    // Returns the offset of the next Annex B start code after the given offset or the
+    // end of the data if there are no more NALUs. Emulation prevention guarantees that
+    // 00 00 01 can't appear inside a NALU.
+    private static int findNextNaluStart(byte[] data, int offset, int length) {
+        for (int i = offset; i + 2 < length; i++) {
+            if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+                // Include the leading zero of a 4 byte start code
+                return (i > offset && data[i - 1] == 0) ? i - 1 : i;
+            }
+        }
+
+        return length;
+    }
+
+    private boolean isVclNalu(byte[] data, int naluStart, int length) {
+        // Skip the start code to reach the NALU header
+        int header = naluStart + (data[naluStart + 2] == 1 ? 3 : 4);
+        if (header >= length) {
+            return false;
+        }
+
+        if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
+            // Coded slice NALU types are 1 through 5 in H.264
+            int type = data[header] & 0x1F;
+            return type >= 1 && type <= 5;
+        }
+        else {
+            // Coded slice NALU types are 0 through 31 in HEVC
+            return ((data[header] >> 1) & 0x3F) < 32;
+        }
+    }
+
+    // Returns the end of the next input buffer's worth of data starting at the given
+    // offset. Non-slice NALUs like AUD and SEI are kept with the slice that follows them
+    // so they don't each take up an input buffer of their own.
+    private int findSliceEnd(byte[] data, int offset, int length) {
+        int naluStart = offset;
+        for (;;) {
+            // Skip past our own start code before looking for the next one
+            int naluEnd = findNextNaluStart(data, naluStart + 3, length);
+            if (naluEnd == length || isVclNalu(data, naluStart, length)) {
+                return naluEnd;
+            }
+            naluStart = naluEnd;
+        }
+    }
+
+    // Queues each slice of the frame in its own input buffer, so the decoder can begin
+    // working on the first slice while we're still copying the rest of the frame. The
+    // frame has already been reassembled by the time we get it, so this only helps
+    // when the host encodes more than one slice per frame.
+    // The first input buffer has already been fetched and may contain CSD.
+    private int submitFrameInSlices(byte[] decodeUnitData, int decodeUnitLength, long timestampUs,
+                                    int codecFlags, long enqueueTimeMs, long submitStartTimeNs) {
+        long firstSliceSubmitTimeUs = 0;
+        int slices = 0;
+        int sliceStart = 0;
+
+        while (sliceStart < decodeUnitLength) {
+            int sliceEnd = findSliceEnd(decodeUnitData, sliceStart, decodeUnitLength);
+            boolean lastSlice = sliceEnd == decodeUnitLength;
+
+            if (slices > 0 && !fetchNextInputBuffer()) {
+                return MoonBridge.DR_NEED_IDR;
+            }
+
+            checkInputBufferSpace(sliceEnd - sliceStart);
+            nextInputBuffer.put(decodeUnitData, sliceStart, sliceEnd - sliceStart);
+
+            if (slices == 0) {
+                long inputTimeMs = SystemClock.uptimeMillis();
+                activeWindowVideoStats.enqueueToDecoderLatency.record(inputTimeMs - enqueueTimeMs);
+                recordDecoderInputTime(timestampUs, inputTimeMs);
+            }
+
+            if (!queueNextInputBuffer(timestampUs,
+                    lastSlice ? codecFlags : codecFlags | MediaCodec.BUFFER_FLAG_PARTIAL_FRAME)) {
+                return MoonBridge.DR_NEED_IDR;
+            }
+
+            slices++;
+            if (slices == 1) {
+                firstSliceSubmitTimeUs = (System.nanoTime() - submitStartTimeNs) / 1000;
+            }
+
+            sliceStart = sliceEnd;
+        }
+
+        recordFrameSubmitTime(slices, firstSliceSubmitTimeUs, (System.nanoTime() - submitStartTimeNs) / 1000);
+        return MoonBridge.DR_OK;
+    }
+
+    private void recordFrameSubmitTime(int slices, long firstSliceSubmitTimeUs, long lastSliceSubmitTimeUs) {
+        activeWindowVideoStats.framesSubmitted++;
+        activeWindowVideoStats.slicesSubmitted += slices;
+        activeWindowVideoStats.firstSliceSubmitTimeUs += firstSliceSubmitTimeUs;
+        activeWindowVideoStats.lastSliceSubmitTimeUs += lastSliceSubmitTimeUs;
+    }
+
     private boolean replaySps() {
         if (!fetchNextInputBuffer()) {
             return false;
@@ -1514,6 +1854,47 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         return capabilities;
     }
 
+    private static String describeLatencyPercentiles(String name, LatencyHistogram histogram) {
+        return name+": "+histogram.getPercentile(0.50f)+"/"+
+                histogram.getPercentile(0.95f)+"/"+
+                histogram.getPercentile(0.99f)+" ms (p50/p95/p99, "+histogram.getCount()+" samples)\n";
+    }
+
+    // Returns the per-stage latency percentiles for the whole session
+    public String getSessionLatencySummary() {
+        String str = "";
+
+        str += describeLatencyPercentiles("Network receive to enqueue", globalVideoStats.networkToEnqueueLatency);
+        str += describeLatencyPercentiles("Enqueue to decoder input", globalVideoStats.enqueueToDecoderLatency);
+        str += describeLatencyPercentiles("Decoder input to output", globalVideoStats.decoderLatency);
+        str += describeLatencyPercentiles("Output to present", globalVideoStats.outputToPresentLatency);
+
+        if (globalVideoStats.framesSubmitted > 0) {
+            str += "Frame submission ("+(partialFrameSubmission ? "partial frames" : "whole frames")+"): "+
+                    (float)globalVideoStats.slicesSubmitted / globalVideoStats.framesSubmitted+" buffers/frame, first "+
+                    globalVideoStats.firstSliceSubmitTimeUs / globalVideoStats.framesSubmitted+" us, last "+
+                    globalVideoStats.lastSliceSubmitTimeUs / globalVideoStats.framesSubmitted+" us (average)\n";
+        }
+
+        synchronized (codecRecoveryMonitor) {
+            if (codecRecoveryCount > 0) {
+                str += "Codec recoveries: "+codecRecoveryCount+" (average "+
+                        totalCodecRecoveryTimeMs / codecRecoveryCount+" ms, max "+
+                        maxCodecRecoveryTimeMs+" ms to first frame)\n";
+            }
+        }
+
+        return str;
+    }
+
+    public int getTotalFrames() {
+        return globalVideoStats.totalFrames;
+    }
+
+    public int getFramesLost() {
+        return globalVideoStats.framesLost;
+    }
+
     public int getAverageEndToEndLatency() {
         if (globalVideoStats.totalFramesReceived == 0) {
             return 0;
@@ -1646,6 +2027,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             str += "Frame losses: "+renderer.globalVideoStats.framesLost+" in "+renderer.globalVideoStats.frameLossEvents+" loss events\n";
             str += "Average end-to-end client latency: "+renderer.getAverageEndToEndLatency()+"ms\n";
             str += "Average hardware decoder latency: "+renderer.getAverageDecoderLatency()+"ms\n";
+            str += renderer.getSessionLatencySummary();
             str += "Frame pacing mode: "+renderer.prefs.framePacing+"\n";
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
@@ -11,6 +11,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.ActivityManager;
 import android.content.Context;
 import android.content.pm.ConfigurationInfo;
@@ -20,6 +21,7 @@ import android.media.MediaCodecInfo.CodecCapabilities;
 import android.media.MediaCodecInfo.CodecProfileLevel;
 import android.media.MediaFormat;
 import android.os.Build;
+import android.util.Range;
 
 import com.limelight.LimeLog;
 import com.limelight.preferences.PreferenceConfiguration;
@@ -51,6 +53,10 @@ public class MediaCodecHelper {
     private static boolean isAdreno620 = false;
     private static boolean initialized = false;
 
+    private static DecoderCapabilityCache capabilityCache;
+    private static boolean cacheRevalidationStarted;
+    private static LinkedList<MediaCodecInfo> mediaCodecList;
+
     static {
         directSubmitPrefixes = new LinkedList<>();
 
@@ -381,9 +387,22 @@ public class MediaCodecHelper {
             }
         }
 
+        capabilityCache = DecoderCapabilityCache.load(context, glRenderer);
+
         initialized = true;
     }
 
+    // Returns null if the capability has not been cached yet
+    static Boolean getCachedDecoderCapability(String decoderName, String mimeType, String capability) {
+        return capabilityCache != null ? capabilityCache.getCapability(decoderName, mimeType, capability) : null;
+    }
+
+    static void cacheDecoderCapability(String decoderName, String mimeType, String capability, boolean supported) {
+        if (capabilityCache != null) {
+            capabilityCache.putCapability(decoderName, mimeType, capability, supported);
+        }
+    }
+
     private static boolean isDecoderInList(List<String> decoderList, String decoderName) {
         if (!initialized) {
             throw new IllegalStateException("MediaCodecHelper must be initialized before use");
@@ -401,16 +420,106 @@ public class MediaCodecHelper {
         return false;
     }
 
-    private static boolean decoderSupportsAndroidRLowLatency(MediaCodecInfo decoderInfo, String mimeType) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+    // Cached capabilities other than codec features
+    private static final String CAPABILITY_PERFORMANCE_POINT_PREFIX = "PerformancePoint:";
+    static final String CAPABILITY_HEVC_MAIN10_HDR10 = "HEVCProfileMain10HDR10";
+
+    static String getPerformancePointCapability(int width, int height, int fps) {
+        return CAPABILITY_PERFORMANCE_POINT_PREFIX+width+"x"+height+"x"+fps;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    static boolean decoderCanMeetPerformancePoint(MediaCodecInfo.VideoCapabilities caps, int width, int height, int fps) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            MediaCodecInfo.VideoCapabilities.PerformancePoint targetPerfPoint = new MediaCodecInfo.VideoCapabilities.PerformancePoint(width, height, fps);
+            List<MediaCodecInfo.VideoCapabilities.PerformancePoint> perfPoints = caps.getSupportedPerformancePoints();
+            if (perfPoints != null) {
+                for (MediaCodecInfo.VideoCapabilities.PerformancePoint perfPoint : perfPoints) {
+                    // If we find a performance point that covers our target, we're good to go
+                    if (perfPoint.covers(targetPerfPoint)) {
+                        return true;
+                    }
+                }
+
+                // We had performance point data but none met the specified streaming settings
+                return false;
+            }
+
+            // Fall-through to try the Android M API if there's no performance point data
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             try {
-                if (decoderInfo.getCapabilitiesForType(mimeType).isFeatureSupported(CodecCapabilities.FEATURE_LowLatency)) {
-                    LimeLog.info("Low latency decoding mode supported (FEATURE_LowLatency)");
-                    return true;
+                // We'll ask the decoder what it can do for us at this resolution and see if our
+                // requested frame rate falls below or inside the range of achievable frame rates.
+                Range<Double> fpsRange = caps.getAchievableFrameRatesFor(width, height);
+                if (fpsRange != null) {
+                    return fps <= fpsRange.getUpper();
                 }
-            } catch (Exception e) {
-                // Tolerate buggy codecs
-                e.printStackTrace();
+
+                // Fall-through to try the Android L API if there's no performance point data
+            } catch (IllegalArgumentException e) {
+                // Video size not supported at any frame rate
+                return false;
+            }
+        }
+
+        // As a last resort, we will use areSizeAndRateSupported() which is explicitly NOT a
+        // performance metric, but it can work at least for the purpose of determining if
+        // the codec is going to die when given a stream with the specified settings.
+        return caps.areSizeAndRateSupported(width, height, fps);
+    }
+
+    static boolean decoderSupportsHevcMain10Hdr10(MediaCodecInfo decoderInfo) {
+        for (CodecProfileLevel profileLevel : decoderInfo.getCapabilitiesForType("video/hevc").profileLevels) {
+            if (profileLevel.profile == CodecProfileLevel.HEVCProfileMain10HDR10) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Answers a cached capability query by asking the decoder again
+    private static boolean queryDecoderCapability(MediaCodecInfo decoderInfo, String mimeType, String capability) {
+        if (capability.startsWith(CAPABILITY_PERFORMANCE_POINT_PREFIX)) {
+            String[] mode = capability.substring(CAPABILITY_PERFORMANCE_POINT_PREFIX.length()).split("x");
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP &&
+                    decoderCanMeetPerformancePoint(decoderInfo.getCapabilitiesForType(mimeType).getVideoCapabilities(),
+                            Integer.parseInt(mode[0]), Integer.parseInt(mode[1]), Integer.parseInt(mode[2]));
+        }
+        else if (capability.equals(CAPABILITY_HEVC_MAIN10_HDR10)) {
+            return decoderSupportsHevcMain10Hdr10(decoderInfo);
+        }
+        else {
+            return decoderInfo.getCapabilitiesForType(mimeType).isFeatureSupported(capability);
+        }
+    }
+
+    private static boolean decoderSupportsFeature(MediaCodecInfo decoderInfo, String mimeType, String feature) {
+        Boolean cached = getCachedDecoderCapability(decoderInfo.getName(), mimeType, feature);
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean supported;
+        try {
+            supported = decoderInfo.getCapabilitiesForType(mimeType).isFeatureSupported(feature);
+        } catch (Exception e) {
+            // Tolerate buggy codecs. We don't cache the result in this case.
+            e.printStackTrace();
+            return false;
+        }
+
+        cacheDecoderCapability(decoderInfo.getName(), mimeType, feature, supported);
+        return supported;
+    }
+
+    private static boolean decoderSupportsAndroidRLowLatency(MediaCodecInfo decoderInfo, String mimeType) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            if (decoderSupportsFeature(decoderInfo, mimeType, CodecCapabilities.FEATURE_LowLatency)) {
+                LimeLog.info("Low latency decoding mode supported (FEATURE_LowLatency)");
+                return true;
             }
         }
 
@@ -529,16 +638,21 @@ public class MediaCodecHelper {
     public static boolean decoderSupportsFusedIdrFrame(MediaCodecInfo decoderInfo, String mimeType) {
         // If adaptive playback is supported, we can submit new CSD together with a keyframe
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            try {
-                if (decoderInfo.getCapabilitiesForType(mimeType).
-                        isFeatureSupported(CodecCapabilities.FEATURE_AdaptivePlayback))
-                {
-                    LimeLog.info("Decoder supports fused IDR frames (FEATURE_AdaptivePlayback)");
-                    return true;
-                }
-            } catch (Exception e) {
-                // Tolerate buggy codecs
-                e.printStackTrace();
+            if (decoderSupportsFeature(decoderInfo, mimeType, CodecCapabilities.FEATURE_AdaptivePlayback)) {
+                LimeLog.info("Decoder supports fused IDR frames (FEATURE_AdaptivePlayback)");
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public static boolean decoderSupportsPartialFrame(MediaCodecInfo decoderInfo, String mimeType) {
+        // BUFFER_FLAG_PARTIAL_FRAME was added in Oreo
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            if (decoderSupportsFeature(decoderInfo, mimeType, CodecCapabilities.FEATURE_PartialFrame)) {
+                LimeLog.info("Decoder supports partial frame input (FEATURE_PartialFrame)");
+                return true;
             }
         }
 
@@ -553,17 +667,10 @@ public class MediaCodecHelper {
                 return false;
             }
 
-            try {
-                if (decoderInfo.getCapabilitiesForType(mimeType).
-                        isFeatureSupported(CodecCapabilities.FEATURE_AdaptivePlayback))
-                {
-                    // This will make getCapabilities() return that adaptive playback is supported
-                    LimeLog.info("Adaptive playback supported (FEATURE_AdaptivePlayback)");
-                    return true;
-                }
-            } catch (Exception e) {
-                // Tolerate buggy codecs
-                e.printStackTrace();
+            if (decoderSupportsFeature(decoderInfo, mimeType, CodecCapabilities.FEATURE_AdaptivePlayback)) {
+                // This will make getCapabilities() return that adaptive playback is supported
+                LimeLog.info("Adaptive playback supported (FEATURE_AdaptivePlayback)");
+                return true;
             }
         }
         
@@ -654,7 +761,13 @@ public class MediaCodecHelper {
     
     @SuppressWarnings("deprecation")
     @SuppressLint("NewApi")
-    private static LinkedList<MediaCodecInfo> getMediaCodecList() {
+    private static synchronized LinkedList<MediaCodecInfo> getMediaCodecList() {
+        // The set of codecs can't change while our process is running,
+        // so we only need to build this list once.
+        if (mediaCodecList != null) {
+            return mediaCodecList;
+        }
+
         LinkedList<MediaCodecInfo> infoList = new LinkedList<>();
         
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
@@ -666,7 +779,8 @@ public class MediaCodecHelper {
                 infoList.add(MediaCodecList.getCodecInfoAt(i));
             }   
         }
-        
+
+        mediaCodecList = infoList;
         return infoList;
     }
     
@@ -768,7 +882,41 @@ public class MediaCodecHelper {
         return null;
     }
     
+    private static MediaCodecInfo findDecoderByName(String decoderName) {
+        for (MediaCodecInfo codecInfo : getMediaCodecList()) {
+            if (!codecInfo.isEncoder() && codecInfo.getName().equals(decoderName)) {
+                return codecInfo;
+            }
+        }
+
+        return null;
+    }
+
     public static MediaCodecInfo findProbableSafeDecoder(String mimeType, int requiredProfile) {
+        if (capabilityCache != null) {
+            // If we've made this choice on a previous launch, reuse it and
+            // double-check the cache in the background for next time.
+            String cachedDecoderName = capabilityCache.getDecoderName(mimeType, requiredProfile);
+            if (cachedDecoderName != null) {
+                MediaCodecInfo info = findDecoderByName(cachedDecoderName);
+                if (info != null) {
+                    LimeLog.info("Cached decoder choice is "+cachedDecoderName);
+                    startCacheRevalidation();
+                    return info;
+                }
+
+                LimeLog.warning("Cached decoder "+cachedDecoderName+" no longer exists");
+            }
+        }
+
+        MediaCodecInfo info = findProbableSafeDecoderUncached(mimeType, requiredProfile);
+        if (capabilityCache != null) {
+            capabilityCache.putDecoderName(mimeType, requiredProfile, info != null ? info.getName() : null);
+        }
+        return info;
+    }
+
+    private static MediaCodecInfo findProbableSafeDecoderUncached(String mimeType, int requiredProfile) {
         // First look for a preferred decoder by name
         MediaCodecInfo info = findPreferredDecoder();
         if (info != null) {
@@ -787,6 +935,78 @@ public class MediaCodecHelper {
         }
     }
 
+    // Re-checks everything in the capability cache once per process, since a system update
+    // that keeps the same build fingerprint (like a Mainline media module update) can change
+    // what the decoders report. Corrections take effect on the next stream start.
+    private static synchronized void startCacheRevalidation() {
+        if (cacheRevalidationStarted) {
+            return;
+        }
+        cacheRevalidationStarted = true;
+
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                // This only queries MediaCodecList and MediaCodecInfo, so it's safe to run
+                // while the chosen decoder is being configured.
+                revalidateCachedCapabilities();
+                revalidateCachedDecoders();
+            }
+        };
+        t.setName("Decoder Cache Revalidation");
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    private static void revalidateCachedCapabilities() {
+        for (String[] entry : capabilityCache.getCapabilityEntries()) {
+            String decoderName = entry[0], mimeType = entry[1], capability = entry[2];
+
+            MediaCodecInfo info = findDecoderByName(decoderName);
+            if (info == null) {
+                capabilityCache.removeCapability(decoderName, mimeType, capability);
+                continue;
+            }
+
+            boolean supported;
+            try {
+                supported = queryDecoderCapability(info, mimeType, capability);
+            } catch (Exception e) {
+                // Tolerate buggy codecs and leave the cached answer alone
+                e.printStackTrace();
+                continue;
+            }
+
+            Boolean cached = capabilityCache.getCapability(decoderName, mimeType, capability);
+            if (cached == null || cached != supported) {
+                LimeLog.warning("Cached capability changed: "+decoderName+" "+mimeType+" "+capability+" -> "+supported);
+                capabilityCache.putCapability(decoderName, mimeType, capability, supported);
+            }
+        }
+    }
+
+    private static void revalidateCachedDecoders() {
+        // The capabilities are fresh now, so these choices are made with the same
+        // answers an uncached launch would get
+        for (String[] entry : capabilityCache.getDecoderEntries()) {
+            String mimeType = entry[0];
+            int requiredProfile;
+            try {
+                requiredProfile = Integer.parseInt(entry[1]);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            String cachedDecoderName = capabilityCache.getDecoderName(mimeType, requiredProfile);
+            MediaCodecInfo info = findProbableSafeDecoderUncached(mimeType, requiredProfile);
+            String decoderName = info != null ? info.getName() : null;
+            if (cachedDecoderName != null && !cachedDecoderName.equals(decoderName)) {
+                LimeLog.warning("Cached decoder choice changed: "+cachedDecoderName+" -> "+decoderName);
+                capabilityCache.putDecoderName(mimeType, requiredProfile, decoderName);
+            }
+        }
+    }
+
     // We declare this method as explicitly throwing Exception
     // since some bad decoders can throw IllegalArgumentExceptions unexpectedly
     // and we want to be sure all callers are handling this possibility
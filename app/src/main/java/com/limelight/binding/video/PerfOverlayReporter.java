@@ -0,0 +1,167 @@
+package com.limelight.binding.video;
+
+import android.content.Context;
+
+import com.limelight.R;
+import com.limelight.binding.AvSyncMonitor;
+import com.limelight.nvstream.input.InputLatencyTracker;
+import com.limelight.nvstream.jni.MoonBridge;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Formats the performance overlay text on a low priority thread. The decoder thread
+// publishes stats snapshots through a lock-free triple buffer and only wakes this
+// thread up, so string formatting, JNI calls, and UI posting never delay a frame.
+class PerfOverlayReporter {
+
+    private static class Snapshot {
+        final VideoStats stats = new VideoStats();
+        long timestamp;
+        String decoderName;
+    }
+
+    // The low bits of the middle slot hold the buffer index and this flag
+    // indicates the buffer has been published but not consumed yet.
+    private static final int SNAPSHOT_INDEX_MASK = 0x3;
+    private static final int SNAPSHOT_FRESH = 0x4;
+
+    private final Snapshot[] snapshots = {new Snapshot(), new Snapshot(), new Snapshot()};
+    private final AtomicInteger middleSnapshot = new AtomicInteger(1);
+    private int producerSnapshot = 0;
+    private int consumerSnapshot = 2;
+
+    private final Context context;
+    private final PerfOverlayListener perfListener;
+    private final int width, height;
+    private final AvSyncMonitor avSyncMonitor;
+    private final InputLatencyTracker inputLatencyTracker;
+
+    private Thread reporterThread;
+    private volatile boolean stopping;
+
+    PerfOverlayReporter(Context context, PerfOverlayListener perfListener, int width, int height,
+                        AvSyncMonitor avSyncMonitor, InputLatencyTracker inputLatencyTracker) {
+        this.context = context;
+        this.perfListener = perfListener;
+        this.width = width;
+        this.height = height;
+        this.avSyncMonitor = avSyncMonitor;
+        this.inputLatencyTracker = inputLatencyTracker;
+    }
+
+    void start() {
+        reporterThread = new Thread() {
+            @Override
+            public void run() {
+                while (!stopping) {
+                    Snapshot snapshot = takeSnapshot();
+                    if (snapshot != null) {
+                        perfListener.onPerfUpdate(formatSnapshot(snapshot));
+                    }
+                    else {
+                        // Sleep until the decoder publishes new stats
+                        LockSupport.park(this);
+                    }
+                }
+            }
+        };
+        reporterThread.setName("Video - Perf Overlay");
+        reporterThread.setPriority(Thread.MIN_PRIORITY);
+        reporterThread.start();
+    }
+
+    void stop() {
+        stopping = true;
+
+        if (reporterThread != null) {
+            LockSupport.unpark(reporterThread);
+            try {
+                reporterThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+
+                // InterruptedException clears the thread's interrupt status. Since we can't
+                // handle that here, we will re-interrupt the thread to set the interrupt
+                // status back to true.
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Called on the decoder thread. This does not allocate or block.
+    void publish(VideoStats lastWindow, VideoStats activeWindow, String decoderName, long timestamp) {
+        Snapshot snapshot = snapshots[producerSnapshot];
+        snapshot.stats.copy(lastWindow);
+        snapshot.stats.add(activeWindow);
+        snapshot.decoderName = decoderName;
+        snapshot.timestamp = timestamp;
+
+        // Swap our filled buffer with the middle one and take the old middle one back
+        producerSnapshot = middleSnapshot.getAndSet(producerSnapshot | SNAPSHOT_FRESH) & SNAPSHOT_INDEX_MASK;
+
+        Thread thread = reporterThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private Snapshot takeSnapshot() {
+        if ((middleSnapshot.get() & SNAPSHOT_FRESH) == 0) {
+            return null;
+        }
+
+        consumerSnapshot = middleSnapshot.getAndSet(consumerSnapshot) & SNAPSHOT_INDEX_MASK;
+        return snapshots[consumerSnapshot];
+    }
+
+    private String formatSnapshot(Snapshot snapshot) {
+        VideoStats stats = snapshot.stats;
+        VideoStatsFps fps = stats.getFps(snapshot.timestamp);
+
+        float decodeTimeMs = (float)stats.decoderTimeMs / stats.totalFramesReceived;
+        long rttInfo = MoonBridge.getEstimatedRttInfo();
+        StringBuilder sb = new StringBuilder();
+        sb.append(context.getString(R.string.perf_overlay_streamdetails, width + "x" + height, fps.totalFps)).append('\n');
+        sb.append(context.getString(R.string.perf_overlay_decoder, snapshot.decoderName)).append('\n');
+        sb.append(context.getString(R.string.perf_overlay_incomingfps, fps.receivedFps)).append('\n');
+        sb.append(context.getString(R.string.perf_overlay_renderingfps, fps.renderedFps)).append('\n');
+        sb.append(context.getString(R.string.perf_overlay_netdrops,
+                (float)stats.framesLost / stats.totalFrames * 100)).append('\n');
+        sb.append(context.getString(R.string.perf_overlay_netlatency,
+                (int)(rttInfo >> 32), (int)rttInfo)).append('\n');
+        sb.append(context.getString(R.string.perf_overlay_dectime, decodeTimeMs)).append('\n');
+        sb.append(formatLatencyPercentiles(R.string.perf_overlay_latency_network, stats.networkToEnqueueLatency)).append('\n');
+        sb.append(formatLatencyPercentiles(R.string.perf_overlay_latency_queue, stats.enqueueToDecoderLatency)).append('\n');
+        sb.append(formatLatencyPercentiles(R.string.perf_overlay_latency_decoder, stats.decoderLatency)).append('\n');
+        sb.append(formatLatencyPercentiles(R.string.perf_overlay_latency_present, stats.outputToPresentLatency));
+        if (avSyncMonitor != null && avSyncMonitor.hasMeasurements()) {
+            sb.append('\n').append(context.getString(R.string.perf_overlay_avsync,
+                    (int)(avSyncMonitor.getAudioDelayUs() / 1000),
+                    (int)(avSyncMonitor.getVideoDelayUs() / 1000),
+                    (int)(avSyncMonitor.getSkewUs() / 1000)));
+        }
+        if (inputLatencyTracker != null) {
+            // Only show paths that had input since the last update
+            for (int path = 0; path < InputLatencyTracker.PATH_COUNT; path++) {
+                if (inputLatencyTracker.getWindowCount(path) == 0) {
+                    continue;
+                }
+                sb.append('\n').append(context.getString(R.string.perf_overlay_input_latency,
+                        InputLatencyTracker.getPathName(path),
+                        inputLatencyTracker.getWindowPercentile(path, 0.50f),
+                        inputLatencyTracker.getWindowPercentile(path, 0.95f),
+                        inputLatencyTracker.getWindowPercentile(path, 0.99f)));
+            }
+            inputLatencyTracker.clearWindow();
+        }
+        return sb.toString();
+    }
+
+    private String formatLatencyPercentiles(int resId, LatencyHistogram histogram) {
+        return context.getString(resId,
+                histogram.getPercentile(0.50f),
+                histogram.getPercentile(0.95f),
+                histogram.getPercentile(0.99f));
+    }
+}
@@ -0,0 +1,163 @@
+package com.limelight.binding.video;
+
+import android.annotation.TargetApi;
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.view.Surface;
+
+import com.limelight.LimeLog;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+// Keeps a second decoder instance configured, started, and primed with the stream's
+// parameter sets so codec recovery can swap to it instead of rebuilding the failed
+// decoder while the stream is frozen. Only one codec can be connected to a Surface,
+// so the standby renders to a dummy SurfaceTexture until MediaCodec.setOutputSurface()
+// moves it to the real one (API 23+).
+@TargetApi(Build.VERSION_CODES.M)
+class StandbyDecoder {
+    private final VideoDecoderCodec.Factory codecFactory;
+    private final String decoderName;
+
+    private final SurfaceTexture dummySurfaceTexture;
+    private final Surface dummySurface;
+
+    private Thread builderThread;
+
+    // Every builder that hasn't finished yet, including replaced ones that may still
+    // be configuring a codec with the dummy surface
+    private final ArrayList<Thread> liveBuilderThreads = new ArrayList<>();
+    private VideoDecoderCodec readyCodec;
+    private boolean released;
+    private boolean failed;
+
+    StandbyDecoder(VideoDecoderCodec.Factory codecFactory, String decoderName) {
+        this.codecFactory = codecFactory;
+        this.decoderName = decoderName;
+
+        // The texture is never attached to a GL context since we never consume its frames
+        this.dummySurfaceTexture = new SurfaceTexture(0);
+        this.dummySurface = new Surface(dummySurfaceTexture);
+    }
+
+    private VideoDecoderCodec buildCodec(MediaFormat format, byte[] codecConfig) throws Exception {
+        VideoDecoderCodec codec = codecFactory.createByCodecName(decoderName);
+        try {
+            codec.configure(format, dummySurface);
+            codec.start();
+
+            // Feed the parameter sets now so the decoder can allocate its buffers
+            // before it's needed. The IDR frame after the switch resubmits them.
+            if (codecConfig != null) {
+                int index = codec.dequeueInputBuffer(100000);
+                if (index >= 0) {
+                    ByteBuffer buffer = codec.getInputBuffer(index);
+                    buffer.clear();
+                    buffer.put(codecConfig);
+                    codec.queueInputBuffer(index, 0, codecConfig.length, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+                }
+            }
+
+            return codec;
+        } catch (Exception e) {
+            codec.release();
+            throw e;
+        }
+    }
+
+    // Starts building a new standby decoder in the background. Any previous
+    // standby decoder that hasn't been taken yet is replaced.
+    synchronized void prepare(final MediaFormat format, final byte[] codecConfig) {
+        if (released || failed) {
+            return;
+        }
+
+        if (readyCodec != null) {
+            readyCodec.release();
+            readyCodec = null;
+        }
+
+        builderThread = new Thread() {
+            @Override
+            public void run() {
+                long startTime = System.nanoTime();
+                VideoDecoderCodec codec;
+
+                try {
+                    codec = buildCodec(format, codecConfig);
+                } catch (Exception e) {
+                    // Some devices can't run two hardware decoder instances at once.
+                    // Don't keep trying if that's the case.
+                    e.printStackTrace();
+                    LimeLog.warning("Unable to create standby decoder; hot standby disabled");
+                    synchronized (StandbyDecoder.this) {
+                        liveBuilderThreads.remove(this);
+                        failed = true;
+                    }
+                    return;
+                }
+
+                synchronized (StandbyDecoder.this) {
+                    liveBuilderThreads.remove(this);
+                    if (released || builderThread != this) {
+                        // We were replaced or shut down while building
+                        codec.release();
+                        return;
+                    }
+
+                    readyCodec = codec;
+                }
+
+                LimeLog.info("Standby decoder ready in "+(System.nanoTime() - startTime) / 1000000+" ms");
+            }
+        };
+        builderThread.setName("Video - Standby Decoder");
+        builderThread.setPriority(Thread.MIN_PRIORITY);
+        liveBuilderThreads.add(builderThread);
+        builderThread.start();
+    }
+
+    // Returns the standby decoder if one is ready, otherwise null. The caller
+    // owns the returned decoder and must call prepare() to get another one.
+    synchronized VideoDecoderCodec take() {
+        VideoDecoderCodec codec = readyCodec;
+        readyCodec = null;
+        return codec;
+    }
+
+    void release() {
+        ArrayList<Thread> threads;
+
+        synchronized (this) {
+            released = true;
+            threads = new ArrayList<>(liveBuilderThreads);
+
+            if (readyCodec != null) {
+                readyCodec.release();
+                readyCodec = null;
+            }
+        }
+
+        // Any of the builders may still be using the dummy surface. Each one
+        // releases its codec when it sees we're released.
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+
+                // InterruptedException clears the thread's interrupt status. Since we can't
+                // handle that here, we will re-interrupt the thread to set the interrupt
+                // status back to true.
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        dummySurface.release();
+        dummySurfaceTexture.release();
+    }
+}
@@ -0,0 +1,46 @@
+package com.limelight.binding.video;
+
+import android.media.MediaCodec.BufferInfo;
+import android.media.MediaFormat;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// The subset of MediaCodec that MediaCodecDecoderRenderer uses. Methods have the same
+// semantics, return values, and exceptions as their MediaCodec counterparts, so the
+// renderer can run against either AndroidVideoDecoderCodec or the FakeVideoDecoderCodec
+// in the JVM tests, and a codec can be created ahead of time (see StandbyDecoder).
+public interface VideoDecoderCodec {
+    interface Factory {
+        VideoDecoderCodec createByCodecName(String name) throws IOException;
+    }
+
+    interface OnFrameRenderedListener {
+        void onFrameRendered(long presentationTimeUs, long renderTimeNanos);
+    }
+
+    void configure(MediaFormat format, Surface surface);
+    void setOutputSurface(Surface surface);
+    void setVideoScalingMode(int mode);
+    void start();
+    void stop();
+    void reset();
+    void release();
+
+    MediaFormat getInputFormat();
+    MediaFormat getOutputFormat();
+
+    // Only used prior to Lollipop
+    ByteBuffer[] getInputBuffers();
+
+    int dequeueInputBuffer(long timeoutUs);
+    ByteBuffer getInputBuffer(int index);
+    void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags);
+
+    int dequeueOutputBuffer(BufferInfo info, long timeoutUs);
+    void releaseOutputBuffer(int index, boolean render);
+    void releaseOutputBuffer(int index, long renderTimestampNs);
+
+    void setOnFrameRenderedListener(OnFrameRenderedListener listener);
+}
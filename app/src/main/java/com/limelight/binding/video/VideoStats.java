@@ -13,6 +13,19 @@ class VideoStats {
     int framesLost;
     long measurementStartTimestamp;
 
+    // Time from a frame reaching submitDecodeUnit() until its first and last
+    // slices were queued to the decoder, summed over all submitted frames
+    int framesSubmitted;
+    int slicesSubmitted;
+    long firstSliceSubmitTimeUs;
+    long lastSliceSubmitTimeUs;
+
+    // Per-stage latency distributions for each received frame
+    final LatencyHistogram networkToEnqueueLatency = new LatencyHistogram();
+    final LatencyHistogram enqueueToDecoderLatency = new LatencyHistogram();
+    final LatencyHistogram decoderLatency = new LatencyHistogram();
+    final LatencyHistogram outputToPresentLatency = new LatencyHistogram();
+
     void add(VideoStats other) {
         this.decoderTimeMs += other.decoderTimeMs;
         this.totalTimeMs += other.totalTimeMs;
@@ -21,6 +34,14 @@ class VideoStats {
         this.totalFramesRendered += other.totalFramesRendered;
         this.frameLossEvents += other.frameLossEvents;
         this.framesLost += other.framesLost;
+        this.framesSubmitted += other.framesSubmitted;
+        this.slicesSubmitted += other.slicesSubmitted;
+        this.firstSliceSubmitTimeUs += other.firstSliceSubmitTimeUs;
+        this.lastSliceSubmitTimeUs += other.lastSliceSubmitTimeUs;
+        this.networkToEnqueueLatency.add(other.networkToEnqueueLatency);
+        this.enqueueToDecoderLatency.add(other.enqueueToDecoderLatency);
+        this.decoderLatency.add(other.decoderLatency);
+        this.outputToPresentLatency.add(other.outputToPresentLatency);
 
         if (this.measurementStartTimestamp == 0) {
             this.measurementStartTimestamp = other.measurementStartTimestamp;
@@ -37,6 +58,14 @@ class VideoStats {
         this.totalFramesRendered = other.totalFramesRendered;
         this.frameLossEvents = other.frameLossEvents;
         this.framesLost = other.framesLost;
+        this.framesSubmitted = other.framesSubmitted;
+        this.slicesSubmitted = other.slicesSubmitted;
+        this.firstSliceSubmitTimeUs = other.firstSliceSubmitTimeUs;
+        this.lastSliceSubmitTimeUs = other.lastSliceSubmitTimeUs;
+        this.networkToEnqueueLatency.copy(other.networkToEnqueueLatency);
+        this.enqueueToDecoderLatency.copy(other.enqueueToDecoderLatency);
+        this.decoderLatency.copy(other.decoderLatency);
+        this.outputToPresentLatency.copy(other.outputToPresentLatency);
         this.measurementStartTimestamp = other.measurementStartTimestamp;
     }
 
@@ -48,11 +77,23 @@ class VideoStats {
         this.totalFramesRendered = 0;
         this.frameLossEvents = 0;
         this.framesLost = 0;
+        this.framesSubmitted = 0;
+        this.slicesSubmitted = 0;
+        this.firstSliceSubmitTimeUs = 0;
+        this.lastSliceSubmitTimeUs = 0;
+        this.networkToEnqueueLatency.clear();
+        this.enqueueToDecoderLatency.clear();
+        this.decoderLatency.clear();
+        this.outputToPresentLatency.clear();
         this.measurementStartTimestamp = 0;
     }
 
     VideoStatsFps getFps() {
-        float elapsed = (SystemClock.uptimeMillis() - this.measurementStartTimestamp) / (float) 1000;
+        return getFps(SystemClock.uptimeMillis());
+    }
+
+    VideoStatsFps getFps(long measurementEndTimestamp) {
+        float elapsed = (measurementEndTimestamp - this.measurementStartTimestamp) / (float) 1000;
 
         VideoStatsFps fps = new VideoStatsFps();
         if (elapsed > 0) {
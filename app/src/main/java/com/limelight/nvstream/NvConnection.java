@@ -7,9 +7,8 @@ import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
@@ -24,7 +23,11 @@ import com.limelight.nvstream.http.LimelightCryptoProvider;
 import com.limelight.nvstream.http.NvApp;
 import com.limelight.nvstream.http.NvHTTP;
 import com.limelight.nvstream.http.PairingManager;
+import com.limelight.nvstream.input.InputEventRing;
+import com.limelight.nvstream.input.InputLatencyTracker;
+import com.limelight.nvstream.input.MouseAccumulator;
 import com.limelight.nvstream.input.MouseButtonPacket;
+import com.limelight.nvstream.input.MouseFlushScheduler;
 import com.limelight.nvstream.jni.MoonBridge;
 
 public class NvConnection {
@@ -37,13 +40,20 @@ public class NvConnection {
     private final boolean isMonkey;
     private final boolean batchMouseInput;
 
-    private static final int MOUSE_BATCH_PERIOD_MS = 5;
-    private Timer mouseInputTimer;
-    private final Object mouseInputLock = new Object();
-    private short relMouseX, relMouseY, relMouseWidth, relMouseHeight;
-    private short absMouseX, absMouseY, absMouseWidth, absMouseHeight;
+    private final MouseFlushScheduler mouseFlushScheduler;
+    private final MouseAccumulator mouseAccumulator = new MouseAccumulator();
+    private final Object mouseFlushLock = new Object();
 
-    public NvConnection(String host, String uniqueId, StreamConfiguration config, LimelightCryptoProvider cryptoProvider, X509Certificate serverCert, boolean batchMouseInput)
+    private final InputLatencyTracker inputLatencyTracker = new InputLatencyTracker();
+    private final InputEventRing inputRing = new InputEventRing(inputLatencyTracker);
+
+    // Event time of the oldest mouse motion waiting in mouseAccumulator with its latency
+    // path plus one in the top 8 bits, or 0 if it isn't timed
+    private final AtomicLong pendingMouseEventTime = new AtomicLong();
+
+    // mouseBatchRateHz is the maximum rate to send mouse motion at if batchMouseInput is
+    // set, or MouseFlushScheduler.RATE_VSYNC to send it once per display frame
+    public NvConnection(String host, String uniqueId, StreamConfiguration config, LimelightCryptoProvider cryptoProvider, X509Certificate serverCert, boolean batchMouseInput, int mouseBatchRateHz)
     {       
         this.host = host;
         this.cryptoProvider = cryptoProvider;
@@ -59,6 +69,21 @@ public class NvConnection {
         context.riKeyId = generateRiKeyId();
 
         this.isMonkey = ActivityManager.isUserAMonkey();
+
+        if (batchMouseInput) {
+            // High polling rate mice can cause GeForce Experience's input queue to get backed up,
+            // causing massive input latency. We counter this by limiting the rate of our mouse events
+            // (200 Hz appears to avoid triggering the issue on all known configurations).
+            this.mouseFlushScheduler = new MouseFlushScheduler(new Runnable() {
+                @Override
+                public void run() {
+                    flushMousePosition();
+                }
+            }, mouseBatchRateHz);
+        }
+        else {
+            this.mouseFlushScheduler = null;
+        }
     }
     
     private static SecretKey generateRiAesKey() {
@@ -81,9 +106,13 @@ public class NvConnection {
 
     public void stop() {
         // Stop sending additional input
-        if (mouseInputTimer != null) {
-            mouseInputTimer.cancel();
+        if (mouseFlushScheduler != null) {
+            mouseFlushScheduler.stop();
+            LimeLog.info(mouseFlushScheduler.getStatistics());
         }
+        inputRing.flush();
+        LimeLog.info(inputRing.getStatistics());
+        LimeLog.info(inputLatencyTracker.getStatistics());
 
         // Interrupt any pending connection. This is thread-safe.
         MoonBridge.interruptConnection();
@@ -100,21 +129,58 @@ public class NvConnection {
     }
 
     private void flushMousePosition() {
-        synchronized (mouseInputLock) {
+        // Motion is accumulated without locking, but flushes must be serialized so
+        // a button event can't be sent ahead of motion taken by another flush.
+        synchronized (mouseFlushLock) {
+            // This may run on the flush scheduler's thread, so time the motion
+            // from when it was added rather than by whatever this thread is doing
+            int savedPath = inputRing.getEventPath();
+            long savedTime = inputRing.getEventTime();
+            long mouseEventTime = pendingMouseEventTime.getAndSet(0);
+            if (mouseEventTime != 0) {
+                inputRing.setEventTime((int)(mouseEventTime >>> 56) - 1, mouseEventTime & 0xFFFFFFFFFFFFFFL);
+            }
+
+            long relative = mouseAccumulator.takeRelative();
+            short relMouseX = MouseAccumulator.getField(relative, 0);
+            short relMouseY = MouseAccumulator.getField(relative, 1);
             if (relMouseX != 0 || relMouseY != 0) {
+                short relMouseWidth = MouseAccumulator.getField(relative, 2);
+                short relMouseHeight = MouseAccumulator.getField(relative, 3);
                 if (relMouseWidth != 0 || relMouseHeight != 0) {
-                    MoonBridge.sendMouseMoveAsMousePosition(relMouseX, relMouseY, relMouseWidth, relMouseHeight);
+                    inputRing.putMouseMoveAsMousePosition(relMouseX, relMouseY, relMouseWidth, relMouseHeight);
                 }
                 else {
-                    MoonBridge.sendMouseMove(relMouseX, relMouseY);
+                    inputRing.putMouseMove(relMouseX, relMouseY);
                 }
-                relMouseX = relMouseY = relMouseWidth = relMouseHeight = 0;
             }
-            if (absMouseX != 0 || absMouseY != 0 || absMouseWidth != 0 || absMouseHeight != 0) {
-                MoonBridge.sendMousePosition(absMouseX, absMouseY, absMouseWidth, absMouseHeight);
-                absMouseX = absMouseY = absMouseWidth = absMouseHeight = 0;
+
+            long absolute = mouseAccumulator.takeAbsolute();
+            if (absolute != 0) {
+                inputRing.putMousePosition(MouseAccumulator.getField(absolute, 0),
+                        MouseAccumulator.getField(absolute, 1),
+                        MouseAccumulator.getField(absolute, 2),
+                        MouseAccumulator.getField(absolute, 3));
+            }
+
+            inputRing.setEventTime(savedPath, savedTime);
+        }
+    }
+
+    private void onMouseMotionAdded(boolean wasEmpty) {
+        if (wasEmpty) {
+            int path = inputRing.getEventPath();
+            if (path != InputLatencyTracker.PATH_NONE) {
+                pendingMouseEventTime.compareAndSet(0, ((long)(path + 1) << 56) | inputRing.getEventTime());
             }
         }
+
+        if (!batchMouseInput) {
+            flushMousePosition();
+        }
+        else if (wasEmpty) {
+            mouseFlushScheduler.requestFlush();
+        }
     }
     
     private boolean startApp() throws XmlPullParserException, IOException
@@ -329,78 +395,65 @@ public class NvConnection {
                     }
 
                     if (batchMouseInput) {
-                        // High polling rate mice can cause GeForce Experience's input queue to get backed up,
-                        // causing massive input latency. We counter this by limiting our mouse events to 200 Hz
-                        // which appears to avoid triggering the issue on all known configurations.
-                        mouseInputTimer = new Timer("MouseInput", true);
-                        mouseInputTimer.schedule(new TimerTask() {
-                            @Override
-                            public void run() {
-                                // Flush the mouse position every 5 ms
-                                flushMousePosition();
-                            }
-                        }, MOUSE_BATCH_PERIOD_MS, MOUSE_BATCH_PERIOD_MS);
+                        mouseFlushScheduler.start();
                     }
                 }
             }
         }).start();
     }
     
+    // Input sent by this thread until endInputBatch() is passed to native code in a single call
+    public void beginInputBatch() {
+        inputRing.beginBatch();
+    }
+
+    // Like beginInputBatch(), but the input is also timed from eventTimeMs (in the
+    // SystemClock.uptimeMillis() clock) for the input latency statistics
+    public void beginInputBatch(int latencyPath, long eventTimeMs) {
+        inputRing.setEventTime(latencyPath, eventTimeMs);
+        inputRing.beginBatch();
+    }
+
+    public void endInputBatch() {
+        inputRing.endBatch();
+        inputRing.setEventTime(InputLatencyTracker.PATH_NONE, 0);
+    }
+
+    // Times input sent later by this thread, for input that is sent outside of a batch
+    public void setInputEventTime(int latencyPath, long eventTimeMs) {
+        inputRing.setEventTime(latencyPath, eventTimeMs);
+    }
+
+    public int getInputEventPath() {
+        return inputRing.getEventPath();
+    }
+
+    public long getInputEventTime() {
+        return inputRing.getEventTime();
+    }
+
+    public InputLatencyTracker getInputLatencyTracker() {
+        return inputLatencyTracker;
+    }
+
     public void sendMouseMove(final short deltaX, final short deltaY)
     {
         if (!isMonkey) {
-            synchronized (mouseInputLock) {
-                relMouseX += deltaX;
-                relMouseY += deltaY;
-
-                // Reset these to ensure we don't send this as a position update
-                relMouseWidth = 0;
-                relMouseHeight = 0;
-            }
-
-            if (!batchMouseInput) {
-                flushMousePosition();
-            }
+            onMouseMotionAdded(mouseAccumulator.addMove(deltaX, deltaY));
         }
     }
 
     public void sendMousePosition(short x, short y, short referenceWidth, short referenceHeight)
     {
         if (!isMonkey) {
-            synchronized (mouseInputLock) {
-                absMouseX = x;
-                absMouseY = y;
-                absMouseWidth = referenceWidth;
-                absMouseHeight = referenceHeight;
-            }
-
-            if (!batchMouseInput) {
-                flushMousePosition();
-            }
+            onMouseMotionAdded(mouseAccumulator.setPosition(x, y, referenceWidth, referenceHeight));
         }
     }
 
     public void sendMouseMoveAsMousePosition(short deltaX, short deltaY, short referenceWidth, short referenceHeight)
     {
         if (!isMonkey) {
-            synchronized (mouseInputLock) {
-                // Only accumulate the delta if the reference size is the same
-                if (relMouseWidth == referenceWidth && relMouseHeight == referenceHeight) {
-                    relMouseX += deltaX;
-                    relMouseY += deltaY;
-                }
-                else {
-                    relMouseX = deltaX;
-                    relMouseY = deltaY;
-                }
-
-                relMouseWidth = referenceWidth;
-                relMouseHeight = referenceHeight;
-            }
-
-            if (!batchMouseInput) {
-                flushMousePosition();
-            }
+            onMouseMotionAdded(mouseAccumulator.addMoveAsPosition(deltaX, deltaY, referenceWidth, referenceHeight));
         }
     }
 
@@ -408,7 +461,7 @@ public class NvConnection {
     {
         if (!isMonkey) {
             flushMousePosition();
-            MoonBridge.sendMouseButton(MouseButtonPacket.PRESS_EVENT, mouseButton);
+            inputRing.putMouseButton(MouseButtonPacket.PRESS_EVENT, mouseButton);
         }
     }
     
@@ -416,7 +469,7 @@ public class NvConnection {
     {
         if (!isMonkey) {
             flushMousePosition();
-            MoonBridge.sendMouseButton(MouseButtonPacket.RELEASE_EVENT, mouseButton);
+            inputRing.putMouseButton(MouseButtonPacket.RELEASE_EVENT, mouseButton);
         }
     }
     
@@ -427,7 +480,7 @@ public class NvConnection {
             final short rightStickX, final short rightStickY)
     {
         if (!isMonkey) {
-            MoonBridge.sendMultiControllerInput(controllerNumber, activeGamepadMask, buttonFlags,
+            inputRing.putMultiControllerInput(controllerNumber, activeGamepadMask, buttonFlags,
                     leftTrigger, rightTrigger, leftStickX, leftStickY, rightStickX, rightStickY);
         }
     }
@@ -438,33 +491,35 @@ public class NvConnection {
             final short rightStickX, final short rightStickY)
     {
         if (!isMonkey) {
-            MoonBridge.sendControllerInput(buttonFlags, leftTrigger, rightTrigger, leftStickX,
+            inputRing.putControllerInput(buttonFlags, leftTrigger, rightTrigger, leftStickX,
                     leftStickY, rightStickX, rightStickY);
         }
     }
     
     public void sendKeyboardInput(final short keyMap, final byte keyDirection, final byte modifier) {
         if (!isMonkey) {
-            MoonBridge.sendKeyboardInput(keyMap, keyDirection, modifier);
+            inputRing.putKeyboardInput(keyMap, keyDirection, modifier);
         }
     }
     
     public void sendMouseScroll(final byte scrollClicks) {
         if (!isMonkey) {
             flushMousePosition();
-            MoonBridge.sendMouseScroll(scrollClicks);
+            inputRing.putMouseScroll(scrollClicks);
         }
     }
 
     public void sendMouseHighResScroll(final short scrollAmount) {
         if (!isMonkey) {
             flushMousePosition();
-            MoonBridge.sendMouseHighResScroll(scrollAmount);
+            inputRing.putMouseHighResScroll(scrollAmount);
         }
     }
 
     public void sendUtf8Text(final String text) {
         if (!isMonkey) {
+            // Text isn't queued, so send what's ahead of it first
+            inputRing.flush();
             MoonBridge.sendUtf8Text(text);
         }
     }
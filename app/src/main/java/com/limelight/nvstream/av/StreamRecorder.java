@@ -0,0 +1,189 @@
+package com.limelight.nvstream.av;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.jni.MoonBridge;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Captures everything that crosses the MoonBridge video and audio renderer boundary
+// so the session can later be fed back into the renderers without a host.
+//
+// File layout (all values big endian):
+//   Header:  magic, version
+//   Records: type byte, capture time in microseconds since start, type-specific payload
+//   Index:   IDR count, then (frame number, record offset) for the first record of each IDR frame
+//   Trailer: index offset, trailer magic
+//
+// The trailer is only written by close(). Files from a session that crashed can still
+// be read sequentially, but they won't have an index.
+public class StreamRecorder {
+    static final int FILE_MAGIC = 0x4D4C5243; // "MLRC"
+    static final int TRAILER_MAGIC = 0x4D4C4958; // "MLIX"
+    static final int FILE_VERSION = 1;
+
+    static final byte RECORD_VIDEO_SETUP = 1;
+    static final byte RECORD_DECODE_UNIT = 2;
+    static final byte RECORD_AUDIO_SETUP = 3;
+    static final byte RECORD_AUDIO_SAMPLE = 4;
+    static final byte RECORD_END = 5;
+
+    private static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
+
+    private final DataOutputStream out;
+    private final long startTimeNs;
+
+    private int[] idrFrameNumbers = new int[64];
+    private long[] idrOffsets = new long[64];
+    private int idrCount;
+    private int lastIdrFrameNumber = -1;
+
+    private boolean failed;
+
+    // Audio samples are converted here so each frame is a single write
+    private ByteBuffer audioBuffer = ByteBuffer.allocate(0);
+
+    public StreamRecorder(File file) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), OUTPUT_BUFFER_SIZE));
+        this.startTimeNs = System.nanoTime();
+
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+
+        LimeLog.info("Recording stream to "+file);
+    }
+
+    private void writeRecordHeader(byte type) throws IOException {
+        out.writeByte(type);
+        out.writeLong((System.nanoTime() - startTimeNs) / 1000);
+    }
+
+    private void handleWriteFailure(IOException e) {
+        // Don't take the stream down because the recording failed
+        e.printStackTrace();
+        LimeLog.warning("Stream recording stopped: "+e.getMessage());
+        failed = true;
+    }
+
+    public synchronized void recordVideoSetup(int videoFormat, int width, int height, int redrawRate) {
+        if (failed) {
+            return;
+        }
+
+        try {
+            writeRecordHeader(RECORD_VIDEO_SETUP);
+            out.writeInt(videoFormat);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(redrawRate);
+        } catch (IOException e) {
+            handleWriteFailure(e);
+        }
+    }
+
+    public synchronized void recordDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
+                                              int frameNumber, int frameType, long receiveTimeMs, long enqueueTimeMs) {
+        if (failed) {
+            return;
+        }
+
+        try {
+            // Remember where each IDR frame starts so readers can seek to it. DataOutputStream
+            // offsets saturate at 2 GB, so IDR frames past that point aren't indexed.
+            if (frameType == MoonBridge.FRAME_TYPE_IDR && frameNumber != lastIdrFrameNumber &&
+                    out.size() < Integer.MAX_VALUE) {
+                if (idrCount == idrOffsets.length) {
+                    idrFrameNumbers = Arrays.copyOf(idrFrameNumbers, idrCount * 2);
+                    idrOffsets = Arrays.copyOf(idrOffsets, idrCount * 2);
+                }
+                idrFrameNumbers[idrCount] = frameNumber;
+                idrOffsets[idrCount] = out.size();
+                idrCount++;
+                lastIdrFrameNumber = frameNumber;
+            }
+
+            writeRecordHeader(RECORD_DECODE_UNIT);
+
+            // The receive and enqueue times are stored relative to the capture time,
+            // since anything reading them back will be running on a different clock.
+            long nowMs = System.nanoTime() / 1000000;
+            out.writeByte(decodeUnitType);
+            out.writeInt(frameNumber);
+            out.writeByte(frameType);
+            out.writeInt((int)(nowMs - receiveTimeMs));
+            out.writeInt((int)(nowMs - enqueueTimeMs));
+            out.writeInt(decodeUnitLength);
+            out.write(decodeUnitData, 0, decodeUnitLength);
+        } catch (IOException e) {
+            handleWriteFailure(e);
+        }
+    }
+
+    public synchronized void recordAudioSetup(MoonBridge.AudioConfiguration audioConfiguration, int sampleRate, int samplesPerFrame) {
+        if (failed) {
+            return;
+        }
+
+        try {
+            writeRecordHeader(RECORD_AUDIO_SETUP);
+            out.writeInt(audioConfiguration.channelCount);
+            out.writeInt(audioConfiguration.channelMask);
+            out.writeInt(sampleRate);
+            out.writeInt(samplesPerFrame);
+        } catch (IOException e) {
+            handleWriteFailure(e);
+        }
+    }
+
+    public synchronized void recordAudioSample(short[] pcmData) {
+        if (failed) {
+            return;
+        }
+
+        try {
+            if (audioBuffer.capacity() < pcmData.length * 2) {
+                audioBuffer = ByteBuffer.allocate(pcmData.length * 2);
+            }
+            audioBuffer.clear();
+            audioBuffer.asShortBuffer().put(pcmData);
+
+            writeRecordHeader(RECORD_AUDIO_SAMPLE);
+            out.writeInt(pcmData.length);
+            out.write(audioBuffer.array(), 0, pcmData.length * 2);
+        } catch (IOException e) {
+            handleWriteFailure(e);
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            if (!failed) {
+                writeRecordHeader(RECORD_END);
+            }
+
+            // Files without a trailer can still be read sequentially
+            if (!failed && out.size() < Integer.MAX_VALUE) {
+                long indexOffset = out.size();
+                out.writeInt(idrCount);
+                for (int i = 0; i < idrCount; i++) {
+                    out.writeInt(idrFrameNumbers[i]);
+                    out.writeLong(idrOffsets[i]);
+                }
+
+                out.writeLong(indexOffset);
+                out.writeInt(TRAILER_MAGIC);
+            }
+
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        failed = true;
+    }
+}
@@ -0,0 +1,381 @@
+package com.limelight.nvstream.input;
+
+import com.limelight.nvstream.jni.MoonBridge;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+// Collects input events as fixed-size records in a direct buffer that native code reads
+// in place, so a burst of events costs a single JNI transition instead of one per event.
+//
+// Events are sent immediately unless the calling thread has opened a batch with
+// beginBatch(). Other threads never wait for a batch to close, since sending their
+// event also sends everything that was queued ahead of it.
+//
+// Full batches are swapped out under the lock and sent to native code after it has been
+// released, so threads queueing events never wait on the JNI call itself.
+//
+// Each record also keeps the time of the event that caused it, as set by the queueing
+// thread with setEventTime(), so the latency tracker can see how long it took to send.
+public class InputEventRing {
+    // These must match INPUT_RECORD in simplejni.c
+    private static final int RECORD_SIZE = 24;
+    private static final int BYTE_ARGS_OFFSET = 1;
+    private static final int SHORT_ARGS_OFFSET = 4;
+
+    private static final byte TYPE_MOUSE_MOVE = 1;
+    private static final byte TYPE_MOUSE_POSITION = 2;
+    private static final byte TYPE_MOUSE_MOVE_AS_POSITION = 3;
+    private static final byte TYPE_MOUSE_BUTTON = 4;
+    private static final byte TYPE_MULTI_CONTROLLER = 5;
+    private static final byte TYPE_CONTROLLER = 6;
+    private static final byte TYPE_KEYBOARD = 7;
+    private static final byte TYPE_SCROLL = 8;
+    private static final byte TYPE_HIGH_RES_SCROLL = 9;
+
+    static final int MAX_RECORDS = 64;
+
+    // Where finished batches go. Only tests use anything other than MoonBridge.
+    interface BatchSender {
+        void sendInputBatch(ByteBuffer buffer, int recordCount);
+    }
+
+    private static final BatchSender NATIVE_SENDER = new BatchSender() {
+        @Override
+        public void sendInputBatch(ByteBuffer buffer, int recordCount) {
+            MoonBridge.sendInputBatch(buffer, recordCount);
+        }
+    };
+
+    private static class Batch {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_RECORDS * RECORD_SIZE).order(ByteOrder.nativeOrder());
+        final byte[] recordPaths = new byte[MAX_RECORDS];
+        final long[] recordEventTimes = new long[MAX_RECORDS];
+        int recordCount;
+    }
+
+    // These are guarded by this
+    private Batch batch = new Batch();
+    private final ArrayDeque<Batch> pendingBatches = new ArrayDeque<>();
+    private final ArrayList<Batch> freeBatches = new ArrayList<>();
+
+    // Held while sending so batches reach native code in the order they were queued.
+    // It's always taken before this, never while holding it.
+    private final Object sendLock = new Object();
+
+    private static class EventTime {
+        int path = InputLatencyTracker.PATH_NONE;
+        long timeMs;
+    }
+
+    private final ThreadLocal<EventTime> eventTimes = new ThreadLocal<EventTime>() {
+        @Override
+        protected EventTime initialValue() {
+            return new EventTime();
+        }
+    };
+    private final InputLatencyTracker latencyTracker;
+    private final BatchSender sender;
+
+    private Thread batchThread;
+    private int batchDepth;
+
+    private long eventsQueued;
+
+    // These are guarded by sendLock
+    private long batchesFlushed;
+    private long flushTimeNs;
+    private final long creationTimeNs;
+
+    public InputEventRing(InputLatencyTracker latencyTracker) {
+        this(latencyTracker, NATIVE_SENDER);
+    }
+
+    InputEventRing(InputLatencyTracker latencyTracker, BatchSender sender) {
+        this.latencyTracker = latencyTracker;
+        this.sender = sender;
+        creationTimeNs = System.nanoTime();
+    }
+
+    // Events queued by this thread are timed from eventTimeMs (in the SystemClock.uptimeMillis()
+    // clock) until this is called again. PATH_NONE stops timing them.
+    public void setEventTime(int path, long eventTimeMs) {
+        EventTime eventTime = eventTimes.get();
+        eventTime.path = path;
+        eventTime.timeMs = eventTimeMs;
+    }
+
+    public int getEventPath() {
+        return eventTimes.get().path;
+    }
+
+    public long getEventTime() {
+        return eventTimes.get().timeMs;
+    }
+
+    // Events queued by this thread until the matching endBatch() are sent together
+    public void beginBatch() {
+        synchronized (this) {
+            if (batchThread == Thread.currentThread()) {
+                batchDepth++;
+                return;
+            }
+
+            // Another thread's batch may still be open. Send what it has so far
+            // and take over, since it will flush anything we leave behind.
+            batchThread = Thread.currentThread();
+            batchDepth = 1;
+            if (!queueBatch()) {
+                return;
+            }
+        }
+        sendPendingBatches();
+    }
+
+    public void endBatch() {
+        synchronized (this) {
+            if (batchThread != Thread.currentThread()) {
+                // Our batch was taken over by another thread
+                return;
+            }
+
+            if (--batchDepth != 0) {
+                return;
+            }
+
+            batchThread = null;
+            if (!queueBatch()) {
+                return;
+            }
+        }
+        sendPendingBatches();
+    }
+
+    // Sends all queued events to native code
+    public void flush() {
+        synchronized (this) {
+            if (!queueBatch()) {
+                return;
+            }
+        }
+        sendPendingBatches();
+    }
+
+    // Must be called while holding this. Returns false if there was nothing to queue.
+    private boolean queueBatch() {
+        if (batch.recordCount == 0) {
+            return false;
+        }
+
+        pendingBatches.add(batch);
+        batch = freeBatches.isEmpty() ? new Batch() : freeBatches.remove(freeBatches.size() - 1);
+        return true;
+    }
+
+    // Must be called without holding this
+    private void sendPendingBatches() {
+        synchronized (sendLock) {
+            for (;;) {
+                Batch pending;
+                synchronized (this) {
+                    pending = pendingBatches.poll();
+                }
+                if (pending == null) {
+                    // Another thread may have sent ours already
+                    return;
+                }
+
+                long startTime = System.nanoTime();
+                sender.sendInputBatch(pending.buffer, pending.recordCount);
+                long endTime = System.nanoTime();
+                flushTimeNs += endTime - startTime;
+
+                if (latencyTracker != null) {
+                    long nowMs = endTime / 1000000;
+                    for (int i = 0; i < pending.recordCount; i++) {
+                        if (pending.recordPaths[i] != InputLatencyTracker.PATH_NONE) {
+                            latencyTracker.record(pending.recordPaths[i], nowMs - pending.recordEventTimes[i]);
+                        }
+                    }
+                }
+
+                batchesFlushed++;
+
+                synchronized (this) {
+                    pending.recordCount = 0;
+                    freeBatches.add(pending);
+                }
+            }
+        }
+    }
+
+    private int startRecord(byte type) {
+        EventTime eventTime = eventTimes.get();
+        batch.recordPaths[batch.recordCount] = (byte) eventTime.path;
+        batch.recordEventTimes[batch.recordCount] = eventTime.timeMs;
+
+        int offset = batch.recordCount * RECORD_SIZE;
+        batch.buffer.put(offset, type);
+        return offset;
+    }
+
+    // Returns true if the batch was queued and must be sent once this is released
+    private boolean finishRecord() {
+        batch.recordCount++;
+        eventsQueued++;
+
+        if (batch.recordCount == MAX_RECORDS || batchThread != Thread.currentThread()) {
+            return queueBatch();
+        }
+        return false;
+    }
+
+    public void putMouseMove(short deltaX, short deltaY) {
+        synchronized (this) {
+            int offset = startRecord(TYPE_MOUSE_MOVE) + SHORT_ARGS_OFFSET;
+            batch.buffer.putShort(offset, deltaX);
+            batch.buffer.putShort(offset + 2, deltaY);
+            if (!finishRecord()) {
+                return;
+            }
+        }
+        sendPendingBatches();
+    }
+
+    public void putMousePosition(short x, short y, short referenceWidth, short referenceHeight) {
+        synchronized (this) {
+            int offset = startRecord(TYPE_MOUSE_POSITION) + SHORT_ARGS_OFFSET;
+            batch.buffer.putShort(offset, x);
+            batch.buffer.putShort(offset + 2, y);
+            batch.buffer.putShort(offset + 4, referenceWidth);
+            batch.buffer.putShort(offset + 6, referenceHeight);
+            if (!finishRecord()) {
+                return;
+            }
+        }
+        sendPendingBatches();
+    }
+
+    public void putMouseMoveAsMousePosition(short deltaX, short deltaY, short referenceWidth, short referenceHeight) {
+        synchronized (this) {
+            int offset = startRecord(TYPE_MOUSE_MOVE_AS_POSITION) + SHORT_ARGS_OFFSET;
+            batch.buffer.putShort(offset, deltaX);
+            batch.buffer.putShort(offset + 2, deltaY);
+            batch.buffer.putShort(offset + 4, referenceWidth);
+            batch.buffer.putShort(offset + 6, referenceHeight);
+            if (!finishRecord()) {
+                return;
+            }
+        }
+        sendPendingBatches();
+    }
+
+    public void putMouseButton(byte buttonEvent, byte mouseButton) {
+        synchronized (this) {
+            int offset = startRecord(TYPE_MOUSE_BUTTON) + BYTE_ARGS_OFFSET;
+            batch.buffer.put(offset, buttonEvent);
+            batch.buffer.put(offset + 1, mouseButton);
+            if (!finishRecord()) {
+                return;
+            }
+        }
+        sendPendingBatches();
+    }
+
+    public void putMultiControllerInput(short controllerNumber,
+                                        short activeGamepadMask, short buttonFlags,
+                                        byte leftTrigger, byte rightTrigger,
+                                        short leftStickX, short leftStickY,
+                                        short rightStickX, short rightStickY) {
+        synchronized (this) {
+            int offset = startRecord(TYPE_MULTI_CONTROLLER);
+            batch.buffer.put(offset + BYTE_ARGS_OFFSET, leftTrigger);
+            batch.buffer.put(offset + BYTE_ARGS_OFFSET + 1, rightTrigger);
+            offset += SHORT_ARGS_OFFSET;
+            batch.buffer.putShort(offset, controllerNumber);
+            batch.buffer.putShort(offset + 2, activeGamepadMask);
+            batch.buffer.putShort(offset + 4, buttonFlags);
+            batch.buffer.putShort(offset + 6, leftStickX);
+            batch.buffer.putShort(offset + 8, leftStickY);
+            batch.buffer.putShort(offset + 10, rightStickX);
+            batch.buffer.putShort(offset + 12, rightStickY);
+            if (!finishRecord()) {
+                return;
+            }
+        }
+        sendPendingBatches();
+    }
+
+    public void putControllerInput(short buttonFlags,
+                                   byte leftTrigger, byte rightTrigger,
+                                   short leftStickX, short leftStickY,
+                                   short rightStickX, short rightStickY) {
+        synchronized (this) {
+            int offset = startRecord(TYPE_CONTROLLER);
+            batch.buffer.put(offset + BYTE_ARGS_OFFSET, leftTrigger);
+            batch.buffer.put(offset + BYTE_ARGS_OFFSET + 1, rightTrigger);
+            offset += SHORT_ARGS_OFFSET;
+            batch.buffer.putShort(offset, buttonFlags);
+            batch.buffer.putShort(offset + 2, leftStickX);
+            batch.buffer.putShort(offset + 4, leftStickY);
+            batch.buffer.putShort(offset + 6, rightStickX);
+            batch.buffer.putShort(offset + 8, rightStickY);
+            if (!finishRecord()) {
+                return;
+            }
+        }
+        sendPendingBatches();
+    }
+
+    public void putKeyboardInput(short keyMap, byte keyDirection, byte modifier) {
+        synchronized (this) {
+            int offset = startRecord(TYPE_KEYBOARD);
+            batch.buffer.put(offset + BYTE_ARGS_OFFSET, keyDirection);
+            batch.buffer.put(offset + BYTE_ARGS_OFFSET + 1, modifier);
+            batch.buffer.putShort(offset + SHORT_ARGS_OFFSET, keyMap);
+            if (!finishRecord()) {
+                return;
+            }
+        }
+        sendPendingBatches();
+    }
+
+    public void putMouseScroll(byte scrollClicks) {
+        synchronized (this) {
+            int offset = startRecord(TYPE_SCROLL);
+            batch.buffer.put(offset + BYTE_ARGS_OFFSET, scrollClicks);
+            if (!finishRecord()) {
+                return;
+            }
+        }
+        sendPendingBatches();
+    }
+
+    public void putMouseHighResScroll(short scrollAmount) {
+        synchronized (this) {
+            int offset = startRecord(TYPE_HIGH_RES_SCROLL);
+            batch.buffer.putShort(offset + SHORT_ARGS_OFFSET, scrollAmount);
+            if (!finishRecord()) {
+                return;
+            }
+        }
+        sendPendingBatches();
+    }
+
+    public String getStatistics() {
+        long elapsedNs = System.nanoTime() - creationTimeNs;
+        long events, batches, timeNs;
+        synchronized (sendLock) {
+            synchronized (this) {
+                events = eventsQueued;
+            }
+            batches = batchesFlushed;
+            timeNs = flushTimeNs;
+        }
+        return events+" input events in "+batches+" batches ("+
+                (elapsedNs > 0 ? events * 1000000000L / elapsedNs : 0)+" events/s, "+
+                (events > 0 ? timeNs / events : 0)+" ns/event)";
+    }
+}
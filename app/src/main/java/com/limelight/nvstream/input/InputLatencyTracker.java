@@ -0,0 +1,127 @@
+package com.limelight.nvstream.input;
+
+// Histograms of how long input takes from the event that caused it until it's handed to
+// native code for sending, kept separately for each input path. Event times use the
+// SystemClock.uptimeMillis() clock like MotionEvent.getEventTime(), which is the same
+// monotonic clock as System.nanoTime().
+//
+// Samples go into both a session histogram and a window histogram that the perf overlay
+// clears each time it shows it, so stalls still stand out late in a long session.
+public class InputLatencyTracker {
+    public static final int PATH_NONE = -1;
+    public static final int PATH_KEYBOARD = 0;
+    public static final int PATH_MOUSE = 1;
+    public static final int PATH_TOUCH = 2;
+    public static final int PATH_GAMEPAD = 3;
+    public static final int PATH_VIRTUAL_CONTROLLER = 4;
+    public static final int PATH_EVDEV = 5;
+    public static final int PATH_USB = 6;
+    public static final int PATH_COUNT = 7;
+
+    private static final String[] PATH_NAMES = {
+            "Keyboard", "Mouse", "Touch", "Gamepad", "On-screen controls", "Evdev", "USB gamepad"
+    };
+
+    // 1 ms buckets. Samples at or above the last bucket are clamped into it.
+    private static final int BUCKET_COUNT = 128;
+
+    private final int[][] sessionBuckets = new int[PATH_COUNT][BUCKET_COUNT];
+    private final int[] sessionCounts = new int[PATH_COUNT];
+    private final long[] sessionMaxMs = new long[PATH_COUNT];
+
+    private final int[][] windowBuckets = new int[PATH_COUNT][BUCKET_COUNT];
+    private final int[] windowCounts = new int[PATH_COUNT];
+
+    public static String getPathName(int path) {
+        return PATH_NAMES[path];
+    }
+
+    public synchronized void record(int path, long latencyMs) {
+        if (path < 0 || path >= PATH_COUNT || latencyMs < 0) {
+            return;
+        }
+
+        int bucket = (int)Math.min(latencyMs, BUCKET_COUNT - 1);
+        sessionBuckets[path][bucket]++;
+        sessionCounts[path]++;
+        sessionMaxMs[path] = Math.max(sessionMaxMs[path], latencyMs);
+        windowBuckets[path][bucket]++;
+        windowCounts[path]++;
+    }
+
+    // Returns the smallest latency (in ms) that is greater than or equal to
+    // the given fraction of all samples, or 0 if there are no samples.
+    private static int getPercentile(int[] buckets, int count, float fraction) {
+        if (count == 0) {
+            return 0;
+        }
+
+        // Rank of the sample we're looking for (1-based)
+        long targetRank = Math.max(1, (long) Math.ceil(count * (double) fraction));
+
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= targetRank) {
+                return i;
+            }
+        }
+
+        return BUCKET_COUNT - 1;
+    }
+
+    public synchronized int getWindowCount(int path) {
+        return windowCounts[path];
+    }
+
+    public synchronized int getWindowPercentile(int path, float fraction) {
+        return getPercentile(windowBuckets[path], windowCounts[path], fraction);
+    }
+
+    public synchronized void clearWindow() {
+        for (int path = 0; path < PATH_COUNT; path++) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                windowBuckets[path][i] = 0;
+            }
+            windowCounts[path] = 0;
+        }
+    }
+
+    // Percentile across every path for the whole session, or -1 if there are no samples
+    public synchronized int getSessionPercentile(float fraction) {
+        int[] combined = new int[BUCKET_COUNT];
+        int count = 0;
+        for (int path = 0; path < PATH_COUNT; path++) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                combined[i] += sessionBuckets[path][i];
+            }
+            count += sessionCounts[path];
+        }
+
+        return count > 0 ? getPercentile(combined, count, fraction) : -1;
+    }
+
+    public synchronized String getStatistics() {
+        StringBuilder sb = new StringBuilder("Input latency (event to send):");
+        boolean hasSamples = false;
+        for (int path = 0; path < PATH_COUNT; path++) {
+            int count = sessionCounts[path];
+            if (count == 0) {
+                continue;
+            }
+
+            hasSamples = true;
+            int[] buckets = sessionBuckets[path];
+            sb.append(' ').append(PATH_NAMES[path]).append(": ").append(count).append(" events, ")
+                    .append(getPercentile(buckets, count, 0.50f)).append('/')
+                    .append(getPercentile(buckets, count, 0.95f)).append('/')
+                    .append(getPercentile(buckets, count, 0.99f)).append(" ms (p50/p95/p99), max ")
+                    .append(sessionMaxMs[path]).append(" ms;");
+        }
+
+        if (!hasSamples) {
+            sb.append(" no samples");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,71 @@
+package com.limelight.nvstream.input;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Accumulates mouse motion between flushes without locking. Each kind of motion is
+// packed into a single long (four 16-bit fields) and updated with compare-and-set, so
+// input threads never block behind the thread that is sending the accumulated motion.
+public class MouseAccumulator {
+    // deltaX, deltaY, referenceWidth, referenceHeight
+    private final AtomicLong relativeState = new AtomicLong();
+    // x, y, referenceWidth, referenceHeight
+    private final AtomicLong absoluteState = new AtomicLong();
+
+    static long pack(short a, short b, short c, short d) {
+        return ((long)(a & 0xFFFF) << 48) | ((long)(b & 0xFFFF) << 32) |
+                ((long)(c & 0xFFFF) << 16) | (long)(d & 0xFFFF);
+    }
+
+    public static short getField(long state, int index) {
+        return (short)(state >>> (48 - index * 16));
+    }
+
+    // These return true if there was no motion of this kind waiting to be sent
+
+    public boolean addMove(short deltaX, short deltaY) {
+        long oldState, newState;
+        do {
+            oldState = relativeState.get();
+
+            // Reset the reference size to ensure we don't send this as a position update
+            newState = pack((short)(getField(oldState, 0) + deltaX),
+                    (short)(getField(oldState, 1) + deltaY),
+                    (short)0, (short)0);
+        } while (!relativeState.compareAndSet(oldState, newState));
+
+        return oldState == 0;
+    }
+
+    public boolean addMoveAsPosition(short deltaX, short deltaY, short referenceWidth, short referenceHeight) {
+        long oldState, newState;
+        do {
+            oldState = relativeState.get();
+
+            // Only accumulate the delta if the reference size is the same
+            if (getField(oldState, 2) == referenceWidth && getField(oldState, 3) == referenceHeight) {
+                newState = pack((short)(getField(oldState, 0) + deltaX),
+                        (short)(getField(oldState, 1) + deltaY),
+                        referenceWidth, referenceHeight);
+            }
+            else {
+                newState = pack(deltaX, deltaY, referenceWidth, referenceHeight);
+            }
+        } while (!relativeState.compareAndSet(oldState, newState));
+
+        return oldState == 0;
+    }
+
+    public boolean setPosition(short x, short y, short referenceWidth, short referenceHeight) {
+        return absoluteState.getAndSet(pack(x, y, referenceWidth, referenceHeight)) == 0;
+    }
+
+    // Returns the accumulated relative motion and resets it. Use getField() to unpack it.
+    public long takeRelative() {
+        return relativeState.getAndSet(0);
+    }
+
+    // Returns the latest absolute position and resets it. Use getField() to unpack it.
+    public long takeAbsolute() {
+        return absoluteState.getAndSet(0);
+    }
+}
@@ -0,0 +1,159 @@
+package com.limelight.nvstream.input;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Runs the mouse flush task no more often than a fixed rate or once per display frame.
+// Unlike a periodic timer, it only wakes up when there's motion waiting to be sent. Motion
+// that arrives after a quiet period is sent right away, and deadlines are computed from
+// the previous flush so the rate doesn't drift.
+public class MouseFlushScheduler {
+    // Pass as the rate to flush on each vsync
+    public static final int RATE_VSYNC = 0;
+
+    private final Runnable flushTask;
+    private final long periodNs;
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final AtomicLong requestTimeNs = new AtomicLong();
+    private volatile boolean stopped;
+
+    private volatile Thread flushThread;
+    private HandlerThread vsyncThread;
+    private volatile Handler vsyncHandler;
+
+    private long flushes;
+    private long totalDelayNs;
+    private long maxDelayNs;
+
+    private final Runnable postFrameCallbackRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    };
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!stopped) {
+                runFlush();
+            }
+        }
+    };
+
+    public MouseFlushScheduler(Runnable flushTask, int rateHz) {
+        this.flushTask = flushTask;
+        this.periodNs = rateHz > 0 ? 1000000000L / rateHz : 0;
+    }
+
+    public void start() {
+        if (periodNs == 0) {
+            // We use a separate thread to avoid any main thread delays from delaying input
+            vsyncThread = new HandlerThread("MouseInput", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+            vsyncThread.start();
+            vsyncHandler = new Handler(vsyncThread.getLooper());
+
+            // Pick up any motion that arrived before we started
+            if (flushRequested.get()) {
+                vsyncHandler.post(postFrameCallbackRunnable);
+            }
+        }
+        else {
+            flushThread = new Thread() {
+                @Override
+                public void run() {
+                    long lastFlushTimeNs = System.nanoTime() - periodNs;
+
+                    while (!stopped) {
+                        if (!flushRequested.get()) {
+                            LockSupport.park();
+                            continue;
+                        }
+
+                        // Wait until a full period has passed since the last flush
+                        long delayNs = lastFlushTimeNs + periodNs - System.nanoTime();
+                        if (delayNs > 0) {
+                            LockSupport.parkNanos(delayNs);
+                            continue;
+                        }
+
+                        lastFlushTimeNs = System.nanoTime();
+                        runFlush();
+                    }
+                }
+            };
+            flushThread.setName("MouseInput");
+            flushThread.setPriority(Thread.MAX_PRIORITY);
+            flushThread.start();
+        }
+    }
+
+    private void runFlush() {
+        // Clear the request first so motion that arrives during the flush requests another one
+        flushRequested.set(false);
+        long requestTime = requestTimeNs.getAndSet(0);
+
+        flushTask.run();
+
+        if (requestTime != 0) {
+            long delayNs = System.nanoTime() - requestTime;
+
+            synchronized (this) {
+                flushes++;
+                totalDelayNs += delayNs;
+                maxDelayNs = Math.max(maxDelayNs, delayNs);
+            }
+        }
+    }
+
+    // Called when motion is added to an empty accumulator
+    public void requestFlush() {
+        requestTimeNs.compareAndSet(0, System.nanoTime());
+
+        if (!flushRequested.compareAndSet(false, true)) {
+            // Already waiting for a flush
+            return;
+        }
+
+        if (flushThread != null) {
+            LockSupport.unpark(flushThread);
+        }
+        else if (vsyncHandler != null) {
+            vsyncHandler.post(postFrameCallbackRunnable);
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+
+        if (flushThread != null) {
+            LockSupport.unpark(flushThread);
+            try {
+                flushThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+
+                // InterruptedException clears the thread's interrupt status. Since we can't
+                // handle that here, we will re-interrupt the thread to set the interrupt
+                // status back to true.
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (vsyncThread != null) {
+            vsyncThread.quit();
+        }
+    }
+
+    public synchronized String getStatistics() {
+        return "Mouse flushes: "+flushes+", added latency avg "+
+                (flushes > 0 ? totalDelayNs / flushes / 1000 : 0)+" us, max "+maxDelayNs / 1000+" us";
+    }
+}
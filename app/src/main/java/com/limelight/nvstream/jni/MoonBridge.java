@@ -1,9 +1,12 @@
 package com.limelight.nvstream.jni;
 
 import com.limelight.nvstream.NvConnectionListener;
+import com.limelight.nvstream.av.StreamRecorder;
 import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 
+import java.nio.ByteBuffer;
+
 public class MoonBridge {
     /* See documentation in Limelight.h for information about these functions and constants */
 
@@ -68,6 +71,7 @@ public class MoonBridge {
     private static AudioRenderer audioRenderer;
     private static VideoDecoderRenderer videoRenderer;
     private static NvConnectionListener connectionListener;
+    private static StreamRecorder streamRecorder;
 
     static {
         System.loadLibrary("moonlight-core");
@@ -130,6 +134,10 @@ public class MoonBridge {
     }
 
     public static int bridgeDrSetup(int videoFormat, int width, int height, int redrawRate) {
+        if (streamRecorder != null) {
+            streamRecorder.recordVideoSetup(videoFormat, width, height, redrawRate);
+        }
+
         if (videoRenderer != null) {
             return videoRenderer.setup(videoFormat, width, height, redrawRate);
         }
@@ -159,6 +167,11 @@ public class MoonBridge {
     public static int bridgeDrSubmitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
                                                int frameNumber, int frameType,
                                                long receiveTimeMs, long enqueueTimeMs) {
+        if (streamRecorder != null) {
+            streamRecorder.recordDecodeUnit(decodeUnitData, decodeUnitLength, decodeUnitType,
+                    frameNumber, frameType, receiveTimeMs, enqueueTimeMs);
+        }
+
         if (videoRenderer != null) {
             return videoRenderer.submitDecodeUnit(decodeUnitData, decodeUnitLength,
                     decodeUnitType, frameNumber, frameType, receiveTimeMs, enqueueTimeMs);
@@ -169,6 +182,10 @@ public class MoonBridge {
     }
 
     public static int bridgeArInit(int audioConfiguration, int sampleRate, int samplesPerFrame) {
+        if (streamRecorder != null) {
+            streamRecorder.recordAudioSetup(new AudioConfiguration(audioConfiguration), sampleRate, samplesPerFrame);
+        }
+
         if (audioRenderer != null) {
             return audioRenderer.setup(new AudioConfiguration(audioConfiguration), sampleRate, samplesPerFrame);
         }
@@ -196,6 +213,10 @@ public class MoonBridge {
     }
 
     public static void bridgeArPlaySample(short[] pcmData) {
+        if (streamRecorder != null) {
+            streamRecorder.recordAudioSample(pcmData);
+        }
+
         if (audioRenderer != null) {
             audioRenderer.playDecodedAudio(pcmData);
         }
@@ -259,6 +280,12 @@ public class MoonBridge {
         MoonBridge.videoRenderer = null;
         MoonBridge.audioRenderer = null;
         MoonBridge.connectionListener = null;
+        MoonBridge.streamRecorder = null;
+    }
+
+    // Captures all video and audio data passed to the renderers until cleanupBridge()
+    public static void setStreamRecorder(StreamRecorder streamRecorder) {
+        MoonBridge.streamRecorder = streamRecorder;
     }
 
     public static native int startConnection(String address, String appVersion, String gfeVersion,
@@ -304,6 +331,9 @@ public class MoonBridge {
 
     public static native void sendUtf8Text(String text);
 
+    // Sends count records from a direct buffer filled by InputEventRing
+    public static native void sendInputBatch(ByteBuffer buffer, int count);
+
     public static native String getStageName(int stage);
 
     public static native String findExternalAddressIP4(String stunHostName, int stunPort);
@@ -22,6 +22,8 @@ public class PreferenceConfiguration {
     private static final String DISABLE_TOASTS_PREF_STRING = "checkbox_disable_warnings";
     private static final String HOST_AUDIO_PREF_STRING = "checkbox_host_audio";
     private static final String DEADZONE_PREF_STRING = "seekbar_deadzone";
+    private static final String CONTROLLER_MAX_RATE_PREF_STRING = "seekbar_controller_max_rate";
+    private static final String MOUSE_BATCH_RATE_PREF_STRING = "list_mouse_batch_rate";
     private static final String OSC_OPACITY_PREF_STRING = "seekbar_osc_opacity";
     private static final String LANGUAGE_PREF_STRING = "list_languages";
     private static final String SMALL_ICONS_PREF_STRING = "checkbox_small_icon_mode";
@@ -36,14 +38,22 @@ public class PreferenceConfiguration {
     private static final String ENABLE_PIP_PREF_STRING = "checkbox_enable_pip";
     private static final String ENABLE_PERF_OVERLAY_STRING = "checkbox_enable_perf_overlay";
     private static final String BIND_ALL_USB_STRING = "checkbox_usb_bind_all";
+    private static final String BIND_HID_USB_STRING = "checkbox_usb_bind_hid";
     private static final String MOUSE_EMULATION_STRING = "checkbox_mouse_emulation";
     private static final String MOUSE_NAV_BUTTONS_STRING = "checkbox_mouse_nav_buttons";
     static final String UNLOCK_FPS_STRING = "checkbox_unlock_fps";
     private static final String VIBRATE_OSC_PREF_STRING = "checkbox_vibrate_osc";
+    private static final String OSC_COMPOSITOR_PREF_STRING = "checkbox_osc_compositor";
     private static final String VIBRATE_FALLBACK_PREF_STRING = "checkbox_vibrate_fallback";
     private static final String FLIP_FACE_BUTTONS_PREF_STRING = "checkbox_flip_face_buttons";
     private static final String TOUCHSCREEN_TRACKPAD_PREF_STRING = "checkbox_touchscreen_trackpad";
+    private static final String LOCAL_CURSOR_PREDICTION_PREF_STRING = "checkbox_local_cursor_prediction";
     private static final String LATENCY_TOAST_PREF_STRING = "checkbox_enable_post_stream_toast";
+    private static final String RECORD_STREAM_PREF_STRING = "checkbox_record_stream";
+    private static final String HOT_STANDBY_DECODER_PREF_STRING = "checkbox_hot_standby_decoder";
+    private static final String PARTIAL_FRAME_SUBMISSION_PREF_STRING = "checkbox_partial_frame_submission";
+    private static final String RECOMMEND_STREAM_SETTINGS_PREF_STRING = "checkbox_recommend_stream_settings";
+    private static final String AV_SYNC_CORRECTION_PREF_STRING = "checkbox_av_sync_correction";
     private static final String FRAME_PACING_PREF_STRING = "frame_pacing";
     private static final String ABSOLUTE_MOUSE_MODE_PREF_STRING = "checkbox_absolute_mouse_mode";
     private static final String ENABLE_AUDIO_FX_PREF_STRING = "checkbox_enable_audiofx";
@@ -57,6 +67,8 @@ public class PreferenceConfiguration {
     private static final boolean DEFAULT_DISABLE_TOASTS = false;
     private static final boolean DEFAULT_HOST_AUDIO = false;
     private static final int DEFAULT_DEADZONE = 7;
+    private static final int DEFAULT_CONTROLLER_MAX_RATE = 0;
+    private static final String DEFAULT_MOUSE_BATCH_RATE = "200";
     private static final int DEFAULT_OPACITY = 90;
     public static final String DEFAULT_LANGUAGE = "default";
     private static final boolean DEFAULT_MULTI_CONTROLLER = true;
@@ -68,15 +80,23 @@ public class PreferenceConfiguration {
     private static final boolean DEFAULT_ENABLE_PIP = false;
     private static final boolean DEFAULT_ENABLE_PERF_OVERLAY = false;
     private static final boolean DEFAULT_BIND_ALL_USB = false;
+    private static final boolean DEFAULT_BIND_HID_USB = false;
     private static final boolean DEFAULT_MOUSE_EMULATION = true;
     private static final boolean DEFAULT_MOUSE_NAV_BUTTONS = false;
     private static final boolean DEFAULT_UNLOCK_FPS = false;
     private static final boolean DEFAULT_VIBRATE_OSC = true;
+    private static final boolean DEFAULT_OSC_COMPOSITOR = false;
     private static final boolean DEFAULT_VIBRATE_FALLBACK = false;
     private static final boolean DEFAULT_FLIP_FACE_BUTTONS = false;
     private static final boolean DEFAULT_TOUCHSCREEN_TRACKPAD = true;
+    private static final boolean DEFAULT_LOCAL_CURSOR_PREDICTION = false;
     private static final String DEFAULT_AUDIO_CONFIG = "2"; // Stereo
     private static final boolean DEFAULT_LATENCY_TOAST = false;
+    private static final boolean DEFAULT_RECORD_STREAM = false;
+    private static final boolean DEFAULT_HOT_STANDBY_DECODER = false;
+    private static final boolean DEFAULT_PARTIAL_FRAME_SUBMISSION = false;
+    private static final boolean DEFAULT_RECOMMEND_STREAM_SETTINGS = false;
+    private static final boolean DEFAULT_AV_SYNC_CORRECTION = false;
     private static final String DEFAULT_FRAME_PACING = "latency";
     private static final boolean DEFAULT_ABSOLUTE_MOUSE_MODE = false;
     private static final boolean DEFAULT_ENABLE_AUDIO_FX = false;
@@ -104,6 +124,8 @@ public class PreferenceConfiguration {
     public int bitrate;
     public int videoFormat;
     public int deadzonePercentage;
+    public int controllerMaxRateHz;
+    public int mouseBatchRateHz;
     public int oscOpacity;
     public boolean stretchVideo, enableSops, playHostAudio, disableWarnings;
     public String language;
@@ -114,13 +136,21 @@ public class PreferenceConfiguration {
     public boolean enablePip;
     public boolean enablePerfOverlay;
     public boolean enableLatencyToast;
+    public boolean recordStream;
+    public boolean hotStandbyDecoder;
+    public boolean partialFrameSubmission;
+    public boolean recommendStreamSettings;
+    public boolean avSyncCorrection;
     public boolean bindAllUsb;
+    public boolean bindHidUsb;
     public boolean mouseEmulation;
     public boolean mouseNavButtons;
     public boolean unlockFps;
     public boolean vibrateOsc;
+    public boolean oscCompositor;
     public boolean vibrateFallbackToDevice;
     public boolean touchscreenTrackpad;
+    public boolean localCursorPrediction;
     public MoonBridge.AudioConfiguration audioConfiguration;
     public int framePacing;
     public boolean absoluteMouseMode;
@@ -479,6 +509,11 @@ public class PreferenceConfiguration {
 
         config.deadzonePercentage = prefs.getInt(DEADZONE_PREF_STRING, DEFAULT_DEADZONE);
 
+        config.controllerMaxRateHz = prefs.getInt(CONTROLLER_MAX_RATE_PREF_STRING, DEFAULT_CONTROLLER_MAX_RATE);
+
+        // 0 means once per display frame
+        config.mouseBatchRateHz = Integer.parseInt(prefs.getString(MOUSE_BATCH_RATE_PREF_STRING, DEFAULT_MOUSE_BATCH_RATE));
+
         config.oscOpacity = prefs.getInt(OSC_OPACITY_PREF_STRING, DEFAULT_OPACITY);
 
         config.language = prefs.getString(LANGUAGE_PREF_STRING, DEFAULT_LANGUAGE);
@@ -497,14 +532,22 @@ public class PreferenceConfiguration {
         config.enablePip = prefs.getBoolean(ENABLE_PIP_PREF_STRING, DEFAULT_ENABLE_PIP);
         config.enablePerfOverlay = prefs.getBoolean(ENABLE_PERF_OVERLAY_STRING, DEFAULT_ENABLE_PERF_OVERLAY);
         config.bindAllUsb = prefs.getBoolean(BIND_ALL_USB_STRING, DEFAULT_BIND_ALL_USB);
+        config.bindHidUsb = prefs.getBoolean(BIND_HID_USB_STRING, DEFAULT_BIND_HID_USB);
         config.mouseEmulation = prefs.getBoolean(MOUSE_EMULATION_STRING, DEFAULT_MOUSE_EMULATION);
         config.mouseNavButtons = prefs.getBoolean(MOUSE_NAV_BUTTONS_STRING, DEFAULT_MOUSE_NAV_BUTTONS);
         config.unlockFps = prefs.getBoolean(UNLOCK_FPS_STRING, DEFAULT_UNLOCK_FPS);
         config.vibrateOsc = prefs.getBoolean(VIBRATE_OSC_PREF_STRING, DEFAULT_VIBRATE_OSC);
+        config.oscCompositor = prefs.getBoolean(OSC_COMPOSITOR_PREF_STRING, DEFAULT_OSC_COMPOSITOR);
         config.vibrateFallbackToDevice = prefs.getBoolean(VIBRATE_FALLBACK_PREF_STRING, DEFAULT_VIBRATE_FALLBACK);
         config.flipFaceButtons = prefs.getBoolean(FLIP_FACE_BUTTONS_PREF_STRING, DEFAULT_FLIP_FACE_BUTTONS);
         config.touchscreenTrackpad = prefs.getBoolean(TOUCHSCREEN_TRACKPAD_PREF_STRING, DEFAULT_TOUCHSCREEN_TRACKPAD);
+        config.localCursorPrediction = prefs.getBoolean(LOCAL_CURSOR_PREDICTION_PREF_STRING, DEFAULT_LOCAL_CURSOR_PREDICTION);
         config.enableLatencyToast = prefs.getBoolean(LATENCY_TOAST_PREF_STRING, DEFAULT_LATENCY_TOAST);
+        config.recordStream = prefs.getBoolean(RECORD_STREAM_PREF_STRING, DEFAULT_RECORD_STREAM);
+        config.hotStandbyDecoder = prefs.getBoolean(HOT_STANDBY_DECODER_PREF_STRING, DEFAULT_HOT_STANDBY_DECODER);
+        config.partialFrameSubmission = prefs.getBoolean(PARTIAL_FRAME_SUBMISSION_PREF_STRING, DEFAULT_PARTIAL_FRAME_SUBMISSION);
+        config.recommendStreamSettings = prefs.getBoolean(RECOMMEND_STREAM_SETTINGS_PREF_STRING, DEFAULT_RECOMMEND_STREAM_SETTINGS);
+        config.avSyncCorrection = prefs.getBoolean(AV_SYNC_CORRECTION_PREF_STRING, DEFAULT_AV_SYNC_CORRECTION);
         config.absoluteMouseMode = prefs.getBoolean(ABSOLUTE_MOUSE_MODE_PREF_STRING, DEFAULT_ABSOLUTE_MOUSE_MODE);
         config.enableAudioFx = prefs.getBoolean(ENABLE_AUDIO_FX_PREF_STRING, DEFAULT_ENABLE_AUDIO_FX);
         config.reduceRefreshRate = prefs.getBoolean(REDUCE_REFRESH_RATE_PREF_STRING, DEFAULT_REDUCE_REFRESH_RATE);
@@ -0,0 +1,55 @@
+package com.limelight.preferences;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Stores a short history of session outcomes for each host and network pair
+public class StreamHistoryPreferences {
+    private static final String PREF_NAME = "StreamHistory";
+
+    private static final int MAX_SESSIONS = 20;
+
+    private final SharedPreferences prefs;
+
+    private StreamHistoryPreferences(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    public static StreamHistoryPreferences readPreferences(Context context) {
+        return new StreamHistoryPreferences(context.getSharedPreferences(PREF_NAME, 0));
+    }
+
+    private static String getKey(String hostUuid, String networkKey) {
+        return hostUuid + "|" + networkKey;
+    }
+
+    // Returns sessions in chronological order
+    public List<StreamSettingsRecommender.Session> getSessions(String hostUuid, String networkKey) {
+        ArrayList<StreamSettingsRecommender.Session> sessions = new ArrayList<>();
+
+        String history = prefs.getString(getKey(hostUuid, networkKey), "");
+        for (String line : history.split("\n")) {
+            StreamSettingsRecommender.Session session = StreamSettingsRecommender.Session.parse(line);
+            if (session != null) {
+                sessions.add(session);
+            }
+        }
+
+        return sessions;
+    }
+
+    public void addSession(String hostUuid, String networkKey, StreamSettingsRecommender.Session session) {
+        List<StreamSettingsRecommender.Session> sessions = getSessions(hostUuid, networkKey);
+        sessions.add(session);
+
+        StringBuilder history = new StringBuilder();
+        for (int i = Math.max(0, sessions.size() - MAX_SESSIONS); i < sessions.size(); i++) {
+            history.append(sessions.get(i).serialize()).append('\n');
+        }
+
+        prefs.edit().putString(getKey(hostUuid, networkKey), history.toString()).apply();
+    }
+}
@@ -0,0 +1,243 @@
+package com.limelight.preferences;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// Picks stream settings for a host and network based on how previous sessions there went.
+// It works only from the history that is passed in and has no Android dependencies.
+public class StreamSettingsRecommender {
+    // A session is good if it stayed under all of these thresholds. RTT is judged against
+    // the best this host has managed on this network, since a distant host can't get under
+    // any fixed RTT no matter how much we lower the bitrate. Decoder latency is likewise
+    // judged against the best this device has managed at the same resolution and frame
+    // rate, since some decoders never get under a frame time at high frame rates.
+    static final float MAX_FRAME_LOSS_PERCENT = 1.0f;
+    static final int MAX_RTT_INCREASE_MS = 30;
+    static final int MAX_RTT_VARIANCE_INCREASE_MS = 15;
+    static final int MAX_DECODER_LATENCY_INCREASE_MS = 8;
+
+    // Short sessions don't tell us much about the network
+    static final int MIN_SESSION_FRAMES = 600;
+
+    // Once this many sessions have passed since the requested settings did badly,
+    // we'll try them again in case the network has improved.
+    static final int RETRY_AFTER_SESSIONS = 5;
+
+    // Applied to the bitrate when nothing in our history met the thresholds
+    static final float BITRATE_BACKOFF_FACTOR = 0.75f;
+    static final int MIN_BITRATE_KBPS = 500;
+
+    public static class Session {
+        // Version 1 sessions have no input latency
+        private static final int SERIALIZED_VERSION = 2;
+
+        public long timestamp;
+        public int width, height, fps;
+        public int bitrateKbps;
+
+        public int totalFrames;
+        public int framesLost;
+        public int decoderLatencyMs;
+
+        // -1 if unknown
+        public int rttMs = -1;
+        public int rttVarianceMs = -1;
+
+        // 95th percentile across all input paths, or -1 if unknown
+        public int inputLatencyMs = -1;
+
+        public boolean isSignificant() {
+            return totalFrames >= MIN_SESSION_FRAMES;
+        }
+
+        public float getFrameLossPercent() {
+            return totalFrames > 0 ? (float)framesLost / totalFrames * 100 : 0;
+        }
+
+        // Returns null if the session met all thresholds, otherwise the reason it didn't.
+        // The baselines are the lowest RTT and RTT variance seen in the history and the lowest
+        // decoder latency seen at this session's resolution and frame rate, or -1 if unknown.
+        String getProblem(int baselineRttMs, int baselineRttVarianceMs, int baselineDecoderLatencyMs) {
+            if (getFrameLossPercent() > MAX_FRAME_LOSS_PERCENT) {
+                return "frame loss "+getFrameLossPercent()+"%";
+            }
+            if ((baselineRttMs >= 0 && rttMs > baselineRttMs + MAX_RTT_INCREASE_MS) ||
+                    (baselineRttVarianceMs >= 0 && rttVarianceMs > baselineRttVarianceMs + MAX_RTT_VARIANCE_INCREASE_MS)) {
+                return "RTT "+rttMs+" ms (variance "+rttVarianceMs+" ms)";
+            }
+            if (baselineDecoderLatencyMs >= 0 && decoderLatencyMs > baselineDecoderLatencyMs + MAX_DECODER_LATENCY_INCREASE_MS) {
+                return "decoder latency "+decoderLatencyMs+" ms";
+            }
+            return null;
+        }
+
+        boolean hasSameSettings(int width, int height, int fps, int bitrateKbps) {
+            return this.width == width && this.height == height &&
+                    this.fps == fps && this.bitrateKbps == bitrateKbps;
+        }
+
+        String getSettingsKey() {
+            return getModeKey()+"@"+bitrateKbps;
+        }
+
+        String getModeKey() {
+            return width+"x"+height+"x"+fps;
+        }
+
+        public String serialize() {
+            return SERIALIZED_VERSION+","+timestamp+","+width+","+height+","+fps+","+bitrateKbps+","+
+                    totalFrames+","+framesLost+","+decoderLatencyMs+","+rttMs+","+rttVarianceMs+","+inputLatencyMs;
+        }
+
+        // Returns null if the string isn't a session we understand
+        public static Session parse(String str) {
+            String[] fields = str.split(",");
+            if (fields.length < 11) {
+                return null;
+            }
+
+            try {
+                int version = Integer.parseInt(fields[0]);
+                if (!(version == 1 && fields.length == 11) &&
+                        !(version == SERIALIZED_VERSION && fields.length == 12)) {
+                    return null;
+                }
+
+                Session session = new Session();
+                session.timestamp = Long.parseLong(fields[1]);
+                session.width = Integer.parseInt(fields[2]);
+                session.height = Integer.parseInt(fields[3]);
+                session.fps = Integer.parseInt(fields[4]);
+                session.bitrateKbps = Integer.parseInt(fields[5]);
+                session.totalFrames = Integer.parseInt(fields[6]);
+                session.framesLost = Integer.parseInt(fields[7]);
+                session.decoderLatencyMs = Integer.parseInt(fields[8]);
+                session.rttMs = Integer.parseInt(fields[9]);
+                session.rttVarianceMs = Integer.parseInt(fields[10]);
+                if (version >= 2) {
+                    session.inputLatencyMs = Integer.parseInt(fields[11]);
+                }
+                return session;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    public static class Recommendation {
+        public final int width, height, fps;
+        public final int bitrateKbps;
+        public final String reason;
+
+        Recommendation(int width, int height, int fps, int bitrateKbps, String reason) {
+            this.width = width;
+            this.height = height;
+            this.fps = fps;
+            this.bitrateKbps = bitrateKbps;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return width+"x"+height+" "+fps+" FPS "+bitrateKbps+" Kbps ("+reason+")";
+        }
+    }
+
+    // The history must be in chronological order. The requested settings are an upper
+    // bound, so this never recommends anything higher than what the user picked.
+    public static Recommendation recommend(List<Session> history, int width, int height, int fps, int bitrateKbps) {
+        ArrayList<Session> sessions = new ArrayList<>();
+        for (Session session : history) {
+            if (session.isSignificant()) {
+                sessions.add(session);
+            }
+        }
+
+        // Find how the requested settings did the last time we used them
+        int lastRequestedIndex = -1;
+        for (int i = sessions.size() - 1; i >= 0; i--) {
+            if (sessions.get(i).hasSameSettings(width, height, fps, bitrateKbps)) {
+                lastRequestedIndex = i;
+                break;
+            }
+        }
+
+        if (lastRequestedIndex < 0) {
+            return new Recommendation(width, height, fps, bitrateKbps, "no history for requested settings");
+        }
+
+        // The best RTT we've seen is as close as the network lets us get to this host,
+        // and the best decoder latency for each mode is as fast as this device decodes it
+        int baselineRttMs = -1;
+        int baselineRttVarianceMs = -1;
+        HashMap<String, Integer> baselineDecoderLatencies = new HashMap<>();
+        for (Session session : sessions) {
+            Integer baselineDecoderLatencyMs = baselineDecoderLatencies.get(session.getModeKey());
+            if (baselineDecoderLatencyMs == null || session.decoderLatencyMs < baselineDecoderLatencyMs) {
+                baselineDecoderLatencies.put(session.getModeKey(), session.decoderLatencyMs);
+            }
+            if (session.rttMs >= 0 && (baselineRttMs < 0 || session.rttMs < baselineRttMs)) {
+                baselineRttMs = session.rttMs;
+            }
+            if (session.rttVarianceMs >= 0 && (baselineRttVarianceMs < 0 || session.rttVarianceMs < baselineRttVarianceMs)) {
+                baselineRttVarianceMs = session.rttVarianceMs;
+            }
+        }
+
+        Session lastRequested = sessions.get(lastRequestedIndex);
+        String problem = lastRequested.getProblem(baselineRttMs, baselineRttVarianceMs,
+                baselineDecoderLatencies.get(lastRequested.getModeKey()));
+        if (problem == null) {
+            return new Recommendation(width, height, fps, bitrateKbps, "requested settings met thresholds");
+        }
+        if (sessions.size() - 1 - lastRequestedIndex >= RETRY_AFTER_SESSIONS) {
+            return new Recommendation(width, height, fps, bitrateKbps, "retrying requested settings");
+        }
+
+        // Only the latest outcome for each set of settings counts
+        HashMap<String, Session> latestSessions = new HashMap<>();
+        for (Session session : sessions) {
+            latestSessions.put(session.getSettingsKey(), session);
+        }
+
+        Session best = null;
+        for (Session session : latestSessions.values()) {
+            if (session.getProblem(baselineRttMs, baselineRttVarianceMs,
+                    baselineDecoderLatencies.get(session.getModeKey())) != null ||
+                    session.width > width || session.height > height ||
+                    session.fps > fps || session.bitrateKbps > bitrateKbps) {
+                continue;
+            }
+
+            if (best == null) {
+                best = session;
+                continue;
+            }
+
+            long pixelRate = (long)session.width * session.height * session.fps;
+            long bestPixelRate = (long)best.width * best.height * best.fps;
+            if (pixelRate > bestPixelRate || (pixelRate == bestPixelRate && session.bitrateKbps > best.bitrateKbps)) {
+                best = session;
+            }
+        }
+
+        if (best != null) {
+            return new Recommendation(best.width, best.height, best.fps, best.bitrateKbps,
+                    "requested settings had "+problem+"; using best settings that met thresholds");
+        }
+
+        // Nothing has worked yet, so keep backing off from the lowest bitrate we've
+        // tried at this resolution and frame rate
+        int lowestBadBitrate = bitrateKbps;
+        for (Session session : sessions) {
+            if (session.width == width && session.height == height && session.fps == fps) {
+                lowestBadBitrate = Math.min(lowestBadBitrate, session.bitrateKbps);
+            }
+        }
+
+        int backoffBitrate = Math.max(MIN_BITRATE_KBPS, (int)(lowestBadBitrate * BITRATE_BACKOFF_FACTOR));
+        return new Recommendation(width, height, fps, Math.min(backoffBitrate, bitrateKbps),
+                "requested settings had "+problem+"; reducing bitrate");
+    }
+}
@@ -0,0 +1,194 @@
+package com.limelight.ui;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.limelight.nvstream.jni.MoonBridge;
+
+// Draws a local cursor on top of the stream at the position our own touch input has moved
+// it to, so the cursor responds immediately instead of after a full round trip to the host.
+//
+// The host's cursor shows up in the video roughly one RTT plus a frame after we send a move.
+// We keep a short history of local positions and use that delay to predict where the host
+// cursor currently appears in the video. The local cursor is only drawn while that predicted
+// position lags behind our own, so it disappears once the video has caught up.
+public class LocalCursorOverlay extends View {
+    // Positions closer than this to the predicted host cursor aren't worth drawing
+    private static final float VISIBLE_DISTANCE_DP = 3;
+    private static final float CURSOR_RADIUS_DP = 5;
+
+    // How often to refresh the RTT estimate
+    private static final int RTT_UPDATE_INTERVAL_MS = 1000;
+
+    // Used before we have an RTT estimate
+    private static final int DEFAULT_LATENCY_MS = 50;
+
+    private static final int HISTORY_SIZE = 128;
+
+    private final Paint fillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint strokePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final float visibleDistancePx;
+    private final float cursorRadiusPx;
+
+    private View streamView;
+    private int hostWidth, hostHeight;
+    private int frameDurationMs;
+
+    // Positions are in stream view coordinates
+    private float cursorX, cursorY;
+    private boolean hasPosition;
+
+    // Ring buffer of recent positions and when we moved there
+    private final long[] historyTimes = new long[HISTORY_SIZE];
+    private final float[] historyX = new float[HISTORY_SIZE];
+    private final float[] historyY = new float[HISTORY_SIZE];
+    private int historyIndex;
+    private int historyCount;
+
+    private int latencyMs = DEFAULT_LATENCY_MS;
+    private long lastRttUpdateTime;
+
+    public LocalCursorOverlay(Context context) {
+        this(context, null);
+    }
+
+    public LocalCursorOverlay(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public LocalCursorOverlay(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+
+        float density = context.getResources().getDisplayMetrics().density;
+        visibleDistancePx = VISIBLE_DISTANCE_DP * density;
+        cursorRadiusPx = CURSOR_RADIUS_DP * density;
+
+        fillPaint.setColor(Color.WHITE);
+        fillPaint.setStyle(Paint.Style.FILL);
+        strokePaint.setColor(Color.BLACK);
+        strokePaint.setStyle(Paint.Style.STROKE);
+        strokePaint.setStrokeWidth(density);
+
+        // We only draw, so touches must go to the views beneath us
+        setClickable(false);
+        setFocusable(false);
+    }
+
+    @TargetApi(21)
+    public LocalCursorOverlay(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes) {
+        this(context, attrs, defStyleAttr);
+    }
+
+    // The overlay covers the stream view's parent, so positions are offset by the stream view's bounds
+    public void setStreamView(View streamView, int hostWidth, int hostHeight, int frameRate) {
+        this.streamView = streamView;
+        this.hostWidth = hostWidth;
+        this.hostHeight = hostHeight;
+        this.frameDurationMs = frameRate > 0 ? 1000 / frameRate : 0;
+    }
+
+    // Called when the cursor is moved to an absolute position in stream view coordinates
+    public void moveTo(float x, float y) {
+        cursorX = x;
+        cursorY = y;
+        hasPosition = true;
+        recordPosition();
+    }
+
+    // Called when the cursor is moved by a relative amount in host pixels
+    public void moveBy(int hostDeltaX, int hostDeltaY) {
+        if (streamView == null || hostWidth <= 0 || hostHeight <= 0) {
+            return;
+        }
+
+        moveByViewPixels((float)hostDeltaX * streamView.getWidth() / hostWidth,
+                (float)hostDeltaY * streamView.getHeight() / hostHeight);
+    }
+
+    // Called when the cursor is moved by a relative amount in stream view coordinates
+    public void moveByViewPixels(float deltaX, float deltaY) {
+        if (streamView == null) {
+            return;
+        }
+
+        int width = streamView.getWidth();
+        int height = streamView.getHeight();
+
+        // We don't know where the host cursor starts, so assume the center until
+        // an absolute position tells us otherwise
+        if (!hasPosition) {
+            cursorX = width / 2f;
+            cursorY = height / 2f;
+            hasPosition = true;
+        }
+
+        cursorX = Math.min(Math.max(cursorX + deltaX, 0), width);
+        cursorY = Math.min(Math.max(cursorY + deltaY, 0), height);
+        recordPosition();
+    }
+
+    private void recordPosition() {
+        long now = SystemClock.uptimeMillis();
+
+        historyTimes[historyIndex] = now;
+        historyX[historyIndex] = cursorX;
+        historyY[historyIndex] = cursorY;
+        historyIndex = (historyIndex + 1) % HISTORY_SIZE;
+        historyCount = Math.min(historyCount + 1, HISTORY_SIZE);
+
+        if (now - lastRttUpdateTime >= RTT_UPDATE_INTERVAL_MS) {
+            lastRttUpdateTime = now;
+
+            // The RTT is in the top 32 bits
+            long rttInfo = MoonBridge.getEstimatedRttInfo();
+            if (rttInfo != -1) {
+                latencyMs = (int)(rttInfo >> 32) + frameDurationMs;
+            }
+        }
+
+        postInvalidateOnAnimation();
+    }
+
+    // Returns the index of the latest position that the host should be showing by now,
+    // or -1 if even our oldest position is too recent
+    private int findPredictedHostPosition(long now) {
+        long visibleTime = now - latencyMs;
+        for (int i = 1; i <= historyCount; i++) {
+            int index = (historyIndex - i + HISTORY_SIZE) % HISTORY_SIZE;
+            if (historyTimes[index] <= visibleTime) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (!hasPosition || streamView == null) {
+            return;
+        }
+
+        int hostIndex = findPredictedHostPosition(SystemClock.uptimeMillis());
+        if (hostIndex >= 0) {
+            float distance = (float)Math.hypot(cursorX - historyX[hostIndex], cursorY - historyY[hostIndex]);
+            if (distance < visibleDistancePx) {
+                // The video has caught up, so the host cursor is in the right place
+                return;
+            }
+        }
+
+        float x = streamView.getLeft() + cursorX;
+        float y = streamView.getTop() + cursorY;
+        canvas.drawCircle(x, y, cursorRadiusPx, fillPaint);
+        canvas.drawCircle(x, y, cursorRadiusPx, strokePaint);
+
+        // Keep checking until the video catches up
+        postInvalidateOnAnimation();
+    }
+}
@@ -5,6 +5,8 @@ import android.net.ConnectivityManager;
 import android.net.Network;
 import android.net.NetworkCapabilities;
 import android.net.NetworkInfo;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
 import android.os.Build;
 
 public class NetHelper {
@@ -29,4 +31,33 @@ public class NetHelper {
 
         return false;
     }
+
+    // Identifies the active network for per-network settings. Wi-Fi networks are
+    // told apart by SSID when the OS lets us see it.
+    @SuppressWarnings("deprecation")
+    public static String getActiveNetworkKey(Context context) {
+        ConnectivityManager connMgr = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetworkInfo = connMgr.getActiveNetworkInfo();
+        if (activeNetworkInfo == null) {
+            return "none";
+        }
+
+        switch (activeNetworkInfo.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+                WifiManager wifiMgr = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+                WifiInfo wifiInfo = wifiMgr.getConnectionInfo();
+                if (wifiInfo != null && wifiInfo.getSSID() != null && !wifiInfo.getSSID().equals("<unknown ssid>")) {
+                    return "wifi:" + wifiInfo.getSSID();
+                }
+                return "wifi";
+            case ConnectivityManager.TYPE_ETHERNET:
+                return "ethernet";
+            case ConnectivityManager.TYPE_MOBILE:
+                return "mobile";
+            case ConnectivityManager.TYPE_VPN:
+                return "vpn";
+            default:
+                return "other";
+        }
+    }
 }
@@ -5,6 +5,7 @@
 
 #include <arpa/inet.h>
 #include <string.h>
+#include <stdint.h>
 
 JNIEXPORT void JNICALL
 Java_com_limelight_nvstream_jni_MoonBridge_sendMouseMove(JNIEnv *env, jclass clazz, jshort deltaX, jshort deltaY) {
@@ -68,6 +69,73 @@ Java_com_limelight_nvstream_jni_MoonBridge_sendUtf8Text(JNIEnv *env, jclass claz
     (*env)->ReleaseStringUTFChars(env, text, utf8Text);
 }
 
+// Must match the record layout in InputEventRing.java
+#define INPUT_RECORD_MOUSE_MOVE 1
+#define INPUT_RECORD_MOUSE_POSITION 2
+#define INPUT_RECORD_MOUSE_MOVE_AS_POSITION 3
+#define INPUT_RECORD_MOUSE_BUTTON 4
+#define INPUT_RECORD_MULTI_CONTROLLER 5
+#define INPUT_RECORD_CONTROLLER 6
+#define INPUT_RECORD_KEYBOARD 7
+#define INPUT_RECORD_SCROLL 8
+#define INPUT_RECORD_HIGH_RES_SCROLL 9
+
+typedef struct _INPUT_RECORD {
+    uint8_t type;
+    int8_t b[3];
+    int16_t s[10];
+} INPUT_RECORD;
+
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_sendInputBatch(JNIEnv *env, jclass clazz, jobject buffer, jint count) {
+    INPUT_RECORD* records = (INPUT_RECORD*)(*env)->GetDirectBufferAddress(env, buffer);
+    jlong capacity = (*env)->GetDirectBufferCapacity(env, buffer);
+
+    if (records == NULL || count < 0 || count > capacity / (jlong)sizeof(INPUT_RECORD)) {
+        __android_log_print(ANDROID_LOG_ERROR, "moonlight-common-c", "Invalid input batch: %d records", count);
+        return;
+    }
+
+    for (int i = 0; i < count; i++) {
+        INPUT_RECORD* record = &records[i];
+
+        switch (record->type) {
+        case INPUT_RECORD_MOUSE_MOVE:
+            LiSendMouseMoveEvent(record->s[0], record->s[1]);
+            break;
+        case INPUT_RECORD_MOUSE_POSITION:
+            LiSendMousePositionEvent(record->s[0], record->s[1], record->s[2], record->s[3]);
+            break;
+        case INPUT_RECORD_MOUSE_MOVE_AS_POSITION:
+            LiSendMouseMoveAsMousePositionEvent(record->s[0], record->s[1], record->s[2], record->s[3]);
+            break;
+        case INPUT_RECORD_MOUSE_BUTTON:
+            LiSendMouseButtonEvent(record->b[0], record->b[1]);
+            break;
+        case INPUT_RECORD_MULTI_CONTROLLER:
+            LiSendMultiControllerEvent(record->s[0], record->s[1], record->s[2],
+                record->b[0], record->b[1], record->s[3], record->s[4], record->s[5], record->s[6]);
+            break;
+        case INPUT_RECORD_CONTROLLER:
+            LiSendControllerEvent(record->s[0], record->b[0], record->b[1],
+                record->s[1], record->s[2], record->s[3], record->s[4]);
+            break;
+        case INPUT_RECORD_KEYBOARD:
+            LiSendKeyboardEvent(record->s[0], record->b[0], record->b[1]);
+            break;
+        case INPUT_RECORD_SCROLL:
+            LiSendScrollEvent(record->b[0]);
+            break;
+        case INPUT_RECORD_HIGH_RES_SCROLL:
+            LiSendHighResScrollEvent(record->s[0]);
+            break;
+        default:
+            __android_log_print(ANDROID_LOG_ERROR, "moonlight-common-c", "Unknown input record type: %d", record->type);
+            break;
+        }
+    }
+}
+
 JNIEXPORT void JNICALL
 Java_com_limelight_nvstream_jni_MoonBridge_stopConnection(JNIEnv *env, jclass clazz) {
     LiStopConnection();
@@ -98,91 +98,98 @@ public class EvdevCaptureProvider extends InputCaptureProvider {
             }
             LimeLog.info("EvdevReader connected from port "+evdevSock.getPort());
 
+            EvdevReader reader = new EvdevReader(evdevIn);
             while (!isInterrupted() && !shutdown) {
-                EvdevEvent event;
+                int eventCount;
                 try {
-                    event = EvdevReader.read(evdevIn);
+                    eventCount = reader.readGroup();
                 } catch (IOException e) {
-                    event = null;
-                }
-                if (event == null) {
                     break;
                 }
 
-                switch (event.type) {
-                    case EvdevEvent.EV_SYN:
-                        if (deltaX != 0 || deltaY != 0) {
-                            listener.mouseMove(deltaX, deltaY);
-                            deltaX = deltaY = 0;
-                        }
-                        if (deltaScroll != 0) {
-                            listener.mouseScroll(deltaScroll);
-                            deltaScroll = 0;
-                        }
-                        break;
-
-                    case EvdevEvent.EV_REL:
-                        switch (event.code) {
-                            case EvdevEvent.REL_X:
-                                deltaX = event.value;
-                                break;
-                            case EvdevEvent.REL_Y:
-                                deltaY = event.value;
-                                break;
-                            case EvdevEvent.REL_WHEEL:
-                                deltaScroll = (byte) event.value;
-                                break;
-                        }
-                        break;
-
-                    case EvdevEvent.EV_KEY:
-                        switch (event.code) {
-                            case EvdevEvent.BTN_LEFT:
-                                listener.mouseButtonEvent(EvdevListener.BUTTON_LEFT,
-                                        event.value != 0);
-                                break;
-                            case EvdevEvent.BTN_MIDDLE:
-                                listener.mouseButtonEvent(EvdevListener.BUTTON_MIDDLE,
-                                        event.value != 0);
-                                break;
-                            case EvdevEvent.BTN_RIGHT:
-                                listener.mouseButtonEvent(EvdevListener.BUTTON_RIGHT,
-                                        event.value != 0);
-                                break;
-
-                            case EvdevEvent.BTN_SIDE:
-                                listener.mouseButtonEvent(EvdevListener.BUTTON_X1,
-                                        event.value != 0);
-                                break;
-
-                            case EvdevEvent.BTN_EXTRA:
-                                listener.mouseButtonEvent(EvdevListener.BUTTON_X2,
-                                        event.value != 0);
-                                break;
-
-                            case EvdevEvent.BTN_FORWARD:
-                            case EvdevEvent.BTN_BACK:
-                            case EvdevEvent.BTN_TASK:
-                                // Other unhandled mouse buttons
-                                break;
-
-                            default:
-                                // We got some unrecognized button. This means
-                                // someone is trying to use the other device in this
-                                // "combination" input device. We'll try to handle
-                                // it via keyboard, but we're not going to disconnect
-                                // if we can't
-                                short keyCode = EvdevTranslator.translateEvdevKeyCode(event.code);
-                                if (keyCode != 0) {
-                                    listener.keyboardEvent(event.value != 0, keyCode);
-                                }
-                                break;
-                        }
-                        break;
-
-                    case EvdevEvent.EV_MSC:
-                        break;
+                // Send everything that changed in this group at once
+                listener.beginEventBatch();
+                for (int i = 0; i < eventCount; i++) {
+                    short type = reader.getType(i);
+                    short code = reader.getCode(i);
+                    int value = reader.getValue(i);
+
+                    switch (type) {
+                        case EvdevEvent.EV_SYN:
+                            if (deltaX != 0 || deltaY != 0) {
+                                listener.mouseMove(deltaX, deltaY);
+                                deltaX = deltaY = 0;
+                            }
+                            if (deltaScroll != 0) {
+                                listener.mouseScroll(deltaScroll);
+                                deltaScroll = 0;
+                            }
+                            break;
+
+                        case EvdevEvent.EV_REL:
+                            switch (code) {
+                                case EvdevEvent.REL_X:
+                                    deltaX = value;
+                                    break;
+                                case EvdevEvent.REL_Y:
+                                    deltaY = value;
+                                    break;
+                                case EvdevEvent.REL_WHEEL:
+                                    deltaScroll = (byte) value;
+                                    break;
+                            }
+                            break;
+
+                        case EvdevEvent.EV_KEY:
+                            switch (code) {
+                                case EvdevEvent.BTN_LEFT:
+                                    listener.mouseButtonEvent(EvdevListener.BUTTON_LEFT,
+                                            value != 0);
+                                    break;
+                                case EvdevEvent.BTN_MIDDLE:
+                                    listener.mouseButtonEvent(EvdevListener.BUTTON_MIDDLE,
+                                            value != 0);
+                                    break;
+                                case EvdevEvent.BTN_RIGHT:
+                                    listener.mouseButtonEvent(EvdevListener.BUTTON_RIGHT,
+                                            value != 0);
+                                    break;
+
+                                case EvdevEvent.BTN_SIDE:
+                                    listener.mouseButtonEvent(EvdevListener.BUTTON_X1,
+                                            value != 0);
+                                    break;
+
+                                case EvdevEvent.BTN_EXTRA:
+                                    listener.mouseButtonEvent(EvdevListener.BUTTON_X2,
+                                            value != 0);
+                                    break;
+
+                                case EvdevEvent.BTN_FORWARD:
+                                case EvdevEvent.BTN_BACK:
+                                case EvdevEvent.BTN_TASK:
+                                    // Other unhandled mouse buttons
+                                    break;
+
+                                default:
+                                    // We got some unrecognized button. This means
+                                    // someone is trying to use the other device in this
+                                    // "combination" input device. We'll try to handle
+                                    // it via keyboard, but we're not going to disconnect
+                                    // if we can't
+                                    short keyCode = EvdevTranslator.translateEvdevKeyCode(code);
+                                    if (keyCode != 0) {
+                                        listener.keyboardEvent(value != 0, keyCode);
+                                    }
+                                    break;
+                            }
+                            break;
+
+                        case EvdevEvent.EV_MSC:
+                            break;
+                    }
                 }
+                listener.endEventBatch();
             }
         }
     };
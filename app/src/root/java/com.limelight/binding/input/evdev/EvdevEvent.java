@@ -24,14 +24,4 @@ public class EvdevEvent {
     public static final short BTN_FORWARD = 0x115;
     public static final short BTN_BACK = 0x116;
     public static final short BTN_TASK = 0x117;
-
-    public final short type;
-    public final short code;
-    public final int value;
-
-    public EvdevEvent(short type, short code, int value) {
-        this.type = type;
-        this.code = code;
-        this.value = value;
-    }
 }
@@ -5,54 +5,96 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
-import com.limelight.LimeLog;
-
+// Reads length-prefixed evdev events from evdev_reader's socket. Reads pull in as much
+// as is available at once, and events are decoded in place from a reusable buffer into
+// reusable arrays, so reading doesn't allocate. Events are returned in groups that end
+// with EV_SYN, since evdev only guarantees a consistent device state at those points.
+//
+// This must only be used from a single thread.
 public class EvdevReader {
-    private static void readAll(InputStream in, ByteBuffer bb) throws IOException {
-        byte[] buf = bb.array();
-        int ret;
-        int offset = 0;
+    private static final int BUFFER_SIZE = 4096;
+
+    // Larger groups are returned in pieces
+    public static final int MAX_GROUP_EVENTS = 64;
+
+    private final InputStream input;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer bb = ByteBuffer.wrap(buffer).order(ByteOrder.nativeOrder());
+    private int readOffset;
+    private int dataEnd;
+
+    private final short[] types = new short[MAX_GROUP_EVENTS];
+    private final short[] codes = new short[MAX_GROUP_EVENTS];
+    private final int[] values = new int[MAX_GROUP_EVENTS];
+
+    public EvdevReader(InputStream input) {
+        this.input = input;
+    }
 
-        while (offset < buf.length) {
-            ret = in.read(buf, offset, buf.length-offset);
+    // Makes sure at least length bytes are buffered after readOffset
+    private void fill(int length) throws IOException {
+        if (readOffset == dataEnd) {
+            // Everything has been consumed, so start over at the beginning
+            readOffset = dataEnd = 0;
+        }
+        else if (readOffset + length > buffer.length) {
+            // Move the partial packet to the start to make room
+            System.arraycopy(buffer, readOffset, buffer, 0, dataEnd - readOffset);
+            dataEnd -= readOffset;
+            readOffset = 0;
+        }
+
+        while (dataEnd - readOffset < length) {
+            int ret = input.read(buffer, dataEnd, buffer.length - dataEnd);
             if (ret <= 0) {
                 throw new IOException("Read failed: "+ret);
             }
 
-            offset += ret;
+            dataEnd += ret;
         }
     }
 
-    // Takes a byte buffer to use to read the output into.
-    // This buffer MUST be in native byte order and at least
-    // EVDEV_MAX_EVENT_SIZE bytes long.
-    public static EvdevEvent read(InputStream input) throws IOException {
-        ByteBuffer bb;
-        int packetLength;
-
-        // Read the packet length
-        bb = ByteBuffer.allocate(4).order(ByteOrder.nativeOrder());
-        readAll(input, bb);
-        packetLength = bb.getInt();
-
-        if (packetLength < EvdevEvent.EVDEV_MIN_EVENT_SIZE) {
-            LimeLog.warning("Short read: "+packetLength);
-            return null;
-        }
+    // Reads events up to and including the next EV_SYN, or until MAX_GROUP_EVENTS events
+    // have been read. Returns the number of events, which can be read with getType(),
+    // getCode(), and getValue() until the next call.
+    public int readGroup() throws IOException {
+        int count = 0;
+
+        while (count < MAX_GROUP_EVENTS) {
+            // Read the packet length
+            fill(4);
+            int packetLength = bb.getInt(readOffset);
+            readOffset += 4;
 
-        // Read the rest of the packet
-        bb = ByteBuffer.allocate(packetLength).order(ByteOrder.nativeOrder());
-        readAll(input, bb);
-
-        // Throw away the time stamp
-        if (packetLength == EvdevEvent.EVDEV_MAX_EVENT_SIZE) {
-            bb.getLong();
-            bb.getLong();
-        } else {
-            bb.getInt();
-            bb.getInt();
+            if (packetLength < EvdevEvent.EVDEV_MIN_EVENT_SIZE || packetLength > EvdevEvent.EVDEV_MAX_EVENT_SIZE) {
+                throw new IOException("Invalid event length: "+packetLength);
+            }
+
+            // Decode the rest of the packet where it is, skipping the time stamp
+            fill(packetLength);
+            int offset = readOffset + (packetLength == EvdevEvent.EVDEV_MAX_EVENT_SIZE ? 16 : 8);
+            types[count] = bb.getShort(offset);
+            codes[count] = bb.getShort(offset + 2);
+            values[count] = bb.getInt(offset + 4);
+            readOffset += packetLength;
+
+            if (types[count++] == EvdevEvent.EV_SYN) {
+                break;
+            }
         }
 
-        return new EvdevEvent(bb.getShort(), bb.getShort(), bb.getInt());
+        return count;
+    }
+
+    public short getType(int index) {
+        return types[index];
+    }
+
+    public short getCode(int index) {
+        return codes[index];
+    }
+
+    public int getValue(int index) {
+        return values[index];
     }
 }
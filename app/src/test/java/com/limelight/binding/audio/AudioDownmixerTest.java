@@ -0,0 +1,135 @@
+package com.limelight.binding.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AudioDownmixerTest {
+    private static final double MINUS_3DB = 0.7071;
+
+    // Fixed point truncation can be off by a couple of LSBs from the exact result
+    private static final int TOLERANCE = 2;
+
+    private static short[] downmixFrame(int channelCount, short... frame) {
+        short[] samples = frame.clone();
+        assertEquals(2, new AudioDownmixer(channelCount).downmix(samples, samples.length));
+        return samples;
+    }
+
+    private static void assertChannelGain(int channelCount, int channel, double expectedLeft, double expectedRight) {
+        short[] frame = new short[channelCount];
+        frame[channel] = 10000;
+        short[] out = downmixFrame(channelCount, frame);
+        assertEquals("left from channel "+channel, 10000 * expectedLeft, out[0], TOLERANCE);
+        assertEquals("right from channel "+channel, 10000 * expectedRight, out[1], TOLERANCE);
+    }
+
+    @Test
+    public void surround51Coefficients() {
+        double sum = 1 + MINUS_3DB + MINUS_3DB;
+        assertChannelGain(6, 0, 1 / sum, 0);
+        assertChannelGain(6, 1, 0, 1 / sum);
+        assertChannelGain(6, 2, MINUS_3DB / sum, MINUS_3DB / sum);
+        assertChannelGain(6, 3, 0, 0);
+        assertChannelGain(6, 4, MINUS_3DB / sum, 0);
+        assertChannelGain(6, 5, 0, MINUS_3DB / sum);
+    }
+
+    @Test
+    public void surround71Coefficients() {
+        double sum = 1 + MINUS_3DB + MINUS_3DB + MINUS_3DB;
+        assertChannelGain(8, 0, 1 / sum, 0);
+        assertChannelGain(8, 1, 0, 1 / sum);
+        assertChannelGain(8, 2, MINUS_3DB / sum, MINUS_3DB / sum);
+        assertChannelGain(8, 3, 0, 0);
+        assertChannelGain(8, 4, MINUS_3DB / sum, 0);
+        assertChannelGain(8, 5, 0, MINUS_3DB / sum);
+        assertChannelGain(8, 6, MINUS_3DB / sum, 0);
+        assertChannelGain(8, 7, 0, MINUS_3DB / sum);
+    }
+
+    private static void assertNoClipping(int channelCount) {
+        short[] max = new short[channelCount];
+        short[] min = new short[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            max[i] = Short.MAX_VALUE;
+            min[i] = Short.MIN_VALUE;
+        }
+
+        // Full scale on every channel must stay full scale rather than wrapping around
+        short[] out = downmixFrame(channelCount, max);
+        assertTrue(out[0] > Short.MAX_VALUE - 8);
+        assertTrue(out[1] > Short.MAX_VALUE - 8);
+        out = downmixFrame(channelCount, min);
+        assertTrue(out[0] < Short.MIN_VALUE + 8);
+        assertTrue(out[1] < Short.MIN_VALUE + 8);
+    }
+
+    @Test
+    public void surround51FullScaleDoesNotClip() {
+        assertNoClipping(6);
+    }
+
+    @Test
+    public void surround71FullScaleDoesNotClip() {
+        assertNoClipping(8);
+    }
+
+    @Test
+    public void downmixesEveryFrameInPlace() {
+        int frames = 240;
+        short[] samples = new short[frames * 8];
+        for (int frame = 0; frame < frames; frame++) {
+            samples[frame * 8] = (short)(frame * 10);
+            samples[frame * 8 + 1] = (short)(-frame * 10);
+        }
+
+        double gain = 1 / (1 + 3 * MINUS_3DB);
+        assertEquals(frames * 2, new AudioDownmixer(8).downmix(samples, samples.length));
+        for (int frame = 0; frame < frames; frame++) {
+            assertEquals(frame * 10 * gain, samples[frame * 2], TOLERANCE);
+            assertEquals(-frame * 10 * gain, samples[frame * 2 + 1], TOLERANCE);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedChannelCount() {
+        new AudioDownmixer(3);
+    }
+
+    // Measures the cost of downmixing one audio frame to confirm it's a tiny
+    // fraction of the frame's duration
+    private static void runBenchmark(int channelCount, int samplesPerFrame, int sampleRate, int iterations) {
+        AudioDownmixer downmixer = new AudioDownmixer(channelCount);
+        short[] source = new short[samplesPerFrame * channelCount];
+        short[] samples = new short[source.length];
+        for (int i = 0; i < source.length; i++) {
+            source[i] = (short)((i * 7919) & 0xFFFF);
+        }
+
+        // Warm up the JIT before timing
+        for (int i = 0; i < iterations / 10; i++) {
+            System.arraycopy(source, 0, samples, 0, source.length);
+            downmixer.downmix(samples, samples.length);
+        }
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            System.arraycopy(source, 0, samples, 0, source.length);
+            downmixer.downmix(samples, samples.length);
+        }
+        long nsPerFrame = (System.nanoTime() - startTime) / iterations;
+
+        long frameDurationNs = (long)samplesPerFrame * 1000000000L / sampleRate;
+        System.out.println("Downmix benchmark: "+channelCount+" channels, "+samplesPerFrame+" samples: "+
+                nsPerFrame+" ns per frame ("+String.format("%.3f", nsPerFrame * 100.0 / frameDurationNs)+"% of the frame duration)");
+        assertTrue(nsPerFrame < frameDurationNs);
+    }
+
+    @Test
+    public void downmixBenchmark() {
+        runBenchmark(6, 240, 48000, 100000);
+        runBenchmark(8, 240, 48000, 100000);
+    }
+}
@@ -0,0 +1,148 @@
+package com.limelight.binding.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AudioJitterBufferTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNELS = 2;
+    private static final int SAMPLES_PER_FRAME = 240;
+    private static final long FRAME_US = 5000;
+
+    // Plays a synthetic arrival trace against a reader that pulls one frame's worth of
+    // samples at a fixed period, like the AudioTrack writer does, all in simulated time
+    private static class Simulation {
+        final AudioJitterBuffer buffer = new AudioJitterBuffer(SAMPLE_RATE, CHANNELS, SAMPLES_PER_FRAME);
+        final short[] frame = new short[SAMPLES_PER_FRAME * CHANNELS];
+        final short[] out = new short[SAMPLES_PER_FRAME * CHANNELS];
+        final long readPeriodUs;
+        long nextReadUs;
+        long shortReads;
+
+        Simulation(long readPeriodUs) {
+            this.readPeriodUs = readPeriodUs;
+            for (int i = 0; i < frame.length; i++) {
+                frame[i] = (short)(i * 100);
+            }
+        }
+
+        void readUntil(long timeUs) throws InterruptedException {
+            while (nextReadUs <= timeUs) {
+                if (buffer.read(out, out.length, 0) < out.length) {
+                    shortReads++;
+                }
+                nextReadUs += readPeriodUs;
+            }
+        }
+
+        void writeAt(long timeUs) throws InterruptedException {
+            readUntil(timeUs);
+            buffer.write(frame, frame.length, timeUs);
+        }
+    }
+
+    @Test
+    public void steadyArrivalsSettleAtMinimumTarget() throws InterruptedException {
+        Simulation sim = new Simulation(FRAME_US);
+        for (int i = 0; i < 2000; i++) {
+            sim.writeAt(i * FRAME_US + 1000);
+        }
+
+        assertEquals(AudioJitterBuffer.MIN_TARGET_DEPTH_US, sim.buffer.getTargetDepthUs());
+        assertEquals(0, sim.buffer.getUnderflows());
+        assertEquals(0, sim.buffer.getOverflows());
+        assertTrue(Math.abs(sim.buffer.getDepthUs() - sim.buffer.getTargetDepthUs()) <= 2 * FRAME_US);
+    }
+
+    @Test
+    public void burstsRaiseTheTarget() throws InterruptedException {
+        Simulation sim = new Simulation(FRAME_US);
+        long underflowsAfterWarmup = 0;
+
+        // Four frames at a time every 20 ms, like a sender that batches its packets
+        for (int i = 0; i < 4000; i++) {
+            if (i == 400) {
+                underflowsAfterWarmup = sim.buffer.getUnderflows();
+            }
+            sim.writeAt((i / 4) * 4 * FRAME_US + (i % 4) * 100 + 1000);
+        }
+
+        assertTrue(sim.buffer.getTargetDepthUs() >= 3 * FRAME_US);
+        assertEquals(underflowsAfterWarmup, sim.buffer.getUnderflows());
+        assertEquals(0, sim.buffer.getOverflows());
+    }
+
+    @Test
+    public void gapIsCountedAsOneUnderflow() throws InterruptedException {
+        Simulation sim = new Simulation(FRAME_US);
+        for (int i = 0; i < 400; i++) {
+            sim.writeAt(i * FRAME_US + 1000);
+        }
+        assertEquals(0, sim.buffer.getUnderflows());
+
+        // 100 ms with nothing arriving, then frames resume on schedule. The reader
+        // finds the buffer empty many times but it's a single outage.
+        for (int i = 420; i < 1200; i++) {
+            sim.writeAt(i * FRAME_US + 1000);
+        }
+        assertTrue(sim.shortReads > 10);
+        assertEquals(1, sim.buffer.getUnderflows());
+
+        // The gap counts as jitter, so the target grows to ride out the next one
+        assertTrue(sim.buffer.getTargetDepthUs() > AudioJitterBuffer.MIN_TARGET_DEPTH_US);
+    }
+
+    @Test
+    public void emptyReadsBeforeFirstFrameAreNotUnderflows() throws InterruptedException {
+        Simulation sim = new Simulation(FRAME_US);
+        sim.readUntil(20 * FRAME_US);
+        assertEquals(0, sim.buffer.getUnderflows());
+    }
+
+    private static Simulation runDrift(long readPeriodUs) throws InterruptedException {
+        Simulation sim = new Simulation(readPeriodUs);
+        long underflowsAfterWarmup = 0;
+
+        // 20 seconds, over which 0.5% drift adds up to 100 ms
+        for (int i = 0; i < 4000; i++) {
+            if (i == 400) {
+                underflowsAfterWarmup = sim.buffer.getUnderflows();
+            }
+            sim.writeAt(i * FRAME_US + 1000);
+        }
+
+        assertEquals(underflowsAfterWarmup, sim.buffer.getUnderflows());
+        assertEquals(0, sim.buffer.getOverflows());
+        assertTrue(Math.abs(sim.buffer.getDepthUs() - sim.buffer.getTargetDepthUs()) <= 2 * FRAME_US);
+        return sim;
+    }
+
+    @Test
+    public void slowReaderDriftIsCorrectedByDropping() throws InterruptedException {
+        Simulation sim = runDrift(FRAME_US + FRAME_US / 200);
+        assertTrue(sim.buffer.getSamplesDropped() > 0);
+    }
+
+    @Test
+    public void fastReaderDriftIsCorrectedByDuplicating() throws InterruptedException {
+        Simulation sim = runDrift(FRAME_US - FRAME_US / 200);
+        assertTrue(sim.buffer.getSamplesDuplicated() > 0);
+    }
+
+    @Test
+    public void stalledReaderOverflowsOnce() throws InterruptedException {
+        AudioJitterBuffer buffer = new AudioJitterBuffer(SAMPLE_RATE, CHANNELS, SAMPLES_PER_FRAME);
+        short[] frame = new short[SAMPLES_PER_FRAME * CHANNELS];
+
+        // Nothing reads for longer than the maximum depth
+        int frames = (int)(AudioJitterBuffer.MAX_DEPTH_US / FRAME_US) + 10;
+        for (int i = 0; i < frames; i++) {
+            buffer.write(frame, frame.length, i * FRAME_US);
+        }
+
+        assertEquals(1, buffer.getOverflows());
+        assertTrue(buffer.getDepthUs() < AudioJitterBuffer.MAX_DEPTH_US);
+    }
+}
@@ -0,0 +1,147 @@
+package com.limelight.binding.input;
+
+import android.view.KeyEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KeyboardTranslatorTest {
+    // KeyEvent.getMaxKeyCode() is stubbed out on the JVM, so build a table that
+    // comfortably covers every keycode the mapping knows about
+    private static final int MAX_KEYCODE = 400;
+
+    private static final short KEY_PREFIX = (short) 0x80;
+
+    private short[] table;
+
+    @Before
+    public void setUp() {
+        table = KeyboardTranslator.buildKeyTable(MAX_KEYCODE);
+    }
+
+    private static short expectedTranslation(int vk) {
+        return vk != 0 ? (short) ((KEY_PREFIX << 8) | vk) : 0;
+    }
+
+    @Test
+    public void tableMatchesMappingForEveryKeycode() {
+        KeyboardTranslator translator = new KeyboardTranslator(table);
+
+        for (int keycode = 0; keycode <= MAX_KEYCODE; keycode++) {
+            int vk = KeyboardTranslator.lookupVirtualKey(keycode);
+            assertEquals("keycode "+keycode, expectedTranslation(vk), translator.translate(keycode, -1));
+
+            boolean tableNeedsShift = (table[keycode] & KeyboardTranslator.FLAG_NEEDS_SHIFT) != 0;
+            assertEquals("shift for keycode "+keycode,
+                    vk != 0 && KeyboardTranslator.lookupNeedsShift(keycode), tableNeedsShift);
+        }
+
+        // Out of range keycodes translate to nothing rather than throwing
+        assertEquals(0, translator.translate(-1, -1));
+        assertEquals(0, translator.translate(MAX_KEYCODE + 1, -1));
+    }
+
+    @Test
+    public void commonKeysTranslate() {
+        KeyboardTranslator translator = new KeyboardTranslator(table);
+
+        assertEquals(expectedTranslation(KeyboardTranslator.VK_A), translator.translate(KeyEvent.KEYCODE_A, -1));
+        assertEquals(expectedTranslation(KeyboardTranslator.VK_9), translator.translate(KeyEvent.KEYCODE_9, -1));
+        assertEquals(expectedTranslation(KeyboardTranslator.VK_SPACE), translator.translate(KeyEvent.KEYCODE_SPACE, -1));
+        assertEquals(expectedTranslation(KeyboardTranslator.VK_F1), translator.translate(KeyEvent.KEYCODE_F1, -1));
+        assertTrue((table[KeyEvent.KEYCODE_AT] & KeyboardTranslator.FLAG_NEEDS_SHIFT) != 0);
+    }
+
+    private static byte[] makeLayout(int[][] entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(entries.length);
+        for (int[] entry : entries) {
+            out.writeShort(entry[0]);
+            out.writeShort(entry[1]);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void loadedLayoutReplacesEntries() throws IOException {
+        // Swap A and Q like an AZERTY layout, unmap the space bar, and include
+        // an entry past the end of the table that must be ignored
+        byte[] layout = makeLayout(new int[][] {
+                {KeyEvent.KEYCODE_A, 'Q'},
+                {KeyEvent.KEYCODE_Q, KeyboardTranslator.VK_A},
+                {KeyEvent.KEYCODE_SPACE, 0},
+                {MAX_KEYCODE + 10, KeyboardTranslator.VK_Z},
+        });
+
+        short[] loaded = KeyboardTranslator.loadKeyTable(new ByteArrayInputStream(layout), table);
+        KeyboardTranslator translator = new KeyboardTranslator(loaded);
+
+        assertEquals(table.length, loaded.length);
+        assertEquals(expectedTranslation('Q'), translator.translate(KeyEvent.KEYCODE_A, -1));
+        assertEquals(expectedTranslation(KeyboardTranslator.VK_A), translator.translate(KeyEvent.KEYCODE_Q, -1));
+        assertEquals(0, translator.translate(KeyEvent.KEYCODE_SPACE, -1));
+        assertEquals(expectedTranslation(KeyboardTranslator.VK_Z), translator.translate(KeyEvent.KEYCODE_Z, -1));
+
+        // The base table is left alone
+        assertEquals(expectedTranslation(KeyboardTranslator.VK_A),
+                new KeyboardTranslator(table).translate(KeyEvent.KEYCODE_A, -1));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedLayoutThrows() throws IOException {
+        byte[] layout = makeLayout(new int[][] {{KeyEvent.KEYCODE_A, 'Q'}, {KeyEvent.KEYCODE_Q, 'A'}});
+        KeyboardTranslator.loadKeyTable(new ByteArrayInputStream(layout, 0, layout.length - 2), table);
+    }
+
+    // Measures the per-key cost of a table lookup against evaluating the mapping directly
+    @Test
+    public void perKeyLookupBenchmark() {
+        KeyboardTranslator translator = new KeyboardTranslator(table);
+        final int iterations = 1 << 22;
+
+        // Cycle through mapped keycodes in a scattered order so the lookups aren't
+        // predictable. Unmapped keys are skipped since translate() logs them.
+        int mappedCount = 0;
+        int[] mapped = new int[MAX_KEYCODE + 1];
+        for (int keycode = 0; keycode <= MAX_KEYCODE; keycode++) {
+            if (table[keycode] != 0) {
+                mapped[mappedCount++] = keycode;
+            }
+        }
+        int[] keycodes = new int[4096];
+        for (int i = 0; i < keycodes.length; i++) {
+            keycodes[i] = mapped[(i * 37) % mappedCount];
+        }
+
+        long tableNs = 0, switchNs = 0;
+        int sink = 0;
+
+        // The first round warms up the JIT and isn't counted
+        for (int round = 0; round < 2; round++) {
+            long startTime = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += translator.translate(keycodes[i & (keycodes.length - 1)], -1);
+            }
+            tableNs = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += expectedTranslation(KeyboardTranslator.lookupVirtualKey(keycodes[i & (keycodes.length - 1)]));
+            }
+            switchNs = System.nanoTime() - startTime;
+        }
+
+        System.out.println("Key table benchmark: "+mappedCount+" mapped keycodes, "+
+                (tableNs * 1000 / iterations)+" ps per key with table, "+
+                (switchNs * 1000 / iterations)+" ps per key with switch ("+sink+")");
+    }
+}
@@ -0,0 +1,105 @@
+package com.limelight.binding.input;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RelativeMotionPipelineTest {
+    // Replays slow diagonal motion from a 1000 Hz mouse, mostly under a pixel per
+    // sample, delivered in batches at eventRateHz like Android does. Returns
+    // {reportedX, reportedY, sentX, sentY, truncatedX, truncatedY}.
+    private static double[] replay(int eventRateHz, int durationMs) {
+        final int sampleRateHz = 1000;
+        RelativeMotionPipeline pipeline = new RelativeMotionPipeline();
+        int samplesPerEvent = Math.max(1, sampleRateHz / eventRateHz);
+        int totalSamples = sampleRateHz * durationMs / 1000;
+
+        double reportedX = 0, reportedY = 0;
+        long sentX = 0, sentY = 0;
+        long truncatedX = 0, truncatedY = 0;
+
+        float eventX = 0, eventY = 0;
+        for (int i = 0; i < totalSamples; i++) {
+            float deltaX = 0.35f + 0.3f * (float)Math.sin(i / 50.0);
+            float deltaY = -0.2f + 0.15f * (float)Math.cos(i / 70.0);
+            long timeMs = (long)i * 1000 / sampleRateHz;
+
+            pipeline.addSample(deltaX, deltaY, timeMs);
+            reportedX += deltaX;
+            reportedY += deltaY;
+            eventX += deltaX;
+            eventY += deltaY;
+
+            if ((i + 1) % samplesPerEvent == 0 || i == totalSamples - 1) {
+                pipeline.endEvent();
+                sentX += pipeline.takeDeltaX();
+                sentY += pipeline.takeDeltaY();
+
+                // What casting the summed event delta to a short used to send
+                truncatedX += (short)eventX;
+                truncatedY += (short)eventY;
+                eventX = eventY = 0;
+            }
+        }
+
+        return new double[] {reportedX, reportedY, sentX, sentY, truncatedX, truncatedY};
+    }
+
+    @Test
+    public void noDistanceLostAt1000Hz() {
+        // One sample per event, batched at a 120 Hz display rate, and batched at 60 Hz
+        for (int eventRateHz : new int[] {1000, 120, 60}) {
+            double[] result = replay(eventRateHz, 10000);
+
+            // Only the fraction still pending after the last event may be missing
+            assertEquals("x at "+eventRateHz+" Hz", result[0], result[2], 1.0);
+            assertEquals("y at "+eventRateHz+" Hz", result[1], result[3], 1.0);
+        }
+    }
+
+    @Test
+    public void truncatingEachEventWouldLoseDistance() {
+        // Sanity check that the trace actually exercises sub-pixel motion
+        double[] result = replay(1000, 10000);
+        assertTrue(Math.abs(result[0] - result[4]) > 100);
+        assertTrue(Math.abs(result[1] - result[5]) > 100);
+    }
+
+    @Test
+    public void fractionsCarryAcrossEvents() {
+        RelativeMotionPipeline pipeline = new RelativeMotionPipeline();
+
+        pipeline.addSample(0.6f, -0.6f, 0);
+        pipeline.endEvent();
+        assertEquals(0, pipeline.takeDeltaX());
+        assertEquals(0, pipeline.takeDeltaY());
+
+        pipeline.addSample(0.6f, -0.6f, 1);
+        pipeline.endEvent();
+        assertEquals(1, pipeline.takeDeltaX());
+        assertEquals(-1, pipeline.takeDeltaY());
+    }
+
+    @Test
+    public void deltasBeyondShortRangeCarryOver() {
+        RelativeMotionPipeline pipeline = new RelativeMotionPipeline();
+
+        pipeline.addSample(40000, -40000, 0);
+        assertEquals(Short.MAX_VALUE, pipeline.takeDeltaX());
+        assertEquals(Short.MIN_VALUE, pipeline.takeDeltaY());
+        assertEquals(40000 - Short.MAX_VALUE, pipeline.takeDeltaX());
+        assertEquals(-40000 - Short.MIN_VALUE, pipeline.takeDeltaY());
+    }
+
+    @Test
+    public void resetDropsPendingFraction() {
+        RelativeMotionPipeline pipeline = new RelativeMotionPipeline();
+
+        pipeline.addSample(0.9f, 0.9f, 0);
+        pipeline.reset();
+        pipeline.addSample(0.9f, 0.9f, 1);
+        assertEquals(0, pipeline.takeDeltaX());
+        assertEquals(0, pipeline.takeDeltaY());
+    }
+}
@@ -0,0 +1,274 @@
+package com.limelight.binding.input.driver;
+
+import com.limelight.nvstream.input.ControllerPacket;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HidReportDecoderTest {
+    private static final float EPSILON = 0.01f;
+
+    // Report descriptor of a USB DualShock 4 (054c:05c4), trimmed to the input report,
+    // the output report, and a few of its feature reports
+    private static final byte[] DS4_DESCRIPTOR = toBytes(
+            0x05, 0x01, 0x09, 0x05, 0xA1, 0x01, 0x85, 0x01, 0x09, 0x30, 0x09, 0x31, 0x09, 0x32,
+            0x09, 0x35, 0x15, 0x00, 0x26, 0xFF, 0x00, 0x75, 0x08, 0x95, 0x04, 0x81, 0x02, 0x09,
+            0x39, 0x15, 0x00, 0x25, 0x07, 0x35, 0x00, 0x46, 0x3B, 0x01, 0x65, 0x14, 0x75, 0x04,
+            0x95, 0x01, 0x81, 0x42, 0x65, 0x00, 0x05, 0x09, 0x19, 0x01, 0x29, 0x0E, 0x15, 0x00,
+            0x25, 0x01, 0x75, 0x01, 0x95, 0x0E, 0x81, 0x02, 0x06, 0x00, 0xFF, 0x09, 0x20, 0x75,
+            0x06, 0x95, 0x01, 0x15, 0x00, 0x25, 0x7F, 0x81, 0x02, 0x05, 0x01, 0x09, 0x33, 0x09,
+            0x34, 0x15, 0x00, 0x26, 0xFF, 0x00, 0x75, 0x08, 0x95, 0x02, 0x81, 0x02, 0x06, 0x00,
+            0xFF, 0x09, 0x21, 0x95, 0x36, 0x81, 0x02, 0x85, 0x05, 0x09, 0x22, 0x95, 0x1F, 0x91,
+            0x02, 0x85, 0x04, 0x09, 0x23, 0x95, 0x24, 0xB1, 0x02, 0x85, 0x02, 0x09, 0x24, 0x95,
+            0x24, 0xB1, 0x02, 0x85, 0x08, 0x09, 0x25, 0x95, 0x03, 0xB1, 0x02, 0x85, 0x10, 0x09,
+            0x26, 0x95, 0x04, 0xB1, 0x02, 0x85, 0x11, 0x09, 0x27, 0x95, 0x02, 0xB1, 0x02, 0xC0);
+
+    // Report descriptor of a generic DirectInput pad (DragonRise 0079:0006), which has no
+    // report IDs, repeats the Z usage, and nests logical collections
+    private static final byte[] DINPUT_DESCRIPTOR = toBytes(
+            0x05, 0x01, 0x09, 0x04, 0xA1, 0x01, 0xA1, 0x02, 0x75, 0x08, 0x95, 0x05, 0x15, 0x00,
+            0x26, 0xFF, 0x00, 0x35, 0x00, 0x46, 0xFF, 0x00, 0x09, 0x30, 0x09, 0x31, 0x09, 0x32,
+            0x09, 0x32, 0x09, 0x35, 0x81, 0x02, 0x75, 0x04, 0x95, 0x01, 0x25, 0x07, 0x46, 0x3B,
+            0x01, 0x65, 0x14, 0x09, 0x39, 0x81, 0x42, 0x65, 0x00, 0x75, 0x01, 0x95, 0x0C, 0x25,
+            0x01, 0x45, 0x01, 0x05, 0x09, 0x19, 0x01, 0x29, 0x0C, 0x81, 0x02, 0x06, 0x00, 0xFF,
+            0x75, 0x01, 0x95, 0x08, 0x25, 0x01, 0x45, 0x01, 0x09, 0x01, 0x81, 0x02, 0xC0, 0xA1,
+            0x02, 0x75, 0x08, 0x95, 0x07, 0x46, 0xFF, 0x00, 0x26, 0xFF, 0x00, 0x09, 0x02, 0x91,
+            0x02, 0xC0, 0xC0);
+
+    // Boot protocol mouse, which isn't a gamepad
+    private static final byte[] MOUSE_DESCRIPTOR = toBytes(
+            0x05, 0x01, 0x09, 0x02, 0xA1, 0x01, 0x09, 0x01, 0xA1, 0x00, 0x05, 0x09, 0x19, 0x01,
+            0x29, 0x03, 0x15, 0x00, 0x25, 0x01, 0x95, 0x03, 0x75, 0x01, 0x81, 0x02, 0x95, 0x01,
+            0x75, 0x05, 0x81, 0x01, 0x05, 0x01, 0x09, 0x30, 0x09, 0x31, 0x15, 0x81, 0x25, 0x7F,
+            0x75, 0x08, 0x95, 0x02, 0x81, 0x06, 0xC0, 0xC0);
+
+    private static byte[] toBytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte)values[i];
+        }
+        return bytes;
+    }
+
+    // Builds a DS4 input report with the sticks centered and nothing pressed
+    private static byte[] ds4Report() {
+        byte[] report = new byte[64];
+        report[0] = 0x01;
+        report[1] = report[2] = report[3] = report[4] = (byte)0x80;
+        report[5] = 0x08;
+        return report;
+    }
+
+    @Test
+    public void ds4Layout() {
+        HidReportDecoder decoder = HidReportDescriptorParser.parse(DS4_DESCRIPTOR);
+        assertNotNull(decoder);
+        assertEquals(64, decoder.getMaxReportSize());
+
+        byte[] report = ds4Report();
+        report[1] = 0x00;
+        report[2] = (byte)0xFF;
+        report[3] = 0x40;
+        report[8] = (byte)0xFF;
+        report[9] = 0x00;
+        assertTrue(decoder.decode(ByteBuffer.wrap(report)));
+        assertEquals(-1.0f, decoder.getAxis(HidReportDecoder.AXIS_LEFT_STICK_X), EPSILON);
+        assertEquals(1.0f, decoder.getAxis(HidReportDecoder.AXIS_LEFT_STICK_Y), EPSILON);
+        assertEquals(-0.5f, decoder.getAxis(HidReportDecoder.AXIS_RIGHT_STICK_X), EPSILON);
+        assertEquals(0.0f, decoder.getAxis(HidReportDecoder.AXIS_RIGHT_STICK_Y), EPSILON);
+        assertEquals(1.0f, decoder.getAxis(HidReportDecoder.AXIS_LEFT_TRIGGER), EPSILON);
+        assertEquals(0.0f, decoder.getAxis(HidReportDecoder.AXIS_RIGHT_TRIGGER), EPSILON);
+
+        // The hat's null state leaves the d-pad released
+        assertEquals(0, decoder.getButtonFlags());
+    }
+
+    @Test
+    public void ds4ButtonsAndHat() {
+        HidReportDecoder decoder = HidReportDescriptorParser.parse(DS4_DESCRIPTOR);
+        assertNotNull(decoder);
+
+        // Hat at south-west, buttons 1 and 7, and button 13 in the byte after them
+        byte[] report = ds4Report();
+        report[5] = 0x15;
+        report[6] = 0x04;
+        report[7] = 0x01;
+        assertTrue(decoder.decode(ByteBuffer.wrap(report)));
+        assertEquals((short)(ControllerPacket.DOWN_FLAG | ControllerPacket.LEFT_FLAG |
+                ControllerPacket.A_FLAG | ControllerPacket.LB_FLAG | ControllerPacket.SPECIAL_BUTTON_FLAG),
+                decoder.getButtonFlags());
+
+        // Releasing everything clears the same flags again
+        assertTrue(decoder.decode(ByteBuffer.wrap(ds4Report())));
+        assertEquals(0, decoder.getButtonFlags());
+    }
+
+    @Test
+    public void ds4OtherReportsAreIgnored() {
+        HidReportDecoder decoder = HidReportDescriptorParser.parse(DS4_DESCRIPTOR);
+        assertNotNull(decoder);
+
+        byte[] report = ds4Report();
+        report[0] = 0x11;
+        assertFalse(decoder.decode(ByteBuffer.wrap(report)));
+        assertFalse(decoder.decode(ByteBuffer.wrap(new byte[0])));
+    }
+
+    @Test
+    public void shortReportKeepsMissingFields() {
+        HidReportDecoder decoder = HidReportDescriptorParser.parse(DS4_DESCRIPTOR);
+        assertNotNull(decoder);
+
+        byte[] report = ds4Report();
+        report[8] = (byte)0xFF;
+        assertTrue(decoder.decode(ByteBuffer.wrap(report)));
+
+        // A report cut off before the triggers only updates the sticks
+        report[1] = 0x00;
+        report[8] = 0x00;
+        assertTrue(decoder.decode(ByteBuffer.wrap(report, 0, 5)));
+        assertEquals(-1.0f, decoder.getAxis(HidReportDecoder.AXIS_LEFT_STICK_X), EPSILON);
+        assertEquals(1.0f, decoder.getAxis(HidReportDecoder.AXIS_LEFT_TRIGGER), EPSILON);
+    }
+
+    @Test
+    public void dinputLayout() {
+        HidReportDecoder decoder = HidReportDescriptorParser.parse(DINPUT_DESCRIPTOR);
+        assertNotNull(decoder);
+        assertEquals(8, decoder.getMaxReportSize());
+
+        // The second Z field is a duplicate and is ignored
+        byte[] report = {(byte)0xFF, 0x00, 0x00, (byte)0xFF, (byte)0xFF, 0x02 | 0x20, 0x10, 0x00};
+        assertTrue(decoder.decode(ByteBuffer.wrap(report)));
+        assertEquals(1.0f, decoder.getAxis(HidReportDecoder.AXIS_LEFT_STICK_X), EPSILON);
+        assertEquals(-1.0f, decoder.getAxis(HidReportDecoder.AXIS_LEFT_STICK_Y), EPSILON);
+        assertEquals(-1.0f, decoder.getAxis(HidReportDecoder.AXIS_RIGHT_STICK_X), EPSILON);
+        assertEquals(1.0f, decoder.getAxis(HidReportDecoder.AXIS_RIGHT_STICK_Y), EPSILON);
+
+        // Hat east, button 2, and button 9, which has no equivalent
+        assertEquals((short)(ControllerPacket.RIGHT_FLAG | ControllerPacket.B_FLAG), decoder.getButtonFlags());
+
+        // A hat value past the logical maximum means it's centered
+        report[5] = 0x0F;
+        report[6] = 0x00;
+        assertTrue(decoder.decode(ByteBuffer.wrap(report)));
+        assertEquals(0, decoder.getButtonFlags());
+    }
+
+    @Test
+    public void nonGamepadIsRejected() {
+        assertNull(HidReportDescriptorParser.parse(MOUSE_DESCRIPTOR));
+        assertNull(HidReportDescriptorParser.parse(new byte[0]));
+    }
+
+    @Test
+    public void malformedDescriptorsAreRejected() {
+        // Truncated in the middle of an item
+        byte[] truncated = new byte[22];
+        System.arraycopy(DS4_DESCRIPTOR, 0, truncated, 0, truncated.length);
+        assertNull(HidReportDescriptorParser.parse(truncated));
+
+        // Report ID 0 is reserved
+        byte[] badReportId = DS4_DESCRIPTOR.clone();
+        badReportId[7] = 0x00;
+        assertNull(HidReportDescriptorParser.parse(badReportId));
+
+        // Pop without a push
+        assertNull(HidReportDescriptorParser.parse(toBytes(0x05, 0x01, 0x09, 0x05, 0xA1, 0x01, 0xB4, 0xC0)));
+    }
+
+    // Parses randomly corrupted copies of each descriptor, plus random bytes, and decodes random
+    // reports with whatever parses successfully. Any exception here is a bug, since both come
+    // from the device.
+    @Test
+    public void fuzzParseNeverThrows() {
+        Random random = new Random(1);
+        int parsed = 0;
+        int iterations = 20000;
+
+        for (int i = 0; i < iterations; i++) {
+            byte[] mutated;
+            switch (i % 3) {
+                case 0:
+                    mutated = DS4_DESCRIPTOR.clone();
+                    break;
+                case 1:
+                    mutated = DINPUT_DESCRIPTOR.clone();
+                    break;
+                default:
+                    mutated = new byte[random.nextInt(128)];
+                    random.nextBytes(mutated);
+                    break;
+            }
+
+            int mutations = 1 + random.nextInt(4);
+            for (int j = 0; j < mutations && mutated.length > 0; j++) {
+                mutated[random.nextInt(mutated.length)] = (byte)random.nextInt(256);
+            }
+
+            HidReportDecoder decoder = HidReportDescriptorParser.parse(mutated);
+            if (decoder == null) {
+                continue;
+            }
+            parsed++;
+
+            byte[] report = new byte[random.nextInt(decoder.getMaxReportSize() + 2)];
+            for (int j = 0; j < 16; j++) {
+                random.nextBytes(report);
+                decoder.decode(ByteBuffer.wrap(report));
+                for (int axis = 0; axis < HidReportDecoder.AXIS_COUNT; axis++) {
+                    float value = decoder.getAxis(axis);
+                    assertTrue("Axis "+axis+" out of range: "+value, value >= -1.0f && value <= 1.0f);
+                }
+            }
+        }
+
+        // The mutations usually leave a descriptor we can still use
+        assertTrue(parsed > 0);
+        System.out.println("HID decoder fuzz: "+parsed+" of "+iterations+" mutated descriptors parsed");
+    }
+
+    // Measures decoding DS4 reports with moving sticks
+    @Test
+    public void decodeBenchmark() {
+        HidReportDecoder decoder = HidReportDescriptorParser.parse(DS4_DESCRIPTOR);
+        assertNotNull(decoder);
+
+        ByteBuffer[] buffers = new ByteBuffer[16];
+        for (int i = 0; i < buffers.length; i++) {
+            byte[] report = ds4Report();
+            report[1] = (byte)(i * 16);
+            report[2] = (byte)(255 - i * 16);
+            report[5] = (byte)(i % 9);
+            buffers[i] = ByteBuffer.wrap(report);
+        }
+
+        int iterations = 2000000;
+
+        // Warm up the JIT before timing
+        for (int i = 0; i < iterations / 10; i++) {
+            decoder.decode(buffers[i % buffers.length]);
+        }
+
+        long decoded = 0;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (decoder.decode(buffers[i % buffers.length])) {
+                decoded++;
+            }
+        }
+        long elapsedNs = System.nanoTime() - startTime;
+
+        assertEquals(iterations, decoded);
+        System.out.println("HID decoder benchmark: "+decoded+" of "+iterations+" reports decoded, "+
+                (elapsedNs / iterations)+" ns per report");
+    }
+}
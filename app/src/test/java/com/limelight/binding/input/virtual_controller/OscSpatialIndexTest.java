@@ -0,0 +1,134 @@
+package com.limelight.binding.input.virtual_controller;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class OscSpatialIndexTest {
+    private static final int WIDTH = 1920, HEIGHT = 1080;
+
+    private static int linearQuery(int[] bounds, int count, float x, float y, int[] results) {
+        int found = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            if (x >= bounds[i * 4] && x < bounds[i * 4 + 2] &&
+                    y >= bounds[i * 4 + 1] && y < bounds[i * 4 + 3]) {
+                results[found++] = i;
+            }
+        }
+        return found;
+    }
+
+    // Places controls anywhere on a 1080p screen, including partly off of it
+    private static int[] randomBounds(Random random, int count) {
+        int[] bounds = new int[count * 4];
+        for (int i = 0; i < count; i++) {
+            int size = 100 + random.nextInt(300);
+            int left = random.nextInt(WIDTH + size) - size / 2;
+            int top = random.nextInt(HEIGHT + size) - size / 2;
+            bounds[i * 4] = left;
+            bounds[i * 4 + 1] = top;
+            bounds[i * 4 + 2] = left + size;
+            bounds[i * 4 + 3] = top + size;
+        }
+        return bounds;
+    }
+
+    private static void assertMatchesLinearScan(OscSpatialIndex index, int[] bounds, int count, float x, float y) {
+        int[] results = new int[count];
+        int[] expected = new int[count];
+        int found = index.query(x, y, results);
+        int expectedCount = linearQuery(bounds, count, x, y, expected);
+
+        assertEquals("hit count at "+x+","+y, expectedCount, found);
+        for (int i = 0; i < found; i++) {
+            assertEquals("hit order at "+x+","+y, expected[i], results[i]);
+        }
+    }
+
+    @Test
+    public void matchesLinearScan() {
+        Random random = new Random(1);
+        OscSpatialIndex index = new OscSpatialIndex();
+
+        // Rebuilding with different counts reuses the index's arrays
+        for (int count : new int[] {1, 24, 64, 8, 0}) {
+            int[] bounds = randomBounds(random, count);
+            index.build(WIDTH, HEIGHT, bounds, count);
+
+            for (int i = 0; i < 20000; i++) {
+                float x = random.nextFloat() * (WIDTH + 200) - 100;
+                float y = random.nextFloat() * (HEIGHT + 200) - 100;
+                assertMatchesLinearScan(index, bounds, count, x, y);
+            }
+        }
+    }
+
+    @Test
+    public void edgesMatchLinearScan() {
+        // Controls that start and end exactly on cell boundaries, one on top of another,
+        // an empty one, and one entirely off the left edge
+        int[] bounds = {
+                0, 0, 128, 128,
+                64, 64, 192, 192,
+                127, 127, 129, 129,
+                200, 200, 200, 300,
+                -50, 100, -10, 150,
+        };
+        int count = bounds.length / 4;
+        OscSpatialIndex index = new OscSpatialIndex();
+        index.build(WIDTH, HEIGHT, bounds, count);
+
+        float[] coordinates = {-20, -0.5f, 0, 63.5f, 64, 120, 127, 127.5f, 128, 128.5f, 191.5f, 192, 200, 250};
+        for (float x : coordinates) {
+            for (float y : coordinates) {
+                assertMatchesLinearScan(index, bounds, count, x, y);
+            }
+        }
+    }
+
+    // Compares the cost of hit-testing random points with the index and with a linear scan
+    @Test
+    public void queryBenchmark() {
+        final int controlCount = 24;
+        final int queries = 1000000;
+        Random random = new Random(2);
+
+        int[] bounds = randomBounds(random, controlCount);
+        OscSpatialIndex index = new OscSpatialIndex();
+        index.build(WIDTH, HEIGHT, bounds, controlCount);
+
+        float[] points = new float[queries * 2];
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] = random.nextFloat() * WIDTH;
+            points[i + 1] = random.nextFloat() * HEIGHT;
+        }
+
+        int[] results = new int[controlCount];
+        long indexHits = 0, linearHits = 0;
+
+        // Warm up the JIT before timing
+        for (int i = 0; i < points.length / 10; i += 2) {
+            index.query(points[i], points[i + 1], results);
+            linearQuery(bounds, controlCount, points[i], points[i + 1], results);
+        }
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < points.length; i += 2) {
+            indexHits += index.query(points[i], points[i + 1], results);
+        }
+        long indexNs = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        for (int i = 0; i < points.length; i += 2) {
+            linearHits += linearQuery(bounds, controlCount, points[i], points[i + 1], results);
+        }
+        long linearNs = System.nanoTime() - startTime;
+
+        assertEquals(linearHits, indexHits);
+        System.out.println("OSC hit-test benchmark: "+controlCount+" controls, "+indexHits+" hits, "+
+                (indexNs / queries)+" ns per query with the index, "+
+                (linearNs / queries)+" ns per query scanning every control");
+    }
+}
@@ -0,0 +1,446 @@
+package com.limelight.binding.video;
+
+import android.media.MediaCodec;
+import android.media.MediaCodec.BufferInfo;
+import android.media.MediaFormat;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+// An in-memory stand-in for a hardware decoder. It doesn't decode anything; each queued
+// frame simply becomes an output buffer once the configured decode latency has elapsed
+// and an output buffer is free. Input buffers stay owned by the codec until their frame
+// is "decoded", so back-pressure behaves like a real decoder.
+//
+// Faults are injected through a Behavior object that is shared by all codecs created by
+// the same factory, so a run can be scripted across the renderer's codec recovery.
+public class FakeVideoDecoderCodec implements VideoDecoderCodec {
+    public static class Behavior {
+        public volatile int inputBufferCount = 4;
+        public volatile int inputBufferSize = 2 * 1024 * 1024;
+        public volatile int outputBufferCount = 4;
+
+        // Time between queuing a frame and it becoming available as output
+        public volatile long decodeLatencyUs = 0;
+
+        // After this many frames, the codec stops returning input and output buffers
+        // until it is reset or released. Zero or less disables the hang.
+        public volatile int hangAfterFrames = 0;
+
+        // After this many frames, the next codec call throws an IllegalStateException
+        // (once per codec instance). Zero or less disables the exception.
+        public volatile int throwAfterFrames = 0;
+
+        // Totals across all codecs created with this behavior
+        public volatile int codecsCreated;
+        public volatile int framesQueued;
+        public volatile int framesRendered;
+        public volatile int framesDropped;
+        public volatile int exceptionsThrown;
+    }
+
+    public static Factory createFactory(final Behavior behavior) {
+        return new Factory() {
+            @Override
+            public VideoDecoderCodec createByCodecName(String name) {
+                return new FakeVideoDecoderCodec(behavior);
+            }
+        };
+    }
+
+    private static final int STATE_UNCONFIGURED = 0;
+    private static final int STATE_CONFIGURED = 1;
+    private static final int STATE_STARTED = 2;
+    private static final int STATE_RELEASED = 3;
+
+    private final Behavior behavior;
+    private final Object lock = new Object();
+
+    private int state = STATE_UNCONFIGURED;
+    private MediaFormat format;
+    private OnFrameRenderedListener frameRenderedListener;
+
+    private ByteBuffer[] inputBuffers;
+    private boolean[] inputBufferOwnedByClient;
+    private long[] inputPresentationTimeUs;
+    private long[] inputReadyTimeNs;
+    private final ArrayDeque<Integer> freeInputBuffers = new ArrayDeque<>();
+    private final ArrayDeque<Integer> decodingInputBuffers = new ArrayDeque<>();
+
+    private boolean[] outputBufferOwnedByClient;
+    private long[] outputPresentationTimeUs;
+    private final ArrayDeque<Integer> freeOutputBuffers = new ArrayDeque<>();
+    private final ArrayDeque<Integer> decodedOutputBuffers = new ArrayDeque<>();
+
+    private boolean outputFormatReported;
+    private int framesQueued;
+    private boolean thrown;
+
+    public FakeVideoDecoderCodec(Behavior behavior) {
+        this.behavior = behavior;
+        behavior.codecsCreated++;
+    }
+
+    private void checkState(int requiredState) {
+        if (state != requiredState) {
+            throw new IllegalStateException("Invalid codec state: "+state);
+        }
+    }
+
+    private void maybeThrowInjectedException() {
+        int throwAfterFrames = behavior.throwAfterFrames;
+        if (throwAfterFrames > 0 && framesQueued >= throwAfterFrames && !thrown) {
+            thrown = true;
+            behavior.exceptionsThrown++;
+            throw new IllegalStateException("Injected decoder failure after "+framesQueued+" frames");
+        }
+    }
+
+    private boolean isHung() {
+        int hangAfterFrames = behavior.hangAfterFrames;
+        return hangAfterFrames > 0 && framesQueued >= hangAfterFrames;
+    }
+
+    private void resetBuffers() {
+        freeInputBuffers.clear();
+        decodingInputBuffers.clear();
+        freeOutputBuffers.clear();
+        decodedOutputBuffers.clear();
+
+        for (int i = 0; i < inputBuffers.length; i++) {
+            inputBuffers[i].clear();
+            inputBufferOwnedByClient[i] = false;
+            freeInputBuffers.add(i);
+        }
+        for (int i = 0; i < outputBufferOwnedByClient.length; i++) {
+            outputBufferOwnedByClient[i] = false;
+            freeOutputBuffers.add(i);
+        }
+
+        outputFormatReported = false;
+    }
+
+    // Moves frames whose decode latency has elapsed into free output buffers.
+    // Returns the time the next frame will be ready or Long.MAX_VALUE if none.
+    private long decodePendingFrames(long nowNs) {
+        while (!decodingInputBuffers.isEmpty() && !freeOutputBuffers.isEmpty()) {
+            int inputIndex = decodingInputBuffers.peek();
+            if (inputReadyTimeNs[inputIndex] - nowNs > 0) {
+                return inputReadyTimeNs[inputIndex];
+            }
+
+            decodingInputBuffers.poll();
+            inputBuffers[inputIndex].clear();
+            freeInputBuffers.add(inputIndex);
+
+            int outputIndex = freeOutputBuffers.poll();
+            outputPresentationTimeUs[outputIndex] = inputPresentationTimeUs[inputIndex];
+            decodedOutputBuffers.add(outputIndex);
+        }
+
+        return Long.MAX_VALUE;
+    }
+
+    // Waits until the deadline, the next frame is ready, or we're notified.
+    // Returns false if the deadline has passed.
+    private boolean waitForBuffers(long deadlineNs, long nextReadyTimeNs) throws InterruptedException {
+        long nowNs = System.nanoTime();
+        if (deadlineNs != Long.MAX_VALUE && deadlineNs - nowNs <= 0) {
+            return false;
+        }
+
+        long waitUntilNs = deadlineNs;
+        if (nextReadyTimeNs != Long.MAX_VALUE && (waitUntilNs == Long.MAX_VALUE || nextReadyTimeNs - waitUntilNs < 0)) {
+            waitUntilNs = nextReadyTimeNs;
+        }
+
+        if (waitUntilNs == Long.MAX_VALUE) {
+            lock.wait();
+        }
+        else {
+            long waitNs = waitUntilNs - nowNs;
+            if (waitNs > 0) {
+                lock.wait(waitNs / 1000000, (int)(waitNs % 1000000));
+            }
+        }
+
+        return true;
+    }
+
+    private static long getDeadlineNs(long timeoutUs) {
+        return timeoutUs < 0 ? Long.MAX_VALUE : System.nanoTime() + timeoutUs * 1000;
+    }
+
+    @Override
+    public void configure(MediaFormat format, Surface surface) {
+        synchronized (lock) {
+            checkState(STATE_UNCONFIGURED);
+
+            int inputBufferCount = behavior.inputBufferCount;
+            int outputBufferCount = behavior.outputBufferCount;
+
+            inputBuffers = new ByteBuffer[inputBufferCount];
+            for (int i = 0; i < inputBufferCount; i++) {
+                inputBuffers[i] = ByteBuffer.allocate(behavior.inputBufferSize);
+            }
+            inputBufferOwnedByClient = new boolean[inputBufferCount];
+            inputPresentationTimeUs = new long[inputBufferCount];
+            inputReadyTimeNs = new long[inputBufferCount];
+
+            outputBufferOwnedByClient = new boolean[outputBufferCount];
+            outputPresentationTimeUs = new long[outputBufferCount];
+
+            this.format = format;
+            state = STATE_CONFIGURED;
+        }
+    }
+
+    @Override
+    public void setOutputSurface(Surface surface) {
+        synchronized (lock) {
+            if (state == STATE_UNCONFIGURED || state == STATE_RELEASED) {
+                throw new IllegalStateException("Codec is not configured");
+            }
+        }
+    }
+
+    @Override
+    public void setVideoScalingMode(int mode) {
+        // Nothing to scale
+    }
+
+    @Override
+    public void start() {
+        synchronized (lock) {
+            checkState(STATE_CONFIGURED);
+            resetBuffers();
+            state = STATE_STARTED;
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (lock) {
+            if (state == STATE_RELEASED) {
+                throw new IllegalStateException("Codec is released");
+            }
+
+            if (state == STATE_STARTED) {
+                resetBuffers();
+                state = STATE_CONFIGURED;
+            }
+            framesQueued = 0;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void reset() {
+        synchronized (lock) {
+            if (state == STATE_RELEASED) {
+                throw new IllegalStateException("Codec is released");
+            }
+
+            state = STATE_UNCONFIGURED;
+            format = null;
+            framesQueued = 0;
+            thrown = false;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void release() {
+        synchronized (lock) {
+            state = STATE_RELEASED;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public MediaFormat getInputFormat() {
+        synchronized (lock) {
+            if (state != STATE_CONFIGURED && state != STATE_STARTED) {
+                throw new IllegalStateException("Codec is not configured");
+            }
+            return format;
+        }
+    }
+
+    @Override
+    public MediaFormat getOutputFormat() {
+        return getInputFormat();
+    }
+
+    @Override
+    public ByteBuffer[] getInputBuffers() {
+        synchronized (lock) {
+            checkState(STATE_STARTED);
+            return inputBuffers;
+        }
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        long deadlineNs = getDeadlineNs(timeoutUs);
+
+        synchronized (lock) {
+            try {
+                for (;;) {
+                    checkState(STATE_STARTED);
+                    maybeThrowInjectedException();
+
+                    long nextReadyTimeNs = Long.MAX_VALUE;
+                    if (!isHung()) {
+                        nextReadyTimeNs = decodePendingFrames(System.nanoTime());
+
+                        Integer index = freeInputBuffers.poll();
+                        if (index != null) {
+                            inputBufferOwnedByClient[index] = true;
+                            return index;
+                        }
+                    }
+
+                    if (!waitForBuffers(deadlineNs, nextReadyTimeNs)) {
+                        return MediaCodec.INFO_TRY_AGAIN_LATER;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return MediaCodec.INFO_TRY_AGAIN_LATER;
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        synchronized (lock) {
+            checkState(STATE_STARTED);
+            if (index < 0 || index >= inputBuffers.length || !inputBufferOwnedByClient[index]) {
+                return null;
+            }
+            return inputBuffers[index];
+        }
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        synchronized (lock) {
+            checkState(STATE_STARTED);
+            maybeThrowInjectedException();
+
+            if (index < 0 || index >= inputBuffers.length || !inputBufferOwnedByClient[index]) {
+                throw new IllegalStateException("Input buffer "+index+" is not owned by the client");
+            }
+            inputBufferOwnedByClient[index] = false;
+
+            if ((flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                // Codec config data doesn't produce any output
+                inputBuffers[index].clear();
+                freeInputBuffers.add(index);
+            }
+            else {
+                framesQueued++;
+                behavior.framesQueued++;
+
+                inputPresentationTimeUs[index] = presentationTimeUs;
+                inputReadyTimeNs[index] = System.nanoTime() + behavior.decodeLatencyUs * 1000;
+                decodingInputBuffers.add(index);
+            }
+
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public int dequeueOutputBuffer(BufferInfo info, long timeoutUs) {
+        long deadlineNs = getDeadlineNs(timeoutUs);
+
+        synchronized (lock) {
+            try {
+                for (;;) {
+                    checkState(STATE_STARTED);
+                    maybeThrowInjectedException();
+
+                    if (!outputFormatReported) {
+                        outputFormatReported = true;
+                        return MediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
+                    }
+
+                    long nextReadyTimeNs = Long.MAX_VALUE;
+                    if (!isHung()) {
+                        nextReadyTimeNs = decodePendingFrames(System.nanoTime());
+
+                        Integer index = decodedOutputBuffers.poll();
+                        if (index != null) {
+                            outputBufferOwnedByClient[index] = true;
+
+                            // BufferInfo.set() would throw in an Android stub environment
+                            info.offset = 0;
+                            info.size = 0;
+                            info.presentationTimeUs = outputPresentationTimeUs[index];
+                            info.flags = 0;
+                            return index;
+                        }
+                    }
+
+                    if (!waitForBuffers(deadlineNs, nextReadyTimeNs)) {
+                        return MediaCodec.INFO_TRY_AGAIN_LATER;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return MediaCodec.INFO_TRY_AGAIN_LATER;
+            }
+        }
+    }
+
+    private void releaseOutputBufferInternal(int index, boolean render) {
+        OnFrameRenderedListener listener;
+        long presentationTimeUs;
+
+        synchronized (lock) {
+            checkState(STATE_STARTED);
+
+            if (index < 0 || index >= outputBufferOwnedByClient.length || !outputBufferOwnedByClient[index]) {
+                throw new IllegalStateException("Output buffer "+index+" is not owned by the client");
+            }
+            outputBufferOwnedByClient[index] = false;
+            freeOutputBuffers.add(index);
+
+            if (render) {
+                behavior.framesRendered++;
+            }
+            else {
+                behavior.framesDropped++;
+            }
+
+            listener = frameRenderedListener;
+            presentationTimeUs = outputPresentationTimeUs[index];
+            lock.notifyAll();
+        }
+
+        // Don't call out while holding our lock
+        if (render && listener != null) {
+            listener.onFrameRendered(presentationTimeUs, System.nanoTime());
+        }
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        releaseOutputBufferInternal(index, render);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, long renderTimestampNs) {
+        releaseOutputBufferInternal(index, true);
+    }
+
+    @Override
+    public void setOnFrameRenderedListener(OnFrameRenderedListener listener) {
+        synchronized (lock) {
+            frameRenderedListener = listener;
+        }
+    }
+}
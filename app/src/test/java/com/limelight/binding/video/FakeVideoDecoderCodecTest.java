@@ -0,0 +1,143 @@
+package com.limelight.binding.video;
+
+import android.media.MediaCodec;
+import android.media.MediaCodec.BufferInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FakeVideoDecoderCodecTest {
+    private FakeVideoDecoderCodec.Behavior behavior;
+    private VideoDecoderCodec codec;
+
+    @Before
+    public void setUp() throws Exception {
+        behavior = new FakeVideoDecoderCodec.Behavior();
+        behavior.inputBufferSize = 1024;
+        codec = FakeVideoDecoderCodec.createFactory(behavior).createByCodecName("fake");
+        codec.configure(null, null);
+        codec.start();
+    }
+
+    private void queueFrame(long presentationTimeUs) {
+        int index = codec.dequeueInputBuffer(0);
+        assertTrue("no input buffer", index >= 0);
+        codec.getInputBuffer(index).put((byte) 1);
+        codec.queueInputBuffer(index, 0, 1, presentationTimeUs, 0);
+    }
+
+    // Returns the next output buffer index, skipping the initial format change
+    private int dequeueOutput(BufferInfo info, long timeoutUs) {
+        int index = codec.dequeueOutputBuffer(info, timeoutUs);
+        if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            index = codec.dequeueOutputBuffer(info, timeoutUs);
+        }
+        return index;
+    }
+
+    @Test
+    public void framesComeOutInOrder() {
+        BufferInfo info = new BufferInfo();
+        for (int i = 0; i < 100; i++) {
+            queueFrame(i);
+            int index = dequeueOutput(info, 0);
+            assertTrue(index >= 0);
+            assertEquals(i, info.presentationTimeUs);
+            codec.releaseOutputBuffer(index, true);
+        }
+        assertEquals(100, behavior.framesRendered);
+    }
+
+    @Test
+    public void codecConfigProducesNoOutput() {
+        int index = codec.dequeueInputBuffer(0);
+        codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+        assertEquals(MediaCodec.INFO_TRY_AGAIN_LATER, dequeueOutput(new BufferInfo(), 0));
+        assertEquals(0, behavior.framesQueued);
+    }
+
+    @Test
+    public void outputWaitsForDecodeLatency() {
+        behavior.decodeLatencyUs = 50000;
+        BufferInfo info = new BufferInfo();
+
+        long startNs = System.nanoTime();
+        queueFrame(1);
+        assertEquals(MediaCodec.INFO_TRY_AGAIN_LATER, dequeueOutput(info, 0));
+
+        int index = dequeueOutput(info, 1000000);
+        long elapsedUs = (System.nanoTime() - startNs) / 1000;
+        assertTrue(index >= 0);
+        assertTrue("output after "+elapsedUs+" us", elapsedUs >= behavior.decodeLatencyUs);
+    }
+
+    @Test
+    public void inputBuffersApplyBackPressure() {
+        // Nothing is dequeued from the output side, so once every output buffer
+        // is full, decoded frames can't free their input buffers.
+        for (int i = 0; i < behavior.inputBufferCount + behavior.outputBufferCount; i++) {
+            queueFrame(i);
+        }
+        assertEquals(MediaCodec.INFO_TRY_AGAIN_LATER, codec.dequeueInputBuffer(1000));
+    }
+
+    @Test
+    public void hangStopsAllBuffersUntilReset() throws Exception {
+        behavior.hangAfterFrames = 3;
+        BufferInfo info = new BufferInfo();
+        for (int i = 0; i < 3; i++) {
+            queueFrame(i);
+        }
+
+        assertEquals(MediaCodec.INFO_TRY_AGAIN_LATER, codec.dequeueInputBuffer(1000));
+        assertEquals(MediaCodec.INFO_TRY_AGAIN_LATER, dequeueOutput(info, 1000));
+
+        codec.reset();
+        codec.configure(null, null);
+        codec.start();
+        queueFrame(10);
+        assertTrue(dequeueOutput(info, 0) >= 0);
+        assertEquals(10, info.presentationTimeUs);
+    }
+
+    @Test
+    public void exceptionIsThrownOncePerCodec() throws Exception {
+        behavior.throwAfterFrames = 2;
+        queueFrame(0);
+        queueFrame(1);
+
+        try {
+            codec.dequeueInputBuffer(0);
+            fail("expected an injected exception");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals(1, behavior.exceptionsThrown);
+
+        // The renderer recovers by creating a fresh codec from the same factory
+        codec.release();
+        codec = FakeVideoDecoderCodec.createFactory(behavior).createByCodecName("fake");
+        codec.configure(null, null);
+        codec.start();
+        queueFrame(2);
+        queueFrame(3);
+        try {
+            codec.dequeueInputBuffer(0);
+            fail("expected an injected exception");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals(2, behavior.exceptionsThrown);
+        assertEquals(2, behavior.codecsCreated);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releasedCodecRejectsCalls() {
+        codec.release();
+        codec.dequeueInputBuffer(0);
+    }
+}
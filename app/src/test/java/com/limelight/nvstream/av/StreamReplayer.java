@@ -0,0 +1,279 @@
+package com.limelight.nvstream.av;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.av.audio.AudioRenderer;
+import com.limelight.nvstream.av.video.VideoDecoderRenderer;
+import com.limelight.nvstream.jni.MoonBridge;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+// Feeds a file written by StreamRecorder into a VideoDecoderRenderer and/or AudioRenderer
+// just like MoonBridge would during a real stream. This has no Android dependencies, so
+// it can be used to benchmark the Java-side pipeline headlessly.
+//
+// NB: Receive and enqueue timestamps are regenerated from System.nanoTime(), which uses
+// the same clock as SystemClock.uptimeMillis() on Android.
+public class StreamReplayer {
+    private static final int INPUT_BUFFER_SIZE = 1024 * 1024;
+
+    public static class Stats {
+        public int decodeUnits;
+        public int frames;
+        public int idrRequests;
+        public int audioSamples;
+        public long elapsedMs;
+
+        @Override
+        public String toString() {
+            return decodeUnits+" decode units, "+frames+" frames, "+idrRequests+" IDR requests, "+
+                    audioSamples+" audio samples in "+elapsedMs+" ms";
+        }
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private DataInputStream in;
+
+    private int[] idrFrameNumbers;
+    private long[] idrOffsets;
+
+    private byte[] decodeUnitBuffer = new byte[128 * 1024];
+    private short[] audioBuffer;
+
+    public StreamReplayer(File file) throws IOException {
+        this.file = file;
+        this.channel = new FileInputStream(file).getChannel();
+
+        readIndex();
+
+        seek(0);
+        if (in.readInt() != StreamRecorder.FILE_MAGIC) {
+            throw new IOException("Not a stream recording: "+file);
+        }
+        if (in.readInt() != StreamRecorder.FILE_VERSION) {
+            throw new IOException("Unsupported stream recording version: "+file);
+        }
+    }
+
+    private void readIndex() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // Trailer is the index offset (8 bytes) followed by the magic (4 bytes)
+            if (raf.length() < 12) {
+                return;
+            }
+            raf.seek(raf.length() - 12);
+            long indexOffset = raf.readLong();
+            if (raf.readInt() != StreamRecorder.TRAILER_MAGIC) {
+                LimeLog.warning("Stream recording has no index; it was probably not closed cleanly");
+                return;
+            }
+
+            raf.seek(indexOffset);
+            int idrCount = raf.readInt();
+            idrFrameNumbers = new int[idrCount];
+            idrOffsets = new long[idrCount];
+            for (int i = 0; i < idrCount; i++) {
+                idrFrameNumbers[i] = raf.readInt();
+                idrOffsets[i] = raf.readLong();
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void seek(long offset) throws IOException {
+        channel.position(offset);
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), INPUT_BUFFER_SIZE));
+    }
+
+    public int getIdrFrameCount() {
+        return idrOffsets != null ? idrOffsets.length : 0;
+    }
+
+    // Returns the index of the first indexed IDR frame after the given frame number, or -1
+    private int findNextIdr(int frameNumber) {
+        if (idrFrameNumbers == null) {
+            return -1;
+        }
+
+        for (int i = 0; i < idrFrameNumbers.length; i++) {
+            if (idrFrameNumbers[i] > frameNumber) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static void waitUntil(long targetTimeNs) throws InterruptedException {
+        long remainingNs;
+        while ((remainingNs = targetTimeNs - System.nanoTime()) > 0) {
+            Thread.sleep(remainingNs / 1000000, (int)(remainingNs % 1000000));
+        }
+    }
+
+    // Replays the recording from the start. A speed of 1.0 replays at the original pace,
+    // larger values replay proportionally faster, and 0 replays as fast as possible.
+    // Either renderer may be null to skip that part of the stream.
+    public Stats replay(VideoDecoderRenderer videoRenderer, AudioRenderer audioRenderer, float speed)
+            throws IOException, InterruptedException {
+        Stats stats = new Stats();
+        boolean videoStarted = false, audioStarted = false;
+        boolean waitingForIdr = false;
+        long replayStartTimeNs = System.nanoTime();
+        long seekTimeOffsetUs = 0;
+
+        seek(8);
+
+        try {
+            for (;;) {
+                byte type = in.readByte();
+                long captureTimeUs = in.readLong() - seekTimeOffsetUs;
+
+                if (type == StreamRecorder.RECORD_END) {
+                    break;
+                }
+
+                if (speed > 0) {
+                    waitUntil(replayStartTimeNs + (long)(captureTimeUs * 1000 / speed));
+                }
+
+                switch (type) {
+                    case StreamRecorder.RECORD_VIDEO_SETUP: {
+                        int videoFormat = in.readInt();
+                        int width = in.readInt();
+                        int height = in.readInt();
+                        int redrawRate = in.readInt();
+                        if (videoRenderer != null && !videoStarted) {
+                            if (videoRenderer.setup(videoFormat, width, height, redrawRate) != 0) {
+                                throw new IOException("Video renderer setup failed");
+                            }
+                            videoRenderer.start();
+                            videoStarted = true;
+                        }
+                        break;
+                    }
+
+                    case StreamRecorder.RECORD_DECODE_UNIT: {
+                        int decodeUnitType = in.readByte();
+                        int frameNumber = in.readInt();
+                        int frameType = in.readByte();
+                        int receiveAgeMs = in.readInt();
+                        int enqueueAgeMs = in.readInt();
+                        int decodeUnitLength = in.readInt();
+
+                        if (decodeUnitLength > decodeUnitBuffer.length) {
+                            decodeUnitBuffer = new byte[decodeUnitLength];
+                        }
+                        in.readFully(decodeUnitBuffer, 0, decodeUnitLength);
+
+                        if (videoRenderer == null) {
+                            break;
+                        }
+
+                        // Drop everything until the next IDR frame if the renderer asked for one
+                        if (waitingForIdr) {
+                            if (frameType != MoonBridge.FRAME_TYPE_IDR) {
+                                break;
+                            }
+                            waitingForIdr = false;
+                        }
+
+                        long nowMs = System.nanoTime() / 1000000;
+                        int ret = videoRenderer.submitDecodeUnit(decodeUnitBuffer, decodeUnitLength,
+                                decodeUnitType, frameNumber, frameType,
+                                nowMs - receiveAgeMs, nowMs - enqueueAgeMs);
+
+                        stats.decodeUnits++;
+                        if (decodeUnitType == MoonBridge.BUFFER_TYPE_PICDATA) {
+                            stats.frames++;
+                        }
+
+                        if (ret == MoonBridge.DR_NEED_IDR) {
+                            stats.idrRequests++;
+                            waitingForIdr = true;
+
+                            // Jump straight to the next IDR frame if we have an index. We keep
+                            // the pacing continuous by treating the skipped time as elapsed.
+                            int idrIndex = findNextIdr(frameNumber);
+                            if (idrIndex >= 0) {
+                                seek(idrOffsets[idrIndex]);
+                                in.readByte();
+                                long idrCaptureTimeUs = in.readLong() - seekTimeOffsetUs;
+                                seekTimeOffsetUs += idrCaptureTimeUs - captureTimeUs;
+                                seek(idrOffsets[idrIndex]);
+                            }
+                        }
+                        break;
+                    }
+
+                    case StreamRecorder.RECORD_AUDIO_SETUP: {
+                        int channelCount = in.readInt();
+                        int channelMask = in.readInt();
+                        int sampleRate = in.readInt();
+                        int samplesPerFrame = in.readInt();
+                        if (audioRenderer != null && !audioStarted) {
+                            if (audioRenderer.setup(new MoonBridge.AudioConfiguration(channelCount, channelMask),
+                                    sampleRate, samplesPerFrame) != 0) {
+                                throw new IOException("Audio renderer setup failed");
+                            }
+                            audioRenderer.start();
+                            audioStarted = true;
+                        }
+                        break;
+                    }
+
+                    case StreamRecorder.RECORD_AUDIO_SAMPLE: {
+                        int sampleCount = in.readInt();
+
+                        // Reuse the sample array like the native bridge does
+                        if (audioBuffer == null || audioBuffer.length != sampleCount) {
+                            audioBuffer = new short[sampleCount];
+                        }
+                        for (int i = 0; i < sampleCount; i++) {
+                            audioBuffer[i] = in.readShort();
+                        }
+
+                        if (audioRenderer != null && audioStarted) {
+                            audioRenderer.playDecodedAudio(audioBuffer);
+                            stats.audioSamples += sampleCount;
+                        }
+                        break;
+                    }
+
+                    default:
+                        throw new IOException("Unknown record type: "+type);
+                }
+            }
+        } catch (EOFException e) {
+            // Recording was not closed cleanly, so the last record may be cut off
+            LimeLog.warning("Stream recording ended without an end record");
+        } finally {
+            if (videoStarted) {
+                videoRenderer.stop();
+                videoRenderer.cleanup();
+            }
+            if (audioStarted) {
+                audioRenderer.stop();
+                audioRenderer.cleanup();
+            }
+        }
+
+        stats.elapsedMs = (System.nanoTime() - replayStartTimeNs) / 1000000;
+        LimeLog.info("Replay complete: "+stats);
+        return stats;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
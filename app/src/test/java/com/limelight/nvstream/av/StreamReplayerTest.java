@@ -0,0 +1,252 @@
+package com.limelight.nvstream.av;
+
+import com.limelight.nvstream.av.audio.AudioRenderer;
+import com.limelight.nvstream.av.video.VideoDecoderRenderer;
+import com.limelight.nvstream.jni.MoonBridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamReplayerTest {
+    private static final int FRAME_COUNT = 120;
+    private static final int IDR_INTERVAL = 30;
+
+    private File file;
+
+    private static class RecordingVideoRenderer extends VideoDecoderRenderer {
+        final List<byte[]> decodeUnits = new ArrayList<>();
+        final List<Integer> frameNumbers = new ArrayList<>();
+        int setupWidth, setupHeight, setupRedrawRate;
+        boolean started, stopped, cleanedUp;
+
+        // Frame number that reports corrupt data once, or -1
+        int needIdrAtFrame = -1;
+
+        @Override
+        public int setup(int format, int width, int height, int redrawRate) {
+            setupWidth = width;
+            setupHeight = height;
+            setupRedrawRate = redrawRate;
+            return 0;
+        }
+
+        @Override
+        public void start() {
+            started = true;
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public int submitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
+                                    int frameNumber, int frameType, long receiveTimeMs, long enqueueTimeMs) {
+            decodeUnits.add(Arrays.copyOf(decodeUnitData, decodeUnitLength));
+            frameNumbers.add(frameNumber);
+            if (frameNumber == needIdrAtFrame) {
+                needIdrAtFrame = -1;
+                return MoonBridge.DR_NEED_IDR;
+            }
+            return MoonBridge.DR_OK;
+        }
+
+        @Override
+        public void cleanup() {
+            cleanedUp = true;
+        }
+
+        @Override
+        public int getCapabilities() {
+            return 0;
+        }
+
+        @Override
+        public void setHdrMode(boolean enabled) {
+        }
+    }
+
+    private static class RecordingAudioRenderer implements AudioRenderer {
+        final List<short[]> samples = new ArrayList<>();
+        int channelCount, sampleRate, samplesPerFrame;
+        boolean cleanedUp;
+
+        @Override
+        public int setup(MoonBridge.AudioConfiguration audioConfiguration, int sampleRate, int samplesPerFrame) {
+            this.channelCount = audioConfiguration.channelCount;
+            this.sampleRate = sampleRate;
+            this.samplesPerFrame = samplesPerFrame;
+            return 0;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void playDecodedAudio(short[] audioData) {
+            samples.add(audioData.clone());
+        }
+
+        @Override
+        public void cleanup() {
+            cleanedUp = true;
+        }
+    }
+
+    private static byte[] makeDecodeUnit(int frameNumber) {
+        byte[] data = new byte[100 + (frameNumber * 37) % 900];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (frameNumber + i);
+        }
+        return data;
+    }
+
+    private static short[] makeAudioSample(int frame) {
+        short[] samples = new short[240 * 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (frame * 1000 - i * 31);
+        }
+        return samples;
+    }
+
+    private static int frameTypeOf(int frameNumber) {
+        return (frameNumber - 1) % IDR_INTERVAL == 0 ? MoonBridge.FRAME_TYPE_IDR : MoonBridge.FRAME_TYPE_PFRAME;
+    }
+
+    private void recordStream() throws Exception {
+        StreamRecorder recorder = new StreamRecorder(file);
+        recorder.recordVideoSetup(MoonBridge.VIDEO_FORMAT_H264, 1920, 1080, 60);
+        recorder.recordAudioSetup(new MoonBridge.AudioConfiguration(2, 0x3), 48000, 240);
+
+        long nowMs = System.nanoTime() / 1000000;
+        for (int frameNumber = 1; frameNumber <= FRAME_COUNT; frameNumber++) {
+            byte[] data = makeDecodeUnit(frameNumber);
+            recorder.recordDecodeUnit(data, data.length, MoonBridge.BUFFER_TYPE_PICDATA,
+                    frameNumber, frameTypeOf(frameNumber), nowMs, nowMs);
+            recorder.recordAudioSample(makeAudioSample(frameNumber));
+        }
+
+        recorder.close();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("replay", ".mlrec");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void replayReproducesRecording() throws Exception {
+        recordStream();
+
+        RecordingVideoRenderer video = new RecordingVideoRenderer();
+        RecordingAudioRenderer audio = new RecordingAudioRenderer();
+        StreamReplayer replayer = new StreamReplayer(file);
+        StreamReplayer.Stats stats = replayer.replay(video, audio, 0);
+        replayer.close();
+
+        assertEquals(FRAME_COUNT / IDR_INTERVAL, replayer.getIdrFrameCount());
+        assertEquals(FRAME_COUNT, stats.frames);
+        assertEquals(0, stats.idrRequests);
+
+        assertEquals(1920, video.setupWidth);
+        assertEquals(1080, video.setupHeight);
+        assertEquals(60, video.setupRedrawRate);
+        assertTrue(video.started && video.stopped && video.cleanedUp);
+        assertEquals(FRAME_COUNT, video.decodeUnits.size());
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            assertArrayEquals(makeDecodeUnit(i + 1), video.decodeUnits.get(i));
+        }
+
+        assertEquals(2, audio.channelCount);
+        assertEquals(48000, audio.sampleRate);
+        assertEquals(240, audio.samplesPerFrame);
+        assertTrue(audio.cleanedUp);
+        assertEquals(FRAME_COUNT, audio.samples.size());
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            assertArrayEquals(makeAudioSample(i + 1), audio.samples.get(i));
+        }
+    }
+
+    @Test
+    public void idrRequestSkipsToNextIdrFrame() throws Exception {
+        recordStream();
+
+        RecordingVideoRenderer video = new RecordingVideoRenderer();
+        video.needIdrAtFrame = 10;
+        StreamReplayer replayer = new StreamReplayer(file);
+        StreamReplayer.Stats stats = replayer.replay(video, null, 0);
+        replayer.close();
+
+        assertEquals(1, stats.idrRequests);
+
+        // Frames 11 to 30 are skipped and replay resumes at the IDR frame 31
+        int index = video.frameNumbers.indexOf(10);
+        assertEquals(31, (int) video.frameNumbers.get(index + 1));
+        assertEquals(FRAME_COUNT - 20, stats.frames);
+    }
+
+    @Test
+    public void truncatedRecordingReplaysSequentially() throws Exception {
+        recordStream();
+
+        // Simulate a crash by cutting off the index and the records that were
+        // still buffered, including part of one record
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() * 2 / 3 + 5);
+        raf.close();
+
+        RecordingVideoRenderer video = new RecordingVideoRenderer();
+        StreamReplayer replayer = new StreamReplayer(file);
+        assertEquals(0, replayer.getIdrFrameCount());
+        StreamReplayer.Stats stats = replayer.replay(video, null, 0);
+        replayer.close();
+
+        assertTrue(stats.frames > 0 && stats.frames < FRAME_COUNT);
+        assertTrue(video.cleanedUp);
+        for (int i = 0; i < video.decodeUnits.size(); i++) {
+            assertArrayEquals(makeDecodeUnit(i + 1), video.decodeUnits.get(i));
+        }
+    }
+
+    @Test
+    public void pacedReplayFollowsCaptureTimes() throws Exception {
+        StreamRecorder recorder = new StreamRecorder(file);
+        recorder.recordVideoSetup(MoonBridge.VIDEO_FORMAT_H264, 1280, 720, 60);
+        for (int frameNumber = 1; frameNumber <= 5; frameNumber++) {
+            byte[] data = makeDecodeUnit(frameNumber);
+            recorder.recordDecodeUnit(data, data.length, MoonBridge.BUFFER_TYPE_PICDATA,
+                    frameNumber, frameTypeOf(frameNumber), 0, 0);
+            Thread.sleep(20);
+        }
+        recorder.close();
+
+        StreamReplayer replayer = new StreamReplayer(file);
+        StreamReplayer.Stats stats = replayer.replay(new RecordingVideoRenderer(), null, 2.0f);
+        replayer.close();
+
+        // Four 20 ms gaps replayed at double speed
+        assertTrue("replay took "+stats.elapsedMs+" ms", stats.elapsedMs >= 40);
+    }
+}
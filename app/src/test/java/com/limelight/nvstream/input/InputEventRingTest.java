@@ -0,0 +1,243 @@
+package com.limelight.nvstream.input;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InputEventRingTest {
+    // These mirror INPUT_RECORD in simplejni.c
+    private static final int RECORD_SIZE = 24;
+    private static final int SHORT_ARGS_OFFSET = 4;
+    private static final byte TYPE_MOUSE_MOVE = 1;
+    private static final byte TYPE_KEYBOARD = 7;
+
+    // Keeps a copy of every batch, since the ring reuses its buffers
+    private static class RecordingSender implements InputEventRing.BatchSender {
+        final List<ByteBuffer> batches = new ArrayList<>();
+
+        @Override
+        public synchronized void sendInputBatch(ByteBuffer buffer, int recordCount) {
+            ByteBuffer copy = ByteBuffer.allocate(recordCount * RECORD_SIZE).order(ByteOrder.nativeOrder());
+            for (int i = 0; i < recordCount * RECORD_SIZE; i++) {
+                copy.put(i, buffer.get(i));
+            }
+            batches.add(copy);
+        }
+
+        synchronized int getRecordCount() {
+            int count = 0;
+            for (ByteBuffer batch : batches) {
+                count += batch.capacity() / RECORD_SIZE;
+            }
+            return count;
+        }
+    }
+
+    // Stands in for the JNI call, so the benchmark measures the ring itself
+    private static class CountingSender implements InputEventRing.BatchSender {
+        long records;
+
+        @Override
+        public void sendInputBatch(ByteBuffer buffer, int recordCount) {
+            records += recordCount;
+        }
+    }
+
+    @Test
+    public void eventsAreSentImmediatelyOutsideBatch() {
+        RecordingSender sender = new RecordingSender();
+        InputEventRing ring = new InputEventRing(null, sender);
+
+        ring.putMouseMove((short)1, (short)2);
+        ring.putKeyboardInput((short)0x41, (byte)3, (byte)0);
+        assertEquals(2, sender.batches.size());
+
+        ByteBuffer move = sender.batches.get(0);
+        assertEquals(TYPE_MOUSE_MOVE, move.get(0));
+        assertEquals(1, move.getShort(SHORT_ARGS_OFFSET));
+        assertEquals(2, move.getShort(SHORT_ARGS_OFFSET + 2));
+
+        ByteBuffer key = sender.batches.get(1);
+        assertEquals(TYPE_KEYBOARD, key.get(0));
+        assertEquals(0x41, key.getShort(SHORT_ARGS_OFFSET));
+    }
+
+    @Test
+    public void batchIsSentOnceWhenClosed() {
+        RecordingSender sender = new RecordingSender();
+        InputEventRing ring = new InputEventRing(null, sender);
+
+        ring.beginBatch();
+        ring.beginBatch();
+        for (short i = 0; i < 10; i++) {
+            ring.putMouseMove(i, (short)0);
+        }
+        ring.endBatch();
+        assertEquals(0, sender.batches.size());
+        ring.endBatch();
+
+        assertEquals(1, sender.batches.size());
+        ByteBuffer batch = sender.batches.get(0);
+        assertEquals(10 * RECORD_SIZE, batch.capacity());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, batch.getShort(i * RECORD_SIZE + SHORT_ARGS_OFFSET));
+        }
+    }
+
+    @Test
+    public void fullBatchesAreSentInOrder() {
+        RecordingSender sender = new RecordingSender();
+        InputEventRing ring = new InputEventRing(null, sender);
+
+        int events = InputEventRing.MAX_RECORDS * 2 + 5;
+        ring.beginBatch();
+        for (short i = 0; i < events; i++) {
+            ring.putMouseMove(i, (short)0);
+        }
+        assertEquals(2, sender.batches.size());
+        ring.endBatch();
+
+        assertEquals(3, sender.batches.size());
+        int next = 0;
+        for (ByteBuffer batch : sender.batches) {
+            for (int offset = 0; offset < batch.capacity(); offset += RECORD_SIZE) {
+                assertEquals(next++, batch.getShort(offset + SHORT_ARGS_OFFSET));
+            }
+        }
+        assertEquals(events, next);
+    }
+
+    @Test
+    public void otherThreadsSendAheadOfOpenBatch() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        final InputEventRing ring = new InputEventRing(null, sender);
+
+        ring.beginBatch();
+        ring.putMouseMove((short)1, (short)0);
+
+        // Another thread's event goes out right away, along with ours ahead of it
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                ring.putMouseMove((short)2, (short)0);
+            }
+        };
+        other.start();
+        other.join();
+        assertEquals(2, sender.getRecordCount());
+
+        ring.putMouseMove((short)3, (short)0);
+        ring.endBatch();
+        assertEquals(3, sender.getRecordCount());
+    }
+
+    @Test
+    public void concurrentEventsKeepPerThreadOrder() throws Exception {
+        final RecordingSender sender = new RecordingSender();
+        final InputEventRing ring = new InputEventRing(null, sender);
+        final int threadCount = 4;
+        final int eventsPerThread = 20000;
+
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final short threadId = (short)t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < eventsPerThread; i++) {
+                        // Some events are batched and some aren't
+                        boolean batched = (i / 100) % 2 == 0;
+                        if (batched && i % 100 == 0) {
+                            ring.beginBatch();
+                        }
+                        ring.putMouseMove(threadId, (short)i);
+                        if (batched && i % 100 == 99) {
+                            ring.endBatch();
+                        }
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        ring.flush();
+
+        int[] nextSequence = new int[threadCount];
+        for (ByteBuffer batch : sender.batches) {
+            for (int offset = 0; offset < batch.capacity(); offset += RECORD_SIZE) {
+                int threadId = batch.getShort(offset + SHORT_ARGS_OFFSET);
+                int sequence = batch.getShort(offset + SHORT_ARGS_OFFSET + 2) & 0xFFFF;
+                assertEquals("thread "+threadId, nextSequence[threadId], sequence);
+                nextSequence[threadId]++;
+            }
+        }
+        for (int t = 0; t < threadCount; t++) {
+            assertEquals(eventsPerThread, nextSequence[t]);
+        }
+    }
+
+    @Test
+    public void latencyIsRecordedPerPath() {
+        InputLatencyTracker tracker = new InputLatencyTracker();
+        InputEventRing ring = new InputEventRing(tracker, new CountingSender());
+
+        long nowMs = System.nanoTime() / 1000000;
+        ring.setEventTime(InputLatencyTracker.PATH_MOUSE, nowMs);
+        ring.putMouseMove((short)1, (short)1);
+        ring.putMouseMove((short)1, (short)1);
+        ring.setEventTime(InputLatencyTracker.PATH_KEYBOARD, nowMs);
+        ring.putKeyboardInput((short)0x41, (byte)3, (byte)0);
+        ring.setEventTime(InputLatencyTracker.PATH_NONE, 0);
+        ring.putMouseMove((short)1, (short)1);
+
+        assertEquals(2, tracker.getWindowCount(InputLatencyTracker.PATH_MOUSE));
+        assertEquals(1, tracker.getWindowCount(InputLatencyTracker.PATH_KEYBOARD));
+    }
+
+    private static long timeEvents(InputEventRing ring, int events, int batchSize) {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < events; i += batchSize) {
+            if (batchSize > 1) {
+                ring.beginBatch();
+            }
+            for (int j = 0; j < batchSize; j++) {
+                ring.putMultiControllerInput((short)0, (short)1, (short)i, (byte)0, (byte)0,
+                        (short)j, (short)-j, (short)0, (short)0);
+            }
+            if (batchSize > 1) {
+                ring.endBatch();
+            }
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    // Measures events/s and the per-event cost of the ring with the JNI call stubbed out
+    @Test
+    public void eventRateBenchmark() {
+        final int events = 2000000;
+
+        for (int batchSize : new int[] {1, 8, InputEventRing.MAX_RECORDS}) {
+            CountingSender sender = new CountingSender();
+            InputEventRing ring = new InputEventRing(null, sender);
+
+            // The first run warms up the JIT and isn't counted
+            timeEvents(ring, events, batchSize);
+            long elapsedNs = timeEvents(ring, events, batchSize);
+
+            assertEquals(2L * events, sender.records);
+            assertTrue(elapsedNs > 0);
+            System.out.println("Input ring benchmark, "+batchSize+" events per batch: "+
+                    (events * 1000000000L / elapsedNs)+" events/s, "+(elapsedNs / events)+" ns/event");
+        }
+    }
+}
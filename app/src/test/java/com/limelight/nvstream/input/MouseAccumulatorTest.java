@@ -0,0 +1,192 @@
+package com.limelight.nvstream.input;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MouseAccumulatorTest {
+    // The synchronized accumulator MouseAccumulator replaced, kept to compare against
+    private static class LockedAccumulator {
+        private short relMouseX, relMouseY, relMouseWidth, relMouseHeight;
+
+        synchronized boolean addMove(short deltaX, short deltaY) {
+            boolean wasEmpty = relMouseX == 0 && relMouseY == 0;
+            relMouseX += deltaX;
+            relMouseY += deltaY;
+            relMouseWidth = 0;
+            relMouseHeight = 0;
+            return wasEmpty;
+        }
+
+        synchronized long takeRelative() {
+            long state = MouseAccumulator.pack(relMouseX, relMouseY, relMouseWidth, relMouseHeight);
+            relMouseX = relMouseY = relMouseWidth = relMouseHeight = 0;
+            return state;
+        }
+    }
+
+    private interface Target {
+        void add();
+        long take();
+    }
+
+    // Runs producers adding motion while a consumer takes it every flushIntervalNs
+    // (or continuously if 0). Returns the elapsed time and adds everything that was
+    // taken to takenX.
+    private static long runContention(final Target target, int producers, final int movesPerProducer,
+                                      final long flushIntervalNs, final AtomicLong takenX) {
+        final Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < movesPerProducer; j++) {
+                        target.add();
+                    }
+                }
+            };
+        }
+
+        final Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    takenX.addAndGet(MouseAccumulator.getField(target.take(), 0));
+                    if (flushIntervalNs > 0) {
+                        LockSupport.parkNanos(flushIntervalNs);
+                    }
+                }
+            }
+        };
+
+        long startTime = System.nanoTime();
+        consumer.start();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            consumer.interrupt();
+            consumer.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        // Pick up anything added after the consumer's last take
+        takenX.addAndGet(MouseAccumulator.getField(target.take(), 0));
+        return System.nanoTime() - startTime;
+    }
+
+    private static Target lockFreeTarget(final MouseAccumulator accumulator) {
+        return new Target() {
+            @Override
+            public void add() {
+                accumulator.addMove((short)1, (short)1);
+            }
+
+            @Override
+            public long take() {
+                return accumulator.takeRelative();
+            }
+        };
+    }
+
+    @Test
+    public void packRoundTrips() {
+        long state = MouseAccumulator.pack((short)-1, (short)32767, (short)-32768, (short)1234);
+        assertEquals(-1, MouseAccumulator.getField(state, 0));
+        assertEquals(32767, MouseAccumulator.getField(state, 1));
+        assertEquals(-32768, MouseAccumulator.getField(state, 2));
+        assertEquals(1234, MouseAccumulator.getField(state, 3));
+    }
+
+    @Test
+    public void movesAccumulateUntilTaken() {
+        MouseAccumulator accumulator = new MouseAccumulator();
+
+        assertTrue(accumulator.addMove((short)3, (short)-4));
+        assertFalse(accumulator.addMove((short)2, (short)1));
+
+        long state = accumulator.takeRelative();
+        assertEquals(5, MouseAccumulator.getField(state, 0));
+        assertEquals(-3, MouseAccumulator.getField(state, 1));
+        assertEquals(0, accumulator.takeRelative());
+        assertTrue(accumulator.addMove((short)1, (short)1));
+    }
+
+    @Test
+    public void positionMovesRestartWhenReferenceSizeChanges() {
+        MouseAccumulator accumulator = new MouseAccumulator();
+
+        accumulator.addMoveAsPosition((short)10, (short)10, (short)1920, (short)1080);
+        accumulator.addMoveAsPosition((short)5, (short)5, (short)1920, (short)1080);
+        long state = accumulator.takeRelative();
+        assertEquals(15, MouseAccumulator.getField(state, 0));
+        assertEquals(1920, MouseAccumulator.getField(state, 2));
+
+        accumulator.addMoveAsPosition((short)10, (short)10, (short)1920, (short)1080);
+        accumulator.addMoveAsPosition((short)7, (short)7, (short)1280, (short)720);
+        state = accumulator.takeRelative();
+        assertEquals(7, MouseAccumulator.getField(state, 0));
+        assertEquals(1280, MouseAccumulator.getField(state, 2));
+    }
+
+    @Test
+    public void absolutePositionKeepsLatest() {
+        MouseAccumulator accumulator = new MouseAccumulator();
+
+        assertTrue(accumulator.setPosition((short)1, (short)2, (short)100, (short)100));
+        assertFalse(accumulator.setPosition((short)3, (short)4, (short)100, (short)100));
+        long state = accumulator.takeAbsolute();
+        assertEquals(3, MouseAccumulator.getField(state, 0));
+        assertEquals(4, MouseAccumulator.getField(state, 1));
+        assertEquals(0, accumulator.takeAbsolute());
+    }
+
+    @Test
+    public void noMotionLostUnderContention() {
+        // Each round adds less than a 16-bit field can hold, so nothing can overflow
+        // even if the consumer doesn't get to run until the end
+        for (int round = 0; round < 50; round++) {
+            AtomicLong takenX = new AtomicLong();
+            runContention(lockFreeTarget(new MouseAccumulator()), 4, 8000, 0, takenX);
+            assertEquals(4 * 8000, takenX.get());
+        }
+    }
+
+    // Compares the cost of adding motion while another thread is flushing at 1 kHz
+    // for the locked and lock-free accumulators
+    @Test
+    public void lockedVsLockFreeBenchmark() {
+        final int producers = 4;
+        final int movesPerProducer = 500000;
+        final long moves = (long)producers * movesPerProducer;
+
+        final LockedAccumulator locked = new LockedAccumulator();
+        long lockedNs = runContention(new Target() {
+            @Override
+            public void add() {
+                locked.addMove((short)1, (short)1);
+            }
+
+            @Override
+            public long take() {
+                return locked.takeRelative();
+            }
+        }, producers, movesPerProducer, 1000000, new AtomicLong());
+
+        long lockFreeNs = runContention(lockFreeTarget(new MouseAccumulator()),
+                producers, movesPerProducer, 1000000, new AtomicLong());
+
+        System.out.println("Mouse accumulator benchmark: "+producers+" producers, "+moves+" moves, "+
+                "locked: "+lockedNs / moves+" ns/move, lock-free: "+lockFreeNs / moves+" ns/move");
+    }
+}
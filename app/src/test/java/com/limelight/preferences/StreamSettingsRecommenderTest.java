@@ -0,0 +1,207 @@
+package com.limelight.preferences;
+
+import com.limelight.preferences.StreamSettingsRecommender.Recommendation;
+import com.limelight.preferences.StreamSettingsRecommender.Session;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class StreamSettingsRecommenderTest {
+    private static Session session(int width, int height, int fps, int bitrateKbps) {
+        Session session = new Session();
+        session.timestamp = 1700000000000L;
+        session.width = width;
+        session.height = height;
+        session.fps = fps;
+        session.bitrateKbps = bitrateKbps;
+        session.totalFrames = StreamSettingsRecommender.MIN_SESSION_FRAMES * 10;
+        session.framesLost = 0;
+        session.decoderLatencyMs = 5;
+        session.rttMs = 10;
+        session.rttVarianceMs = 2;
+        session.inputLatencyMs = 12;
+        return session;
+    }
+
+    private static Session lossySession(int width, int height, int fps, int bitrateKbps) {
+        Session session = session(width, height, fps, bitrateKbps);
+        session.framesLost = session.totalFrames / 20;
+        return session;
+    }
+
+    private static void assertSettings(Recommendation recommendation, int width, int height, int fps, int bitrateKbps) {
+        assertEquals(recommendation.toString(), width, recommendation.width);
+        assertEquals(recommendation.toString(), height, recommendation.height);
+        assertEquals(recommendation.toString(), fps, recommendation.fps);
+        assertEquals(recommendation.toString(), bitrateKbps, recommendation.bitrateKbps);
+    }
+
+    @Test
+    public void parseRoundTrips() {
+        Session original = session(2560, 1440, 120, 40000);
+        original.framesLost = 17;
+        original.rttVarianceMs = -1;
+
+        Session parsed = Session.parse(original.serialize());
+        assertNotNull(parsed);
+        assertEquals(original.serialize(), parsed.serialize());
+        assertEquals(original.timestamp, parsed.timestamp);
+        assertEquals(17, parsed.framesLost);
+        assertEquals(-1, parsed.rttVarianceMs);
+        assertEquals(12, parsed.inputLatencyMs);
+    }
+
+    @Test
+    public void parseAcceptsVersion1() {
+        Session parsed = Session.parse("1,1700000000000,1920,1080,60,20000,6000,3,7,15,4");
+        assertNotNull(parsed);
+        assertEquals(1920, parsed.width);
+        assertEquals(20000, parsed.bitrateKbps);
+        assertEquals(7, parsed.decoderLatencyMs);
+        assertEquals(4, parsed.rttVarianceMs);
+        assertEquals(-1, parsed.inputLatencyMs);
+    }
+
+    @Test
+    public void parseRejectsMalformedSessions() {
+        assertNull(Session.parse(""));
+        assertNull(Session.parse("2,1700000000000,1920,1080,60"));
+        assertNull(Session.parse("2,1700000000000,1920,1080,60,20000,6000,3,7,15,4"));
+        assertNull(Session.parse("1,1700000000000,1920,1080,60,20000,6000,3,7,15,4,9"));
+        assertNull(Session.parse("3,1700000000000,1920,1080,60,20000,6000,3,7,15,4,9"));
+        assertNull(Session.parse("2,1700000000000,1920,1080,sixty,20000,6000,3,7,15,4,9"));
+    }
+
+    @Test
+    public void noHistoryKeepsRequestedSettings() {
+        List<Session> history = new ArrayList<>();
+        assertSettings(StreamSettingsRecommender.recommend(history, 1920, 1080, 60, 20000), 1920, 1080, 60, 20000);
+
+        // Short sessions don't count as history
+        Session shortSession = lossySession(1920, 1080, 60, 20000);
+        shortSession.totalFrames = StreamSettingsRecommender.MIN_SESSION_FRAMES - 1;
+        history.add(shortSession);
+        assertSettings(StreamSettingsRecommender.recommend(history, 1920, 1080, 60, 20000), 1920, 1080, 60, 20000);
+    }
+
+    @Test
+    public void goodSessionKeepsRequestedSettings() {
+        List<Session> history = new ArrayList<>();
+        history.add(lossySession(1920, 1080, 60, 30000));
+        history.add(session(1920, 1080, 60, 20000));
+        assertSettings(StreamSettingsRecommender.recommend(history, 1920, 1080, 60, 20000), 1920, 1080, 60, 20000);
+    }
+
+    @Test
+    public void badSessionFallsBackToBestGoodSettings() {
+        List<Session> history = new ArrayList<>();
+        history.add(session(1280, 720, 60, 10000));
+        history.add(session(1920, 1080, 30, 15000));
+        history.add(session(1920, 1080, 60, 15000));
+        history.add(session(3840, 2160, 60, 15000));
+        history.add(lossySession(1920, 1080, 60, 20000));
+
+        // 4K is better but higher than what was requested
+        assertSettings(StreamSettingsRecommender.recommend(history, 1920, 1080, 60, 20000), 1920, 1080, 60, 15000);
+    }
+
+    @Test
+    public void onlyLatestOutcomeOfSettingsCounts() {
+        List<Session> history = new ArrayList<>();
+        history.add(session(1920, 1080, 60, 15000));
+        history.add(lossySession(1920, 1080, 60, 15000));
+        history.add(session(1280, 720, 60, 10000));
+        history.add(lossySession(1920, 1080, 60, 20000));
+        assertSettings(StreamSettingsRecommender.recommend(history, 1920, 1080, 60, 20000), 1280, 720, 60, 10000);
+    }
+
+    @Test
+    public void nothingGoodBacksOffBitrate() {
+        List<Session> history = new ArrayList<>();
+        history.add(lossySession(1920, 1080, 60, 20000));
+        assertSettings(StreamSettingsRecommender.recommend(history, 1920, 1080, 60, 20000), 1920, 1080, 60, 15000);
+
+        // Backs off from the lowest bitrate already tried, down to the minimum
+        history.add(lossySession(1920, 1080, 60, 15000));
+        history.add(lossySession(1920, 1080, 60, 20000));
+        assertSettings(StreamSettingsRecommender.recommend(history, 1920, 1080, 60, 20000), 1920, 1080, 60, 11250);
+
+        history.add(lossySession(1920, 1080, 60, 600));
+        history.add(lossySession(1920, 1080, 60, 20000));
+        assertSettings(StreamSettingsRecommender.recommend(history, 1920, 1080, 60, 20000),
+                1920, 1080, 60, StreamSettingsRecommender.MIN_BITRATE_KBPS);
+    }
+
+    @Test
+    public void badSettingsAreRetriedEventually() {
+        List<Session> history = new ArrayList<>();
+        history.add(lossySession(1920, 1080, 60, 20000));
+        for (int i = 0; i < StreamSettingsRecommender.RETRY_AFTER_SESSIONS - 1; i++) {
+            history.add(session(1920, 1080, 60, 15000));
+        }
+        assertSettings(StreamSettingsRecommender.recommend(history, 1920, 1080, 60, 20000), 1920, 1080, 60, 15000);
+
+        history.add(session(1920, 1080, 60, 15000));
+        assertSettings(StreamSettingsRecommender.recommend(history, 1920, 1080, 60, 20000), 1920, 1080, 60, 20000);
+    }
+
+    @Test
+    public void rttIsJudgedAgainstBaseline() {
+        // A distant host that always has high RTT is fine
+        List<Session> history = new ArrayList<>();
+        Session distant = session(1920, 1080, 60, 20000);
+        distant.rttMs = 120;
+        distant.rttVarianceMs = 20;
+        history.add(distant);
+        assertSettings(StreamSettingsRecommender.recommend(history, 1920, 1080, 60, 20000), 1920, 1080, 60, 20000);
+
+        // But RTT well above what the host has managed before is a problem
+        Session congested = session(1920, 1080, 60, 20000);
+        congested.rttMs = 120 + StreamSettingsRecommender.MAX_RTT_INCREASE_MS + 1;
+        congested.rttVarianceMs = 20;
+        history.add(congested);
+        assertSettings(StreamSettingsRecommender.recommend(history, 1920, 1080, 60, 20000), 1920, 1080, 60, 15000);
+    }
+
+    @Test
+    public void steadyDecoderLatencyAtHighFrameRateIsNotBackedOff() {
+        // Decoding takes longer than a frame time at 144 FPS on this device, every time
+        List<Session> history = new ArrayList<>();
+        for (int bitrateKbps = 80000; bitrateKbps >= 20000; bitrateKbps -= 20000) {
+            Session session = session(1920, 1080, 144, bitrateKbps);
+            session.decoderLatencyMs = 9;
+            history.add(session);
+        }
+        Session requested = session(1920, 1080, 144, 80000);
+        requested.decoderLatencyMs = 9;
+        history.add(requested);
+
+        assertSettings(StreamSettingsRecommender.recommend(history, 1920, 1080, 144, 80000), 1920, 1080, 144, 80000);
+    }
+
+    @Test
+    public void decoderLatencyIsJudgedPerMode() {
+        List<Session> history = new ArrayList<>();
+
+        // 4K always decodes slower than 1080p, which isn't a problem on its own
+        Session fast = session(1920, 1080, 60, 20000);
+        fast.decoderLatencyMs = 3;
+        history.add(fast);
+        Session slow = session(3840, 2160, 60, 50000);
+        slow.decoderLatencyMs = 14;
+        history.add(slow);
+        assertSettings(StreamSettingsRecommender.recommend(history, 3840, 2160, 60, 50000), 3840, 2160, 60, 50000);
+
+        // A 4K session much slower than 4K usually is
+        Session slower = session(3840, 2160, 60, 50000);
+        slower.decoderLatencyMs = 14 + StreamSettingsRecommender.MAX_DECODER_LATENCY_INCREASE_MS + 1;
+        history.add(slower);
+        assertSettings(StreamSettingsRecommender.recommend(history, 3840, 2160, 60, 50000), 1920, 1080, 60, 20000);
+    }
+}
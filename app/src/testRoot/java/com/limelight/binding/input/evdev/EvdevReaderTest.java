@@ -0,0 +1,173 @@
+package com.limelight.binding.input.evdev;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+
+public class EvdevReaderTest {
+    // Hands out at most maxRead bytes per read, like a socket delivering partial packets
+    private static class ChunkedInputStream extends InputStream {
+        private final ByteArrayInputStream input;
+        private final int maxRead;
+
+        ChunkedInputStream(byte[] data, int maxRead) {
+            this.input = new ByteArrayInputStream(data);
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public int read() {
+            return input.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return input.read(b, off, Math.min(len, maxRead));
+        }
+    }
+
+    // Writes one length-prefixed event with either the 16-byte (32-bit) or 24-byte
+    // (64-bit) struct input_event layout
+    private static void writeEvent(ByteArrayOutputStream stream, int size, short type, short code, int value) {
+        ByteBuffer packet = ByteBuffer.allocate(4 + size).order(ByteOrder.nativeOrder());
+        packet.putInt(size);
+        if (size == EvdevEvent.EVDEV_MAX_EVENT_SIZE) {
+            packet.putLong(0x1111111111111111L);
+            packet.putLong(0x2222222222222222L);
+        }
+        else {
+            packet.putInt(0x11111111);
+            packet.putInt(0x22222222);
+        }
+        packet.putShort(type);
+        packet.putShort(code);
+        packet.putInt(value);
+        stream.write(packet.array(), 0, packet.position());
+    }
+
+    // Groups of REL_X, REL_Y, and EV_SYN with alternating event sizes
+    private static byte[] buildMixedStream(int groups) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < groups; i++) {
+            int size = (i % 3 == 0) ? EvdevEvent.EVDEV_MIN_EVENT_SIZE : EvdevEvent.EVDEV_MAX_EVENT_SIZE;
+            writeEvent(stream, size, EvdevEvent.EV_REL, EvdevEvent.REL_X, i);
+            writeEvent(stream, EvdevEvent.EVDEV_MAX_EVENT_SIZE + EvdevEvent.EVDEV_MIN_EVENT_SIZE - size,
+                    EvdevEvent.EV_REL, EvdevEvent.REL_Y, -i);
+            writeEvent(stream, size, EvdevEvent.EV_SYN, (short)0, 0);
+        }
+        return stream.toByteArray();
+    }
+
+    private static void assertMixedStream(EvdevReader reader, int groups) throws IOException {
+        for (int i = 0; i < groups; i++) {
+            assertEquals(3, reader.readGroup());
+            assertEquals(EvdevEvent.EV_REL, reader.getType(0));
+            assertEquals(EvdevEvent.REL_X, reader.getCode(0));
+            assertEquals(i, reader.getValue(0));
+            assertEquals(EvdevEvent.EV_REL, reader.getType(1));
+            assertEquals(EvdevEvent.REL_Y, reader.getCode(1));
+            assertEquals(-i, reader.getValue(1));
+            assertEquals(EvdevEvent.EV_SYN, reader.getType(2));
+        }
+    }
+
+    @Test
+    public void framesEventsAcrossPartialReads() throws IOException {
+        // Enough groups to wrap the reader's buffer several times
+        int groups = 500;
+        byte[] data = buildMixedStream(groups);
+
+        for (int maxRead = 1; maxRead <= 7; maxRead++) {
+            assertMixedStream(new EvdevReader(new ChunkedInputStream(data, maxRead)), groups);
+        }
+        assertMixedStream(new EvdevReader(new ByteArrayInputStream(data)), groups);
+    }
+
+    @Test
+    public void largeGroupsAreSplit() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        int keys = EvdevReader.MAX_GROUP_EVENTS + 10;
+        for (int i = 0; i < keys; i++) {
+            writeEvent(stream, EvdevEvent.EVDEV_MAX_EVENT_SIZE, EvdevEvent.EV_KEY, (short)i, 1);
+        }
+        writeEvent(stream, EvdevEvent.EVDEV_MAX_EVENT_SIZE, EvdevEvent.EV_SYN, (short)0, 0);
+
+        EvdevReader reader = new EvdevReader(new ChunkedInputStream(stream.toByteArray(), 5));
+        assertEquals(EvdevReader.MAX_GROUP_EVENTS, reader.readGroup());
+        assertEquals(EvdevReader.MAX_GROUP_EVENTS - 1, reader.getCode(EvdevReader.MAX_GROUP_EVENTS - 1));
+        assertEquals(11, reader.readGroup());
+        assertEquals(keys - 1, reader.getCode(9));
+        assertEquals(EvdevEvent.EV_SYN, reader.getType(10));
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidLengthFails() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        writeEvent(stream, EvdevEvent.EVDEV_MAX_EVENT_SIZE, EvdevEvent.EV_REL, EvdevEvent.REL_X, 1);
+        byte[] data = stream.toByteArray();
+        ByteBuffer.wrap(data).order(ByteOrder.nativeOrder()).putInt(0, 20);
+
+        new EvdevReader(new ByteArrayInputStream(data)).readGroup();
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedStreamFails() throws IOException {
+        byte[] data = buildMixedStream(1);
+        byte[] truncated = new byte[data.length - 3];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        new EvdevReader(new ChunkedInputStream(truncated, 3)).readGroup();
+    }
+
+    // Measures reading a synthetic stream of mouse motion like a 1000 Hz mouse produces
+    @Test
+    public void readBenchmark() throws IOException {
+        int groups = 200000;
+        ByteBuffer packet = ByteBuffer.allocate(4 + EvdevEvent.EVDEV_MAX_EVENT_SIZE).order(ByteOrder.nativeOrder());
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        short[][] groupEvents = {
+                {EvdevEvent.EV_REL, EvdevEvent.REL_X},
+                {EvdevEvent.EV_REL, EvdevEvent.REL_Y},
+                {EvdevEvent.EV_SYN, 0},
+        };
+
+        for (int i = 0; i < groups; i++) {
+            for (short[] event : groupEvents) {
+                packet.clear();
+                packet.putInt(EvdevEvent.EVDEV_MAX_EVENT_SIZE);
+                packet.putLong(0);
+                packet.putLong(0);
+                packet.putShort(event[0]);
+                packet.putShort(event[1]);
+                packet.putInt(i & 0xF);
+                stream.write(packet.array(), 0, packet.position());
+            }
+        }
+
+        byte[] data = stream.toByteArray();
+
+        // Warm up the JIT before timing
+        EvdevReader reader = new EvdevReader(new ByteArrayInputStream(data));
+        for (int i = 0; i < groups / 10; i++) {
+            reader.readGroup();
+        }
+
+        reader = new EvdevReader(new ByteArrayInputStream(data));
+        long events = 0;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < groups; i++) {
+            events += reader.readGroup();
+        }
+        long elapsedNs = System.nanoTime() - startTime;
+
+        assertEquals(3L * groups, events);
+        System.out.println("Evdev reader benchmark: "+events+" events in "+groups+" groups, "+
+                (elapsedNs / events)+" ns per event");
+    }
+}